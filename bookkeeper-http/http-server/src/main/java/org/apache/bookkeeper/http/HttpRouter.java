@@ -47,6 +47,7 @@ public abstract class HttpRouter<Handler> {
     public static final String EXPAND_STORAGE               = "/api/v1/bookie/expand_storage";
     public static final String GC                           = "/api/v1/bookie/gc";
     public static final String GC_DETAILS                   = "/api/v1/bookie/gc_details";
+    public static final String INDEX_STATS                  = "/api/v1/bookie/index_stats";
     public static final String BOOKIE_STATE                 = "/api/v1/bookie/state";
     public static final String BOOKIE_STATE_READONLY        = "/api/v1/bookie/state/readonly";
     public static final String BOOKIE_IS_READY              = "/api/v1/bookie/is_ready";
@@ -82,6 +83,7 @@ public abstract class HttpRouter<Handler> {
         this.endpointHandlers.put(EXPAND_STORAGE, handlerFactory.newHandler(HttpServer.ApiType.EXPAND_STORAGE));
         this.endpointHandlers.put(GC, handlerFactory.newHandler(HttpServer.ApiType.GC));
         this.endpointHandlers.put(GC_DETAILS, handlerFactory.newHandler(HttpServer.ApiType.GC_DETAILS));
+        this.endpointHandlers.put(INDEX_STATS, handlerFactory.newHandler(HttpServer.ApiType.INDEX_STATS));
         this.endpointHandlers.put(BOOKIE_STATE, handlerFactory.newHandler(HttpServer.ApiType.BOOKIE_STATE));
         this.endpointHandlers.put(BOOKIE_STATE_READONLY,
                 handlerFactory.newHandler(HttpServer.ApiType.BOOKIE_STATE_READONLY));
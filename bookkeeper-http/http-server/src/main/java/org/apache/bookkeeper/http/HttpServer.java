@@ -81,6 +81,7 @@ public interface HttpServer {
         EXPAND_STORAGE,
         GC,
         GC_DETAILS,
+        INDEX_STATS,
         BOOKIE_STATE,
         BOOKIE_STATE_READONLY,
         BOOKIE_IS_READY,
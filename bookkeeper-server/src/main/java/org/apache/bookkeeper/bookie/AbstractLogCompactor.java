@@ -40,8 +40,12 @@ public abstract class AbstractLogCompactor {
     protected final LogRemovalListener logRemovalListener;
 
     public AbstractLogCompactor(ServerConfiguration conf, LogRemovalListener logRemovalListener) {
+        this(conf, logRemovalListener, new Throttler(conf));
+    }
+
+    AbstractLogCompactor(ServerConfiguration conf, LogRemovalListener logRemovalListener, Throttler throttler) {
         this.conf = conf;
-        this.throttler = new Throttler(conf);
+        this.throttler = throttler;
         this.logRemovalListener = logRemovalListener;
     }
 
@@ -169,11 +169,18 @@ public interface BookKeeperServerStats {
     String SKIP_LIST_FLUSH_BYTES = "SKIP_LIST_FLUSH_BYTES";
     String SKIP_LIST_THROTTLING = "SKIP_LIST_THROTTLING";
     String SKIP_LIST_THROTTLING_LATENCY = "SKIP_LIST_THROTTLING_LATENCY";
+    String SKIP_LIST_FLUSH_PREPARE = "SKIP_LIST_FLUSH_PREPARE";
+    String SKIP_LIST_FLUSH_PROCESS = "SKIP_LIST_FLUSH_PROCESS";
+    String SKIP_LIST_FLUSH_CLEAR = "SKIP_LIST_FLUSH_CLEAR";
+    String SKIP_LIST_FLUSH_LEDGER = "SKIP_LIST_FLUSH_LEDGER";
+    String SKIP_LIST_FLUSH_PARALLELISM = "SKIP_LIST_FLUSH_PARALLELISM";
     String READ_LAST_ENTRY_NOENTRY_ERROR = "READ_LAST_ENTRY_NOENTRY_ERROR";
     String LEDGER_CACHE_NUM_EVICTED_LEDGERS = "LEDGER_CACHE_NUM_EVICTED_LEDGERS";
     String PENDING_GET_FILE_INFO = "PENDING_GET_FILE_INFO";
     String WRITE_FILE_INFO_CACHE_SIZE = "WRITE_FILE_INFO_CACHE_SIZE";
     String READ_FILE_INFO_CACHE_SIZE = "READ_FILE_INFO_CACHE_SIZE";
+    String FILE_INFO_CACHE_HITS = "FILE_INFO_CACHE_HITS";
+    String FILE_INFO_CACHE_MISSES = "FILE_INFO_CACHE_MISSES";
     String BOOKIES_JOINED = "BOOKIES_JOINED";
     String BOOKIES_LEFT = "BOOKIES_LEFT";
 
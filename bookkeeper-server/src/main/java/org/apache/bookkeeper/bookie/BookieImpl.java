@@ -59,6 +59,7 @@ import org.apache.bookkeeper.bookie.LedgerDirsManager.LedgerDirsListener;
 import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirException;
 import org.apache.bookkeeper.bookie.stats.BookieStats;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.discover.BookieServiceInfo;
@@ -104,6 +105,9 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
     public static final long METAENTRY_ID_FORCE_LEDGER  = -0x4000;
     static final long METAENTRY_ID_LEDGER_EXPLICITLAC  = -0x8000;
 
+    // Max size of the journal records waiting to be applied by the journal replay threads
+    private static final int MAX_PENDING_JOURNAL_REPLAY_BYTES = 64 * 1024 * 1024;
+
     private final LedgerDirsManager ledgerDirsManager;
     protected final Supplier<BookieServiceInfo> bookieServiceInfoProvider;
     private final LedgerDirsManager indexDirsManager;
@@ -583,8 +587,19 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             }
         };
 
-        for (Journal journal : journals) {
-            replay(journal, scanner);
+        int replayThreads = conf.getJournalReplayThreads();
+        if (replayThreads > 0) {
+            LOG.info("Replaying journal with {} threads", replayThreads);
+            try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner, replayThreads,
+                    MAX_PENDING_JOURNAL_REPLAY_BYTES)) {
+                for (Journal journal : journals) {
+                    replay(journal, parallelScanner);
+                }
+            }
+        } else {
+            for (Journal journal : journals) {
+                replay(journal, scanner);
+            }
         }
         long elapsedTs = System.currentTimeMillis() - startTs;
         LOG.info("Finished replaying journal in {} ms.", elapsedTs);
@@ -619,6 +634,10 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             }
             LOG.info("Replaying journal {} from position {}", id, logPosition);
             long scanOffset = journal.scanJournal(id, logPosition, scanner);
+            if (scanner instanceof ParallelJournalScanner) {
+                // The checkpoints must not cover entries that are not in the ledger storage yet
+                ((ParallelJournalScanner) scanner).drain();
+            }
             // Update LastLogMark after completely replaying journal
             // scanOffset will point to EOF position
             // After LedgerStorage flush, SyncThread should persist this to disk
@@ -1100,6 +1119,37 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         }
     }
 
+    public CompletableFuture<ByteBuf> readEntryAsync(long ledgerId, long entryId) {
+        long requestNanos = MathUtils.nowInNano();
+        CompletableFuture<ByteBuf> entryFuture;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Reading {}@{} asynchronously", entryId, ledgerId);
+            }
+            entryFuture = handle.readEntryAsync(entryId);
+        } catch (IOException e) {
+            entryFuture = FutureUtils.exception(e);
+        }
+
+        CompletableFuture<ByteBuf> result = new CompletableFuture<>();
+        entryFuture.whenComplete((entry, cause) -> {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (cause == null) {
+                int entrySize = entry.readableBytes();
+                bookieStats.getReadBytes().add(entrySize);
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+                result.complete(entry);
+            } else {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerFailedValue(0);
+                result.completeExceptionally(cause);
+            }
+        });
+        return result;
+    }
+
     public long readLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
         return handle.getLastAddConfirmed();
@@ -0,0 +1,107 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.bookkeeper.bookie.EntryLogger.BufferedLogChannel;
+
+/**
+ * A {@link BufferedLogChannel} that writes the content of its write buffer as a compressed block each time it is
+ * flushed. The positions of the channel are positions in the uncompressed content, see {@link EntryLogCompression}.
+ */
+class CompressedLogChannel extends BufferedLogChannel {
+    private final EntryLogCompression compression;
+    private final EntryLogCompression.BlockIndex blockIndex;
+
+    // Buffer where the write buffer is compressed before being written to the file
+    private final ByteBuf blockBuffer;
+
+    CompressedLogChannel(ByteBufAllocator allocator, FileChannel fc, int writeCapacity, int readCapacity,
+            long logId, File logFile, long unpersistedBytesBound, EntryLogCompression compression)
+            throws IOException {
+        super(allocator, fc, writeCapacity, readCapacity, logId, logFile, unpersistedBytesBound);
+        this.compression = compression;
+        this.blockIndex = compression.createBlockIndex(logId);
+        this.blockBuffer = allocator.directBuffer(EntryLogCompression.maxBlockSize(writeCapacity));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        if (blockBuffer.refCnt() > 0) {
+            blockBuffer.release();
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        int length = writeBuffer.readableBytes();
+        if (length == 0) {
+            return;
+        }
+
+        long position = writeBufferStartPosition.get();
+        long fileOffset = fileChannel.position();
+        EntryLogCompression.compressBlock(writeBuffer, blockBuffer);
+        int blockSize = blockBuffer.readableBytes();
+
+        ByteBuffer toWrite = blockBuffer.internalNioBuffer(0, blockSize);
+        do {
+            fileChannel.write(toWrite);
+        } while (toWrite.hasRemaining());
+
+        blockIndex.addBlock(position, fileOffset, blockSize - EntryLogCompression.BLOCK_HEADER_SIZE, length);
+        writeBuffer.clear();
+        writeBufferStartPosition.set(position + length);
+    }
+
+    @Override
+    public synchronized int read(ByteBuf dest, long pos, int length) throws IOException {
+        int bytesRead = 0;
+        long flushedPosition = writeBufferStartPosition.get();
+        if (pos < flushedPosition) {
+            // Read the flushed part from the blocks
+            bytesRead = compression.read(getLogId(), fileChannel, dest, pos,
+                    (int) Math.min(length, flushedPosition - pos));
+            if (bytesRead <= 0) {
+                return bytesRead;
+            }
+            pos += bytesRead;
+            length -= bytesRead;
+            if (pos < flushedPosition) {
+                return bytesRead;
+            }
+        }
+
+        if (length > 0 && dest.isWritable()) {
+            bytesRead += super.read(dest, pos, length);
+        }
+        return bytesRead;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link BufferedReadChannel} over an entry log written with compression. The reads are served from the
+ * decompressed blocks of the log instead of a read buffer, see {@link EntryLogCompression}.
+ */
+class CompressedReadChannel extends BufferedReadChannel {
+    private final long logId;
+    private final EntryLogCompression compression;
+
+    CompressedReadChannel(FileChannel fileChannel, long logId, EntryLogCompression compression) {
+        super(fileChannel, 0);
+        this.logId = logId;
+        this.compression = compression;
+    }
+
+    @Override
+    public synchronized int read(ByteBuf dest, long pos, int length) throws IOException {
+        invocationCount++;
+        return compression.read(logId, validateAndGetFileChannel(), dest, pos, length);
+    }
+
+    /**
+     * Get the size of the uncompressed content of the blocks written so far.
+     */
+    @Override
+    public long size() throws IOException {
+        return compression.size(logId, validateAndGetFileChannel());
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import com.sun.jna.LastErrorException;
+
+//CHECKSTYLE.OFF: IllegalImport
+import io.netty.util.internal.PlatformDependent;
+//CHECKSTYLE.ON: IllegalImport
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.bookkeeper.util.NativeIO;
+
+/**
+ * A file opened with O_DIRECT, shared by all the {@link DirectIOFileChannel} opened on the same path.
+ *
+ * <p>O_DIRECT requires the memory address, the file offset and the length of every I/O to be aligned
+ * to the device block size. Appends are staged in an aligned write buffer and only the complete blocks are
+ * written to disk with O_DIRECT, while the last partial block is kept in memory and served from there to the
+ * readers. On {@link #force()} and {@link #close()} the partial block is written through a second, buffered,
+ * descriptor, so the file never needs to be padded nor truncated back to its logical size. The kernel keeps
+ * the two descriptors coherent: the cached tail block is written back before it is overwritten with O_DIRECT.
+ *
+ * <p>Positional reads don't serialize with each other: the state lock is only held to snapshot the size and
+ * to copy the bytes that are still in the write buffer, and the reads from the disk run without it.
+ */
+class DirectIOFile {
+
+    static final int ALIGNMENT = 4096;
+
+    private final File file;
+    private final String path;
+    private final int fd;
+    private final DirectIOFileChannelProvider provider;
+    private final int writeBufferSize;
+
+    // Guards the write buffer and the offsets below. Writers hold the write lock, readers only hold the read lock
+    // to copy the bytes of the write buffer.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Held by the readers while they use the file descriptor, so that it is not closed and reused under them.
+    private final ReentrantReadWriteLock fdLock = new ReentrantReadWriteLock();
+
+    // Logical size of the file, including the bytes still in the write buffer
+    private volatile long size;
+    // Logical size of the file at the last force, -1 if a region has been overwritten since
+    private long forcedSize;
+
+    // Aligned write buffer, allocated on the first write
+    private AlignedBuffer alignedWriteBuffer;
+    private ByteBuffer writeBuffer;
+    private long writeBufferAddress;
+    // File offset of the first byte in the write buffer. Always aligned.
+    private long writeBufferFileOffset;
+    // Number of valid bytes in the write buffer
+    private int writeBufferLength;
+
+    // Buffered descriptor used to write the trailing partial block, opened on the first force
+    private int tailFd = -1;
+
+    private int refCount = 0;
+    private volatile boolean closed = false;
+
+    DirectIOFile(DirectIOFileChannelProvider provider, File file, int writeBufferSize) throws IOException {
+        this.provider = provider;
+        this.file = file;
+        this.path = file.getPath();
+        this.writeBufferSize = writeBufferSize;
+        try {
+            this.fd = NativeIO.open(path, NativeIO.O_RDWR | NativeIO.O_CREAT | NativeIO.getDirectFlag(), 0644);
+        } catch (LastErrorException e) {
+            throw new IOException("Failed to open " + path + " with O_DIRECT: " + e.getMessage(), e);
+        }
+        this.size = file.length();
+        this.forcedSize = size;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    synchronized void retain() {
+        refCount++;
+    }
+
+    /**
+     * Release a reference to this file.
+     *
+     * @return true if this was the last reference and the file should be closed
+     */
+    synchronized boolean release() {
+        return --refCount == 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    int read(ByteBuffer dst, long position) throws IOException {
+        int toRead;
+        long diskEnd;
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            long currentSize = size;
+            if (position >= currentSize) {
+                return -1;
+            }
+
+            toRead = (int) Math.min(dst.remaining(), currentSize - position);
+            long end = position + toRead;
+            // Everything before the write buffer is already on disk
+            diskEnd = writeBuffer != null ? writeBufferFileOffset : currentSize;
+            if (end > diskEnd) {
+                // Copy the part still in the write buffer at its place in dst, the disk part is read below
+                long bufferStart = Math.max(position, diskEnd);
+                ByteBuffer src = writeBuffer.duplicate();
+                src.position((int) (bufferStart - writeBufferFileOffset));
+                src.limit((int) (end - writeBufferFileOffset));
+                ByteBuffer out = dst.duplicate();
+                out.position(dst.position() + (int) (bufferStart - position));
+                out.put(src);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int diskLength = (int) Math.max(0, Math.min(position + toRead, diskEnd) - position);
+        if (diskLength > 0) {
+            int read = readFromDisk(dst, position, diskLength);
+            if (read < diskLength) {
+                // Short read from the disk
+                return read;
+            }
+        }
+        dst.position(dst.position() + toRead - diskLength);
+        return toRead;
+    }
+
+    private int readFromDisk(ByteBuffer dst, long position, int length) throws IOException {
+        AlignedBuffer buffer = provider.acquireReadBuffer();
+        fdLock.readLock().lock();
+        try {
+            checkOpen();
+            int read = 0;
+            while (read < length) {
+                long pos = position + read;
+                long alignedStart = alignDown(pos);
+                int offsetInBlock = (int) (pos - alignedStart);
+                int alignedLength = (int) Math.min(buffer.capacity(), alignUp(offsetInBlock + length - read));
+
+                long rc = pread(buffer.address(), alignedLength, alignedStart);
+                if (rc <= offsetInBlock) {
+                    break;
+                }
+
+                int bytesToCopy = (int) Math.min(rc - offsetInBlock, length - read);
+                ByteBuffer src = buffer.buffer().duplicate();
+                src.position(offsetInBlock);
+                src.limit(offsetInBlock + bytesToCopy);
+                dst.put(src);
+                read += bytesToCopy;
+
+                if (rc < alignedLength) {
+                    // Reached the end of the file
+                    break;
+                }
+            }
+            return read;
+        } finally {
+            fdLock.readLock().unlock();
+            provider.releaseReadBuffer(buffer);
+        }
+    }
+
+    int write(ByteBuffer src, long position) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            ensureWriteBuffer();
+            int length = src.remaining();
+
+            if (position == size) {
+                append(src);
+            } else if (position + length <= size) {
+                overwrite(src, position);
+                forcedSize = -1;
+            } else {
+                throw new IOException("Cannot write " + length + " bytes at position " + position + " on " + path
+                        + " with size " + size);
+            }
+            return length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            int bytesToCopy = Math.min(src.remaining(), writeBufferSize - writeBufferLength);
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + bytesToCopy);
+
+            ByteBuffer dst = writeBuffer.duplicate();
+            dst.position(writeBufferLength);
+            dst.put(slice);
+
+            src.position(src.position() + bytesToCopy);
+            writeBufferLength += bytesToCopy;
+            size += bytesToCopy;
+
+            if (writeBufferLength == writeBufferSize) {
+                flushCompleteBlocks();
+            }
+        }
+    }
+
+    /**
+     * Overwrite an already written region of the file, typically the entry log header.
+     */
+    private void overwrite(ByteBuffer src, long position) throws IOException {
+        long end = position + src.remaining();
+
+        // Update the part which is still in the write buffer
+        if (end > writeBufferFileOffset) {
+            long start = Math.max(position, writeBufferFileOffset);
+            ByteBuffer slice = src.duplicate();
+            slice.position(src.position() + (int) (start - position));
+            ByteBuffer dst = writeBuffer.duplicate();
+            dst.position((int) (start - writeBufferFileOffset));
+            dst.put(slice);
+        }
+
+        // Read-modify-write the blocks which are already on disk. The write buffer offset is aligned, so this never
+        // touches the block that is being staged in memory
+        long diskEnd = Math.min(end, writeBufferFileOffset);
+        if (position < diskEnd) {
+            AlignedBuffer buffer = provider.acquireReadBuffer();
+            try {
+                long pos = position;
+                while (pos < diskEnd) {
+                    long alignedStart = alignDown(pos);
+                    int offsetInBlock = (int) (pos - alignedStart);
+                    int alignedLength = (int) Math.min(buffer.capacity(), alignUp(offsetInBlock + diskEnd - pos));
+                    int bytesToCopy = (int) Math.min(alignedLength - offsetInBlock, diskEnd - pos);
+
+                    long rc = pread(buffer.address(), alignedLength, alignedStart);
+                    if (rc < alignedLength) {
+                        throw new IOException("Short read on " + path + " at " + alignedStart + " (" + rc + " != "
+                                + alignedLength + ")");
+                    }
+
+                    ByteBuffer slice = src.duplicate();
+                    slice.position(src.position() + (int) (pos - position));
+                    slice.limit(slice.position() + bytesToCopy);
+                    ByteBuffer dst = buffer.buffer().duplicate();
+                    dst.position(offsetInBlock);
+                    dst.put(slice);
+
+                    pwriteFully(fd, buffer.address(), alignedLength, alignedStart);
+                    pos += bytesToCopy;
+                }
+            } finally {
+                provider.releaseReadBuffer(buffer);
+            }
+        }
+
+        src.position(src.limit());
+    }
+
+    /**
+     * Write the complete blocks of the write buffer to disk and only keep the trailing partial block in memory.
+     */
+    private void flushCompleteBlocks() throws IOException {
+        if (writeBuffer == null) {
+            return;
+        }
+
+        int completeBlocksLength = (int) alignDown(writeBufferLength);
+        if (completeBlocksLength == 0) {
+            return;
+        }
+
+        pwriteFully(fd, writeBufferAddress, completeBlocksLength, writeBufferFileOffset);
+
+        // Move the partial block at the beginning of the buffer. It is shorter than a block, so the source and
+        // the destination never overlap.
+        int remaining = writeBufferLength - completeBlocksLength;
+        if (remaining > 0) {
+            ByteBuffer src = writeBuffer.duplicate();
+            src.position(completeBlocksLength);
+            src.limit(writeBufferLength);
+            ByteBuffer dst = writeBuffer.duplicate();
+            dst.clear();
+            dst.put(src);
+        }
+        writeBufferFileOffset += completeBlocksLength;
+        writeBufferLength = remaining;
+    }
+
+    /**
+     * Write the trailing partial block through the buffered descriptor, so that it doesn't need any padding.
+     */
+    private void writePartialBlock() throws IOException {
+        if (writeBuffer == null || writeBufferLength == 0) {
+            return;
+        }
+
+        if (tailFd < 0) {
+            try {
+                tailFd = NativeIO.open(path, NativeIO.O_RDWR, 0644);
+            } catch (LastErrorException e) {
+                throw new IOException("Failed to open " + path + ": " + e.getMessage(), e);
+            }
+        }
+        pwriteFully(tailFd, writeBufferAddress, writeBufferLength, writeBufferFileOffset);
+    }
+
+    private void ensureWriteBuffer() throws IOException {
+        if (writeBuffer != null) {
+            return;
+        }
+
+        alignedWriteBuffer = AlignedBuffer.allocate(writeBufferSize);
+        writeBuffer = alignedWriteBuffer.buffer();
+        writeBufferAddress = alignedWriteBuffer.address();
+        writeBufferFileOffset = alignDown(size);
+        writeBufferLength = (int) (size - writeBufferFileOffset);
+
+        if (writeBufferLength > 0) {
+            // Load the trailing partial block, since it will be rewritten on the next flush
+            long rc = pread(writeBufferAddress, ALIGNMENT, writeBufferFileOffset);
+            if (rc < writeBufferLength) {
+                throw new IOException("Short read on " + path + " while loading the last block (" + rc + " != "
+                        + writeBufferLength + ")");
+            }
+        }
+    }
+
+    void force() throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (forcedSize == size) {
+                // Nothing was written since the last force
+                return;
+            }
+            flushCompleteBlocks();
+            writePartialBlock();
+            forcedSize = size;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        fdLock.readLock().lock();
+        try {
+            checkOpen();
+            // Both descriptors refer to the same file, a single fsync covers the two of them
+            NativeIO.fsync(fd);
+        } catch (LastErrorException e) {
+            throw new IOException("Failed to fsync " + path + ": " + e.getMessage(), e);
+        } finally {
+            fdLock.readLock().unlock();
+        }
+    }
+
+    void truncate(long newSize) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (newSize >= size) {
+                return;
+            }
+            flushCompleteBlocks();
+            writePartialBlock();
+            ftruncate(newSize);
+            size = newSize;
+            forcedSize = -1;
+            // Reload the trailing block on the next write
+            freeWriteBuffer();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            try {
+                flushCompleteBlocks();
+                writePartialBlock();
+            } finally {
+                closed = true;
+                freeWriteBuffer();
+                closeDescriptors();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void closeDescriptors() throws IOException {
+        // Wait for the readers still using the descriptor, so that it is not reused under them
+        fdLock.writeLock().lock();
+        try {
+            if (tailFd >= 0) {
+                NativeIO.close(tailFd);
+            }
+            NativeIO.close(fd);
+        } catch (LastErrorException e) {
+            throw new IOException("Failed to close " + path + ": " + e.getMessage(), e);
+        } finally {
+            fdLock.writeLock().unlock();
+        }
+    }
+
+    private void freeWriteBuffer() {
+        if (alignedWriteBuffer != null) {
+            alignedWriteBuffer.free();
+            alignedWriteBuffer = null;
+            writeBuffer = null;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("File " + path + " is already closed");
+        }
+    }
+
+    private long pread(long address, int length, long offset) throws IOException {
+        long read = 0;
+        try {
+            while (read < length) {
+                long rc = NativeIO.pread(fd, address + read, length - read, offset + read);
+                if (rc <= 0) {
+                    break;
+                }
+                read += rc;
+            }
+        } catch (LastErrorException e) {
+            throw new IOException("Failed to read " + length + " bytes at " + offset + " from " + path + ": "
+                    + e.getMessage(), e);
+        }
+        return read;
+    }
+
+    private void pwriteFully(int descriptor, long address, int length, long offset) throws IOException {
+        long written = 0;
+        try {
+            while (written < length) {
+                written += NativeIO.pwrite(descriptor, address + written, length - written, offset + written);
+            }
+        } catch (LastErrorException e) {
+            throw new IOException("Failed to write " + length + " bytes at " + offset + " to " + path + ": "
+                    + e.getMessage(), e);
+        }
+    }
+
+    private void ftruncate(long length) throws IOException {
+        try {
+            NativeIO.ftruncate(fd, length);
+        } catch (LastErrorException e) {
+            throw new IOException("Failed to truncate " + path + " to " + length + ": " + e.getMessage(), e);
+        }
+    }
+
+    static long alignUp(long value) {
+        return (value + ALIGNMENT - 1) & ~((long) ALIGNMENT - 1);
+    }
+
+    static long alignDown(long value) {
+        return value & ~((long) ALIGNMENT - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "DirectIOFile(" + file + ")";
+    }
+
+    /**
+     * A direct buffer whose memory address is aligned to {@link #ALIGNMENT}.
+     */
+    static final class AlignedBuffer {
+        private final ByteBuffer original;
+        private final ByteBuffer buffer;
+        private final long address;
+
+        private AlignedBuffer(ByteBuffer original, ByteBuffer buffer, long address) {
+            this.original = original;
+            this.buffer = buffer;
+            this.address = address;
+        }
+
+        static AlignedBuffer allocate(int capacity) {
+            ByteBuffer original = ByteBuffer.allocateDirect(capacity + ALIGNMENT);
+            long originalAddress = PlatformDependent.directBufferAddress(original);
+            int offset = (int) (alignUp(originalAddress) - originalAddress);
+            ByteBuffer duplicate = original.duplicate();
+            duplicate.position(offset);
+            duplicate.limit(offset + capacity);
+            return new AlignedBuffer(original, duplicate.slice(), originalAddress + offset);
+        }
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        long address() {
+            return address;
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        void free() {
+            PlatformDependent.freeDirectBuffer(original);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.bookkeeper.bookie.DirectIOFile.AlignedBuffer;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.NativeIO;
+
+/**
+ * A {@link FileChannelProvider} that opens the files with O_DIRECT, so that their content is never cached by the
+ * OS page cache.
+ *
+ * <p>All the channels opened on the same path share the same underlying {@link DirectIOFile}, so that readers can
+ * see the data that a writer has not yet written to disk. Reads are served through a pool of aligned
+ * buffers owned by the provider.
+ */
+@Slf4j
+public class DirectIOFileChannelProvider implements FileChannelProvider {
+
+    private static final int KB = 1024;
+
+    static final int DEFAULT_READ_BUFFER_SIZE = 64 * KB;
+
+    public static final int DEFAULT_MAX_POOLED_READ_BUFFERS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final int writeBufferSize;
+    private final int readBufferSize;
+    private final BlockingQueue<AlignedBuffer> readBuffers;
+
+    private final Map<String, DirectIOFile> openFiles = new HashMap<>();
+
+    public DirectIOFileChannelProvider() {
+        this(DEFAULT_READ_BUFFER_SIZE, DEFAULT_READ_BUFFER_SIZE, DEFAULT_MAX_POOLED_READ_BUFFERS);
+    }
+
+    /**
+     * Create a direct I/O file channel provider.
+     *
+     * @param writeBufferSize size of the aligned buffer used to stage the appends of each file being written
+     * @param readBufferSize size of each of the pooled aligned read buffers
+     * @param maxPooledReadBuffers max number of read buffers kept in the pool
+     */
+    public DirectIOFileChannelProvider(int writeBufferSize, int readBufferSize, int maxPooledReadBuffers) {
+        this.writeBufferSize = (int) Math.max(DirectIOFile.ALIGNMENT, DirectIOFile.alignUp(writeBufferSize));
+        this.readBufferSize = (int) Math.max(DirectIOFile.ALIGNMENT, DirectIOFile.alignUp(readBufferSize));
+        this.readBuffers = new ArrayBlockingQueue<>(Math.max(1, maxPooledReadBuffers));
+    }
+
+    /**
+     * Whether the direct I/O provider can be used on this platform.
+     */
+    public static boolean isSupported() {
+        return NativeIO.isDirectIOSupported();
+    }
+
+    @Override
+    public BookieFileChannel open(File file, ServerConfiguration configuration) throws IOException {
+        return new DirectIOBookieFileChannel(file);
+    }
+
+    @Override
+    public void close(BookieFileChannel bookieFileChannel) throws IOException {
+        bookieFileChannel.close();
+    }
+
+    @Override
+    public void close() {
+        AlignedBuffer buffer;
+        while ((buffer = readBuffers.poll()) != null) {
+            buffer.free();
+        }
+
+        synchronized (openFiles) {
+            if (!openFiles.isEmpty()) {
+                log.warn("Closing direct I/O file channel provider with {} files still open", openFiles.size());
+            }
+        }
+    }
+
+    DirectIOFileChannel openChannel(File file) throws IOException {
+        synchronized (openFiles) {
+            DirectIOFile directIOFile = openFiles.get(file.getPath());
+            if (directIOFile == null) {
+                directIOFile = new DirectIOFile(this, file, writeBufferSize);
+                openFiles.put(directIOFile.getPath(), directIOFile);
+            }
+            directIOFile.retain();
+            return new DirectIOFileChannel(this, directIOFile);
+        }
+    }
+
+    void release(DirectIOFile file) throws IOException {
+        synchronized (openFiles) {
+            if (file.release()) {
+                openFiles.remove(file.getPath(), file);
+                file.close();
+            }
+        }
+    }
+
+    AlignedBuffer acquireReadBuffer() {
+        AlignedBuffer buffer = readBuffers.poll();
+        return buffer != null ? buffer : AlignedBuffer.allocate(readBufferSize);
+    }
+
+    void releaseReadBuffer(AlignedBuffer buffer) {
+        if (!readBuffers.offer(buffer)) {
+            buffer.free();
+        }
+    }
+
+    private class DirectIOBookieFileChannel implements BookieFileChannel {
+        private final File file;
+        private FileChannel fileChannel;
+
+        DirectIOBookieFileChannel(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public synchronized FileChannel getFileChannel() throws IOException {
+            if (fileChannel == null) {
+                fileChannel = openChannel(file);
+            }
+            return fileChannel;
+        }
+
+        @Override
+        public boolean fileExists(File file) {
+            return file.exists();
+        }
+
+        @Override
+        public FileDescriptor getFD() throws IOException {
+            throw new IOException("File descriptor is not available for direct I/O file " + file);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (fileChannel != null) {
+                fileChannel.close();
+            }
+        }
+    }
+}
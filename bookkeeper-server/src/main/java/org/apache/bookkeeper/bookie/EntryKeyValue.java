@@ -26,16 +26,18 @@ import java.nio.ByteBuffer;
 
 /**
  * An entry Key/Value.
- * EntryKeyValue wraps a byte array and takes offsets and lengths into the array to
- * interpret the content as entry blob.
+ * EntryKeyValue wraps a byte array, or a direct buffer when the memtable is off-heap, and takes offsets and lengths
+ * into the array to interpret the content as entry blob.
  */
 public class EntryKeyValue extends EntryKey {
     private final byte [] bytes;
+    // Direct buffer holding the blob instead of bytes, owned by the arena of the memtable
+    private final ByteBuf buffer;
     private int offset = 0; // start offset of entry blob
     private int length = 0; // length of entry blob
 
     /**
-    * @return The byte array backing this EntryKeyValue.
+    * @return The byte array backing this EntryKeyValue, or null if it is backed by a direct buffer.
     */
     public byte [] getBuffer() {
         return this.bytes;
@@ -74,16 +76,35 @@ public class EntryKeyValue extends EntryKey {
     public EntryKeyValue(long ledgerId, long entryId, final byte [] bytes, int offset, int length) {
         super(ledgerId, entryId);
         this.bytes = bytes;
+        this.buffer = null;
         this.offset = offset;
         this.length = length;
     }
 
     /**
-    * Returns the blob wrapped in a new <code>ByteBuffer</code>.
+     * Creates a EntryKeyValue from a slice of a direct buffer, which must stay valid while the value is read.
+     * @param buffer direct buffer
+     * @param offset offset in buffer as start of blob
+     * @param length of blob
+     */
+    EntryKeyValue(long ledgerId, long entryId, final ByteBuf buffer, int offset, int length) {
+        super(ledgerId, entryId);
+        this.bytes = null;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+    * Returns the blob wrapped in a new <code>ByteBuffer</code>. When backed by a direct buffer, the blob is not
+    * copied: the returned buffer is a retained slice, to be released by the caller.
     *
     * @return the value
     */
     public ByteBuf getValueAsByteBuffer() {
+        if (buffer != null) {
+            return buffer.retainedSlice(getOffset(), getLength());
+        }
         return Unpooled.wrappedBuffer(getBuffer(), getOffset(), getLength());
     }
 
@@ -102,7 +123,14 @@ public class EntryKeyValue extends EntryKey {
             throw new IllegalArgumentException("Buffer size " + dst.remaining() + " < " + getLength());
         }
 
-        dst.put(getBuffer(), getOffset(), getLength());
+        if (buffer != null) {
+            ByteBuffer blob = dst.slice();
+            blob.limit(getLength());
+            buffer.getBytes(getOffset(), blob);
+            dst.position(dst.position() + getLength());
+        } else {
+            dst.put(getBuffer(), getOffset(), getLength());
+        }
         return getLength();
     }
 
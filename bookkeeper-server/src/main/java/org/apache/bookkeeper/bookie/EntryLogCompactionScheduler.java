@@ -0,0 +1,248 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compacts entry logs on a pool of threads that can be shared by the garbage collectors of all the ledger
+ * directories.
+ *
+ * <p>Compacting an entry log costs reading the whole log and writing again its remaining entries, and reclaims the
+ * space of its deleted entries. The entry logs waiting to be compacted are run by decreasing reclaimed bytes per
+ * byte of I/O, whatever their ledger directory, so that the most profitable ones are compacted first when the
+ * compaction is limited in time. All the compactions share the same {@link AbstractLogCompactor.Throttler}: the
+ * configured compaction rate is a budget for the whole bookie rather than for each ledger directory.
+ */
+public class EntryLogCompactionScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(EntryLogCompactionScheduler.class);
+
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+    private final AbstractLogCompactor.Throttler throttler;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public EntryLogCompactionScheduler(ServerConfiguration conf) {
+        this.threads = Math.max(1, conf.getCompactionThreads());
+        this.throttler = new AbstractLogCompactor.Throttler(conf);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), new DefaultThreadFactory("EntryLogCompaction"));
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    AbstractLogCompactor.Throttler getThrottler() {
+        return throttler;
+    }
+
+    /**
+     * Fraction of the I/O spent to compact an entry log that reclaims space.
+     */
+    static double compactionScore(EntryLogMetadata meta) {
+        long totalSize = meta.getTotalSize();
+        long remainingSize = meta.getRemainingSize();
+        if (totalSize <= 0) {
+            return 0;
+        }
+        return (double) (totalSize - remainingSize) / (totalSize + remainingSize);
+    }
+
+    /**
+     * Compact a batch of entry logs of the same ledger directory and wait for all of them to be done.
+     *
+     * @param entryLogs the entry logs to compact
+     * @param parallelism max number of entry logs of the batch being compacted at the same time
+     * @param canCompact checked before compacting each entry log. Once it returns false, the remaining entry logs
+     *                   of the batch are skipped
+     * @param compaction compacts an entry log and returns whether it succeeded
+     * @param progress updated as the entry logs are compacted
+     */
+    void compact(List<EntryLogMetadata> entryLogs, int parallelism, BooleanSupplier canCompact,
+                 Predicate<EntryLogMetadata> compaction, CompactionProgress progress) throws InterruptedException {
+        List<EntryLogMetadata> sorted = new ArrayList<>(entryLogs);
+        sorted.sort(Comparator.comparingDouble(EntryLogCompactionScheduler::compactionScore).reversed());
+
+        Batch batch = new Batch(sorted, canCompact, compaction, progress);
+        for (int i = 0; i < Math.max(1, parallelism); i++) {
+            batch.submitNext();
+        }
+        batch.done.await();
+    }
+
+    public void shutdown() throws InterruptedException {
+        // Let the running compactions complete, interrupting them could corrupt the entry logs
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            LOG.info("Waiting for the entry log compactions to complete");
+        }
+    }
+
+    private final class Batch {
+        private final Queue<EntryLogMetadata> pending;
+        private final BooleanSupplier canCompact;
+        private final Predicate<EntryLogMetadata> compaction;
+        private final CompactionProgress progress;
+        private final CountDownLatch done;
+
+        Batch(List<EntryLogMetadata> entryLogs, BooleanSupplier canCompact, Predicate<EntryLogMetadata> compaction,
+              CompactionProgress progress) {
+            this.pending = new ArrayDeque<>(entryLogs);
+            this.canCompact = canCompact;
+            this.compaction = compaction;
+            this.progress = progress;
+            this.done = new CountDownLatch(entryLogs.size());
+
+            progress.pendingEntryLogs.addAndGet(entryLogs.size());
+            entryLogs.forEach(meta -> progress.pendingReclaimableBytes.addAndGet(reclaimableBytes(meta)));
+        }
+
+        void submitNext() {
+            EntryLogMetadata meta;
+            synchronized (this) {
+                meta = pending.poll();
+            }
+            if (meta == null) {
+                return;
+            }
+
+            try {
+                executor.execute(new Task(this, meta, sequence.incrementAndGet()));
+            } catch (RejectedExecutionException e) {
+                // The scheduler is shutting down, skip the rest of the batch
+                skip(meta);
+                synchronized (this) {
+                    while ((meta = pending.poll()) != null) {
+                        skip(meta);
+                    }
+                }
+            }
+        }
+
+        void run(EntryLogMetadata meta) {
+            try {
+                removeFromPending(meta);
+                if (!canCompact.getAsBoolean()) {
+                    return;
+                }
+
+                long reclaimableBytes = reclaimableBytes(meta);
+                progress.compactingEntryLogs.incrementAndGet();
+                try {
+                    if (compaction.test(meta)) {
+                        progress.compactedEntryLogs.incrementAndGet();
+                        progress.reclaimedBytes.addAndGet(reclaimableBytes);
+                    }
+                } finally {
+                    progress.compactingEntryLogs.decrementAndGet();
+                }
+            } catch (Throwable t) {
+                LOG.error("Failed to compact entry log {}", meta.getEntryLogId(), t);
+            } finally {
+                done.countDown();
+                submitNext();
+            }
+        }
+
+        private void skip(EntryLogMetadata meta) {
+            removeFromPending(meta);
+            done.countDown();
+        }
+
+        private void removeFromPending(EntryLogMetadata meta) {
+            progress.pendingEntryLogs.decrementAndGet();
+            progress.pendingReclaimableBytes.addAndGet(-reclaimableBytes(meta));
+        }
+    }
+
+    private static long reclaimableBytes(EntryLogMetadata meta) {
+        return meta.getTotalSize() - meta.getRemainingSize();
+    }
+
+    private static final class Task implements Runnable, Comparable<Task> {
+        private final Batch batch;
+        private final EntryLogMetadata meta;
+        private final double score;
+        private final long sequence;
+
+        Task(Batch batch, EntryLogMetadata meta, long sequence) {
+            this.batch = batch;
+            this.meta = meta;
+            this.score = compactionScore(meta);
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            batch.run(meta);
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            // Highest score first, then first submitted first
+            int res = Double.compare(other.score, score);
+            return res != 0 ? res : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Progress of the compaction of the entry logs of a ledger directory.
+     */
+    static final class CompactionProgress {
+        final AtomicInteger pendingEntryLogs = new AtomicInteger();
+        final AtomicInteger compactingEntryLogs = new AtomicInteger();
+        final AtomicInteger compactedEntryLogs = new AtomicInteger();
+        final AtomicLong pendingReclaimableBytes = new AtomicLong();
+        final AtomicLong reclaimedBytes = new AtomicLong();
+
+        /**
+         * Reset the counters when starting a new compaction.
+         */
+        void reset() {
+            pendingEntryLogs.set(0);
+            compactingEntryLogs.set(0);
+            compactedEntryLogs.set(0);
+            pendingReclaimableBytes.set(0);
+            reclaimedBytes.set(0);
+        }
+    }
+}
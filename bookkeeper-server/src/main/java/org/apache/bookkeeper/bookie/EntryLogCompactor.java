@@ -39,7 +39,6 @@ import org.slf4j.LoggerFactory;
 public class EntryLogCompactor extends AbstractLogCompactor {
     private static final Logger LOG = LoggerFactory.getLogger(EntryLogCompactor.class);
 
-    final CompactionScannerFactory scannerFactory = new CompactionScannerFactory();
     final EntryLogger entryLogger;
     final CompactableLedgerStorage ledgerStorage;
     private final int maxOutstandingRequests;
@@ -49,7 +48,16 @@ public class EntryLogCompactor extends AbstractLogCompactor {
             EntryLogger entryLogger,
             CompactableLedgerStorage ledgerStorage,
             LogRemovalListener logRemover) {
-        super(conf, logRemover);
+        this(conf, entryLogger, ledgerStorage, logRemover, new Throttler(conf));
+    }
+
+    EntryLogCompactor(
+            ServerConfiguration conf,
+            EntryLogger entryLogger,
+            CompactableLedgerStorage ledgerStorage,
+            LogRemovalListener logRemover,
+            Throttler throttler) {
+        super(conf, logRemover, throttler);
         this.maxOutstandingRequests = conf.getCompactionMaxOutstandingRequests();
         this.entryLogger = entryLogger;
         this.ledgerStorage = ledgerStorage;
@@ -57,6 +65,8 @@ public class EntryLogCompactor extends AbstractLogCompactor {
 
     @Override
     public boolean compact(EntryLogMetadata entryLogMeta) {
+        // Each compaction has its own scanner factory, so that several entry logs can be compacted concurrently
+        CompactionScannerFactory scannerFactory = new CompactionScannerFactory();
         try {
             entryLogger.scanEntryLog(entryLogMeta.getEntryLogId(),
                 scannerFactory.newScanner(entryLogMeta));
@@ -0,0 +1,315 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Block compression of the entry logs.
+ *
+ * <p>The entry logs written with compression enabled have an uncompressed header, followed by blocks. Each block
+ * holds the content of the write buffer of the log channel at the time it was flushed:
+ *
+ * <pre>
+ * Stored length: 4 bytes
+ * Uncompressed length: 4 bytes
+ * Data: the LZ4 compressed content, or the content itself if it does not compress (stored length equals
+ *       uncompressed length)
+ * </pre>
+ *
+ * <p>The positions in the entry logs, which are stored in the entry location indexes, remain positions in the
+ * uncompressed content. They are translated into a block and an offset in that block through the block index of the
+ * log, which is built while the log is written or, for the logs written before the bookie restarted, by walking
+ * through the block headers the first time the log is read. The decompressed blocks are kept in a cache shared by
+ * all the logs, so that reading the entries of a block only decompresses it once.
+ */
+class EntryLogCompression {
+    private static final Logger LOG = LoggerFactory.getLogger(EntryLogCompression.class);
+
+    static final int CODEC_LZ4 = 1;
+
+    static final int BLOCK_HEADER_SIZE = 4 + 4;
+
+    private static final LZ4Factory factory = LZ4Factory.fastestJavaInstance();
+    private static final LZ4Compressor compressor = factory.fastCompressor();
+    private static final LZ4FastDecompressor decompressor = factory.fastDecompressor();
+
+    private final ConcurrentMap<Long, BlockIndex> blockIndexes = new ConcurrentHashMap<>();
+
+    // Decompressed blocks, by (log id, block number)
+    private final Cache<Long, byte[]> blockCache;
+
+    EntryLogCompression(long blockCacheSize) {
+        this.blockCache = CacheBuilder.newBuilder()
+                .maximumWeight(Math.max(blockCacheSize, 0))
+                .weigher((Long blockId, byte[] block) -> block.length)
+                .build();
+    }
+
+    /**
+     * @return the max size of a block holding the given number of uncompressed bytes, header included
+     */
+    static int maxBlockSize(int length) {
+        return BLOCK_HEADER_SIZE + Math.max(compressor.maxCompressedLength(length), length);
+    }
+
+    /**
+     * Compress the readable bytes of src into a block, written at the beginning of dest.
+     */
+    static void compressBlock(ByteBuf src, ByteBuf dest) {
+        int length = src.readableBytes();
+        int maxCompressedLength = compressor.maxCompressedLength(length);
+
+        ByteBuffer srcNio = src.nioBuffer(src.readerIndex(), length);
+        ByteBuffer destNio = dest.nioBuffer(BLOCK_HEADER_SIZE, maxCompressedLength);
+        int compressedLength = compressor.compress(srcNio, srcNio.position(), length,
+                destNio, destNio.position(), maxCompressedLength);
+
+        dest.clear();
+        if (compressedLength < length) {
+            dest.writeInt(compressedLength);
+            dest.writeInt(length);
+            dest.writerIndex(BLOCK_HEADER_SIZE + compressedLength);
+        } else {
+            dest.writeInt(length);
+            dest.writeInt(length);
+            dest.writeBytes(src, src.readerIndex(), length);
+        }
+    }
+
+    /**
+     * Create the block index of a new entry log, dropping anything known about a former log with the same id.
+     */
+    BlockIndex createBlockIndex(long logId) {
+        removeLog(logId);
+        BlockIndex index = new BlockIndex();
+        blockIndexes.put(logId, index);
+        return index;
+    }
+
+    /**
+     * Drop the block index and the cached blocks of an entry log.
+     */
+    void removeLog(long logId) {
+        if (blockIndexes.remove(logId) != null) {
+            blockCache.asMap().keySet().removeIf(blockId -> (blockId >>> 32) == logId);
+        }
+    }
+
+    /**
+     * @return the size of the uncompressed content of the blocks written so far in an entry log
+     */
+    long size(long logId, FileChannel fc) throws IOException {
+        BlockIndex index = blockIndexes.computeIfAbsent(logId, id -> new BlockIndex());
+        index.load(logId, fc);
+        return index.getPosition(index.getNumBlocks());
+    }
+
+    /**
+     * Read up to length bytes of the uncompressed content of an entry log, starting at position pos.
+     *
+     * @return the number of bytes read, or -1 if pos is beyond the content written so far
+     */
+    int read(long logId, FileChannel fc, ByteBuf dest, long pos, int length) throws IOException {
+        BlockIndex index = blockIndexes.computeIfAbsent(logId, id -> new BlockIndex());
+        long currentPosition = pos;
+        while (length > 0) {
+            int block = index.findBlock(currentPosition);
+            if (block < 0) {
+                // The block might have been written since the index was loaded
+                index.load(logId, fc);
+                block = index.findBlock(currentPosition);
+                if (block < 0) {
+                    break;
+                }
+            }
+
+            byte[] data = getBlock(logId, fc, index, block);
+            int posInBlock = (int) (currentPosition - index.getPosition(block));
+            int bytesToCopy = Math.min(length, data.length - posInBlock);
+            dest.writeBytes(data, posInBlock, bytesToCopy);
+            currentPosition += bytesToCopy;
+            length -= bytesToCopy;
+        }
+
+        if (currentPosition == pos && length > 0) {
+            return -1;
+        }
+        return (int) (currentPosition - pos);
+    }
+
+    private byte[] getBlock(long logId, FileChannel fc, BlockIndex index, int block) throws IOException {
+        long blockId = (logId << 32) | block;
+        byte[] data = blockCache.getIfPresent(blockId);
+        if (data == null) {
+            data = readBlock(logId, fc, index, block);
+            blockCache.put(blockId, data);
+        }
+        return data;
+    }
+
+    private static byte[] readBlock(long logId, FileChannel fc, BlockIndex index, int block) throws IOException {
+        long fileOffset = index.getFileOffset(block);
+        int blockSize = (int) (index.getFileOffset(block + 1) - fileOffset);
+        int length = (int) (index.getPosition(block + 1) - index.getPosition(block));
+
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        readFully(fc, buffer, fileOffset);
+
+        int storedLength = buffer.getInt(0);
+        byte[] data = new byte[length];
+        if (storedLength == length) {
+            System.arraycopy(buffer.array(), BLOCK_HEADER_SIZE, data, 0, length);
+        } else {
+            try {
+                decompressor.decompress(buffer.array(), BLOCK_HEADER_SIZE, data, 0, length);
+            } catch (LZ4Exception e) {
+                throw new IOException("Corrupted block " + block + " at offset " + fileOffset
+                        + " of entry log " + logId, e);
+            }
+        }
+        return data;
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer buffer, long fileOffset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (fc.read(buffer, fileOffset + buffer.position()) <= 0) {
+                throw new IOException("Short read at offset " + fileOffset + ", reading " + buffer.capacity()
+                        + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Uncompressed position and file offset of each block of an entry log. Both are kept as unsigned ints, since the
+     * entry logs are never larger than 4GB.
+     */
+    static class BlockIndex {
+        private int[] positions = new int[64];
+        private int[] fileOffsets = new int[64];
+        private int numBlocks = 0;
+
+        // End of the last block
+        private long endPosition = EntryLogger.LOGFILE_HEADER_SIZE;
+        private long endFileOffset = EntryLogger.LOGFILE_HEADER_SIZE;
+
+        /**
+         * Add a block written at the end of the log.
+         */
+        synchronized void addBlock(long position, long fileOffset, int storedLength, int length) {
+            if (position < endPosition) {
+                // Already found by a reader walking through the file
+                return;
+            }
+
+            if (numBlocks == positions.length) {
+                positions = Arrays.copyOf(positions, numBlocks * 2);
+                fileOffsets = Arrays.copyOf(fileOffsets, numBlocks * 2);
+            }
+            positions[numBlocks] = (int) position;
+            fileOffsets[numBlocks] = (int) fileOffset;
+            numBlocks++;
+            endPosition = position + length;
+            endFileOffset = fileOffset + BLOCK_HEADER_SIZE + storedLength;
+        }
+
+        /**
+         * Add the complete blocks found in the file after the last known block.
+         */
+        synchronized void load(long logId, FileChannel fc) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            long fileSize = fc.size();
+            while (endFileOffset + BLOCK_HEADER_SIZE <= fileSize) {
+                header.clear();
+                readFully(fc, header, endFileOffset);
+                int storedLength = header.getInt(0);
+                int length = header.getInt(4);
+                if (storedLength <= 0 || length < storedLength) {
+                    LOG.warn("Invalid block header at offset {} of entry log {}: stored length {}, length {}",
+                            endFileOffset, logId, storedLength, length);
+                    return;
+                }
+                if (endFileOffset + BLOCK_HEADER_SIZE + storedLength > fileSize) {
+                    // Block not fully written yet
+                    return;
+                }
+                addBlock(endPosition, endFileOffset, storedLength, length);
+            }
+        }
+
+        /**
+         * @return the block holding the given position, or -1 if the position is not in the blocks known so far
+         */
+        synchronized int findBlock(long position) {
+            if (position < EntryLogger.LOGFILE_HEADER_SIZE || position >= endPosition) {
+                return -1;
+            }
+
+            int low = 0;
+            int high = numBlocks - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (Integer.toUnsignedLong(positions[mid]) <= position) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        synchronized int getNumBlocks() {
+            return numBlocks;
+        }
+
+        /**
+         * @return the uncompressed position of a block, or the end of the last block
+         */
+        synchronized long getPosition(int block) {
+            return block == numBlocks ? endPosition : Integer.toUnsignedLong(positions[block]);
+        }
+
+        /**
+         * @return the file offset of a block, or the end of the last block
+         */
+        synchronized long getFileOffset(int block) {
+            return block == numBlocks ? endFileOffset : Integer.toUnsignedLong(fileOffsets[block]);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * Placement of the ledgers into groups of entry logs, by write rate and expected lifetime.
+ *
+ * <p>With entry log per ledger, a ledger written at a high rate fills its own entry logs, but the many ledgers
+ * written at a low rate would each keep an entry log open, or end up interleaved in the same entry logs as the
+ * others once the maximum number of active entry logs is reached. The ledgers are rather placed in groups:
+ * <ul>
+ * <li>the ledgers written at a rate above the own log rate keep their own entry log</li>
+ * <li>the young ledgers, which are expected to be short-lived, share the entry log of the ledgers that started to be
+ * written in the same creation window at a similar rate, so that they are likely to be deleted together and the
+ * garbage collector deletes whole entry logs instead of compacting them</li>
+ * <li>the ledgers written for longer than the young ledger max age, which are expected to live long, share an entry
+ * log per rate class, so that they do not make the entry logs of the young ledgers live longer</li>
+ * </ul>
+ *
+ * <p>The groups are identified by negative keys, which are used instead of the ledger ids to look up the current
+ * entry log.
+ */
+class EntryLogLedgerGroups {
+
+    // Window over which the write rate of a ledger is measured
+    private static final long RATE_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final long ownLogRate;
+    private final long lowRate;
+    private final long youngLedgerMaxAgeMillis;
+    private final long creationWindowMillis;
+
+    private final Cache<Long, LedgerWriteRate> ledgers;
+
+    EntryLogLedgerGroups(ServerConfiguration conf) {
+        this.ownLogRate = conf.getEntryLogPerLedgerGroupOwnLogRateKb() * 1024L;
+        this.lowRate = conf.getEntryLogPerLedgerGroupLowRateKb() * 1024L;
+        this.youngLedgerMaxAgeMillis = TimeUnit.SECONDS.toMillis(conf.getEntryLogPerLedgerGroupYoungLedgerMaxAge());
+        this.creationWindowMillis = Math.max(TimeUnit.SECONDS.toMillis(
+                conf.getEntryLogPerLedgerGroupCreationWindow()), 1);
+        this.ledgers = CacheBuilder.newBuilder()
+                .expireAfterAccess((long) conf.getEntrylogMapAccessExpiryTimeInSeconds()
+                        * conf.getEntryLogPerLedgerCounterLimitsMultFactor(), TimeUnit.SECONDS)
+                .maximumSize((long) conf.getMaximumNumberOfActiveEntryLogs()
+                        * conf.getEntryLogPerLedgerCounterLimitsMultFactor())
+                .build();
+    }
+
+    /**
+     * Record a write to a ledger.
+     *
+     * @return the key of the current entry log of the ledger: the ledger id itself when it has its own entry log,
+     *         or the negative key of its group
+     */
+    long getLogKey(long ledgerId, int size) {
+        return getLogKey(ledgerId, size, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    long getLogKey(long ledgerId, int size, long now) {
+        LedgerWriteRate writeRate;
+        try {
+            writeRate = ledgers.get(ledgerId, LedgerWriteRate::new);
+        } catch (ExecutionException e) {
+            // Not thrown by the constructor
+            return ledgerId;
+        }
+
+        long firstWriteMillis;
+        double rate;
+        synchronized (writeRate) {
+            writeRate.onWrite(size, now);
+            firstWriteMillis = writeRate.firstWriteMillis;
+            rate = writeRate.getRate(now);
+        }
+
+        if (rate >= ownLogRate) {
+            return ledgerId;
+        }
+
+        long rateClass = rate < lowRate ? 0 : 1;
+        long creationWindow = 0;
+        if (now - firstWriteMillis < youngLedgerMaxAgeMillis) {
+            // Never 0 for the ledgers written after the epoch
+            creationWindow = firstWriteMillis / creationWindowMillis + 1;
+        }
+        // Below UNASSIGNED_LEDGERID
+        return -2 - ((creationWindow << 1) | rateClass);
+    }
+
+    /**
+     * Write rate of a ledger, guarded by itself.
+     */
+    private static class LedgerWriteRate {
+        private long firstWriteMillis = -1;
+        private long windowStartMillis;
+        private long windowBytes;
+        // Bytes per second over the previous windows, -1 until the first window is complete
+        private double rate = -1;
+
+        void onWrite(int size, long now) {
+            if (firstWriteMillis < 0) {
+                firstWriteMillis = now;
+                windowStartMillis = now;
+            }
+
+            windowBytes += size;
+            long elapsedMillis = now - windowStartMillis;
+            if (elapsedMillis >= RATE_WINDOW_MILLIS) {
+                double windowRate = windowBytes * 1000.0 / elapsedMillis;
+                rate = rate < 0 ? windowRate : (rate + windowRate) / 2;
+                windowStartMillis = now;
+                windowBytes = 0;
+            }
+        }
+
+        double getRate(long now) {
+            if (rate >= 0) {
+                return rate;
+            }
+            // Until the first window is complete, as if nothing was written during the rest of it
+            return windowBytes * 1000.0 / Math.max(now - windowStartMillis, RATE_WINDOW_MILLIS);
+        }
+    }
+}
@@ -70,6 +70,14 @@ abstract class EntryLogManagerBase implements EntryLogManager {
     public long addEntry(long ledger, ByteBuf entry, boolean rollLog) throws IOException {
         int entrySize = entry.readableBytes() + 4; // Adding 4 bytes to prepend the size
         BufferedLogChannel logChannel = getCurrentLogForLedgerForAddEntry(ledger, entrySize, rollLog);
+        return writeEntry(logChannel, ledger, entry, entrySize);
+    }
+
+    /*
+     * Writes an entry at the end of the given log channel. This method should
+     * be guarded by the lock of the log channel.
+     */
+    long writeEntry(BufferedLogChannel logChannel, long ledger, ByteBuf entry, int entrySize) throws IOException {
         ByteBuf sizeBuffer = sizeBufferForAdd.get();
         sizeBuffer.clear();
         sizeBuffer.writeInt(entry.readableBytes());
@@ -263,6 +263,12 @@ class EntryLogManagerForEntryLogPerLedger extends EntryLogManagerBase {
     private final int entrylogMapAccessExpiryTimeInSeconds;
     private final int maximumNumberOfActiveEntryLogs;
     private final int entryLogPerLedgerCounterLimitsMultFactor;
+    /*
+     * when ledger grouping is enabled, the current entrylogs are looked up by
+     * the key of the group of the ledger instead of its ledgerid. Null when
+     * every ledger has its own entrylog.
+     */
+    private final EntryLogLedgerGroups ledgerGroups;
 
     // Expose Stats
     private final StatsLogger statsLogger;
@@ -280,6 +286,7 @@ class EntryLogManagerForEntryLogPerLedger extends EntryLogManagerBase {
         this.entrylogMapAccessExpiryTimeInSeconds = conf.getEntrylogMapAccessExpiryTimeInSeconds();
         this.maximumNumberOfActiveEntryLogs = conf.getMaximumNumberOfActiveEntryLogs();
         this.entryLogPerLedgerCounterLimitsMultFactor = conf.getEntryLogPerLedgerCounterLimitsMultFactor();
+        this.ledgerGroups = conf.isEntryLogPerLedgerGroupingEnabled() ? new EntryLogLedgerGroups(conf) : null;
 
         ledgerDirsManager.addLedgerDirsListener(getLedgerDirsListener());
         this.lockArrayPool = new AtomicReferenceArray<Lock>(maximumNumberOfActiveEntryLogs * 2);
@@ -620,10 +627,27 @@ class EntryLogManagerForEntryLogPerLedger extends EntryLogManagerBase {
 
     @Override
     public long addEntry(long ledger, ByteBuf entry, boolean rollLog) throws IOException {
-        Lock lock = getLock(ledger);
+        if (ledgerGroups == null) {
+            Lock lock = getLock(ledger);
+            lock.lock();
+            try {
+                return super.addEntry(ledger, entry, rollLog);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /*
+         * the entry goes to the current entrylog of the group of the ledger,
+         * which is looked up, created and rotated under the lock of the group
+         */
+        long logKey = ledgerGroups.getLogKey(ledger, entry.readableBytes());
+        Lock lock = getLock(logKey);
         lock.lock();
         try {
-            return super.addEntry(ledger, entry, rollLog);
+            int entrySize = entry.readableBytes() + 4;
+            BufferedLogChannel logChannel = getCurrentLogForLedgerForAddEntry(logKey, entrySize, rollLog);
+            return writeEntry(logChannel, ledger, entry, entrySize);
         } finally {
             lock.unlock();
         }
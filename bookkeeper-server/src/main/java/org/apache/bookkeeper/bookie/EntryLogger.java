@@ -27,6 +27,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
@@ -44,16 +45,21 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.NullStatsLogger;
@@ -193,7 +199,7 @@ public class EntryLogger {
             // Flush the ledger's map out before we write the header.
             // Otherwise the header might point to something that is not fully
             // written
-            super.flush();
+            flush();
 
             // Update the headers with the map offset and count of ledgers
             ByteBuffer mapInfo = ByteBuffer.allocate(8 + 4);
@@ -223,6 +229,7 @@ public class EntryLogger {
 
     private static final int HEADER_V0 = 0; // Old log file format (no ledgers map index)
     private static final int HEADER_V1 = 1; // Introduced ledger map index
+    static final int HEADER_V2 = 2; // Entries stored in compressed blocks, only written with compression enabled
     static final int HEADER_CURRENT_VERSION = HEADER_V1;
 
     private static class Header {
@@ -247,6 +254,7 @@ public class EntryLogger {
      * Log file HeaderVersion enum: 4 bytes
      * Ledger map offset: 8 bytes
      * Ledgers Count: 4 bytes
+     * Compression codec (V2 only): 4 bytes
      * </pre>
      */
     static final int LOGFILE_HEADER_SIZE = 1024;
@@ -254,6 +262,7 @@ public class EntryLogger {
 
     static final int HEADER_VERSION_POSITION = 4;
     static final int LEDGERS_MAP_OFFSET_POSITION = HEADER_VERSION_POSITION + 4;
+    static final int COMPRESSION_CODEC_POSITION = LEDGERS_MAP_OFFSET_POSITION + 8 + 4;
 
     /**
      * Ledgers map is composed of multiple parts that can be split into separated entries. Each of them is composed of:
@@ -284,6 +293,31 @@ public class EntryLogger {
 
     private final ByteBufAllocator allocator;
 
+    // Provider used to open the entry log files, or null to use plain RandomAccessFile channels
+    private final FileChannelProvider fileChannelProvider;
+
+    // Mappings of the entry logs that are no longer written, or null if they are read through buffered channels
+    private final MappedEntryLogs mappedEntryLogs;
+
+    // Block indexes and decompressed blocks of the entry logs written with compression
+    private final EntryLogCompression compression;
+
+    // Directories of the capacity tier, where the entry logs that are no longer written can be moved. The new entry
+    // logs are always created in the ledger directories.
+    private final List<File> capacityTierDirs;
+    // Last time, in seconds, each entry log was read, or null without capacity tier
+    private final ConcurrentLongLongHashMap lastReadTimes;
+    private final long startTimeSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    // Moves of entry logs to the capacity tier and removals of entry logs are exclusive
+    private final Object tierLock = new Object();
+    // Number of scans in progress of each entry log, or null without capacity tier. The entry logs being scanned are
+    // not moved, since a scan keeps reading the file channel it started with.
+    private final ConcurrentLongLongHashMap scannedLogs;
+    // File channels of the moved entry logs, closed once the reads that were using them are done. Only the reads of
+    // single entries can still be using them, since the entry logs being scanned are not moved.
+    private final ConcurrentLinkedQueue<RetiredChannel> retiredChannels = new ConcurrentLinkedQueue<>();
+    private static final long RETIRED_CHANNEL_CLOSE_DELAY_MS = TimeUnit.MINUTES.toMillis(10);
+
     final ServerConfiguration conf;
     /**
      * Scan entries in a entry log file.
@@ -339,12 +373,60 @@ public class EntryLogger {
     public EntryLogger(ServerConfiguration conf,
             LedgerDirsManager ledgerDirsManager, EntryLogListener listener, StatsLogger statsLogger,
             ByteBufAllocator allocator) throws IOException {
+        this(conf, ledgerDirsManager, listener, statsLogger, allocator, null);
+    }
+
+    /**
+     * Create an EntryLogger that opens its log files through the given {@link FileChannelProvider}.
+     *
+     * @param fileChannelProvider provider for the entry log file channels. If null, the files are opened
+     *                            as {@link RandomAccessFile}. The provider is closed when the entry logger
+     *                            is shut down.
+     */
+    public EntryLogger(ServerConfiguration conf,
+            LedgerDirsManager ledgerDirsManager, EntryLogListener listener, StatsLogger statsLogger,
+            ByteBufAllocator allocator, FileChannelProvider fileChannelProvider) throws IOException {
+        this(conf, ledgerDirsManager, listener, statsLogger, allocator, fileChannelProvider, Collections.emptyList());
+    }
+
+    /**
+     * Create an EntryLogger that can move the entry logs that are no longer written to the directories of a capacity
+     * tier, see {@link #moveToCapacityTier(long, RateLimiter)}. The entry logs are read from either tier.
+     *
+     * @param capacityTierDirs directories of the capacity tier, which must not be shared with another EntryLogger
+     */
+    public EntryLogger(ServerConfiguration conf,
+            LedgerDirsManager ledgerDirsManager, EntryLogListener listener, StatsLogger statsLogger,
+            ByteBufAllocator allocator, FileChannelProvider fileChannelProvider,
+            List<File> capacityTierDirs) throws IOException {
         //We reserve 500 bytes as overhead for the protocol.  This is not 100% accurate
         // but the protocol varies so an exact value is difficult to determine
         this.maxSaneEntrySize = conf.getNettyMaxFrameSizeBytes() - 500;
         this.allocator = allocator;
         this.ledgerDirsManager = ledgerDirsManager;
+        this.fileChannelProvider = fileChannelProvider;
         this.conf = conf;
+        if (conf.isEntryLogMmapReadsEnabled()) {
+            this.mappedEntryLogs = new MappedEntryLogs(allocator, conf.getEntryLogMmapMaxSizeMb() * MB,
+                    conf.getEntryLogMmapIdleTimeoutSeconds(), TimeUnit.SECONDS);
+        } else {
+            this.mappedEntryLogs = null;
+        }
+        // Always created, since the logs written while compression was enabled must remain readable
+        this.compression = new EntryLogCompression(conf.getEntryLogCompressionBlockCacheSizeMb() * MB);
+        this.capacityTierDirs = capacityTierDirs;
+        if (!capacityTierDirs.isEmpty()) {
+            for (File dir : capacityTierDirs) {
+                if (!dir.exists() && !dir.mkdirs()) {
+                    throw new IOException("Failed to create capacity tier directory " + dir);
+                }
+            }
+            this.lastReadTimes = ConcurrentLongLongHashMap.newBuilder().build();
+            this.scannedLogs = ConcurrentLongLongHashMap.newBuilder().build();
+        } else {
+            this.lastReadTimes = null;
+            this.scannedLogs = null;
+        }
         entryLogPerLedgerEnabled = conf.isEntryLogPerLedgerEnabled();
         if (listener != null) {
             addListener(listener);
@@ -373,7 +455,7 @@ public class EntryLogger {
         }
         this.recentlyCreatedEntryLogsStatus = new RecentEntryLogsStatus(logId + 1);
         this.entryLoggerAllocator = new EntryLoggerAllocator(conf, ledgerDirsManager, recentlyCreatedEntryLogsStatus,
-                logId, allocator);
+                logId, allocator, fileChannelProvider, conf.isEntryLogCompressionEnabled() ? compression : null);
         if (entryLogPerLedgerEnabled) {
             this.entryLogManager = new EntryLogManagerForEntryLogPerLedger(conf, ledgerDirsManager,
                     entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus, statsLogger);
@@ -466,6 +548,7 @@ public class EntryLogger {
                 LOG.warn("Exception while closing channel for log file:" + logId);
             }
         }
+        compression.removeLog(logId);
     }
 
     public BufferedReadChannel getFromChannels(long logId) {
@@ -545,19 +628,174 @@ public class EntryLogger {
      *          Entry Log File Id
      */
     protected boolean removeEntryLog(long entryLogId) {
-        removeFromChannelsAndClose(entryLogId);
-        File entryLogFile;
-        try {
-            entryLogFile = findFile(entryLogId);
-        } catch (FileNotFoundException e) {
-            LOG.error("Trying to delete an entryLog file that could not be found: "
-                    + entryLogId + ".log");
-            return false;
+        synchronized (tierLock) {
+            removeFromChannelsAndClose(entryLogId);
+            if (mappedEntryLogs != null) {
+                mappedEntryLogs.unmap(entryLogId);
+            }
+            if (lastReadTimes != null) {
+                lastReadTimes.remove(entryLogId);
+            }
+            File entryLogFile;
+            try {
+                entryLogFile = findFile(entryLogId);
+            } catch (FileNotFoundException e) {
+                LOG.error("Trying to delete an entryLog file that could not be found: "
+                        + entryLogId + ".log");
+                return false;
+            }
+            if (!entryLogFile.delete()) {
+                LOG.warn("Could not delete entry log file {}", entryLogFile);
+            }
+            return true;
         }
-        if (!entryLogFile.delete()) {
-            LOG.warn("Could not delete entry log file {}", entryLogFile);
+    }
+
+    /**
+     * Get the entry logs of the ledger directories that could be moved to the capacity tier: the entry logs that
+     * are no longer written, were last modified before minModifiedTimeMillis, were not read since
+     * minReadTimeMillis and are not being scanned.
+     */
+    public List<Long> getCapacityTierCandidates(long minModifiedTimeMillis, long minReadTimeMillis) {
+        List<Long> candidates = new ArrayList<>();
+        if (capacityTierDirs.isEmpty()) {
+            return candidates;
+        }
+        long minReadTimeSeconds = TimeUnit.MILLISECONDS.toSeconds(minReadTimeMillis);
+        for (File dir : ledgerDirsManager.getAllLedgerDirs()) {
+            File[] files = dir.listFiles(file -> file.getName().endsWith(LOG_FILE_SUFFIX));
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                long logId = fileName2LogId(f.getName());
+                if (logId < 0 || !isFlushedEntryLog(logId) || entryLogManager.getCurrentLogIfPresent(logId) != null
+                        || f.lastModified() >= minModifiedTimeMillis || scannedLogs.containsKey(logId)) {
+                    continue;
+                }
+                long lastRead = lastReadTimes.get(logId);
+                if ((lastRead < 0 ? startTimeSeconds : lastRead) < minReadTimeSeconds) {
+                    candidates.add(logId);
+                }
+            }
+        }
+        Collections.sort(candidates);
+        return candidates;
+    }
+
+    /**
+     * Move an entry log that is no longer written from its ledger directory to the capacity tier.
+     *
+     * <p>The file is copied under a temporary name and renamed once synced, and the copy in the ledger directory is
+     * deleted only then, so that the entry log is never missing. Since the log keeps its id, the locations of its
+     * entries remain valid: the next reads open the new file, while the reads in progress complete on the old one.
+     *
+     * @param rateLimiter limit, in bytes per second, of the copy, or null
+     * @return the size of the entry log, or -1 if it was not moved because it is not in a ledger directory anymore
+     *         or is being scanned
+     */
+    public long moveToCapacityTier(long logId, RateLimiter rateLimiter) throws IOException {
+        if (capacityTierDirs.isEmpty()) {
+            throw new IOException("No capacity tier to move entry log " + logId + " to");
+        }
+        closeRetiredChannels(false);
+
+        File srcFile = findFile(logId);
+        if (capacityTierDirs.contains(srcFile.getParentFile()) || scannedLogs.containsKey(logId)) {
+            return -1;
+        }
+        File capacityTierDir = capacityTierDirs.get((int) (logId % capacityTierDirs.size()));
+        File dstFile = new File(capacityTierDir, srcFile.getName());
+        File tmpFile = new File(capacityTierDir, srcFile.getName() + ".tmp");
+
+        long size;
+        try (FileChannel src = new RandomAccessFile(srcFile, "r").getChannel();
+             FileChannel dst = new RandomAccessFile(tmpFile, "rw").getChannel()) {
+            size = src.size();
+            dst.truncate(0);
+            long pos = 0;
+            while (pos < size) {
+                long count = Math.min(MB, size - pos);
+                if (rateLimiter != null) {
+                    rateLimiter.acquire((int) count);
+                }
+                pos += src.transferTo(pos, count, dst);
+            }
+            dst.force(true);
+        } catch (IOException e) {
+            if (!tmpFile.delete()) {
+                LOG.warn("Could not delete partial copy {} of entry log {}", tmpFile, logId);
+            }
+            throw e;
+        }
+
+        synchronized (tierLock) {
+            if (!srcFile.exists() || scannedLogs.containsKey(logId)) {
+                // Removed by the garbage collector, or being scanned for compaction, in the meantime
+                if (!tmpFile.delete()) {
+                    LOG.warn("Could not delete copy {} of entry log {}", tmpFile, logId);
+                }
+                return -1;
+            }
+            Files.move(tmpFile.toPath(), dstFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            FileChannel oldFc = logid2FileChannel.remove(logId);
+            if (oldFc != null) {
+                retiredChannels.add(new RetiredChannel(oldFc));
+            }
+            if (mappedEntryLogs != null) {
+                mappedEntryLogs.unmap(logId);
+            }
+            if (!srcFile.delete()) {
+                throw new IOException("Could not delete entry log " + srcFile + " after moving it to " + dstFile);
+            }
+        }
+        LOG.info("Moved entry log {} ({} bytes) to the capacity tier {}", logId, size, dstFile);
+        return size;
+    }
+
+    private void closeRetiredChannels(boolean all) {
+        long now = System.currentTimeMillis();
+        Iterator<RetiredChannel> it = retiredChannels.iterator();
+        while (it.hasNext()) {
+            RetiredChannel retired = it.next();
+            if (all || now - retired.retiredTimeMillis > RETIRED_CHANNEL_CLOSE_DELAY_MS) {
+                IOUtils.close(LOG, retired.fileChannel);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Keep an entry log from being moved to the capacity tier until {@link #endScan(long)}. Registered under the tier
+     * lock, so that a scan either keeps the log from being moved or starts once the log was moved, with the channel
+     * of the new file.
+     */
+    private void startScan(long entryLogId) {
+        if (scannedLogs != null) {
+            synchronized (tierLock) {
+                scannedLogs.addAndGet(entryLogId, 1);
+            }
+        }
+    }
+
+    private void endScan(long entryLogId) {
+        if (scannedLogs != null) {
+            synchronized (tierLock) {
+                if (scannedLogs.addAndGet(entryLogId, -1) <= 0) {
+                    scannedLogs.remove(entryLogId);
+                }
+            }
+        }
+    }
+
+    private static class RetiredChannel {
+        final FileChannel fileChannel;
+        final long retiredTimeMillis = System.currentTimeMillis();
+
+        RetiredChannel(FileChannel fileChannel) {
+            this.fileChannel = fileChannel;
         }
-        return true;
     }
 
     private long getLastLogId(File dir) {
@@ -815,7 +1053,11 @@ public class EntryLogger {
     private void validateEntry(long ledgerId, long entryId, long entryLogId, long pos, ByteBuf sizeBuff)
             throws IOException, EntryLookupException {
         int entrySize = sizeBuff.readInt();
+        validateEntry(ledgerId, entryId, entryLogId, pos, entrySize, sizeBuff.getLong(4), sizeBuff.getLong(12));
+    }
 
+    private void validateEntry(long ledgerId, long entryId, long entryLogId, long pos, int entrySize,
+                               long thisLedgerId, long thisEntryId) throws EntryLookupException {
         // entrySize does not include the ledgerId
         if (entrySize > maxSaneEntrySize) {
             LOG.warn("Sanity check failed for entry size of " + entrySize + " at location " + pos + " in "
@@ -826,8 +1068,6 @@ public class EntryLogger {
             throw new EntryLookupException.InvalidEntryLengthException(ledgerId, entryId, entryLogId, pos);
         }
 
-        long thisLedgerId = sizeBuff.getLong(4);
-        long thisEntryId = sizeBuff.getLong(12);
         if (thisLedgerId != ledgerId || thisEntryId != entryId) {
             throw new EntryLookupException.WrongEntryException(
                     thisEntryId, thisLedgerId, ledgerId, entryId, entryLogId, pos);
@@ -836,13 +1076,39 @@ public class EntryLogger {
 
     public ByteBuf internalReadEntry(long ledgerId, long entryId, long location, boolean validateEntry)
             throws IOException {
+        return readEntryAt(ledgerId, entryId, location, validateEntry, true);
+    }
+
+    /**
+     * Read an entry for checking it, without counting it as a read of its entry log, which would keep the log from
+     * being moved to the capacity tier.
+     */
+    public ByteBuf readEntryForScrub(long ledgerId, long entryId, long location) throws IOException {
+        return readEntryAt(ledgerId, entryId, location, true /* validateEntry */, false);
+    }
+
+    private ByteBuf readEntryAt(long ledgerId, long entryId, long location, boolean validateEntry,
+                                boolean recordRead) throws IOException {
         long entryLogId = logIdForOffset(location);
         long pos = posForOffset(location);
 
+        if (recordRead && lastReadTimes != null) {
+            long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            if (lastReadTimes.get(entryLogId) != now) {
+                lastReadTimes.put(entryLogId, now);
+            }
+        }
 
         BufferedReadChannel fc = null;
         int entrySize = -1;
         try {
+            if (mappedEntryLogs != null) {
+                ByteBuf entry = readMappedEntry(ledgerId, entryId, entryLogId, pos, validateEntry);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+
             fc = getFCForEntryInternal(ledgerId, entryId, entryLogId, pos);
 
             ByteBuf sizeBuff = readEntrySize(ledgerId, entryId, entryLogId, pos, fc);
@@ -877,6 +1143,68 @@ public class EntryLogger {
         return data;
     }
 
+    /**
+     * Read an entry from the mapping of its entry log, if the entry log is no longer written.
+     *
+     * @return a slice of the mapping, or null if the entry must be read through a buffered channel
+     */
+    private ByteBuf readMappedEntry(long ledgerId, long entryId, long entryLogId, long pos, boolean validateEntry)
+            throws EntryLookupException, IOException {
+        if (!isFlushedEntryLog(entryLogId) || entryLogManager.getCurrentLogIfPresent(entryLogId) != null) {
+            return null;
+        }
+
+        ByteBuf mapped = mappedEntryLogs.acquire(entryLogId);
+        if (mapped == null) {
+            try {
+                mapped = mappedEntryLogs.map(entryLogId, findFile(entryLogId));
+            } catch (IOException e) {
+                // Let the buffered channel read the entry, or report the missing file
+                LOG.debug("Could not map entry log {}", entryLogId, e);
+                return null;
+            }
+            if (mapped == null) {
+                return null;
+            }
+        }
+
+        try {
+            if (mapped.getInt(HEADER_VERSION_POSITION) == HEADER_V2) {
+                // The positions of the compressed logs are not positions in the file
+                return null;
+            }
+
+            // Size (4 bytes) + ledgerId (8 bytes) + entryId (8 bytes)
+            long entrySizePos = pos - 4;
+            if (entrySizePos < 0 || entrySizePos + 4 + 8 + 8 > mapped.capacity()) {
+                throw new EntryLookupException.MissingEntryException(ledgerId, entryId, entryLogId, entrySizePos);
+            }
+
+            int entrySize = mapped.getInt((int) entrySizePos);
+            if (validateEntry) {
+                validateEntry(ledgerId, entryId, entryLogId, pos, entrySize,
+                        mapped.getLong((int) pos), mapped.getLong((int) pos + 8));
+            }
+
+            if (entrySize < 0 || pos + entrySize > mapped.capacity()) {
+                throw new Bookie.NoEntryException("Short read for " + ledgerId + "@"
+                        + entryId + " in " + entryLogId + "@" + pos, ledgerId, entryId);
+            }
+            return mapped.retainedSlice((int) pos, entrySize);
+        } finally {
+            mapped.release();
+        }
+    }
+
+    /**
+     * Drop the mappings of the entry logs that have not been read recently.
+     */
+    void releaseIdleMappings() {
+        if (mappedEntryLogs != null) {
+            mappedEntryLogs.releaseIdleMappings();
+        }
+    }
+
     public ByteBuf readEntry(long ledgerId, long entryId, long location) throws IOException, Bookie.NoEntryException {
         return internalReadEntry(ledgerId, entryId, location, true /* validateEntry */);
     }
@@ -887,36 +1215,43 @@ public class EntryLogger {
     private Header getHeaderForLogId(long entryLogId) throws IOException {
         BufferedReadChannel bc = getChannelForLogId(entryLogId);
 
-        // Allocate buffer to read (version, ledgersMapOffset, ledgerCount)
-        ByteBuf headers = allocator.directBuffer(LOGFILE_HEADER_SIZE);
-        try {
-            bc.read(headers, 0);
-
-            // Skip marker string "BKLO"
-            headers.readInt();
-
-            int headerVersion = headers.readInt();
-            if (headerVersion < HEADER_V0 || headerVersion > HEADER_CURRENT_VERSION) {
-                LOG.info("Unknown entry log header version for log {}: {}", entryLogId, headerVersion);
+        // Read (version, ledgersMapOffset, ledgerCount) from the file channel, since the header of a compressed
+        // log is stored as is ahead of the compressed blocks and cannot be read through its read channel
+        ByteBuffer headers = ByteBuffer.allocate(LOGFILE_HEADER_SIZE);
+        while (headers.hasRemaining()) {
+            if (bc.fileChannel.read(headers, headers.position()) <= 0) {
+                throw new IOException("Short read of the header of entry log " + entryLogId);
             }
+        }
+        headers.flip();
 
-            long ledgersMapOffset = headers.readLong();
-            int ledgersCount = headers.readInt();
-            return new Header(headerVersion, ledgersMapOffset, ledgersCount);
-        } finally {
-            headers.release();
+        // Skip marker string "BKLO"
+        headers.getInt();
+
+        int headerVersion = headers.getInt();
+        if (headerVersion < HEADER_V0 || headerVersion > HEADER_V2) {
+            LOG.info("Unknown entry log header version for log {}: {}", entryLogId, headerVersion);
         }
+
+        long ledgersMapOffset = headers.getLong();
+        int ledgersCount = headers.getInt();
+        return new Header(headerVersion, ledgersMapOffset, ledgersCount);
     }
 
     private BufferedReadChannel getChannelForLogId(long entryLogId) throws IOException {
         BufferedReadChannel fc = getFromChannels(entryLogId);
-        if (fc != null) {
+        if (fc != null && (capacityTierDirs.isEmpty() || fc.fileChannel == logid2FileChannel.get(entryLogId))) {
             return fc;
         }
         File file = findFile(entryLogId);
-        // get channel is used to open an existing entry log file
-        // it would be better to open using read mode
-        FileChannel newFc = new RandomAccessFile(file, "r").getChannel();
+        FileChannel newFc;
+        if (fileChannelProvider != null) {
+            newFc = fileChannelProvider.open(file, conf).getFileChannel();
+        } else {
+            // get channel is used to open an existing entry log file
+            // it would be better to open using read mode
+            newFc = new RandomAccessFile(file, "r").getChannel();
+        }
         FileChannel oldFc = logid2FileChannel.putIfAbsent(entryLogId, newFc);
         if (null != oldFc) {
             newFc.close();
@@ -924,22 +1259,47 @@ public class EntryLogger {
         }
         // We set the position of the write buffer of this buffered channel to Long.MAX_VALUE
         // so that there are no overlaps with the write buffer while reading
-        fc = new BufferedReadChannel(newFc, conf.getReadBufferBytes());
+        if (isCompressedLog(entryLogId, newFc)) {
+            fc = new CompressedReadChannel(newFc, entryLogId, compression);
+        } else {
+            fc = new BufferedReadChannel(newFc, conf.getReadBufferBytes());
+        }
         putInReadChannels(entryLogId, fc);
         return fc;
     }
 
+    /**
+     * Whether an entry log was written with compression, as told by the version of its header.
+     */
+    private static boolean isCompressedLog(long entryLogId, FileChannel fc) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(COMPRESSION_CODEC_POSITION + 4);
+        while (header.hasRemaining()) {
+            if (fc.read(header, header.position()) <= 0) {
+                // Header not written yet, the log cannot hold any entry
+                return false;
+            }
+        }
+
+        if (header.getInt(HEADER_VERSION_POSITION) != HEADER_V2) {
+            return false;
+        }
+        int codec = header.getInt(COMPRESSION_CODEC_POSITION);
+        if (codec != EntryLogCompression.CODEC_LZ4) {
+            throw new IOException("Unknown compression codec " + codec + " for entry log " + entryLogId);
+        }
+        return true;
+    }
+
     /**
      * Whether the log file exists or not.
      */
     boolean logExists(long logId) {
-        for (File d : ledgerDirsManager.getAllLedgerDirs()) {
-            File f = new File(d, Long.toHexString(logId) + ".log");
-            if (f.exists()) {
-                return true;
-            }
+        try {
+            findFile(logId);
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
         }
-        return false;
     }
 
     /**
@@ -957,7 +1317,9 @@ public class EntryLogger {
             }
         };
 
-        for (File d : ledgerDirsManager.getAllLedgerDirs()) {
+        List<File> dirs = new ArrayList<>(ledgerDirsManager.getAllLedgerDirs());
+        dirs.addAll(capacityTierDirs);
+        for (File d : dirs) {
             File[] files = d.listFiles(logFileFilter);
             if (files == null) {
                 throw new IOException("Failed to get list of files in directory " + d);
@@ -978,6 +1340,12 @@ public class EntryLogger {
                 return f;
             }
         }
+        for (File d : capacityTierDirs) {
+            File f = new File(d, Long.toHexString(logId) + ".log");
+            if (f.exists()) {
+                return f;
+            }
+        }
         throw new FileNotFoundException("No file for log " + Long.toHexString(logId));
     }
 
@@ -989,6 +1357,15 @@ public class EntryLogger {
      * @throws IOException
      */
     public void scanEntryLog(long entryLogId, EntryLogScanner scanner) throws IOException {
+        startScan(entryLogId);
+        try {
+            scanEntryLogChannel(entryLogId, scanner);
+        } finally {
+            endScan(entryLogId);
+        }
+    }
+
+    private void scanEntryLogChannel(long entryLogId, EntryLogScanner scanner) throws IOException {
         // Buffer where to read the entrySize (4 bytes) and the ledgerId (8 bytes)
         ByteBuf headerBuffer = Unpooled.buffer(4 + 8);
         BufferedReadChannel bc;
@@ -1082,6 +1459,15 @@ public class EntryLogger {
     }
 
     EntryLogMetadata extractEntryLogMetadataFromIndex(long entryLogId) throws IOException {
+        startScan(entryLogId);
+        try {
+            return extractEntryLogMetadataFromIndexChannel(entryLogId);
+        } finally {
+            endScan(entryLogId);
+        }
+    }
+
+    private EntryLogMetadata extractEntryLogMetadataFromIndexChannel(long entryLogId) throws IOException {
         Header header = getHeaderForLogId(entryLogId);
 
         if (header.version < HEADER_V1) {
@@ -1223,6 +1609,7 @@ public class EntryLogger {
             for (FileChannel fc : logid2FileChannel.values()) {
                 IOUtils.close(LOG, fc);
             }
+            closeRetiredChannels(true);
 
             entryLogManager.forceClose();
             synchronized (compactionLogLock) {
@@ -1231,6 +1618,14 @@ public class EntryLogger {
         }
         // shutdown the pre-allocation thread
         entryLoggerAllocator.stop();
+
+        if (mappedEntryLogs != null) {
+            mappedEntryLogs.close();
+        }
+
+        if (fileChannelProvider != null) {
+            IOUtils.close(LOG, fileChannelProvider);
+        }
     }
 
     protected LedgerDirsManager getLedgerDirsManager() {
@@ -34,6 +34,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.concurrent.CancellationException;
@@ -64,13 +65,32 @@ class EntryLoggerAllocator {
     private final EntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus;
     private final boolean entryLogPreAllocationEnabled;
     private final ByteBufAllocator byteBufAllocator;
+    private final FileChannelProvider fileChannelProvider;
+    // Null when the new entry logs are not compressed
+    private final EntryLogCompression compression;
     final ByteBuf logfileHeader = Unpooled.buffer(EntryLogger.LOGFILE_HEADER_SIZE);
 
     EntryLoggerAllocator(ServerConfiguration conf, LedgerDirsManager ledgerDirsManager,
             EntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus, long logId,
             ByteBufAllocator byteBufAllocator) {
+        this(conf, ledgerDirsManager, recentlyCreatedEntryLogsStatus, logId, byteBufAllocator, null);
+    }
+
+    EntryLoggerAllocator(ServerConfiguration conf, LedgerDirsManager ledgerDirsManager,
+            EntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus, long logId,
+            ByteBufAllocator byteBufAllocator, FileChannelProvider fileChannelProvider) {
+        this(conf, ledgerDirsManager, recentlyCreatedEntryLogsStatus, logId, byteBufAllocator, fileChannelProvider,
+                null);
+    }
+
+    EntryLoggerAllocator(ServerConfiguration conf, LedgerDirsManager ledgerDirsManager,
+            EntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus, long logId,
+            ByteBufAllocator byteBufAllocator, FileChannelProvider fileChannelProvider,
+            EntryLogCompression compression) {
         this.conf = conf;
         this.byteBufAllocator = byteBufAllocator;
+        this.fileChannelProvider = fileChannelProvider;
+        this.compression = compression;
         this.ledgerDirsManager = ledgerDirsManager;
         this.preallocatedLogId = logId;
         this.recentlyCreatedEntryLogsStatus = recentlyCreatedEntryLogsStatus;
@@ -83,7 +103,12 @@ class EntryLoggerAllocator {
         // so there can be race conditions when entry logs are rolled over and
         // this header buffer is cleared before writing it into the new logChannel.
         logfileHeader.writeBytes("BKLO".getBytes(UTF_8));
-        logfileHeader.writeInt(EntryLogger.HEADER_CURRENT_VERSION);
+        if (compression != null) {
+            logfileHeader.writeInt(EntryLogger.HEADER_V2);
+            logfileHeader.setInt(EntryLogger.COMPRESSION_CODEC_POSITION, EntryLogCompression.CODEC_LZ4);
+        } else {
+            logfileHeader.writeInt(EntryLogger.HEADER_CURRENT_VERSION);
+        }
         logfileHeader.writerIndex(EntryLogger.LOGFILE_HEADER_SIZE);
 
     }
@@ -164,12 +189,29 @@ class EntryLoggerAllocator {
         } while (testLogFile == null);
 
         File newLogFile = new File(dirForNextEntryLog, logFileName);
-        FileChannel channel = new RandomAccessFile(newLogFile, "rw").getChannel();
+        FileChannel channel;
+        if (fileChannelProvider != null) {
+            channel = fileChannelProvider.open(newLogFile, conf).getFileChannel();
+        } else {
+            channel = new RandomAccessFile(newLogFile, "rw").getChannel();
+        }
 
-        BufferedLogChannel logChannel = new BufferedLogChannel(byteBufAllocator, channel, conf.getWriteBufferBytes(),
-                conf.getReadBufferBytes(), preallocatedLogId, newLogFile, conf.getFlushIntervalInBytes());
+        BufferedLogChannel logChannel;
         logfileHeader.readerIndex(0);
-        logChannel.write(logfileHeader);
+        if (compression != null) {
+            // The header is written as is, ahead of the compressed blocks
+            ByteBuffer header = logfileHeader.nioBuffer();
+            do {
+                channel.write(header);
+            } while (header.hasRemaining());
+            logChannel = new CompressedLogChannel(byteBufAllocator, channel, conf.getWriteBufferBytes(),
+                    conf.getReadBufferBytes(), preallocatedLogId, newLogFile, conf.getFlushIntervalInBytes(),
+                    compression);
+        } else {
+            logChannel = new BufferedLogChannel(byteBufAllocator, channel, conf.getWriteBufferBytes(),
+                    conf.getReadBufferBytes(), preallocatedLogId, newLogFile, conf.getFlushIntervalInBytes());
+            logChannel.write(logfileHeader);
+        }
 
         for (File f : ledgersDirs) {
             setLastLogId(f, preallocatedLogId);
@@ -19,6 +19,9 @@
 
 package org.apache.bookkeeper.bookie;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
@@ -29,6 +32,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 import org.apache.bookkeeper.bookie.Bookie.NoLedgerException;
 import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
@@ -45,6 +49,10 @@ import org.slf4j.LoggerFactory;
  * When asked to flush, current EntrySkipList is moved to snapshot and is cleared.
  * We continue to serve edits out of new EntrySkipList and backing snapshot until
  * flusher reports in that the flush succeeded. At that point we let the snapshot go.
+ *
+ * <p>When the skiplist arena is off-heap, the entries are copied once into direct chunks, which are flushed and read
+ * through slices, without copying them back onto the heap. The chunks of the snapshot are released when the
+ * snapshot is let go, the slices still being read keeping their chunk alive.
  */
 public class EntryMemTable implements AutoCloseable{
     private static Logger logger = LoggerFactory.getLogger(EntryMemTable.class);
@@ -104,6 +112,12 @@ public class EntryMemTable implements AutoCloseable{
 
     SkipListArena allocator;
 
+    // Allocator of the entries of the snapshot, released with it
+    SkipListArena snapshotAllocator;
+
+    // Allocator of the direct chunks of the arenas, null when they are on heap
+    private final ByteBufAllocator directAllocator;
+
     // flag indicating the status of the previous flush call
     private final AtomicBoolean previousFlushSucceeded;
 
@@ -111,6 +125,10 @@ public class EntryMemTable implements AutoCloseable{
         return new EntrySkipList(checkpointSource.newCheckpoint());
     }
 
+    private SkipListArena newArena() {
+        return new SkipListArena(conf, directAllocator);
+    }
+
     // Stats
     protected final EntryMemTableStats memTableStats;
 
@@ -120,12 +138,23 @@ public class EntryMemTable implements AutoCloseable{
     */
     public EntryMemTable(final ServerConfiguration conf, final CheckpointSource source,
                          final StatsLogger statsLogger) {
+        this(conf, source, statsLogger, ByteBufAllocator.DEFAULT);
+    }
+
+    /**
+    * Constructor.
+    * @param conf Server configuration
+    * @param allocator allocator of the direct chunks, when the skiplist arena is off-heap
+    */
+    public EntryMemTable(final ServerConfiguration conf, final CheckpointSource source,
+                         final StatsLogger statsLogger, final ByteBufAllocator allocator) {
         this.checkpointSource = source;
         this.kvmap = newSkipList();
         this.snapshot = EntrySkipList.EMPTY_VALUE;
         this.conf = conf;
         this.size = new AtomicLong(0);
-        this.allocator = new SkipListArena(conf);
+        this.directAllocator = conf.isSkipListArenaOffHeap() ? allocator : null;
+        this.allocator = newArena();
         this.previousFlushSucceeded = new AtomicBoolean(true);
         // skip list size limit
         this.skipListSizeLimit = conf.getSkipListSizeLimit();
@@ -181,7 +210,8 @@ public class EntryMemTable implements AutoCloseable{
                     // Reset heap to not include any keys
                     this.size.set(0);
                     // Reset allocator so we get a fresh buffer for the new EntryMemTable
-                    this.allocator = new SkipListArena(conf);
+                    this.snapshotAllocator = this.allocator;
+                    this.allocator = newArena();
                 }
             } finally {
                 this.lock.writeLock().unlock();
@@ -247,20 +277,26 @@ public class EntryMemTable implements AutoCloseable{
             synchronized (this) {
                 EntrySkipList keyValues = this.snapshot;
                 if (keyValues.compareTo(checkpoint) < 0) {
+                    long startTimeNanos = MathUtils.nowInNano();
                     for (EntryKey key : keyValues.keySet()) {
                         EntryKeyValue kv = (EntryKeyValue) key;
                         size += kv.getLength();
                         ledger = kv.getLedgerId();
                         if (ledgerGC != ledger) {
+                            ByteBuf value = kv.getValueAsByteBuffer();
                             try {
-                                flusher.process(ledger, kv.getEntryId(), kv.getValueAsByteBuffer());
+                                flusher.process(ledger, kv.getEntryId(), value);
                             } catch (NoLedgerException exception) {
                                 ledgerGC = ledger;
+                            } finally {
+                                value.release();
                             }
                         }
                     }
+                    memTableStats.getFlushProcessStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
                     memTableStats.getFlushBytesCounter().add(size);
-                    clearSnapshot(keyValues);
+                    clearSnapshotAndRecord(keyValues);
                 }
             }
         }
@@ -269,6 +305,16 @@ public class EntryMemTable implements AutoCloseable{
         return size;
     }
 
+    /**
+     * Clear the passed snapshot, recording the time it took as the last phase of a flush.
+     */
+    void clearSnapshotAndRecord(final EntrySkipList keyValues) {
+        long startTimeNanos = MathUtils.nowInNano();
+        clearSnapshot(keyValues);
+        memTableStats.getFlushClearStats()
+            .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+    }
+
     /**
      * The passed snapshot was successfully persisted; it can be let go.
      * @param keyValues The snapshot to clean out.
@@ -282,6 +328,10 @@ public class EntryMemTable implements AutoCloseable{
             // create a new snapshot and let the old one go.
             assert this.snapshot == keyValues;
             this.snapshot = EntrySkipList.EMPTY_VALUE;
+            if (null != this.snapshotAllocator) {
+                this.snapshotAllocator.release();
+                this.snapshotAllocator = null;
+            }
         } finally {
             this.lock.writeLock().unlock();
         }
@@ -372,6 +422,10 @@ public class EntryMemTable implements AutoCloseable{
             return newEntry(ledgerId, entryId, entry);
         }
 
+        if (alloc.getBuffer() != null) {
+            alloc.getBuffer().setBytes(alloc.getOffset(), entry);
+            return new EntryKeyValue(ledgerId, entryId, alloc.getBuffer(), alloc.getOffset(), len);
+        }
         assert alloc.getData() != null;
         entry.get(alloc.getData(), alloc.getOffset(), len);
         return new EntryKeyValue(ledgerId, entryId, alloc.getData(), alloc.getOffset(), len);
@@ -379,20 +433,44 @@ public class EntryMemTable implements AutoCloseable{
 
     /**
      * Find the entry with given key.
+     *
+     * <p>When the skiplist arena is off-heap, the value of the entry is released once flushed: use
+     * {@link #getEntryValue(long, long)} to read it.
+     *
      * @param ledgerId
      * @param entryId
      * @return the entry kv or null if none found.
      */
     public EntryKeyValue getEntry(long ledgerId, long entryId) throws IOException {
+        return getEntry(ledgerId, entryId, Function.identity());
+    }
+
+    /**
+     * Find the value of the entry with given key.
+     * @param ledgerId
+     * @param entryId
+     * @return the value, to be released by the caller, or null if none found.
+     */
+    public ByteBuf getEntryValue(long ledgerId, long entryId) throws IOException {
+        return getEntry(ledgerId, entryId, EntryKeyValue::getValueAsByteBuffer);
+    }
+
+    /**
+     * Find the entry with given key and read it under the lock, so that its value cannot be released meanwhile.
+     */
+    private <T> T getEntry(long ledgerId, long entryId, Function<EntryKeyValue, T> reader) throws IOException {
         EntryKey key = new EntryKey(ledgerId, entryId);
-        EntryKeyValue value = null;
+        T value = null;
         long startTimeNanos = MathUtils.nowInNano();
         boolean success = false;
         this.lock.readLock().lock();
         try {
-            value = this.kvmap.get(key);
-            if (value == null) {
-                value = this.snapshot.get(key);
+            EntryKeyValue kv = this.kvmap.get(key);
+            if (kv == null) {
+                kv = this.snapshot.get(key);
+            }
+            if (kv != null) {
+                value = reader.apply(kv);
             }
             success = true;
         } finally {
@@ -411,11 +489,29 @@ public class EntryMemTable implements AutoCloseable{
 
     /**
      * Find the last entry with the given ledger key.
+     *
+     * <p>When the skiplist arena is off-heap, the value of the entry is released once flushed: use
+     * {@link #getLastEntryValue(long)} to read it.
+     *
      * @param ledgerId
      * @return the entry kv or null if none found.
      */
     public EntryKeyValue getLastEntry(long ledgerId) throws IOException {
+        return getLastEntry(ledgerId, Function.identity());
+    }
+
+    /**
+     * Find the value of the last entry with the given ledger key.
+     * @param ledgerId
+     * @return the value, to be released by the caller, or null if none found.
+     */
+    public ByteBuf getLastEntryValue(long ledgerId) throws IOException {
+        return getLastEntry(ledgerId, EntryKeyValue::getValueAsByteBuffer);
+    }
+
+    private <T> T getLastEntry(long ledgerId, Function<EntryKeyValue, T> reader) throws IOException {
         EntryKey result = null;
+        T value = null;
         EntryKey key = new EntryKey(ledgerId, Long.MAX_VALUE);
         long startTimeNanos = MathUtils.nowInNano();
         boolean success = false;
@@ -425,6 +521,9 @@ public class EntryMemTable implements AutoCloseable{
             if (result == null || result.getLedgerId() != ledgerId) {
                 result = this.snapshot.floorKey(key);
             }
+            if (result != null && result.getLedgerId() == ledgerId) {
+                value = reader.apply((EntryKeyValue) result);
+            }
             success = true;
         } finally {
             this.lock.readLock().unlock();
@@ -437,10 +536,7 @@ public class EntryMemTable implements AutoCloseable{
             }
         }
 
-        if (result == null || result.getLedgerId() != ledgerId) {
-            return null;
-        }
-        return (EntryKeyValue) result;
+        return value;
     }
 
     /**
@@ -460,7 +556,16 @@ public class EntryMemTable implements AutoCloseable{
 
     @Override
     public void close() throws Exception {
-        // no-op
+        this.lock.writeLock().lock();
+        try {
+            // Only the off-heap arenas hold memory to release
+            this.allocator.release();
+            if (null != this.snapshotAllocator) {
+                this.snapshotAllocator.release();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
     }
 
     /*
@@ -19,10 +19,16 @@
 
 package org.apache.bookkeeper.bookie;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import lombok.extern.slf4j.Slf4j;
@@ -31,6 +37,7 @@ import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
 import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.util.SafeRunnable;
 
 /**
@@ -40,11 +47,28 @@ import org.apache.bookkeeper.util.SafeRunnable;
 class EntryMemTableWithParallelFlusher extends EntryMemTable {
 
     final OrderedExecutor flushExecutor;
+    final int numFlushThreads;
+    final boolean adaptiveParallelism;
+    final long minTaskTimeNanos;
+    /*
+     * moving average of the time taken to flush the entries of a ledger,
+     * only accessed while holding the monitor of this memtable.
+     */
+    private long avgLedgerFlushNanos;
 
     public EntryMemTableWithParallelFlusher(final ServerConfiguration conf, final CheckpointSource source,
             final StatsLogger statsLogger) {
-        super(conf, source, statsLogger);
-        this.flushExecutor = OrderedExecutor.newBuilder().numThreads(conf.getNumOfMemtableFlushThreads())
+        this(conf, source, statsLogger, ByteBufAllocator.DEFAULT);
+    }
+
+    public EntryMemTableWithParallelFlusher(final ServerConfiguration conf, final CheckpointSource source,
+            final StatsLogger statsLogger, final ByteBufAllocator allocator) {
+        super(conf, source, statsLogger, allocator);
+        this.numFlushThreads = conf.getNumOfMemtableFlushThreads();
+        this.adaptiveParallelism = conf.isMemtableFlushAdaptiveParallelismEnabled();
+        this.minTaskTimeNanos = Math.max(1L, TimeUnit.MICROSECONDS.toNanos(conf.getMemtableFlushMinTaskTimeMicros()));
+        this.avgLedgerFlushNanos = minTaskTimeNanos;
+        this.flushExecutor = OrderedExecutor.newBuilder().numThreads(numFlushThreads)
                 .name("MemtableFlushThreads").build();
     }
 
@@ -56,6 +80,12 @@ class EntryMemTableWithParallelFlusher extends EntryMemTable {
      * <p>SubMaps of the snapshot corresponding to the entries of the ledgers are
      * created and submitted to the flushExecutor with ledgerId as the
      * orderingKey to flush process the entries of a ledger.
+     *
+     * <p>With adaptive parallelism, the number of flush tasks is instead sized
+     * from the number of ledgers in the snapshot and the moving average of the
+     * time taken to flush a ledger, so that each task carries at least
+     * minTaskTimeNanos of work. The ledgers are striped over that many tasks,
+     * and a snapshot that is not worth a thread hand-off is flushed inline.
      */
     @Override
     long flushSnapshot(final SkipListFlusher flusher, Checkpoint checkpoint) throws IOException {
@@ -64,10 +94,9 @@ class EntryMemTableWithParallelFlusher extends EntryMemTable {
             synchronized (this) {
                 EntrySkipList keyValues = this.snapshot;
 
-                Phaser pendingNumOfLedgerFlushes = new Phaser(1);
-                AtomicReference<Exception> exceptionWhileFlushingParallelly = new AtomicReference<Exception>();
-
                 if (keyValues.compareTo(checkpoint) < 0) {
+                    long startTimeNanos = MathUtils.nowInNano();
+                    List<ConcurrentNavigableMap<EntryKey, EntryKeyValue>> ledgersEntries = new ArrayList<>();
 
                     Map.Entry<EntryKey, EntryKeyValue> thisLedgerFirstMapEntry = keyValues.firstEntry();
                     EntryKeyValue thisLedgerFirstEntry;
@@ -81,66 +110,32 @@ class EntryMemTableWithParallelFlusher extends EntryMemTable {
                          * Gets a view of the portion of this map that
                          * corresponds to entries of this ledger.
                          */
-                        ConcurrentNavigableMap<EntryKey, EntryKeyValue> thisLedgerEntries = keyValues
-                                .subMap(thisLedgerFirstEntry, thisLedgerCeilingKeyMarker);
-                        pendingNumOfLedgerFlushes.register();
-                        flushExecutor.executeOrdered(thisLedgerId, new SafeRunnable() {
-                            @Override
-                            public void safeRun() {
-                                try {
-                                    long ledger;
-                                    boolean ledgerDeleted = false;
-                                    for (EntryKey key : thisLedgerEntries.keySet()) {
-                                        EntryKeyValue kv = (EntryKeyValue) key;
-                                        flushedSize.addAndGet(kv.getLength());
-                                        ledger = kv.getLedgerId();
-                                        if (!ledgerDeleted) {
-                                            try {
-                                                flusher.process(ledger, kv.getEntryId(), kv.getValueAsByteBuffer());
-                                            } catch (NoLedgerException exception) {
-                                                ledgerDeleted = true;
-                                            }
-                                        }
-                                    }
-                                    pendingNumOfLedgerFlushes.arriveAndDeregister();
-                                } catch (Exception exc) {
-                                    log.error("Got Exception while trying to flush process entryies: ", exc);
-                                    exceptionWhileFlushingParallelly.set(exc);
-                                    /*
-                                     * if we get any unexpected exception while
-                                     * trying to flush process entries of a
-                                     * ledger, then terminate the
-                                     * pendingNumOfLedgerFlushes phaser.
-                                     */
-                                    pendingNumOfLedgerFlushes.forceTermination();
-                                }
-                            }
-                        });
+                        ledgersEntries.add(keyValues.subMap(thisLedgerFirstEntry, thisLedgerCeilingKeyMarker));
                         thisLedgerFirstMapEntry = keyValues.ceilingEntry(thisLedgerCeilingKeyMarker);
                     }
 
-                    boolean phaserTerminatedAbruptly = false;
-                    try {
-                        /*
-                         * while flush processing entries of a ledger if it
-                         * failed because of any unexpected exception then
-                         * pendingNumOfLedgerFlushes phaser would be force
-                         * terminated and because of that arriveAndAwaitAdvance
-                         * would be a negative value.
-                         */
-                        phaserTerminatedAbruptly = (pendingNumOfLedgerFlushes.arriveAndAwaitAdvance() < 0);
-                    } catch (IllegalStateException ise) {
-                        log.error("Got IllegalStateException while awaiting on Phaser", ise);
-                        throw new IOException("Got IllegalStateException while awaiting on Phaser", ise);
+                    int parallelism = flushParallelism(ledgersEntries.size());
+                    memTableStats.getFlushPrepareStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                    memTableStats.getFlushParallelismStats().registerSuccessfulValue(parallelism);
+
+                    startTimeNanos = MathUtils.nowInNano();
+                    AtomicLong ledgersFlushNanos = new AtomicLong();
+                    if (adaptiveParallelism && parallelism <= 1) {
+                        flushLedgers(flusher, ledgersEntries, flushedSize, ledgersFlushNanos);
+                    } else {
+                        flushLedgersParallelly(flusher, ledgersEntries, parallelism, flushedSize, ledgersFlushNanos);
                     }
-                    if (phaserTerminatedAbruptly) {
-                        log.error("Phaser is terminated while awaiting flushExecutor to complete the entry flushes",
-                                exceptionWhileFlushingParallelly.get());
-                        throw new IOException("Failed to complete the flushSnapshotByParallelizing",
-                                exceptionWhileFlushingParallelly.get());
+                    memTableStats.getFlushProcessStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                    if (!ledgersEntries.isEmpty()) {
+                        long sampleNanos = ledgersFlushNanos.get() / ledgersEntries.size();
+                        avgLedgerFlushNanos = Math.max(1L, avgLedgerFlushNanos
+                                + (sampleNanos - avgLedgerFlushNanos) / 4);
                     }
+
                     memTableStats.getFlushBytesCounter().add(flushedSize.get());
-                    clearSnapshot(keyValues);
+                    clearSnapshotAndRecord(keyValues);
                 }
             }
         }
@@ -148,8 +143,124 @@ class EntryMemTableWithParallelFlusher extends EntryMemTable {
         return flushedSize.longValue();
     }
 
+    /**
+     * Number of flush tasks to split a snapshot of the given number of ledgers into.
+     */
+    private int flushParallelism(int numLedgers) {
+        int maxParallelism = Math.max(1, Math.min(numFlushThreads, numLedgers));
+        if (!adaptiveParallelism) {
+            return maxParallelism;
+        }
+        long estimatedFlushNanos = avgLedgerFlushNanos * numLedgers;
+        return (int) Math.max(1L, Math.min(maxParallelism, estimatedFlushNanos / minTaskTimeNanos));
+    }
+
+    private void flushLedgersParallelly(final SkipListFlusher flusher,
+            List<ConcurrentNavigableMap<EntryKey, EntryKeyValue>> ledgersEntries, int parallelism,
+            AtomicLong flushedSize, AtomicLong ledgersFlushNanos) throws IOException {
+        Phaser pendingNumOfLedgerFlushes = new Phaser(1);
+        AtomicReference<Exception> exceptionWhileFlushingParallelly = new AtomicReference<Exception>();
+
+        if (adaptiveParallelism) {
+            for (int i = 0; i < parallelism; i++) {
+                List<ConcurrentNavigableMap<EntryKey, EntryKeyValue>> stripe = new ArrayList<>();
+                for (int j = i; j < ledgersEntries.size(); j += parallelism) {
+                    stripe.add(ledgersEntries.get(j));
+                }
+                /*
+                 * OrderedExecutor ignores the lowest bit of the ordering key,
+                 * so shift the stripe index to give each stripe its own thread.
+                 */
+                submitFlush((long) i << 1, flusher, stripe, flushedSize, ledgersFlushNanos,
+                        pendingNumOfLedgerFlushes, exceptionWhileFlushingParallelly);
+            }
+        } else {
+            for (ConcurrentNavigableMap<EntryKey, EntryKeyValue> thisLedgerEntries : ledgersEntries) {
+                long thisLedgerId = thisLedgerEntries.firstKey().getLedgerId();
+                submitFlush(thisLedgerId, flusher, Collections.singletonList(thisLedgerEntries),
+                        flushedSize, ledgersFlushNanos, pendingNumOfLedgerFlushes, exceptionWhileFlushingParallelly);
+            }
+        }
+
+        boolean phaserTerminatedAbruptly = false;
+        try {
+            /*
+             * while flush processing entries of a ledger if it
+             * failed because of any unexpected exception then
+             * pendingNumOfLedgerFlushes phaser would be force
+             * terminated and because of that arriveAndAwaitAdvance
+             * would be a negative value.
+             */
+            phaserTerminatedAbruptly = (pendingNumOfLedgerFlushes.arriveAndAwaitAdvance() < 0);
+        } catch (IllegalStateException ise) {
+            log.error("Got IllegalStateException while awaiting on Phaser", ise);
+            throw new IOException("Got IllegalStateException while awaiting on Phaser", ise);
+        }
+        if (phaserTerminatedAbruptly) {
+            log.error("Phaser is terminated while awaiting flushExecutor to complete the entry flushes",
+                    exceptionWhileFlushingParallelly.get());
+            throw new IOException("Failed to complete the flushSnapshotByParallelizing",
+                    exceptionWhileFlushingParallelly.get());
+        }
+    }
+
+    private void submitFlush(long orderingKey, final SkipListFlusher flusher,
+            List<ConcurrentNavigableMap<EntryKey, EntryKeyValue>> ledgersEntries, AtomicLong flushedSize,
+            AtomicLong ledgersFlushNanos, Phaser pendingNumOfLedgerFlushes,
+            AtomicReference<Exception> exceptionWhileFlushingParallelly) {
+        pendingNumOfLedgerFlushes.register();
+        flushExecutor.executeOrdered(orderingKey, new SafeRunnable() {
+            @Override
+            public void safeRun() {
+                try {
+                    flushLedgers(flusher, ledgersEntries, flushedSize, ledgersFlushNanos);
+                    pendingNumOfLedgerFlushes.arriveAndDeregister();
+                } catch (Exception exc) {
+                    log.error("Got Exception while trying to flush process entryies: ", exc);
+                    exceptionWhileFlushingParallelly.set(exc);
+                    /*
+                     * if we get any unexpected exception while
+                     * trying to flush process entries of a
+                     * ledger, then terminate the
+                     * pendingNumOfLedgerFlushes phaser.
+                     */
+                    pendingNumOfLedgerFlushes.forceTermination();
+                }
+            }
+        });
+    }
+
+    private void flushLedgers(final SkipListFlusher flusher,
+            List<ConcurrentNavigableMap<EntryKey, EntryKeyValue>> ledgersEntries, AtomicLong flushedSize,
+            AtomicLong ledgersFlushNanos) throws IOException {
+        for (ConcurrentNavigableMap<EntryKey, EntryKeyValue> thisLedgerEntries : ledgersEntries) {
+            long startTimeNanos = MathUtils.nowInNano();
+            long ledger;
+            boolean ledgerDeleted = false;
+            for (EntryKey key : thisLedgerEntries.keySet()) {
+                EntryKeyValue kv = (EntryKeyValue) key;
+                flushedSize.addAndGet(kv.getLength());
+                ledger = kv.getLedgerId();
+                if (!ledgerDeleted) {
+                    ByteBuf value = kv.getValueAsByteBuffer();
+                    try {
+                        flusher.process(ledger, kv.getEntryId(), value);
+                    } catch (NoLedgerException exception) {
+                        ledgerDeleted = true;
+                    } finally {
+                        value.release();
+                    }
+                }
+            }
+            long elapsedNanos = MathUtils.elapsedNanos(startTimeNanos);
+            ledgersFlushNanos.addAndGet(elapsedNanos);
+            memTableStats.getFlushLedgerStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
     @Override
     public void close() throws Exception {
         flushExecutor.shutdown();
+        super.close();
     }
 }
@@ -28,11 +28,22 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
 
+/**
+ * Cache of the file infos of the ledger indexes, shared by the read and write file info caches of
+ * {@link IndexPersistenceMgr}, which holds a reference to each file info while it is in one of them.
+ *
+ * <p>A file info is closed once its last reference is released. The lookups, loads and closes of the file infos are
+ * synchronized by a lock striped by ledger id, so that closing the index file of a ledger, which flushes its header,
+ * only blocks the ledgers of the same stripe instead of all the ledgers.
+ */
 @Slf4j
 class FileInfoBackingCache {
     static final int DEAD_REF = -0xdead;
 
-    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Power of 2
+    private static final int NUM_LOCK_STRIPES = 64;
+
+    private final ReentrantReadWriteLock[] locks;
     final ConcurrentLongHashMap<CachedFileInfo> fileInfos =
             ConcurrentLongHashMap.<CachedFileInfo>newBuilder().build();
     final FileLoader fileLoader;
@@ -41,10 +52,20 @@ class FileInfoBackingCache {
     FileInfoBackingCache(FileLoader fileLoader, int fileInfoVersionToWrite) {
         this.fileLoader = fileLoader;
         this.fileInfoVersionToWrite = fileInfoVersionToWrite;
+        this.locks = new ReentrantReadWriteLock[NUM_LOCK_STRIPES];
+        for (int i = 0; i < NUM_LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    private ReentrantReadWriteLock getLock(long ledgerId) {
+        // Spread the consecutive ledger ids, and the ids with a common suffix, across the stripes
+        long hash = ledgerId * 0x9E3779B97F4A7C15L;
+        return locks[(int) (hash >>> 32) & (NUM_LOCK_STRIPES - 1)];
     }
 
     /**
-     * This method should be under `lock` of FileInfoBackingCache.
+     * This method should be under the lock of the ledger in FileInfoBackingCache.
      */
     private static CachedFileInfo tryRetainFileInfo(CachedFileInfo fi) throws IOException {
         boolean retained = fi.tryRetain();
@@ -57,6 +78,7 @@ class FileInfoBackingCache {
     }
 
     CachedFileInfo loadFileInfo(long ledgerId, byte[] masterKey) throws IOException {
+        ReentrantReadWriteLock lock = getLock(ledgerId);
         lock.readLock().lock();
         try {
             CachedFileInfo fi = fileInfos.get(ledgerId);
@@ -97,6 +119,7 @@ class FileInfoBackingCache {
     }
 
     private void releaseFileInfo(long ledgerId, CachedFileInfo fileInfo) {
+        ReentrantReadWriteLock lock = getLock(ledgerId);
         lock.writeLock().lock();
         try {
             if (fileInfo.markDead()) {
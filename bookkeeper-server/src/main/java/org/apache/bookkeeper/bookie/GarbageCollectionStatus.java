@@ -44,4 +44,11 @@ public class GarbageCollectionStatus {
     private long lastMinorCompactionTime;
     private long majorCompactionCounter;
     private long minorCompactionCounter;
+
+    // progress of the current, or last, compaction
+    private int compactionPendingEntryLogs;
+    private int compactingEntryLogs;
+    private int compactedEntryLogs;
+    private long compactionPendingReclaimableBytes;
+    private long compactionReclaimedBytes;
 }
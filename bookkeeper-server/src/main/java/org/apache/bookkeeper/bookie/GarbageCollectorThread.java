@@ -28,14 +28,19 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.util.concurrent.DefaultThreadFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Supplier;
 
 import lombok.Getter;
 
@@ -60,6 +65,8 @@ import org.slf4j.LoggerFactory;
 public class GarbageCollectorThread extends SafeRunnable {
     private static final Logger LOG = LoggerFactory.getLogger(GarbageCollectorThread.class);
     private static final int SECOND = 1000;
+    // Delay of the run collecting the ledgers reported as deleted
+    private static final long DELETED_LEDGERS_GC_DELAY_MILLIS = 1000;
 
     // Maps entry log files to the set of ledgers that comprise the file and the size usage per ledger
     private EntryLogMetadataMap entryLogMetaMap;
@@ -92,6 +99,12 @@ public class GarbageCollectorThread extends SafeRunnable {
     final EntryLogger entryLogger;
     final AbstractLogCompactor compactor;
 
+    // Scheduler compacting the entry logs concurrently, or null to compact them one at a time in this thread
+    final EntryLogCompactionScheduler compactionScheduler;
+    private final boolean ownsCompactionScheduler;
+    final EntryLogCompactionScheduler.CompactionProgress compactionProgress =
+            new EntryLogCompactionScheduler.CompactionProgress();
+
     // Stats loggers for garbage collection operations
     private final GarbageCollectorStats gcStats;
 
@@ -121,6 +134,10 @@ public class GarbageCollectorThread extends SafeRunnable {
     final AtomicBoolean suspendMinorCompaction = new AtomicBoolean(false);
 
     final ScanAndCompareGarbageCollector garbageCollector;
+    // Collector driven by the ledger deletion notifications, or null to scan the metadata store on every run
+    final IncrementalGarbageCollector incrementalGarbageCollector;
+    // Whether a run is already scheduled to collect the ledgers reported as deleted
+    private final AtomicBoolean deletedLedgersGcScheduled = new AtomicBoolean(false);
     final GarbageCleaner garbageCleaner;
 
     final ServerConfiguration conf;
@@ -128,6 +145,8 @@ public class GarbageCollectorThread extends SafeRunnable {
 
     private static final AtomicLong threadNum = new AtomicLong(0);
     final AbstractLogCompactor.Throttler throttler;
+    // Extracts the metadata of several entry logs at the same time, or null to extract them one at a time
+    private final ExecutorService metadataExtractionExecutor;
     /**
      * Create a garbage collector thread.
      *
@@ -157,6 +176,27 @@ public class GarbageCollectorThread extends SafeRunnable {
                                   StatsLogger statsLogger,
                                   ScheduledExecutorService gcExecutor)
         throws IOException {
+        this(conf, ledgerManager, ledgerDirsManager, ledgerStorage, statsLogger, gcExecutor, null);
+    }
+
+    /**
+     * Create a garbage collector thread.
+     *
+     * @param conf
+     *          Server Configuration Object.
+     * @param compactionScheduler
+     *          scheduler shared with the garbage collectors of the other ledger directories. If null, and
+     *          concurrent compaction is enabled, the garbage collector creates its own scheduler
+     * @throws IOException
+     */
+    public GarbageCollectorThread(ServerConfiguration conf,
+                                  LedgerManager ledgerManager,
+                                  final LedgerDirsManager ledgerDirsManager,
+                                  final CompactableLedgerStorage ledgerStorage,
+                                  StatsLogger statsLogger,
+                                  ScheduledExecutorService gcExecutor,
+                                  EntryLogCompactionScheduler compactionScheduler)
+        throws IOException {
         this.gcExecutor = gcExecutor;
         this.conf = conf;
 
@@ -169,11 +209,19 @@ public class GarbageCollectorThread extends SafeRunnable {
         this.numActiveEntryLogs = 0;
         this.totalEntryLogSize = 0L;
         this.garbageCollector = new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, statsLogger);
+        if (conf.isGcLedgerDeletionNotificationsEnabled()) {
+            this.incrementalGarbageCollector = new IncrementalGarbageCollector(ledgerManager, ledgerStorage,
+                    garbageCollector, conf, ledgerDirsManager.getAllLedgerDirs().get(0),
+                    this::scheduleDeletedLedgersGc);
+        } else {
+            this.incrementalGarbageCollector = null;
+        }
         this.gcStats = new GarbageCollectorStats(
             statsLogger,
             () -> numActiveEntryLogs,
             () -> totalEntryLogSize,
-            () -> garbageCollector.getNumActiveLedgers()
+            () -> incrementalGarbageCollector != null ? incrementalGarbageCollector.getNumActiveLedgers()
+                    : garbageCollector.getNumActiveLedgers()
         );
 
         this.garbageCleaner = ledgerId -> {
@@ -212,13 +260,28 @@ public class GarbageCollectorThread extends SafeRunnable {
                 }
             }
         };
+        if (compactionScheduler == null && conf.getCompactionThreads() > 0) {
+            this.compactionScheduler = new EntryLogCompactionScheduler(conf);
+            this.ownsCompactionScheduler = true;
+        } else {
+            this.compactionScheduler = compactionScheduler;
+            this.ownsCompactionScheduler = false;
+        }
+        AbstractLogCompactor.Throttler compactionThrottler = this.compactionScheduler != null
+                ? this.compactionScheduler.getThrottler() : new AbstractLogCompactor.Throttler(conf);
+
         if (conf.getUseTransactionalCompaction()) {
-            this.compactor = new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
+            this.compactor = new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage, remover,
+                    compactionThrottler);
         } else {
-            this.compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
+            this.compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, remover, compactionThrottler);
         }
 
         this.throttler = new AbstractLogCompactor.Throttler(conf);
+        int extractionThreads = conf.getGcEntryLogMetadataExtractionThreads();
+        this.metadataExtractionExecutor = extractionThreads > 0
+                ? Executors.newFixedThreadPool(extractionThreads, new DefaultThreadFactory("EntryLogMetadataExtraction"))
+                : null;
         if (minorCompactionInterval > 0 && minorCompactionThreshold > 0) {
             if (minorCompactionThreshold > 1.0f) {
                 throw new IOException("Invalid minor compaction threshold "
@@ -405,6 +468,8 @@ public class GarbageCollectorThread extends SafeRunnable {
             // gc entry logs
             doGcEntryLogs();
 
+            entryLogger.releaseIdleMappings();
+
             if (suspendMajor) {
                 LOG.info("Disk almost full, suspend major compaction to slow down filling disk.");
             }
@@ -462,7 +527,31 @@ public class GarbageCollectorThread extends SafeRunnable {
      * Do garbage collection ledger index files.
      */
     private void doGcLedgers() {
-        garbageCollector.gc(garbageCleaner);
+        if (incrementalGarbageCollector != null) {
+            incrementalGarbageCollector.gc(garbageCleaner);
+        } else {
+            garbageCollector.gc(garbageCleaner);
+        }
+    }
+
+    /**
+     * Schedule a run shortly after a ledger is reported as deleted, batching the deletions reported meanwhile.
+     */
+    private void scheduleDeletedLedgersGc() {
+        if (!running || !deletedLedgersGcScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            gcExecutor.schedule(() -> {
+                deletedLedgersGcScheduled.set(false);
+                runWithFlags(forceGarbageCollection.get(), suspendMajorCompaction.get(),
+                        suspendMinorCompaction.get());
+            }, DELETED_LEDGERS_GC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            deletedLedgersGcScheduled.set(false);
+        }
     }
 
     /**
@@ -531,6 +620,11 @@ public class GarbageCollectorThread extends SafeRunnable {
     @VisibleForTesting
     void doCompactEntryLogs(double threshold, long maxTimeMillis) throws EntryLogMetadataMapException {
         LOG.info("Do compaction to compact those files lower than {}", threshold);
+        compactionProgress.reset();
+        if (compactionScheduler != null) {
+            doCompactEntryLogsConcurrently(threshold, maxTimeMillis);
+            return;
+        }
 
         final int numBuckets = 10;
         int[] entryLogUsageBuckets = new int[numBuckets];
@@ -563,6 +657,8 @@ public class GarbageCollectorThread extends SafeRunnable {
             compactEntryLog(meta);
             gcStats.getReclaimedSpaceViaCompaction().add(meta.getTotalSize() - priorRemainingSize);
             compactedBuckets[bucketIndex]++;
+            compactionProgress.compactedEntryLogs.incrementAndGet();
+            compactionProgress.reclaimedBytes.addAndGet(meta.getTotalSize() - priorRemainingSize);
         });
         if (LOG.isDebugEnabled()) {
             if (!running) {
@@ -577,6 +673,59 @@ public class GarbageCollectorThread extends SafeRunnable {
                 entryLogUsageBuckets, compactedBuckets);
     }
 
+    /**
+     * Compact the entry logs below the threshold through the compaction scheduler, starting from the ones whose
+     * compaction reclaims the most space for the I/O it costs.
+     */
+    private void doCompactEntryLogsConcurrently(double threshold, long maxTimeMillis)
+            throws EntryLogMetadataMapException {
+        final int numBuckets = 10;
+        int[] entryLogUsageBuckets = new int[numBuckets];
+        AtomicIntegerArray compactedBuckets = new AtomicIntegerArray(numBuckets);
+
+        long deadline = maxTimeMillis > 0 ? System.currentTimeMillis() + maxTimeMillis : Long.MAX_VALUE;
+        List<EntryLogMetadata> candidates = new ArrayList<>();
+        entryLogMetaMap.forEach((entryLogId, meta) -> {
+            entryLogUsageBuckets[calculateUsageIndex(numBuckets, meta.getUsage())]++;
+            if (meta.getUsage() < threshold) {
+                candidates.add(meta);
+            }
+        });
+
+        // The transactional compactor writes all the compacted entries to a single compaction log
+        int parallelism = compactor instanceof TransactionalEntryLogCompactor ? 1 : compactionScheduler.getThreads();
+
+        // Hold the compacting flag for the whole batch, so that shutdown waits for the running compactions
+        if (!candidates.isEmpty() && compacting.compareAndSet(false, true)) {
+            try {
+                compactionScheduler.compact(candidates, parallelism,
+                        () -> running && System.currentTimeMillis() < deadline,
+                        meta -> {
+                            if (LOG.isDebugEnabled()) {
+                                LOG.debug("Compacting entry log {} with usage {} below threshold {}",
+                                        meta.getEntryLogId(), meta.getUsage(), threshold);
+                            }
+                            long priorRemainingSize = meta.getRemainingSize();
+                            if (!compactor.compact(meta)) {
+                                return false;
+                            }
+                            gcStats.getReclaimedSpaceViaCompaction().add(meta.getTotalSize() - priorRemainingSize);
+                            compactedBuckets.incrementAndGet(calculateUsageIndex(numBuckets, meta.getUsage()));
+                            return true;
+                        }, compactionProgress);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while waiting for the entry logs compaction");
+            } finally {
+                compacting.set(false);
+            }
+        }
+
+        LOG.info(
+                "Compaction: entry log usage buckets[10% 20% 30% 40% 50% 60% 70% 80% 90% 100%] = {}, compacted {}",
+                entryLogUsageBuckets, compactedBuckets);
+    }
+
     /**
      * Calculate the index for the batch based on the usage between 0 and 1.
      *
@@ -602,6 +751,11 @@ public class GarbageCollectorThread extends SafeRunnable {
         }
         LOG.info("Shutting down GarbageCollectorThread");
 
+        if (compactionScheduler != null) {
+            // Do not start the compaction of the entry logs still waiting in the scheduler
+            this.running = false;
+        }
+
         while (!compacting.compareAndSet(false, true)) {
             // Wait till the thread stops compacting
             Thread.sleep(100);
@@ -610,6 +764,19 @@ public class GarbageCollectorThread extends SafeRunnable {
         this.running = false;
         // Interrupt GC executor thread
         gcExecutor.shutdownNow();
+        if (incrementalGarbageCollector != null) {
+            incrementalGarbageCollector.close();
+        }
+        if (metadataExtractionExecutor != null) {
+            // Wait for the running extractions before closing the entry log metadata map
+            metadataExtractionExecutor.shutdown();
+            while (!metadataExtractionExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOG.info("Waiting for the entry log metadata extractions to complete");
+            }
+        }
+        if (ownsCompactionScheduler) {
+            compactionScheduler.shutdown();
+        }
         try {
             entryLogMetaMap.close();
         } catch (Exception e) {
@@ -664,6 +831,9 @@ public class GarbageCollectorThread extends SafeRunnable {
      * Method to read in all of the entry logs (those that we haven't done so yet),
      * and find the set of ledger ID's that make up each entry log file.
      *
+     * <p>The metadata of each entry log is stored in the entry log metadata map as soon as it is extracted, so that
+     * with a persistent map a restart only extracts the entry logs that were not done yet.
+     *
      * @throws EntryLogMetadataMapException
      */
     protected void extractMetaFromEntryLogs() throws EntryLogMetadataMapException {
@@ -671,11 +841,12 @@ public class GarbageCollectorThread extends SafeRunnable {
         // to a new one. We scan entry logs as follows:
         // - entryLogPerLedgerEnabled is false: Extract it for every entry log except for the current one (un-flushed).
         // - entryLogPerLedgerEnabled is true: Scan all flushed entry logs up to the highest known id.
-        Supplier<Long> finalEntryLog = () -> conf.isEntryLogPerLedgerEnabled() ? entryLogger.getLastLogId() :
+        long finalEntryLog = conf.isEntryLogPerLedgerEnabled() ? entryLogger.getLastLogId() :
                 entryLogger.getLeastUnflushedLogId();
-        boolean hasExceptionWhenScan = false;
-        boolean increaseScannedLogId = true;
-        for (long entryLogId = scannedLogId; entryLogId < finalEntryLog.get(); entryLogId++) {
+        // First entry log that will have to be scanned again on the next gc run
+        long nextScannedLogId = Math.max(scannedLogId, finalEntryLog);
+        List<Long> entryLogsToExtract = new ArrayList<>();
+        for (long entryLogId = scannedLogId; entryLogId < finalEntryLog; entryLogId++) {
             // Comb the current entry log file if it has not already been extracted.
             if (entryLogMetaMap.containsKey(entryLogId)) {
                 continue;
@@ -692,37 +863,100 @@ public class GarbageCollectorThread extends SafeRunnable {
             if (conf.isEntryLogPerLedgerEnabled() && !entryLogger.isFlushedEntryLog(entryLogId)) {
                 LOG.info("Entry log {} not flushed (entryLogPerLedgerEnabled). Starting next iteration at this point.",
                         entryLogId);
-                increaseScannedLogId = false;
+                nextScannedLogId = Math.min(nextScannedLogId, entryLogId);
                 continue;
             }
 
-            LOG.info("Extracting entry log meta from entryLogId: {}", entryLogId);
+            entryLogsToExtract.add(entryLogId);
+        }
 
+        // if scan failed on some entry log, we don't move 'scannedLogId' past it
+        // if scan succeed, we don't need to scan it again during next gc run
+        if (metadataExtractionExecutor == null) {
+            for (long entryLogId : entryLogsToExtract) {
+                if (!extractMetaFromEntryLog(entryLogId)) {
+                    nextScannedLogId = Math.min(nextScannedLogId, entryLogId);
+                }
+            }
+        } else {
+            nextScannedLogId = Math.min(nextScannedLogId, extractMetaFromEntryLogsConcurrently(entryLogsToExtract));
+        }
+        scannedLogId = nextScannedLogId;
+    }
+
+    /**
+     * Extract the metadata of the entry logs on the extraction threads, lowest entry log id first.
+     *
+     * @return the first entry log whose metadata could not be extracted, or {@link Long#MAX_VALUE}
+     */
+    private long extractMetaFromEntryLogsConcurrently(List<Long> entryLogIds) throws EntryLogMetadataMapException {
+        List<Future<Boolean>> futures = new ArrayList<>(entryLogIds.size());
+        for (long entryLogId : entryLogIds) {
             try {
-                // Read through the entry log file and extract the entry log meta
-                EntryLogMetadata entryLogMeta = entryLogger.getEntryLogMetadata(entryLogId, throttler);
-                removeIfLedgerNotExists(entryLogMeta);
-                if (entryLogMeta.isEmpty()) {
-                    entryLogger.removeEntryLog(entryLogId);
-                    // remove it from entrylogmetadata-map if it is present in
-                    // the map
-                    entryLogMetaMap.remove(entryLogId);
+                // The extractions still queued on shutdown are skipped
+                futures.add(metadataExtractionExecutor.submit(() -> running && extractMetaFromEntryLog(entryLogId)));
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                break;
+            }
+        }
+
+        long firstFailedLogId = Long.MAX_VALUE;
+        EntryLogMetadataMapException mapException = null;
+        for (int i = 0; i < entryLogIds.size(); i++) {
+            long entryLogId = entryLogIds.get(i);
+            boolean extracted = false;
+            try {
+                extracted = i < futures.size() && futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Let the running extractions complete, they are writing to the entry log metadata map
+                futures.subList(i, futures.size()).forEach(f -> f.cancel(false));
+                return Math.min(firstFailedLogId, entryLogId);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof EntryLogMetadataMapException) {
+                    mapException = (EntryLogMetadataMapException) e.getCause();
                 } else {
-                    entryLogMetaMap.put(entryLogId, entryLogMeta);
+                    LOG.warn("Failed to extract entry log meta from entryLogId: {}", entryLogId, e.getCause());
                 }
-            } catch (IOException e) {
-                hasExceptionWhenScan = true;
-                LOG.warn("Premature exception when processing " + entryLogId
-                         + " recovery will take care of the problem", e);
             }
 
-            // if scan failed on some entry log, we don't move 'scannedLogId' to next id
-            // if scan succeed, we don't need to scan it again during next gc run,
-            // we move 'scannedLogId' to next id (unless entryLogPerLedgerEnabled is true
-            // and we have found and un-flushed entry log already).
-            if (!hasExceptionWhenScan && (!conf.isEntryLogPerLedgerEnabled() || increaseScannedLogId)) {
-                ++scannedLogId;
+            if (!extracted) {
+                firstFailedLogId = Math.min(firstFailedLogId, entryLogId);
+            }
+        }
+
+        if (mapException != null) {
+            throw mapException;
+        }
+        return firstFailedLogId;
+    }
+
+    /**
+     * Extract the metadata of an entry log and store it in the entry log metadata map.
+     *
+     * @return false if the entry log could not be read and must be scanned again on the next run
+     */
+    private boolean extractMetaFromEntryLog(long entryLogId) throws EntryLogMetadataMapException {
+        LOG.info("Extracting entry log meta from entryLogId: {}", entryLogId);
+
+        try {
+            // Read through the entry log file and extract the entry log meta
+            EntryLogMetadata entryLogMeta = entryLogger.getEntryLogMetadata(entryLogId, throttler);
+            removeIfLedgerNotExists(entryLogMeta);
+            if (entryLogMeta.isEmpty()) {
+                entryLogger.removeEntryLog(entryLogId);
+                // remove it from entrylogmetadata-map if it is present in
+                // the map
+                entryLogMetaMap.remove(entryLogId);
+            } else {
+                entryLogMetaMap.put(entryLogId, entryLogMeta);
             }
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Premature exception when processing " + entryLogId
+                     + " recovery will take care of the problem", e);
+            return false;
         }
     }
 
@@ -744,6 +978,11 @@ public class GarbageCollectorThread extends SafeRunnable {
             .lastMinorCompactionTime(lastMinorCompactionTime)
             .majorCompactionCounter(gcStats.getMajorCompactionCounter().get())
             .minorCompactionCounter(gcStats.getMinorCompactionCounter().get())
+            .compactionPendingEntryLogs(compactionProgress.pendingEntryLogs.get())
+            .compactingEntryLogs(compactionProgress.compactingEntryLogs.get())
+            .compactedEntryLogs(compactionProgress.compactedEntryLogs.get())
+            .compactionPendingReclaimableBytes(compactionProgress.pendingReclaimableBytes.get())
+            .compactionReclaimedBytes(compactionProgress.reclaimedBytes.get())
             .build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,287 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.bookkeeper.common.concurrent.FutureUtils.result;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerDeletionListener;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Garbage collector driven by the ledger deletion notifications of the metadata store.
+ *
+ * <p>Instead of listing all the ledgers of the metadata store on every run, a single listener of the deletions of
+ * all the ledgers is registered in the metadata store, and the deleted ledgers stored in the bookie are collected on
+ * the next run. The metadata of each of them is read again before collecting it.
+ *
+ * <p>The time of the last full scan, and the ledgers reported as deleted but not collected yet, are persisted in
+ * the ledger directory, so that a restart does not trigger a full scan. The full scan of
+ * {@link ScanAndCompareGarbageCollector}, which also removes the over-replicated ledgers, runs every
+ * {@link ServerConfiguration#getGcFullScanIntervalMillis()} to collect the ledgers deleted while the bookie was
+ * down. It runs on the next run instead when notifications might have been missed, and on every run when the
+ * metadata store does not support the deletion listeners.
+ */
+public class IncrementalGarbageCollector implements GarbageCollector {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalGarbageCollector.class);
+
+    static final String STATE_FILE = "gc-deleted-ledgers";
+
+    private final LedgerManager ledgerManager;
+    private final CompactableLedgerStorage ledgerStorage;
+    private final ScanAndCompareGarbageCollector fullScanCollector;
+    private final long fullScanIntervalMillis;
+    private final long zkOpTimeoutMs;
+    private final File stateFile;
+
+    // Called when a ledger is reported as deleted, to trigger a run of the garbage collector
+    private final Runnable deletionListener;
+
+    private final ConcurrentLongHashSet deletedLedgers;
+    private final LedgerDeletionListener ledgerDeletionListener = new LedgerDeletionListener() {
+        @Override
+        public void onLedgerDeleted(long ledgerId) {
+            IncrementalGarbageCollector.this.onLedgerDeleted(ledgerId);
+        }
+
+        @Override
+        public void onDeletionsMissed() {
+            if (subscribed) {
+                LOG.info("Ledger deletions might have been missed, the next garbage collection does a full scan");
+                subscribed = false;
+            }
+        }
+    };
+
+    // Whether the deletions are notified since the last run
+    private volatile boolean subscribed = false;
+    private boolean registered = false;
+    private boolean subscriptionSupported = true;
+    // Whether deletions might have been missed since the last full scan
+    private boolean deletionsMissed = false;
+
+    private volatile long lastFullScanTime;
+    private volatile int activeLedgerCounter;
+
+    public IncrementalGarbageCollector(LedgerManager ledgerManager, CompactableLedgerStorage ledgerStorage,
+                                       ScanAndCompareGarbageCollector fullScanCollector, ServerConfiguration conf,
+                                       File stateDir, Runnable deletionListener) {
+        this.ledgerManager = ledgerManager;
+        this.ledgerStorage = ledgerStorage;
+        this.fullScanCollector = fullScanCollector;
+        this.fullScanIntervalMillis = conf.getGcFullScanIntervalMillis();
+        this.zkOpTimeoutMs = conf.getZkTimeout() * 2;
+        this.stateFile = new File(stateDir, STATE_FILE);
+        this.deletionListener = deletionListener;
+
+        this.deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
+        loadState();
+    }
+
+    public int getNumActiveLedgers() {
+        return activeLedgerCounter;
+    }
+
+    @Override
+    public void gc(GarbageCleaner garbageCleaner) {
+        if (null == ledgerManager) {
+            // if ledger manager is null, the bookie is not started to connect to metadata store.
+            // so skip garbage collection
+            return;
+        }
+
+        // Persist the ledgers notified since the previous run
+        boolean stateChanged = !deletedLedgers.isEmpty();
+        try {
+            // Subscribe before the full scan, so that the ledgers deleted during the scan are notified
+            boolean notified = subscribe();
+            long now = System.currentTimeMillis();
+            if (!notified || deletionsMissed || now - lastFullScanTime >= fullScanIntervalMillis) {
+                LOG.info("Start full scan of the ledgers in the metadata store");
+                fullScanCollector.gc(garbageCleaner);
+                lastFullScanTime = now;
+                deletionsMissed = !notified;
+                stateChanged = true;
+            }
+
+            for (long ledgerId : deletedLedgers.items()) {
+                if (!ledgerStorage.ledgerExists(ledgerId)) {
+                    // Already collected by the full scan
+                    deletedLedgers.remove(ledgerId);
+                    stateChanged = true;
+                } else if (isDeletedFromMetadata(ledgerId)) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Collecting ledger {} deleted from the metadata store", ledgerId);
+                    }
+                    garbageCleaner.clean(ledgerId);
+                    deletedLedgers.remove(ledgerId);
+                    stateChanged = true;
+                }
+            }
+
+            int activeLedgers = 0;
+            for (long ignored : ledgerStorage.getActiveLedgersInRange(0, Long.MAX_VALUE)) {
+                activeLedgers++;
+            }
+            activeLedgerCounter = activeLedgers;
+        } catch (Throwable t) {
+            // ignore exception, collecting garbage next time
+            LOG.warn("Exception when collecting the deleted ledgers", t);
+        }
+
+        if (stateChanged) {
+            persistState();
+        }
+    }
+
+    /**
+     * Register the ledger deletion listener, if it is not registered yet.
+     *
+     * <p>The ledgers deleted while the bookie was down are collected by the periodic full scan, while the deletions
+     * missed because of a failed or lost subscription are collected by a full scan on the next run.
+     *
+     * @return whether the deletions are notified
+     */
+    private boolean subscribe() {
+        if (subscribed) {
+            return true;
+        } else if (!subscriptionSupported) {
+            return false;
+        } else if (registered) {
+            deletionsMissed = true;
+        }
+
+        try {
+            result(ledgerManager.registerLedgerDeletionListener(ledgerDeletionListener), zkOpTimeoutMs,
+                    TimeUnit.MILLISECONDS);
+        } catch (UnsupportedOperationException e) {
+            LOG.warn("The metadata store does not notify the ledger deletions, falling back to full scans");
+            subscriptionSupported = false;
+            return false;
+        } catch (Exception e) {
+            // Retry on next run
+            LOG.warn("Failed to register the ledger deletion listener : {}", e.getMessage());
+            deletionsMissed = true;
+            return false;
+        }
+
+        subscribed = true;
+        registered = true;
+        return true;
+    }
+
+    private void onLedgerDeleted(long ledgerId) {
+        try {
+            if (!ledgerStorage.ledgerExists(ledgerId)) {
+                // The notifications cover all the ledgers of the cluster
+                return;
+            }
+        } catch (IOException e) {
+            // Checked again before collecting the ledger
+        }
+
+        if (deletedLedgers.add(ledgerId)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Ledger {} was deleted from the metadata store", ledgerId);
+            }
+            deletionListener.run();
+        }
+    }
+
+    /**
+     * Check that a ledger reported as deleted is not in the metadata store anymore.
+     */
+    private boolean isDeletedFromMetadata(long ledgerId) {
+        try {
+            result(ledgerManager.readLedgerMetadata(ledgerId), zkOpTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (BKException.BKNoSuchLedgerExistsOnMetadataServerException e) {
+            return true;
+        } catch (Exception e) {
+            // Retry on next run
+            LOG.warn("Failed to verify the metadata of deleted ledger {} : {}", ledgerId, e.getMessage());
+            return false;
+        }
+
+        LOG.warn("Ledger {} was reported as deleted but is still in the metadata store", ledgerId);
+        deletedLedgers.remove(ledgerId);
+        return false;
+    }
+
+    public void close() {
+        if (registered) {
+            ledgerManager.unregisterLedgerDeletionListener(ledgerDeletionListener);
+        }
+    }
+
+    private void loadState() {
+        if (!stateFile.exists()) {
+            return;
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(stateFile.toPath(), UTF_8);
+            if (!lines.isEmpty()) {
+                lastFullScanTime = Long.parseLong(lines.get(0).trim());
+                for (String line : lines.subList(1, lines.size())) {
+                    deletedLedgers.add(Long.parseLong(line.trim()));
+                }
+            }
+            LOG.info("Loaded {} deleted ledgers pending garbage collection, last full scan at {}",
+                    deletedLedgers.size(), lastFullScanTime);
+        } catch (IOException | NumberFormatException e) {
+            // Fall back to a full scan
+            LOG.warn("Failed to load the garbage collector state from {}", stateFile, e);
+            lastFullScanTime = 0;
+        }
+    }
+
+    private synchronized void persistState() {
+        List<String> lines = new ArrayList<>();
+        lines.add(Long.toString(lastFullScanTime));
+        for (long ledgerId : deletedLedgers.items()) {
+            lines.add(Long.toString(ledgerId));
+        }
+
+        File tmpFile = new File(stateFile.getParentFile(), STATE_FILE + ".tmp");
+        try {
+            Files.write(tmpFile.toPath(), lines, UTF_8);
+            Files.move(tmpFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The ledgers reported as deleted are collected by the next full scan after a restart
+            LOG.warn("Failed to persist the garbage collector state to {}", stateFile, e);
+        }
+    }
+}
@@ -28,17 +28,13 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.NUM_INDEX_PAGES
 
 import com.google.common.base.Stopwatch;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.bookkeeper.bookie.stats.IndexInMemPageMgrStats;
@@ -48,27 +44,40 @@ import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.DirectMemoryUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class IndexInMemPageMgr {
     private static final Logger LOG = LoggerFactory.getLogger(IndexInMemPageMgr.class);
-    private static final ConcurrentHashMap<Long, LedgerEntryPage> EMPTY_PAGE_MAP =
-            new ConcurrentHashMap<Long, LedgerEntryPage>();
 
+    // Size of the blocks of direct memory the pages are sliced from
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Page tables and eviction of the pages in memory.
+     *
+     * <p>The pages are looked up in lock-striped tables keyed by ledger, then by first entry of the page, without
+     * boxing the keys. The clean pages are evicted with the clock algorithm: the pages sit in a circular list that a
+     * hand goes through, skipping the pages in use or dirty, and giving a second chance to the pages used since the
+     * hand last passed them. Using or releasing a page only sets its reference bit, instead of moving it in a shared
+     * LRU list under a lock.
+     */
     private static class InMemPageCollection implements LEPStateChangeCallback {
 
-        final ConcurrentMap<Long, ConcurrentMap<Long, LedgerEntryPage>> pages;
-        final Map<EntryKey, LedgerEntryPage> lruCleanPageMap;
+        final ConcurrentLongHashMap<ConcurrentLongHashMap<LedgerEntryPage>> pages;
         final ConcurrentLinkedQueue<LedgerEntryPage> listOfFreePages;
 
+        // All the pages allocated, in the order the clock hand goes through them, guarded by the collection
+        private LedgerEntryPage[] clockPages = new LedgerEntryPage[64];
+        private int clockSize = 0;
+        private int clockHand = 0;
+
         // Stats
         private final IndexInMemPageMgrStats inMemPageMgrStats;
 
         public InMemPageCollection(StatsLogger statsLogger) {
-            pages = new ConcurrentHashMap<>();
-            lruCleanPageMap =
-                    Collections.synchronizedMap(new LinkedHashMap<EntryKey, LedgerEntryPage>(16, 0.75f, true));
+            pages = ConcurrentLongHashMap.<ConcurrentLongHashMap<LedgerEntryPage>>newBuilder().build();
             listOfFreePages = new ConcurrentLinkedQueue<LedgerEntryPage>();
             inMemPageMgrStats = new IndexInMemPageMgrStats(statsLogger);
         }
@@ -81,7 +90,7 @@ class IndexInMemPageMgr {
          * @returns LedgerEntryPage if present
          */
         private LedgerEntryPage getPage(long ledgerId, long firstEntry) {
-            ConcurrentMap<Long, LedgerEntryPage> map = pages.get(ledgerId);
+            ConcurrentLongHashMap<LedgerEntryPage> map = pages.get(ledgerId);
             if (null != map) {
                 return map.get(firstEntry);
             }
@@ -94,22 +103,13 @@ class IndexInMemPageMgr {
          * @param lep Ledger Entry Page object
          */
         private LedgerEntryPage putPage(LedgerEntryPage lep) {
-            // Do a get here to avoid too many new ConcurrentHashMaps() as putIntoTable is called frequently.
-            ConcurrentMap<Long, LedgerEntryPage> map = pages.get(lep.getLedger());
-            if (null == map) {
-                ConcurrentMap<Long, LedgerEntryPage> mapToPut = new ConcurrentHashMap<Long, LedgerEntryPage>();
-                map = pages.putIfAbsent(lep.getLedger(), mapToPut);
-                if (null == map) {
-                    map = mapToPut;
-                }
-            }
+            // Most ledgers only have a few pages in memory at a time
+            ConcurrentLongHashMap<LedgerEntryPage> map = pages.computeIfAbsent(lep.getLedger(),
+                    ledgerId -> ConcurrentLongHashMap.<LedgerEntryPage>newBuilder()
+                            .expectedItems(8).concurrencyLevel(1).build());
             LedgerEntryPage oldPage = map.putIfAbsent(lep.getFirstEntry(), lep);
             if (null == oldPage) {
                 oldPage = lep;
-                // Also include this in the clean page map if it qualifies.
-                // Note: This is done for symmetry and correctness, however it should never
-                // get exercised since we shouldn't attempt a put without the page being in use
-                addToCleanPagesList(lep);
             }
             return oldPage;
         }
@@ -123,7 +123,7 @@ class IndexInMemPageMgr {
         private long getLastEntryInMem(long ledgerId) {
             long lastEntry = 0;
             // Find the last entry in the cache
-            ConcurrentMap<Long, LedgerEntryPage> map = pages.get(ledgerId);
+            ConcurrentLongHashMap<LedgerEntryPage> map = pages.get(ledgerId);
             if (map != null) {
                 for (LedgerEntryPage lep: map.values()) {
                     if (lep.getMaxPossibleEntry() < lastEntry) {
@@ -148,10 +148,9 @@ class IndexInMemPageMgr {
          */
         private void removeEntriesForALedger(long ledgerId) {
             // remove pages first to avoid page flushed when deleting file info
-            ConcurrentMap<Long, LedgerEntryPage> lPages = pages.remove(ledgerId);
+            ConcurrentLongHashMap<LedgerEntryPage> lPages = pages.remove(ledgerId);
             if (null != lPages) {
-                for (Map.Entry<Long, LedgerEntryPage> pageEntry: lPages.entrySet()) {
-                    LedgerEntryPage lep = pageEntry.getValue();
+                for (LedgerEntryPage lep: lPages.values()) {
                     lep.usePage();
                     lep.markDeleted();
                     lep.releasePage();
@@ -167,60 +166,59 @@ class IndexInMemPageMgr {
          * @returns last entry in the in memory pages.
          */
         private LinkedList<Long> getFirstEntryListToBeFlushed(long ledgerId) {
-            ConcurrentMap<Long, LedgerEntryPage> pageMap = pages.get(ledgerId);
+            ConcurrentLongHashMap<LedgerEntryPage> pageMap = pages.get(ledgerId);
             if (pageMap == null || pageMap.isEmpty()) {
                 return null;
             }
 
             LinkedList<Long> firstEntryList = new LinkedList<Long>();
-            for (ConcurrentMap.Entry<Long, LedgerEntryPage> entry: pageMap.entrySet()) {
-                LedgerEntryPage lep = entry.getValue();
+            pageMap.forEach((firstEntry, lep) -> {
                 if (lep.isClean()) {
-                    if (!lep.inUse()) {
-                        addToCleanPagesList(lep);
-                    }
                     if (LOG.isTraceEnabled()) {
                         LOG.trace("Page is clean " + lep);
                     }
                 } else {
-                    firstEntryList.add(lep.getFirstEntry());
+                    firstEntryList.add(firstEntry);
                 }
-            }
+            });
             return firstEntryList;
         }
 
         /**
-         * Add the LedgerEntryPage to the clean page LRU map.
+         * Add a newly allocated page to the pages the clock goes through.
          *
          * @param lep Ledger Entry Page object
          */
-        private void addToCleanPagesList(LedgerEntryPage lep) {
-            synchronized (lruCleanPageMap) {
-                if (lep.isClean() && !lep.inUse()) {
-                    lruCleanPageMap.put(lep.getEntryKey(), lep);
-                }
+        private synchronized void addToClock(LedgerEntryPage lep) {
+            if (clockSize == clockPages.length) {
+                clockPages = Arrays.copyOf(clockPages, clockSize * 2);
             }
+            clockPages[clockSize++] = lep;
         }
 
         /**
-         * Remove the LedgerEntryPage from the clean page LRU map.
+         * Move the clock hand to the next page.
          *
-         * @param lep Ledger Entry Page object
+         * @returns the page under the hand, or null if no page was allocated yet
          */
-        private void removeFromCleanPageList(LedgerEntryPage lep) {
-            synchronized (lruCleanPageMap) {
-                if (!lep.isClean() || lep.inUse()) {
-                    lruCleanPageMap.remove(lep.getEntryKey());
-                }
+        private synchronized LedgerEntryPage advanceClockHand() {
+            if (clockSize == 0) {
+                return null;
             }
+            clockHand = (clockHand + 1) % clockSize;
+            return clockPages[clockHand];
+        }
+
+        private synchronized int getClockSize() {
+            return clockSize;
         }
 
         /**
          * Get the set of active ledgers.
          *
          */
-        Set<Long> getActiveLedgers() {
-            return pages.keySet();
+        List<Long> getActiveLedgers() {
+            return pages.keys();
         }
 
         /**
@@ -238,55 +236,48 @@ class IndexInMemPageMgr {
                 lep.usePage();
                 return lep;
             }
-            while (lruCleanPageMap.size() > 0) {
-                lep = null;
-                synchronized (lruCleanPageMap) {
-                    Iterator<Map.Entry<EntryKey, LedgerEntryPage>> iterator = lruCleanPageMap.entrySet().iterator();
-
-                    Map.Entry<EntryKey, LedgerEntryPage> entry = null;
-                    while (iterator.hasNext()) {
-                        entry = iterator.next();
-                        iterator.remove();
-                        if (entry.getValue().isClean() && !entry.getValue().inUse()) {
-                            lep = entry.getValue();
-                            break;
-                        }
-                    }
 
-                    if (null == lep) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Did not find eligible page in the first pass");
-                        }
-                        return null;
-                    }
+            // Go around the clock up to twice: the pages given a second chance in the first round are eligible in
+            // the second one, unless they were used again in between
+            int maxSteps = 2 * getClockSize() + 1;
+            for (int i = 0; i < maxSteps; i++) {
+                lep = advanceClockHand();
+                if (null == lep) {
+                    break;
+                }
+                if (!lep.isClean() || lep.inUse() || lep.clearReferenced()) {
+                    continue;
                 }
 
                 // We found a candidate page, lets see if we can reclaim it before its re-used
-                ConcurrentMap<Long, LedgerEntryPage> pageMap = pages.get(lep.getLedger());
+                ConcurrentLongHashMap<LedgerEntryPage> pageMap = pages.get(lep.getLedger());
                 // Remove from map only if nothing has changed since we checked this lep.
                 // Its possible for the ledger to have been deleted or the page to have already
                 // been reclaimed. The page map is the definitive source of information, if anything
                 // has changed we should leave this page along and continue iterating to find
                 // another suitable page.
                 if ((null != pageMap) && (pageMap.remove(lep.getFirstEntry(), lep))) {
-                    if (!lep.isClean()) {
-                        // Someone wrote to this page while we were reclaiming it.
+                    if (!lep.isClean() || lep.inUse()) {
+                        // Someone used this page while we were reclaiming it.
                         pageMap.put(lep.getFirstEntry(), lep);
-                        lep = null;
                     } else {
                         // Do some bookkeeping on the page table
-                        pages.remove(lep.getLedger(), EMPTY_PAGE_MAP);
+                        if (pageMap.isEmpty()) {
+                            pages.remove(lep.getLedger(), pageMap);
+                        }
                         // We can now safely reset this lep and return it.
                         lep.usePage();
                         lep.zeroPage();
                         lep.setLedgerAndFirstEntry(ledgerId, firstEntry);
                         return lep;
                     }
-                } else {
-                    lep = null;
                 }
             }
-            return lep;
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Did not find eligible page after going around the clock");
+            }
+            return null;
         }
 
         public void addToListOfFreePages(LedgerEntryPage lep) {
@@ -300,26 +291,23 @@ class IndexInMemPageMgr {
 
         @Override
         public void onSetInUse(LedgerEntryPage lep) {
-            removeFromCleanPageList(lep);
+            lep.setReferenced();
         }
 
         @Override
         public void onResetInUse(LedgerEntryPage lep) {
-            if (!lep.isDeleted()) {
-                addToCleanPagesList(lep);
-            } else {
+            if (lep.isDeleted()) {
                 addToListOfFreePages(lep);
             }
         }
 
         @Override
         public void onSetClean(LedgerEntryPage lep) {
-            addToCleanPagesList(lep);
+            // The clock only looks at the state of the pages when going through them
         }
 
         @Override
         public void onSetDirty(LedgerEntryPage lep) {
-            removeFromCleanPageList(lep);
         }
     }
 
@@ -331,6 +319,11 @@ class IndexInMemPageMgr {
     // The number of pages that have actually been used
     private final AtomicInteger pageCount = new AtomicInteger(0);
 
+    // Block of direct memory the next pages are sliced from, guarded by this, so that the pages are not each a
+    // separate direct buffer
+    private ByteBuffer currentSlab = null;
+    private int slicedPages = 0;
+
     // The persistence manager that this page manager uses to
     // flush and read pages
     private final IndexPersistenceMgr indexPersistenceManager;
@@ -494,7 +487,8 @@ class IndexInMemPageMgr {
             }
 
             if (canAllocate) {
-                LedgerEntryPage lep = new LedgerEntryPage(pageSize, entriesPerPage, pageMapAndList);
+                LedgerEntryPage lep = new LedgerEntryPage(allocatePageBuffer(), entriesPerPage, pageMapAndList);
+                pageMapAndList.addToClock(lep);
                 lep.setLedgerAndFirstEntry(ledger, entry);
                 lep.usePage();
                 return lep;
@@ -510,6 +504,24 @@ class IndexInMemPageMgr {
         }
     }
 
+    /**
+     * Slice the memory of a new page from the current slab, allocating a new slab if it is full.
+     */
+    private synchronized ByteBuffer allocatePageBuffer() {
+        if (currentSlab == null || currentSlab.remaining() < pageSize) {
+            // Do not allocate more than the page limit
+            int pagesInSlab = Math.max(Math.min(SLAB_SIZE / pageSize, pageLimit - slicedPages), 1);
+            currentSlab = ByteBuffer.allocateDirect(pagesInSlab * pageSize);
+        }
+
+        currentSlab.limit(currentSlab.position() + pageSize);
+        ByteBuffer page = currentSlab.slice();
+        currentSlab.position(currentSlab.limit());
+        currentSlab.limit(currentSlab.capacity());
+        slicedPages++;
+        return page;
+    }
+
     void flushOneOrMoreLedgers(boolean doAll) throws IOException {
         List<Long> ledgersToFlush = new ArrayList<>(pageMapAndList.getActiveLedgers());
         for (Long potentiallyDirtyLedger : ledgersToFlush) {
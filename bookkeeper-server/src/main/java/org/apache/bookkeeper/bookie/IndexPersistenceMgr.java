@@ -182,15 +182,18 @@ public class IndexPersistenceMgr {
             CachedFileInfo fi;
             persistenceMgrStats.getPendingGetFileInfoCounter().inc();
             Callable<CachedFileInfo> loader = () -> {
+                persistenceMgrStats.getFileInfoCacheMissCounter().inc();
                 CachedFileInfo fileInfo = fileInfoBackingCache.loadFileInfo(ledger, masterKey);
                 activeLedgers.put(ledger, true);
                 return fileInfo;
             };
             do {
-                if (null != masterKey) {
-                    fi = writeFileInfoCache.get(ledger, loader);
+                Cache<Long, CachedFileInfo> cache = null != masterKey ? writeFileInfoCache : readFileInfoCache;
+                fi = cache.getIfPresent(ledger);
+                if (null != fi) {
+                    persistenceMgrStats.getFileInfoCacheHitCounter().inc();
                 } else {
-                    fi = readFileInfoCache.get(ledger, loader);
+                    fi = cache.get(ledger, loader);
                 }
                 if (!fi.tryRetain()) {
                     // defensively ensure that dead fileinfo objects don't exist in the
@@ -76,6 +76,7 @@ public abstract class LedgerDescriptor {
 
     abstract long addEntry(ByteBuf entry) throws IOException, BookieException;
     abstract ByteBuf readEntry(long entryId) throws IOException, BookieException;
+    abstract CompletableFuture<ByteBuf> readEntryAsync(long entryId);
 
     abstract long getLastAddConfirmed() throws IOException, BookieException;
     abstract boolean waitForLastAddConfirmedUpdate(long previousLAC,
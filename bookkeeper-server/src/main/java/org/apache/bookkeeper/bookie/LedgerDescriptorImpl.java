@@ -161,6 +161,11 @@ public class LedgerDescriptorImpl extends LedgerDescriptor {
         return ledgerStorage.getEntry(ledgerId, entryId);
     }
 
+    @Override
+    CompletableFuture<ByteBuf> readEntryAsync(long entryId) {
+        return ledgerStorage.getEntryAsync(ledgerId, entryId);
+    }
+
     @Override
     long getLastAddConfirmed() throws IOException, BookieException {
         return ledgerStorage.getLastAddConfirmed(ledgerId);
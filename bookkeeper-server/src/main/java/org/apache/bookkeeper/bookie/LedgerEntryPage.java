@@ -50,6 +50,8 @@ public class LedgerEntryPage implements AutoCloseable {
     private volatile int last = -1; // Last update position
     private final LEPStateChangeCallback callback;
     private boolean deleted;
+    // Second chance of the clock eviction of the page cache
+    private volatile boolean referenced;
 
     public static int getIndexEntrySize() {
         return indexEntrySize;
@@ -60,9 +62,16 @@ public class LedgerEntryPage implements AutoCloseable {
     }
 
     public LedgerEntryPage(int pageSize, int entriesPerPage, LEPStateChangeCallback callback) {
-        this.pageSize = pageSize;
+        this(ByteBuffer.allocateDirect(pageSize), entriesPerPage, callback);
+    }
+
+    /**
+     * Create a page backed by a buffer, such as a slice of a larger block of direct memory.
+     */
+    LedgerEntryPage(ByteBuffer page, int entriesPerPage, LEPStateChangeCallback callback) {
+        this.pageSize = page.capacity();
         this.entriesPerPage = entriesPerPage;
-        page = ByteBuffer.allocateDirect(pageSize);
+        this.page = page;
         this.callback = callback;
         if (null != this.callback) {
             callback.onResetInUse(this);
@@ -93,6 +102,21 @@ public class LedgerEntryPage implements AutoCloseable {
         return deleted;
     }
 
+    void setReferenced() {
+        referenced = true;
+    }
+
+    /**
+     * @return whether the page was referenced since the last call
+     */
+    boolean clearReferenced() {
+        if (referenced) {
+            referenced = false;
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -32,8 +32,10 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
@@ -145,6 +147,19 @@ public interface LedgerStorage {
      */
     ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Read an entry from storage, without blocking the caller on disk I/O.
+     *
+     * <p>The default implementation reads the entry synchronously in the caller thread.
+     */
+    default CompletableFuture<ByteBuf> getEntryAsync(long ledgerId, long entryId) {
+        try {
+            return FutureUtils.value(getEntry(ledgerId, entryId));
+        } catch (IOException | BookieException e) {
+            return FutureUtils.exception(e);
+        }
+    }
+
     /**
      * Get last add confirmed.
      *
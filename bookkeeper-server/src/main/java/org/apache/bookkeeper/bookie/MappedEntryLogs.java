@@ -0,0 +1,211 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledDirectByteBuf;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory mappings of the entry logs that are no longer written.
+ *
+ * <p>Each mapping is exposed as a reference counted {@link ByteBuf}: the entries are read as retained slices of it,
+ * without copying them, and the file is unmapped only once the mapping has been dropped and all the slices have
+ * been released. A mapping is dropped when its entry log is deleted, when it has not been read for the idle
+ * timeout, or to make room for other entry logs when the total mapped size is over the limit.
+ *
+ * <p>The files are mapped privately, so that writes to a mapping could never reach the file, and the mappings and
+ * the entries are only exposed through read-only buffers.
+ */
+class MappedEntryLogs {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedEntryLogs.class);
+
+    private final ByteBufAllocator allocator;
+    private final long maxSize;
+    private final long idleTimeoutNanos;
+
+    private final Map<Long, MappedEntryLog> mappings = new ConcurrentHashMap<>();
+    private final AtomicLong mappedSize = new AtomicLong();
+    // Guarded by this, so that a platform not able to map the entry logs doesn't log it for every read
+    private boolean mapFailureLogged = false;
+
+    MappedEntryLogs(ByteBufAllocator allocator, long maxSize, long idleTimeout, TimeUnit unit) {
+        this.allocator = allocator;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        if (!PlatformDependent.hasUnsafe()) {
+            LOG.warn("The entry log mappings can't be unmapped explicitly on this platform, the files will only be"
+                    + " unmapped once their mappings are garbage collected");
+        }
+    }
+
+    /**
+     * Get the mapping of an entry log, if it is already mapped.
+     *
+     * @return the mapping, retained for the caller, or null if the entry log is not mapped
+     */
+    ByteBuf acquire(long logId) {
+        MappedEntryLog mapping = mappings.get(logId);
+        if (mapping == null) {
+            return null;
+        }
+
+        mapping.lastAccessNanos = System.nanoTime();
+        try {
+            return mapping.retain().asReadOnly();
+        } catch (IllegalReferenceCountException e) {
+            // The mapping was dropped concurrently
+            return null;
+        }
+    }
+
+    /**
+     * Map an entry log.
+     *
+     * @return the mapping, retained for the caller, or null if the entry log cannot be mapped
+     */
+    synchronized ByteBuf map(long logId, File file) throws IOException {
+        // Another thread might have mapped it in the meantime
+        ByteBuf mapped = acquire(logId);
+        if (mapped != null) {
+            return mapped;
+        }
+
+        long length = file.length();
+        if (length == 0 || length > Integer.MAX_VALUE || length > maxSize) {
+            return null;
+        }
+
+        releaseIdleMappings();
+        makeRoom(length);
+
+        MappedByteBuffer buffer;
+        // Private mappings need a writable channel, though nothing is written to the file through them
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(MapMode.PRIVATE, 0, length);
+        } catch (IOException e) {
+            if (!mapFailureLogged) {
+                mapFailureLogged = true;
+                LOG.warn("Failed to map entry log {}, the entry logs that can't be mapped are read through the read"
+                        + " buffers", logId, e);
+            }
+            throw e;
+        }
+
+        MappedEntryLog mapping = new MappedEntryLog(buffer);
+        mappedSize.addAndGet(length);
+        mappings.put(logId, mapping);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Mapped entry log {} ({} bytes)", logId, length);
+        }
+        return mapping.retain().asReadOnly();
+    }
+
+    /**
+     * Drop the mapping of an entry log, if any.
+     */
+    void unmap(long logId) {
+        MappedEntryLog mapping = mappings.remove(logId);
+        if (mapping != null) {
+            mapping.release();
+        }
+    }
+
+    /**
+     * Drop the mappings that have not been read for the idle timeout.
+     */
+    void releaseIdleMappings() {
+        long now = System.nanoTime();
+        mappings.forEach((logId, mapping) -> {
+            if (now - mapping.lastAccessNanos > idleTimeoutNanos && mappings.remove(logId, mapping)) {
+                mapping.release();
+            }
+        });
+    }
+
+    private void makeRoom(long length) {
+        while (mappedSize.get() + length > maxSize && !mappings.isEmpty()) {
+            Map.Entry<Long, MappedEntryLog> lru = null;
+            for (Map.Entry<Long, MappedEntryLog> e : mappings.entrySet()) {
+                if (lru == null || e.getValue().lastAccessNanos - lru.getValue().lastAccessNanos < 0) {
+                    lru = e;
+                }
+            }
+
+            if (lru != null && mappings.remove(lru.getKey(), lru.getValue())) {
+                lru.getValue().release();
+            }
+        }
+    }
+
+    /**
+     * Total size of the mapped entry logs, including the dropped mappings whose entries are still being read.
+     */
+    long getMappedSize() {
+        return mappedSize.get();
+    }
+
+    void close() {
+        mappings.keySet().forEach(this::unmap);
+    }
+
+    /**
+     * Reference counted mapping of an entry log.
+     *
+     * <p>Netty only wraps writable buffers, which is why the files are mapped privately rather than read-only. The
+     * mapping is still never written: it is only exposed through {@link #asReadOnly()}.
+     */
+    private final class MappedEntryLog extends UnpooledDirectByteBuf {
+        private final MappedByteBuffer buffer;
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        MappedEntryLog(MappedByteBuffer buffer) {
+            // Wraps the mapping without freeing it, it is unmapped by deallocate()
+            super(allocator, buffer, buffer.capacity());
+            this.buffer = buffer;
+        }
+
+        @Override
+        protected void deallocate() {
+            super.deallocate();
+            PlatformDependent.freeDirectBuffer(buffer);
+            mappedSize.addAndGet(-buffer.capacity());
+        }
+    }
+}
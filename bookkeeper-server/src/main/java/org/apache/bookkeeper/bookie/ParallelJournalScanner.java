@@ -0,0 +1,140 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal scanner applying the journal records on a pool of workers.
+ *
+ * <p>The journal is read and decoded on the scanning thread, and each record is handed to the worker chosen by its
+ * ledger id, so that the records of a ledger are applied in the journal order. With the same number of workers as
+ * ledger directories, {@link org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage} stores the ledgers of a
+ * worker in a single directory, and each worker applies the records of one directory.
+ *
+ * <p>The records are copied before being handed to the workers, and the scanning thread blocks while the size of the
+ * records waiting to be applied is over the limit.
+ */
+class ParallelJournalScanner implements JournalScanner, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelJournalScanner.class);
+
+    private final JournalScanner scanner;
+    private final ExecutorService[] workers;
+    private final int maxPendingBytes;
+    private final Semaphore pendingBytes;
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+    ParallelJournalScanner(JournalScanner scanner, int numWorkers, int maxPendingBytes) {
+        this.scanner = scanner;
+        this.workers = new ExecutorService[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = Executors.newSingleThreadExecutor(new DefaultThreadFactory("JournalReplay-" + i));
+        }
+        this.maxPendingBytes = maxPendingBytes;
+        this.pendingBytes = new Semaphore(maxPendingBytes);
+    }
+
+    @Override
+    public void process(int journalVersion, long offset, ByteBuffer entry) throws IOException {
+        throwIfFailed();
+
+        long ledgerId = entry.getLong(entry.position());
+        ByteBuffer record = ByteBuffer.allocate(entry.remaining());
+        record.put(entry);
+        record.flip();
+
+        // A record bigger than the limit waits for all the others to be applied
+        int permits = Math.min(record.capacity(), maxPendingBytes);
+        acquire(permits);
+        workers[MathUtils.signSafeMod(ledgerId, workers.length)].execute(() -> {
+            try {
+                if (failure.get() == null) {
+                    scanner.process(journalVersion, offset, record);
+                }
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, new IOException("Failed to replay journal record at offset " + offset, t));
+            } finally {
+                pendingBytes.release(permits);
+            }
+        });
+    }
+
+    /**
+     * Wait until all the records handed to the workers are applied.
+     *
+     * @throws IOException if any record could not be applied
+     */
+    void drain() throws IOException {
+        acquire(maxPendingBytes);
+        pendingBytes.release(maxPendingBytes);
+        throwIfFailed();
+    }
+
+    private void acquire(int permits) throws IOException {
+        try {
+            pendingBytes.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying journal");
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : workers) {
+                if (!worker.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOG.warn("Journal replay worker did not terminate in time");
+                    worker.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
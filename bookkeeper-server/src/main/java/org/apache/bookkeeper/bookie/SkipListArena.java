@@ -20,6 +20,10 @@
  */
 package org.apache.bookkeeper.bookie;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -44,6 +48,11 @@ import org.apache.bookkeeper.conf.ServerConfiguration;
  * interleaved throughout the heap, and the old generation gets progressively
  * more fragmented until a stop-the-world compacting collection occurs.
  * </p>
+ * <p>
+ * When created with an allocator, the chunks are direct buffers from that allocator instead of byte[], so that
+ * the entries do not take heap space at all. The arena then owns the buffers until {@link #release()} is called,
+ * once the entries allocated from it are not needed anymore.
+ * </p>
  */
 public class SkipListArena {
     private AtomicReference<Chunk> curChunk = new AtomicReference<Chunk>();
@@ -52,16 +61,43 @@ public class SkipListArena {
 
     final int maxAlloc;
 
+    // Allocator of the direct chunks, null when the chunks are on heap
+    private final ByteBufAllocator directAllocator;
+
+    // Direct buffers allocated so far, to release with the arena
+    private final ConcurrentLinkedQueue<ByteBuf> directBuffers = new ConcurrentLinkedQueue<>();
+
     public SkipListArena(ServerConfiguration cfg) {
+        this(cfg, null);
+    }
+
+    public SkipListArena(ServerConfiguration cfg, ByteBufAllocator directAllocator) {
         chunkSize = cfg.getSkipListArenaChunkSize();
         maxAlloc = cfg.getSkipListArenaMaxAllocSize();
+        this.directAllocator = directAllocator;
         assert maxAlloc <= chunkSize;
     }
 
+    boolean isOffHeap() {
+        return directAllocator != null;
+    }
+
+    /**
+     * Release the direct buffers of the arena. The slices allocated from it must not be used afterwards, unless
+     * retained.
+     */
+    public void release() {
+        ByteBuf buffer;
+        while ((buffer = directBuffers.poll()) != null) {
+            buffer.release();
+        }
+    }
+
     /**
      * Allocate a slice of the given length.
      * <p>
-     * If the size is larger than the maximum size specified for this allocator, returns null.
+     * If the size is larger than the maximum size specified for this allocator, returns null, unless the arena is
+     * off-heap, in which case a direct buffer of that size is allocated.
      * </p>
      */
     public MemorySlice allocateBytes(int size) {
@@ -70,6 +106,11 @@ public class SkipListArena {
         // Callers should satisfy large allocations directly from JVM since they
         // don't cause fragmentation as badly.
         if (size > maxAlloc) {
+            if (directAllocator != null) {
+                ByteBuf buffer = directAllocator.directBuffer(size, size);
+                directBuffers.add(buffer);
+                return new MemorySlice(buffer, 0);
+            }
             return null;
         }
 
@@ -81,7 +122,8 @@ public class SkipListArena {
             if (allocOffset != -1) {
                 // We succeeded - this is the common case - small alloc
                 // from a big buffer
-                return new MemorySlice(c.data, allocOffset);
+                return c.buffer != null ? new MemorySlice(c.buffer, allocOffset)
+                        : new MemorySlice(c.data, allocOffset);
             }
 
             // not enough space!
@@ -114,9 +156,12 @@ public class SkipListArena {
             // No current chunk, so we want to allocate one. We race
             // against other allocators to CAS in an uninitialized chunk
             // (which is cheap to allocate)
-            c = new Chunk(chunkSize);
+            c = new Chunk(chunkSize, directAllocator);
             if (curChunk.compareAndSet(null, c)) {
                 c.init();
+                if (c.buffer != null) {
+                    directBuffers.add(c.buffer);
+                }
                 return c;
             }
             // lost race
@@ -130,6 +175,11 @@ public class SkipListArena {
         /** Actual underlying data. */
         private byte[] data;
 
+        /** Actual underlying data, when the chunk is off-heap. */
+        private ByteBuf buffer;
+
+        private final ByteBufAllocator directAllocator;
+
         private static final int UNINITIALIZED = -1;
         private static final int OOM = -2;
         /**
@@ -149,8 +199,9 @@ public class SkipListArena {
          * this is cheap.
          * @param size in bytes
          */
-        private Chunk(int size) {
+        private Chunk(int size, ByteBufAllocator directAllocator) {
             this.size = size;
+            this.directAllocator = directAllocator;
         }
 
         /**
@@ -161,7 +212,11 @@ public class SkipListArena {
         public void init() {
             assert nextFreeOffset.get() == UNINITIALIZED;
             try {
-                data = new byte[size];
+                if (directAllocator != null) {
+                    buffer = directAllocator.directBuffer(size, size);
+                } else {
+                    data = new byte[size];
+                }
             } catch (OutOfMemoryError e) {
                 boolean failInit = nextFreeOffset.compareAndSet(UNINITIALIZED, OOM);
                 assert failInit; // should be true.
@@ -188,7 +243,7 @@ public class SkipListArena {
                     return -1;
                 }
 
-                if (oldOffset + size > data.length) {
+                if (oldOffset + size > this.size) {
                     return -1; // alloc doesn't fit
                 }
 
@@ -205,7 +260,7 @@ public class SkipListArena {
         @Override
         public String toString() {
             return "Chunk@" + System.identityHashCode(this) + ": used(" + allocCount.get() + "), free("
-                    + (data.length - nextFreeOffset.get() + ")");
+                    + (size - nextFreeOffset.get() + ")");
         }
     }
 
@@ -216,22 +271,41 @@ public class SkipListArena {
     */
     public static class MemorySlice {
         private final byte[] data;
+        private final ByteBuf buffer;
         private final int offset;
 
         private MemorySlice(byte[] data, int off) {
             this.data = data;
+            this.buffer = null;
+            this.offset = off;
+        }
+
+        private MemorySlice(ByteBuf buffer, int off) {
+            this.data = null;
+            this.buffer = buffer;
             this.offset = off;
         }
 
         @Override
         public String toString() {
-            return "Slice:" + "capacity(" + data.length + "), offset(" + offset + ")";
+            int capacity = data != null ? data.length : buffer.capacity();
+            return "Slice:" + "capacity(" + capacity + "), offset(" + offset + ")";
         }
 
+        /**
+         * @return the chunk the slice is in, or null if the arena is off-heap
+         */
         byte[] getData() {
             return data;
         }
 
+        /**
+         * @return the direct chunk the slice is in, or null if the arena is on heap
+         */
+        ByteBuf getBuffer() {
+            return buffer;
+        }
+
         int getOffset() {
             return offset;
         }
@@ -62,6 +62,7 @@ public class SortedLedgerStorage
     private StateManager stateManager;
     private ServerConfiguration conf;
     private StatsLogger statsLogger;
+    private ByteBufAllocator allocator;
     private final InterleavedLedgerStorage interleavedLedgerStorage;
 
     public SortedLedgerStorage() {
@@ -83,6 +84,7 @@ public class SortedLedgerStorage
             throws IOException {
         this.conf = conf;
         this.statsLogger = statsLogger;
+        this.allocator = allocator;
 
         interleavedLedgerStorage.initializeWithEntryLogListener(
             conf,
@@ -111,9 +113,9 @@ public class SortedLedgerStorage
         interleavedLedgerStorage.setCheckpointSource(checkpointSource);
 
         if (conf.isEntryLogPerLedgerEnabled()) {
-            this.memTable = new EntryMemTableWithParallelFlusher(conf, checkpointSource, statsLogger);
+            this.memTable = new EntryMemTableWithParallelFlusher(conf, checkpointSource, statsLogger, allocator);
         } else {
-            this.memTable = new EntryMemTable(conf, checkpointSource, statsLogger);
+            this.memTable = new EntryMemTable(conf, checkpointSource, statsLogger, allocator);
         }
     }
     @Override
@@ -207,9 +209,9 @@ public class SortedLedgerStorage
      * @return
      */
     private ByteBuf getLastEntryId(long ledgerId) throws IOException {
-        EntryKeyValue kv = memTable.getLastEntry(ledgerId);
-        if (null != kv) {
-            return kv.getValueAsByteBuffer();
+        ByteBuf lastEntry = memTable.getLastEntryValue(ledgerId);
+        if (null != lastEntry) {
+            return lastEntry;
         }
         // If it doesn't exist in the skip list, then fallback to the ledger cache+index.
         return interleavedLedgerStorage.getEntry(ledgerId, BookieProtocol.LAST_ADD_CONFIRMED);
@@ -224,13 +226,11 @@ public class SortedLedgerStorage
         try {
             buffToRet = interleavedLedgerStorage.getEntry(ledgerId, entryId);
         } catch (Bookie.NoEntryException nee) {
-            EntryKeyValue kv = memTable.getEntry(ledgerId, entryId);
-            if (null == kv) {
+            buffToRet = memTable.getEntryValue(ledgerId, entryId);
+            if (null == buffToRet) {
                 // The entry might have been flushed since we last checked, so query the ledger cache again.
                 // If the entry truly doesn't exist, then this will throw a NoEntryException
                 buffToRet = interleavedLedgerStorage.getEntry(ledgerId, entryId);
-            } else {
-                buffToRet = kv.getValueAsByteBuffer();
             }
         }
         // buffToRet will not be null when we reach here.
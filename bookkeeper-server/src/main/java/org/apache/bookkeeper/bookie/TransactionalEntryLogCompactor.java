@@ -59,7 +59,16 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
             EntryLogger entryLogger,
             CompactableLedgerStorage ledgerStorage,
             LogRemovalListener logRemover) {
-        super(conf, logRemover);
+        this(conf, entryLogger, ledgerStorage, logRemover, new Throttler(conf));
+    }
+
+    TransactionalEntryLogCompactor(
+            ServerConfiguration conf,
+            EntryLogger entryLogger,
+            CompactableLedgerStorage ledgerStorage,
+            LogRemovalListener logRemover,
+            Throttler throttler) {
+        super(conf, logRemover, throttler);
         this.entryLogger = entryLogger;
         this.ledgerStorage = ledgerStorage;
     }
@@ -23,6 +23,11 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_ADD_ENTR
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_FLUSH_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_FLUSH_CLEAR;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_FLUSH_LEDGER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_FLUSH_PARALLELISM;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_FLUSH_PREPARE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_FLUSH_PROCESS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_GET_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_PUT_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_SNAPSHOT;
@@ -78,6 +83,31 @@ public class EntryMemTableStats {
         help = "The distribution of request throttled duration"
     )
     private final OpStatsLogger throttlingStats;
+    @StatsDoc(
+        name = SKIP_LIST_FLUSH_PREPARE,
+        help = "The time spent splitting a memtable snapshot by ledger and sizing the flush parallelism"
+    )
+    private final OpStatsLogger flushPrepareStats;
+    @StatsDoc(
+        name = SKIP_LIST_FLUSH_PROCESS,
+        help = "The time spent writing the entries of a memtable snapshot to entry log files"
+    )
+    private final OpStatsLogger flushProcessStats;
+    @StatsDoc(
+        name = SKIP_LIST_FLUSH_CLEAR,
+        help = "The time spent releasing a flushed memtable snapshot"
+    )
+    private final OpStatsLogger flushClearStats;
+    @StatsDoc(
+        name = SKIP_LIST_FLUSH_LEDGER,
+        help = "The time spent writing the entries of a single ledger when flushing a memtable snapshot"
+    )
+    private final OpStatsLogger flushLedgerStats;
+    @StatsDoc(
+        name = SKIP_LIST_FLUSH_PARALLELISM,
+        help = "The distribution of the number of threads used to flush a memtable snapshot"
+    )
+    private final OpStatsLogger flushParallelismStats;
 
     public EntryMemTableStats(StatsLogger statsLogger) {
         this.snapshotStats = statsLogger.getOpStatsLogger(SKIP_LIST_SNAPSHOT);
@@ -86,6 +116,11 @@ public class EntryMemTableStats {
         this.flushBytesCounter = statsLogger.getCounter(SKIP_LIST_FLUSH_BYTES);
         this.throttlingCounter = statsLogger.getCounter(SKIP_LIST_THROTTLING);
         this.throttlingStats = statsLogger.getOpStatsLogger(SKIP_LIST_THROTTLING_LATENCY);
+        this.flushPrepareStats = statsLogger.getOpStatsLogger(SKIP_LIST_FLUSH_PREPARE);
+        this.flushProcessStats = statsLogger.getOpStatsLogger(SKIP_LIST_FLUSH_PROCESS);
+        this.flushClearStats = statsLogger.getOpStatsLogger(SKIP_LIST_FLUSH_CLEAR);
+        this.flushLedgerStats = statsLogger.getOpStatsLogger(SKIP_LIST_FLUSH_LEDGER);
+        this.flushParallelismStats = statsLogger.getOpStatsLogger(SKIP_LIST_FLUSH_PARALLELISM);
     }
 
 }
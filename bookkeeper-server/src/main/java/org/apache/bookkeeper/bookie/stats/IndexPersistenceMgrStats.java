@@ -21,6 +21,8 @@ package org.apache.bookkeeper.bookie.stats;
 
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FILE_INFO_CACHE_HITS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FILE_INFO_CACHE_MISSES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.LEDGER_CACHE_NUM_EVICTED_LEDGERS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.PENDING_GET_FILE_INFO;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_FILE_INFO_CACHE_SIZE;
@@ -55,6 +57,16 @@ public class IndexPersistenceMgrStats {
         help = "Number of pending get-file-info requests"
     )
     private final Counter pendingGetFileInfoCounter;
+    @StatsDoc(
+        name = FILE_INFO_CACHE_HITS,
+        help = "Number of get-file-info requests served by the file info caches"
+    )
+    private final Counter fileInfoCacheHitCounter;
+    @StatsDoc(
+        name = FILE_INFO_CACHE_MISSES,
+        help = "Number of get-file-info requests loading the file info of a ledger not in the file info caches"
+    )
+    private final Counter fileInfoCacheMissCounter;
     @StatsDoc(
         name = WRITE_FILE_INFO_CACHE_SIZE,
         help = "Current write file info cache size"
@@ -71,6 +83,8 @@ public class IndexPersistenceMgrStats {
                                     Supplier<Number> readFileInfoCacheSizeSupplier) {
         evictedLedgersCounter = statsLogger.getCounter(LEDGER_CACHE_NUM_EVICTED_LEDGERS);
         pendingGetFileInfoCounter = statsLogger.getCounter(PENDING_GET_FILE_INFO);
+        fileInfoCacheHitCounter = statsLogger.getCounter(FILE_INFO_CACHE_HITS);
+        fileInfoCacheMissCounter = statsLogger.getCounter(FILE_INFO_CACHE_MISSES);
         writeFileInfoCacheSizeGauge = new Gauge<Number>() {
             @Override
             public Number getDefaultValue() {
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import com.google.common.util.concurrent.RateLimiter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Move the entry logs of a ledger directory to the capacity tier once they are no longer written, old enough and
+ * not read recently, so that the ledger directory, on the fast disks, keeps serving the writes and the tail reads.
+ */
+class CapacityTierMover implements Runnable {
+
+    private final EntryLogger entryLogger;
+    private final long minAgeMillis;
+    private final long minIdleMillis;
+    // Null when the moves are not throttled
+    private final RateLimiter rateLimiter;
+    private final DbLedgerStorageStats stats;
+
+    private volatile boolean running = true;
+
+    CapacityTierMover(ServerConfiguration conf, EntryLogger entryLogger, DbLedgerStorageStats stats) {
+        this.entryLogger = entryLogger;
+        this.stats = stats;
+        this.minAgeMillis = TimeUnit.MINUTES.toMillis(conf.getLong(DbLedgerStorage.CAPACITY_TIER_MIN_AGE_MINUTES,
+                DbLedgerStorage.DEFAULT_CAPACITY_TIER_MIN_AGE_MINUTES));
+        this.minIdleMillis = TimeUnit.MINUTES.toMillis(conf.getLong(DbLedgerStorage.CAPACITY_TIER_MIN_IDLE_MINUTES,
+                DbLedgerStorage.DEFAULT_CAPACITY_TIER_MIN_IDLE_MINUTES));
+        int maxMoveRateMb = conf.getInt(DbLedgerStorage.CAPACITY_TIER_MAX_MOVE_RATE_MB,
+                DbLedgerStorage.DEFAULT_CAPACITY_TIER_MAX_MOVE_RATE_MB);
+        this.rateLimiter = maxMoveRateMb > 0 ? RateLimiter.create(maxMoveRateMb * 1024.0 * 1024.0) : null;
+    }
+
+    /**
+     * Get the capacity tier directories of a ledger directory, one under each configured capacity tier root.
+     *
+     * <p>The directory is named after the path of the ledger directory, so that the entry logs of the ledger
+     * directories, whose ids are assigned independently, are never mixed.
+     *
+     * @return the capacity tier directories, empty if there is no capacity tier
+     */
+    static List<File> getCapacityTierDirs(ServerConfiguration conf, File ledgerDir) {
+        List<File> dirs = new ArrayList<>();
+        String name = ledgerDir.getAbsolutePath().replaceAll("[^A-Za-z0-9-]", "_").replaceAll("^_+", "");
+        for (String root : conf.getStringArray(DbLedgerStorage.CAPACITY_TIER_DIRS)) {
+            if (!root.trim().isEmpty()) {
+                dirs.add(new File(root.trim(), name));
+            }
+        }
+        return dirs;
+    }
+
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+        List<Long> candidates = entryLogger.getCapacityTierCandidates(now - minAgeMillis, now - minIdleMillis);
+        for (long logId : candidates) {
+            if (!running) {
+                return;
+            }
+
+            long startTime = MathUtils.nowInNano();
+            try {
+                long size = entryLogger.moveToCapacityTier(logId, rateLimiter);
+                if (size >= 0) {
+                    stats.getCapacityTierMoveStats().registerSuccessfulEvent(MathUtils.elapsedNanos(startTime),
+                            TimeUnit.NANOSECONDS);
+                    stats.getCapacityTierMovedBytes().add(size);
+                }
+            } catch (IOException e) {
+                stats.getCapacityTierMoveStats().registerFailedEvent(MathUtils.elapsedNanos(startTime),
+                        TimeUnit.NANOSECONDS);
+                // Most likely a problem with the capacity tier, try again on the next run
+                log.warn("Failed to move entry log {} to the capacity tier", logId, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop moving entry logs, the move in progress still completes.
+     */
+    void stop() {
+        running = false;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(CapacityTierMover.class);
+}
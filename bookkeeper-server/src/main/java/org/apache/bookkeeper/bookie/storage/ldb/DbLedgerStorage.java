@@ -38,7 +38,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -49,6 +52,7 @@ import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.bookie.CheckpointSource;
 import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
 import org.apache.bookkeeper.bookie.Checkpointer;
+import org.apache.bookkeeper.bookie.EntryLogCompactionScheduler;
 import org.apache.bookkeeper.bookie.GarbageCollectionStatus;
 import org.apache.bookkeeper.bookie.LastAddConfirmedUpdateNotification;
 import org.apache.bookkeeper.bookie.LedgerCache;
@@ -91,6 +95,59 @@ public class DbLedgerStorage implements LedgerStorage {
     static final String READ_AHEAD_CACHE_BATCH_SIZE = "dbStorage_readAheadCacheBatchSize";
     private static final int DEFAULT_READ_AHEAD_CACHE_BATCH_SIZE = 100;
 
+    static final String READ_AHEAD_ADAPTIVE = "dbStorage_readAheadAdaptive";
+    static final String READ_AHEAD_CACHE_MAX_BATCH_SIZE = "dbStorage_readAheadCacheMaxBatchSize";
+    static final int DEFAULT_READ_AHEAD_CACHE_MAX_BATCH_SIZE = 1000;
+
+    static final String ASYNC_READ_THREADS = "dbStorage_asyncReadThreads";
+    static final int DEFAULT_ASYNC_READ_THREADS = 0;
+
+    static final String SEALED_LEDGERS_LOCATION_INDEX_MAX_SIZE_MB = "dbStorage_sealedLedgersLocationIndexMaxSizeMb";
+    static final long DEFAULT_SEALED_LEDGERS_LOCATION_INDEX_MAX_SIZE_MB = 0;
+
+    static final String READ_AHEAD_CACHE_PROTECTED_PERCENT = "dbStorage_readAheadCacheProtectedPercent";
+    static final int DEFAULT_READ_AHEAD_CACHE_PROTECTED_PERCENT = 0;
+
+    static final String DIRECT_IO_ENTRY_LOGGER = "dbStorage_directIOEntryLogger";
+    static final String DIRECT_IO_ENTRY_LOGGER_READ_BUFFER_SIZE_KB = "dbStorage_directIOEntryLoggerReadBufferSizeKb";
+    static final int DEFAULT_DIRECT_IO_ENTRY_LOGGER_READ_BUFFER_SIZE_KB = 64;
+
+    static final String CAPACITY_TIER_DIRS = "dbStorage_capacityTierDirectories";
+    static final String CAPACITY_TIER_MIN_AGE_MINUTES = "dbStorage_capacityTierMinAgeMinutes";
+    static final long DEFAULT_CAPACITY_TIER_MIN_AGE_MINUTES = 360;
+    static final String CAPACITY_TIER_MIN_IDLE_MINUTES = "dbStorage_capacityTierMinIdleMinutes";
+    static final long DEFAULT_CAPACITY_TIER_MIN_IDLE_MINUTES = 60;
+    static final String CAPACITY_TIER_CHECK_INTERVAL_SECONDS = "dbStorage_capacityTierCheckIntervalSeconds";
+    static final long DEFAULT_CAPACITY_TIER_CHECK_INTERVAL_SECONDS = 600;
+    static final String CAPACITY_TIER_MAX_MOVE_RATE_MB = "dbStorage_capacityTierMaxMoveRateMb";
+    static final int DEFAULT_CAPACITY_TIER_MAX_MOVE_RATE_MB = 50;
+
+    static final String WRITE_CACHE_BACKPRESSURE_ENABLED = "dbStorage_writeCacheBackpressureEnabled";
+    static final String WRITE_CACHE_BACKPRESSURE_START_PERCENT = "dbStorage_writeCacheBackpressureStartPercent";
+    static final int DEFAULT_WRITE_CACHE_BACKPRESSURE_START_PERCENT = 50;
+
+    static final String PACED_FLUSH_ENABLED = "dbStorage_pacedFlushEnabled";
+    static final String PACED_FLUSH_SPREAD_PERCENT = "dbStorage_pacedFlushSpreadPercent";
+    static final int DEFAULT_PACED_FLUSH_SPREAD_PERCENT = 50;
+    static final String PACED_FLUSH_MIN_RATE_MB = "dbStorage_pacedFlushMinRateMb";
+    static final int DEFAULT_PACED_FLUSH_MIN_RATE_MB = 16;
+
+    static final String SCRUBBER_ENABLED = "dbStorage_scrubberEnabled";
+    static final String SCRUBBER_MAX_RATE_MB = "dbStorage_scrubberMaxRateMb";
+    static final int DEFAULT_SCRUBBER_MAX_RATE_MB = 10;
+    static final String SCRUBBER_MAX_DISK_QUEUE_DEPTH = "dbStorage_scrubberMaxDiskQueueDepth";
+    static final int DEFAULT_SCRUBBER_MAX_DISK_QUEUE_DEPTH = 8;
+    static final String SCRUBBER_PASS_INTERVAL_SECONDS = "dbStorage_scrubberPassIntervalSeconds";
+    static final long DEFAULT_SCRUBBER_PASS_INTERVAL_SECONDS = 86400;
+    static final String SCRUBBER_VERIFY_DIGESTS = "dbStorage_scrubberVerifyDigests";
+
+    static final String KEY_VALUE_STORAGE_TYPE = "dbStorage_keyValueStorageType";
+    static final String KEY_VALUE_STORAGE_ROCKSDB = "RocksDB";
+    static final String KEY_VALUE_STORAGE_LSM = "Lsm";
+
+    // Number of entries locations fetched with a single index lookup when reading a whole ledger index
+    private static final int READ_LEDGER_INDEX_BATCH_SIZE = 1000;
+
     // use the storage assigned to ledger 0 for flags.
     // if the storage configuration changes, the flags may be lost
     // but in that case data integrity should kick off anyhow.
@@ -101,6 +158,9 @@ public class DbLedgerStorage implements LedgerStorage {
     // Keep 1 single Bookie GC thread so the the compactions from multiple individual directories are serialized
     private ScheduledExecutorService gcExecutor;
 
+    // Compaction threads shared by all the directories, or null if each directory compacts its entry logs
+    private EntryLogCompactionScheduler compactionScheduler;
+
     protected ByteBufAllocator allocator;
 
     // parent DbLedgerStorage stats (not per directory)
@@ -145,6 +205,9 @@ public class DbLedgerStorage implements LedgerStorage {
         int readAheadCacheBatchSize = conf.getInt(READ_AHEAD_CACHE_BATCH_SIZE, DEFAULT_READ_AHEAD_CACHE_BATCH_SIZE);
 
         gcExecutor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("GarbageCollector"));
+        if (conf.getCompactionThreads() > 0) {
+            compactionScheduler = new EntryLogCompactionScheduler(conf);
+        }
 
         ledgerStorageList = Lists.newArrayList();
         for (File ledgerDir : ledgerDirsManager.getAllLedgerDirs()) {
@@ -194,8 +257,8 @@ public class DbLedgerStorage implements LedgerStorage {
             int readAheadCacheBatchSize)
             throws IOException {
         return new SingleDirectoryDbLedgerStorage(conf, ledgerManager, ledgerDirsManager, indexDirsManager,
-                                                  statsLogger, allocator, gcExecutor, writeCacheSize, readCacheSize,
-                                                  readAheadCacheBatchSize);
+                                                  statsLogger, allocator, gcExecutor, compactionScheduler,
+                                                  writeCacheSize, readCacheSize, readAheadCacheBatchSize);
     }
 
     @Override
@@ -221,6 +284,10 @@ public class DbLedgerStorage implements LedgerStorage {
         for (LedgerStorage ls : ledgerStorageList) {
             ls.shutdown();
         }
+
+        if (compactionScheduler != null) {
+            compactionScheduler.shutdown();
+        }
     }
 
     @Override
@@ -264,6 +331,11 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).getEntry(ledgerId, entryId);
     }
 
+    @Override
+    public CompletableFuture<ByteBuf> getEntryAsync(long ledgerId, long entryId) {
+        return getLedgerStorage(ledgerId).getEntryAsync(ledgerId, entryId);
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getLastAddConfirmed(ledgerId);
@@ -356,6 +428,23 @@ public class DbLedgerStorage implements LedgerStorage {
         return ledgerStorageList;
     }
 
+    /**
+     * Get the factory of the key-value storage of the ledgers and entry locations indexes.
+     */
+    static KeyValueStorageFactory getKeyValueStorageFactory(ServerConfiguration conf) {
+        return isLsmKeyValueStorage(conf) ? KeyValueStorageLsm.factory : KeyValueStorageRocksDB.factory;
+    }
+
+    static boolean isLsmKeyValueStorage(ServerConfiguration conf) {
+        String type = conf.getString(KEY_VALUE_STORAGE_TYPE, KEY_VALUE_STORAGE_ROCKSDB);
+        if (KEY_VALUE_STORAGE_LSM.equalsIgnoreCase(type)) {
+            return true;
+        } else if (!KEY_VALUE_STORAGE_ROCKSDB.equalsIgnoreCase(type)) {
+            throw new IllegalArgumentException("Invalid " + KEY_VALUE_STORAGE_TYPE + ": " + type);
+        }
+        return false;
+    }
+
     /**
      * Reads ledger index entries to get list of entry-logger that contains given ledgerId.
      *
@@ -378,20 +467,25 @@ public class DbLedgerStorage implements LedgerStorage {
         String ledgerBasePath = ledgerDirs.get(dirIndex).toString();
 
         EntryLocationIndex entryLocationIndex = new EntryLocationIndex(serverConf,
-                (basePath, subPath, dbConfigType, conf1) ->
-                        new KeyValueStorageRocksDB(basePath, subPath, DbConfigType.Default, conf1, true),
+                (basePath, subPath, dbConfigType, conf1) -> isLsmKeyValueStorage(conf1)
+                        ? new KeyValueStorageLsm(basePath, subPath, DbConfigType.Default, conf1, true)
+                        : new KeyValueStorageRocksDB(basePath, subPath, DbConfigType.Default, conf1, true),
                 ledgerBasePath, NullStatsLogger.INSTANCE);
         try {
             long lastEntryId = entryLocationIndex.getLastEntryInLedger(ledgerId);
-            for (long currentEntry = 0; currentEntry <= lastEntryId; currentEntry++) {
-                long offset = entryLocationIndex.getLocation(ledgerId, currentEntry);
-                if (offset <= 0) {
-                    // entry not found in this bookie
-                    continue;
+            for (long firstEntry = 0; firstEntry <= lastEntryId; firstEntry += READ_LEDGER_INDEX_BATCH_SIZE) {
+                long lastEntry = Math.min(lastEntryId, firstEntry + READ_LEDGER_INDEX_BATCH_SIZE - 1);
+                long[] offsets = entryLocationIndex.getLocations(ledgerId, firstEntry, lastEntry);
+                for (int i = 0; i < offsets.length; i++) {
+                    long offset = offsets[i];
+                    if (offset <= 0) {
+                        // entry not found in this bookie
+                        continue;
+                    }
+                    long entryLogId = offset >> 32L;
+                    long position = offset & 0xffffffffL;
+                    processor.process(firstEntry + i, entryLogId, position);
                 }
-                long entryLogId = offset >> 32L;
-                long position = offset & 0xffffffffL;
-                processor.process(currentEntry, entryLogId, position);
             }
         } finally {
             entryLocationIndex.close();
@@ -414,6 +508,18 @@ public class DbLedgerStorage implements LedgerStorage {
             .map(single -> single.getGarbageCollectionStatus().get(0)).collect(Collectors.toList());
     }
 
+    /**
+     * @return the dump of the internal stats of the ledger and entry location indexes of all the directories, by
+     *         index path
+     */
+    public Map<String, String> getIndexStatsDump() throws IOException {
+        Map<String, String> dump = new TreeMap<>();
+        for (SingleDirectoryDbLedgerStorage ls : ledgerStorageList) {
+            dump.putAll(ls.getIndexStatsDump());
+        }
+        return dump;
+    }
+
     static long getLongVariableOrDefault(ServerConfiguration conf, String keyName, long defaultValue) {
         Object obj = conf.getProperty(keyName);
         if (obj instanceof Number) {
@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.EntryLogger;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.proto.checksum.DigestManager;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Continuous scrubber of a ledger directory.
+ *
+ * <p>Unlike {@link org.apache.bookkeeper.bookie.LedgerStorage#localConsistencyCheck}, which goes through all the
+ * entries in a single run, the scrubber goes through the entries of the active ledgers, in the order of the entry
+ * location index, a slice at a time. Its position is saved in the ledger directory after each slice, so that a pass
+ * continues where it stopped when the bookie restarts, instead of starting over.
+ *
+ * <p>Each entry is read from the entry logs at the location found in the index, checked to be the expected entry and,
+ * when the metadata of the ledger can be read, verified against its digest. The reads are limited to a max rate, and
+ * paused while the number of in-flight I/Os of the disk of the ledger directory is above a max queue depth, so that
+ * the scrubber yields to the foreground reads and writes.
+ */
+class DbLedgerStorageScrubber implements Runnable {
+
+    static final String CURSOR_FILE = "scrubber-cursor";
+
+    // Max time of a slice, after which the position is saved
+    private static final long SLICE_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int ENTRIES_BATCH_SIZE = 1000;
+    private static final long YIELD_MILLIS = 50;
+    private static final long METADATA_TIMEOUT_SECONDS = 30;
+
+    private final File cursorFile;
+    private final LedgerMetadataIndex ledgerIndex;
+    private final EntryLocationIndex entryLocationIndex;
+    private final EntryLogger entryLogger;
+    // Null when the digests are not verified
+    private final LedgerManager ledgerManager;
+    private final ByteBufAllocator allocator;
+    private final DbLedgerStorageStats stats;
+
+    private final long passIntervalMillis;
+    private final int maxDiskQueueDepth;
+    // Null when the reads are not throttled
+    private final RateLimiter rateLimiter;
+    // Null when the in-flight I/Os of the disk cannot be read
+    private final Path diskInflightFile;
+
+    private volatile boolean running = true;
+
+    // Position of the current pass, in the order of the ledger ids: the next entry to check
+    private long passStartMillis = 0;
+    private long cursorLedgerId = 0;
+    private long cursorEntryId = 0;
+    private long lastPassEndMillis = 0;
+    // Batches of entries checked in the current slice
+    private int sliceBatches = 0;
+
+    private volatile long passLedgers = 0;
+    private volatile long checkedLedgers = 0;
+
+    DbLedgerStorageScrubber(ServerConfiguration conf, String baseDir, LedgerMetadataIndex ledgerIndex,
+                            EntryLocationIndex entryLocationIndex, EntryLogger entryLogger,
+                            LedgerManager ledgerManager, ByteBufAllocator allocator, DbLedgerStorageStats stats) {
+        this.cursorFile = new File(baseDir, CURSOR_FILE);
+        this.ledgerIndex = ledgerIndex;
+        this.entryLocationIndex = entryLocationIndex;
+        this.entryLogger = entryLogger;
+        this.ledgerManager = conf.getBoolean(DbLedgerStorage.SCRUBBER_VERIFY_DIGESTS, true) ? ledgerManager : null;
+        this.allocator = allocator;
+        this.stats = stats;
+
+        this.passIntervalMillis = TimeUnit.SECONDS.toMillis(conf.getLong(DbLedgerStorage.SCRUBBER_PASS_INTERVAL_SECONDS,
+                DbLedgerStorage.DEFAULT_SCRUBBER_PASS_INTERVAL_SECONDS));
+        this.maxDiskQueueDepth = conf.getInt(DbLedgerStorage.SCRUBBER_MAX_DISK_QUEUE_DEPTH,
+                DbLedgerStorage.DEFAULT_SCRUBBER_MAX_DISK_QUEUE_DEPTH);
+        int maxRateMb = conf.getInt(DbLedgerStorage.SCRUBBER_MAX_RATE_MB, DbLedgerStorage.DEFAULT_SCRUBBER_MAX_RATE_MB);
+        this.rateLimiter = maxRateMb > 0 ? RateLimiter.create(maxRateMb * 1024.0 * 1024.0) : null;
+        this.diskInflightFile = maxDiskQueueDepth > 0 ? findDiskInflightFile(baseDir) : null;
+
+        loadCursor();
+    }
+
+    /**
+     * Find the file giving the number of in-flight I/Os of the block device of a directory, on Linux.
+     */
+    private static Path findDiskInflightFile(String dir) {
+        try {
+            String device = Files.getFileStore(Paths.get(dir)).name();
+            if (device.startsWith("/dev/")) {
+                // Resolve the device mapper links to the dm-N devices
+                device = Paths.get(device).toRealPath().getFileName().toString();
+            }
+            Path inflight = Paths.get("/sys/class/block", device, "inflight");
+            if (Files.isReadable(inflight)) {
+                log.info("Scrubber of {} yields to the I/Os of {}", dir, device);
+                return inflight;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to find the block device of {}", dir, e);
+        }
+        log.info("Cannot read the in-flight I/Os of the disk of {}, the scrubber is only throttled by its max rate",
+                dir);
+        return null;
+    }
+
+    /**
+     * @return the number of in-flight reads and writes of the disk, or 0 if unknown
+     */
+    private int getDiskQueueDepth() {
+        if (diskInflightFile == null) {
+            return 0;
+        }
+        try {
+            String[] values = new String(Files.readAllBytes(diskInflightFile), UTF_8).trim().split("\\s+");
+            int inflight = 0;
+            for (String value : values) {
+                inflight += Integer.parseInt(value);
+            }
+            return inflight;
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void loadCursor() {
+        if (!cursorFile.exists()) {
+            return;
+        }
+        try {
+            String[] values = new String(Files.readAllBytes(cursorFile.toPath()), UTF_8).trim().split("\\s+");
+            passStartMillis = Long.parseLong(values[0]);
+            cursorLedgerId = Long.parseLong(values[1]);
+            cursorEntryId = Long.parseLong(values[2]);
+            log.info("Resuming the scrubber pass started at {} from entry {}@{}", passStartMillis, cursorLedgerId,
+                    cursorEntryId);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring invalid scrubber cursor {}", cursorFile, e);
+            passStartMillis = 0;
+            cursorLedgerId = 0;
+            cursorEntryId = 0;
+        }
+    }
+
+    private void saveCursor() {
+        File tmpFile = new File(cursorFile.getParentFile(), CURSOR_FILE + ".tmp");
+        try {
+            String cursor = passStartMillis + " " + cursorLedgerId + " " + cursorEntryId + "\n";
+            Files.write(tmpFile.toPath(), cursor.getBytes(UTF_8));
+            Files.move(tmpFile.toPath(), cursorFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to save the scrubber cursor {}", cursorFile, e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            runSlice(SLICE_NANOS);
+        } catch (IOException | RuntimeException e) {
+            // Keep the scrubber scheduled
+            log.warn("Scrubber failed at entry {}@{}, retrying later", cursorLedgerId, cursorEntryId, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @VisibleForTesting
+    void runSlice(long sliceNanos) throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
+        if (passStartMillis == 0) {
+            if (now - lastPassEndMillis() < passIntervalMillis) {
+                return;
+            }
+            passStartMillis = now;
+            cursorLedgerId = 0;
+            cursorEntryId = 0;
+            log.info("Starting a scrubber pass of {}", cursorFile.getParent());
+        }
+
+        // The active ledgers are not listed in the order of their ids, while the cursor resumes the pass from an id
+        List<Long> ledgers = Lists.newArrayList(ledgerIndex.getActiveLedgersInRange(0, Long.MAX_VALUE));
+        Collections.sort(ledgers);
+        int first = Collections.binarySearch(ledgers, cursorLedgerId);
+        if (first < 0) {
+            first = -first - 1;
+        }
+        passLedgers = ledgers.size();
+        checkedLedgers = first;
+
+        long sliceStart = MathUtils.nowInNano();
+        sliceBatches = 0;
+        for (int i = first; running && i < ledgers.size(); i++) {
+            long ledgerId = ledgers.get(i);
+            if (ledgerId != cursorLedgerId) {
+                cursorLedgerId = ledgerId;
+                cursorEntryId = 0;
+            }
+
+            if (!scrubLedger(ledgerId, sliceStart, sliceNanos)) {
+                // Slice over, continue from the cursor next time
+                saveCursor();
+                return;
+            }
+            checkedLedgers++;
+            cursorLedgerId = ledgerId + 1;
+            cursorEntryId = 0;
+        }
+
+        if (!running) {
+            saveCursor();
+            return;
+        }
+
+        long passTimeMillis = System.currentTimeMillis() - passStartMillis;
+        log.info("Finished the scrubber pass of {} in {} s: {} ledgers", cursorFile.getParent(),
+                TimeUnit.MILLISECONDS.toSeconds(passTimeMillis), checkedLedgers);
+        stats.getScrubberPassStats().registerSuccessfulEvent(passTimeMillis, TimeUnit.MILLISECONDS);
+        passStartMillis = 0;
+        passLedgers = 0;
+        checkedLedgers = 0;
+        cursorLedgerId = 0;
+        cursorEntryId = 0;
+        saveCursor();
+        lastPassEndMillis = System.currentTimeMillis();
+    }
+
+    private long lastPassEndMillis() {
+        if (lastPassEndMillis == 0 && cursorFile.exists()) {
+            // Completed before the bookie restarted
+            lastPassEndMillis = cursorFile.lastModified();
+        }
+        return lastPassEndMillis;
+    }
+
+    /**
+     * Check the entries of a ledger from the cursor.
+     *
+     * @return false if the slice is over before the end of the ledger
+     */
+    private boolean scrubLedger(long ledgerId, long sliceStart, long sliceNanos)
+            throws IOException, InterruptedException {
+        long lastEntryId;
+        try {
+            lastEntryId = entryLocationIndex.getLastEntryInLedger(ledgerId);
+        } catch (Bookie.NoEntryException e) {
+            // No entry flushed yet
+            return true;
+        }
+
+        DigestManager digestManager = getDigestManager(ledgerId);
+        while (cursorEntryId <= lastEntryId) {
+            // At least a batch is checked in each slice, so that the pass always moves forward
+            if (!running || (sliceBatches > 0 && MathUtils.elapsedNanos(sliceStart) > sliceNanos)) {
+                return false;
+            }
+            sliceBatches++;
+
+            long lastBatchEntryId = Math.min(lastEntryId, cursorEntryId + ENTRIES_BATCH_SIZE - 1);
+            long[] locations = entryLocationIndex.getLocations(ledgerId, cursorEntryId, lastBatchEntryId);
+            for (int i = 0; i < locations.length; i++) {
+                // The entries not found are not stored on this bookie
+                if (locations[i] != 0) {
+                    yieldToForegroundIO();
+                    scrubEntry(ledgerId, cursorEntryId + i, locations[i], digestManager);
+                }
+            }
+            cursorEntryId = lastBatchEntryId + 1;
+        }
+        return true;
+    }
+
+    private void yieldToForegroundIO() throws InterruptedException {
+        if (diskInflightFile == null) {
+            return;
+        }
+
+        long start = 0;
+        while (running && getDiskQueueDepth() > maxDiskQueueDepth) {
+            if (start == 0) {
+                start = MathUtils.nowInNano();
+            }
+            Thread.sleep(YIELD_MILLIS);
+        }
+        if (start != 0) {
+            stats.getScrubberYieldTime().add(MathUtils.elapsedNanos(start));
+        }
+    }
+
+    private void scrubEntry(long ledgerId, long entryId, long location, DigestManager digestManager)
+            throws IOException {
+        ByteBuf entry;
+        try {
+            entry = entryLogger.readEntryForScrub(ledgerId, entryId, location);
+        } catch (IOException e) {
+            // The entry might have been moved by the compaction, or the ledger deleted
+            long newLocation = ledgerIndex.exists(ledgerId) ? entryLocationIndex.getLocation(ledgerId, entryId) : 0;
+            if (newLocation == 0) {
+                return;
+            }
+            if (newLocation == location) {
+                reportError(ledgerId, entryId, location, e.toString());
+                return;
+            }
+            try {
+                entry = entryLogger.readEntryForScrub(ledgerId, entryId, newLocation);
+            } catch (IOException e2) {
+                reportError(ledgerId, entryId, newLocation, e2.toString());
+                return;
+            }
+        }
+
+        try {
+            int size = entry.readableBytes();
+            if (rateLimiter != null) {
+                rateLimiter.acquire(Math.max(size, 1));
+            }
+            if (digestManager != null) {
+                try {
+                    digestManager.verifyDigestAndReturnData(entryId, entry);
+                } catch (BKException.BKDigestMatchException e) {
+                    reportError(ledgerId, entryId, location, "digest mismatch");
+                }
+            }
+            stats.getScrubberCheckedEntries().inc();
+            stats.getScrubberCheckedBytes().add(size);
+        } finally {
+            entry.release();
+        }
+    }
+
+    private void reportError(long ledgerId, long entryId, long location, String error) {
+        stats.getScrubberErrors().inc();
+        log.error("Scrubber found an inconsistency at entry {}@{}, location {}@{}: {}", ledgerId, entryId,
+                location >> 32, location & 0xFFFFFFFFL, error);
+    }
+
+    /**
+     * @return the digest manager of a ledger, or null if its entries cannot be verified
+     */
+    private DigestManager getDigestManager(long ledgerId) throws InterruptedException {
+        if (ledgerManager == null) {
+            return null;
+        }
+
+        try {
+            LedgerMetadata metadata = ledgerManager.readLedgerMetadata(ledgerId)
+                    .get(METADATA_TIMEOUT_SECONDS, TimeUnit.SECONDS).getValue();
+            if (!metadata.hasPassword()) {
+                // Created before the digest type and password were stored in the metadata
+                return null;
+            }
+            return DigestManager.instantiate(ledgerId, metadata.getPassword(),
+                    DigestType.toProtoDigestType(DigestType.fromApiDigestType(metadata.getDigestType())),
+                    allocator, false);
+        } catch (ExecutionException | TimeoutException | GeneralSecurityException e) {
+            // Deleted ledger, or metadata store not available: only check the entries are where expected
+            log.debug("Not verifying the digests of ledger {}", ledgerId, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the percentage of the active ledgers checked in the current pass
+     */
+    double getCoverage() {
+        long ledgers = passLedgers;
+        return ledgers > 0 ? Math.min(100.0 * checkedLedgers / ledgers, 100.0) : 0;
+    }
+
+    /**
+     * Stop scrubbing, the position is saved before the current slice returns.
+     */
+    void stop() {
+        running = false;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(DbLedgerStorageScrubber.class);
+}
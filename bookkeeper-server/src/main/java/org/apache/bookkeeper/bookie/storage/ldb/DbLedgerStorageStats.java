@@ -51,24 +51,47 @@ class DbLedgerStorageStats {
     private static final String WRITE_CACHE_MISSES = "write-cache-misses";
     private static final String READ_CACHE_HITS = "read-cache-hits";
     private static final String READ_CACHE_MISSES = "read-cache-misses";
+    private static final String READ_CACHE_PROBATION_HITS = "read-cache-probation-hits";
+    private static final String READ_CACHE_PROTECTED_HITS = "read-cache-protected-hits";
+    private static final String READ_CACHE_PROMOTIONS = "read-cache-promotions";
+    private static final String READ_CACHE_PROBATION_EVICTIONS = "read-cache-probation-evictions";
+    private static final String READ_CACHE_PROTECTED_EVICTIONS = "read-cache-protected-evictions";
+    private static final String READ_CACHE_DEMOTIONS = "read-cache-demotions";
     private static final String READAHEAD_BATCH_COUNT = "readahead-batch-count";
     private static final String READAHEAD_BATCH_SIZE = "readahead-batch-size";
     private static final String READAHEAD_TIME = "readahead-time";
+    private static final String READAHEAD_WINDOW_SIZE = "readahead-window-size";
+    private static final String READAHEAD_ASYNC_BATCHES = "readahead-async-batches";
     private static final String FLUSH = "flush";
     private static final String FLUSH_ENTRYLOG = "flush-entrylog";
     private static final String FLUSH_LOCATIONS_INDEX = "flush-locations-index";
     private static final String FLUSH_LEDGER_INDEX = "flush-ledger-index";
     private static final String FLUSH_SIZE = "flush-size";
+    private static final String FLUSH_RATE = "flush-rate";
+    private static final String FLUSH_RATE_JITTER = "flush-rate-jitter";
+    private static final String FLUSH_PACING_TIME = "flush-pacing-time";
 
     @Deprecated
     private static final String THROTTLED_WRITE_REQUESTS = "throttled-write-requests";
     // throttled-write-requests is deprecated, use new metric: throttled-write
     private static final String THROTTLED_WRITE = "throttled-write";
     private static final String REJECTED_WRITE_REQUESTS = "rejected-write-requests";
+    private static final String BACKPRESSURE_REJECTED_WRITE_REQUESTS = "backpressure-rejected-write-requests";
+    private static final String WRITE_CACHE_FILL_RATE = "write-cache-fill-rate";
+    private static final String FLUSH_THROUGHPUT = "flush-throughput";
+    private static final String WRITE_CACHE_BACKPRESSURE_REJECT_PERCENT = "write-cache-backpressure-reject-percent";
     private static final String WRITE_CACHE_SIZE = "write-cache-size";
     private static final String WRITE_CACHE_COUNT = "write-cache-count";
     private static final String READ_CACHE_SIZE = "read-cache-size";
     private static final String READ_CACHE_COUNT = "read-cache-count";
+    private static final String CAPACITY_TIER_MOVE = "capacity-tier-move";
+    private static final String CAPACITY_TIER_MOVED_BYTES = "capacity-tier-moved-bytes";
+    private static final String SCRUBBER_PASS = "scrubber-pass";
+    private static final String SCRUBBER_CHECKED_ENTRIES = "scrubber-checked-entries";
+    private static final String SCRUBBER_CHECKED_BYTES = "scrubber-checked-bytes";
+    private static final String SCRUBBER_ERRORS = "scrubber-errors";
+    private static final String SCRUBBER_YIELD_TIME = "scrubber-yield-time";
+    private static final String SCRUBBER_COVERAGE = "scrubber-coverage";
 
     @StatsDoc(
         name = ADD_ENTRY,
@@ -118,6 +141,40 @@ class DbLedgerStorageStats {
         parent = READ_ENTRY
     )
     private final Counter readCacheMissCounter;
+    @StatsDoc(
+        name = READ_CACHE_PROBATION_HITS,
+        help = "number of read cache hits in the probation segments, when the protected segments are enabled",
+        parent = READ_CACHE_HITS
+    )
+    private final Counter readCacheProbationHits;
+    @StatsDoc(
+        name = READ_CACHE_PROTECTED_HITS,
+        help = "number of read cache hits in the protected segments",
+        parent = READ_CACHE_HITS
+    )
+    private final Counter readCacheProtectedHits;
+    @StatsDoc(
+        name = READ_CACHE_PROMOTIONS,
+        help = "number of entries moved from the probation segments to the protected segments of the read cache"
+    )
+    private final Counter readCachePromotions;
+    @StatsDoc(
+        name = READ_CACHE_PROBATION_EVICTIONS,
+        help = "number of entries evicted from the probation segments of the read cache"
+            + " (all the segments, when the protected segments are disabled)"
+    )
+    private final Counter readCacheProbationEvictions;
+    @StatsDoc(
+        name = READ_CACHE_PROTECTED_EVICTIONS,
+        help = "number of entries evicted from the protected segments of the read cache"
+    )
+    private final Counter readCacheProtectedEvictions;
+    @StatsDoc(
+        name = READ_CACHE_DEMOTIONS,
+        help = "number of entries moved back from the protected segments to the probation segments of the read cache"
+            + " when their protected segment is evicted"
+    )
+    private final Counter readCacheDemotions;
     @StatsDoc(
         name = READAHEAD_BATCH_COUNT,
         help = "the distribution of num of entries to read in one readahead batch"
@@ -133,6 +190,16 @@ class DbLedgerStorageStats {
             help = "Time spent on readahead operations"
     )
     private final Counter readAheadTime;
+    @StatsDoc(
+        name = READAHEAD_WINDOW_SIZE,
+        help = "the distribution of the adaptive read-ahead window sizes, in entries, decided on read cache misses"
+    )
+    private final OpStatsLogger readAheadWindowSizeStats;
+    @StatsDoc(
+        name = READAHEAD_ASYNC_BATCHES,
+        help = "number of read-ahead batches started asynchronously ahead of sequential readers"
+    )
+    private final Counter readAheadAsyncBatches;
     @StatsDoc(
         name = FLUSH,
         help = "operation stats of flushing write cache to entry log files"
@@ -158,6 +225,23 @@ class DbLedgerStorageStats {
         help = "the distribution of number of bytes flushed from write cache to entry log files"
     )
     private final OpStatsLogger flushSizeStats;
+    @StatsDoc(
+        name = FLUSH_RATE,
+        help = "the distribution of the rate, in bytes per second, at which the entries of the write cache are"
+            + " written to the entry log files"
+    )
+    private final OpStatsLogger flushRateStats;
+    @StatsDoc(
+        name = FLUSH_RATE_JITTER,
+        help = "the distribution of the difference, in percent, between the rate at which the entries of the write"
+            + " cache are written and the target rate of the paced flushes"
+    )
+    private final OpStatsLogger flushRateJitterStats;
+    @StatsDoc(
+        name = FLUSH_PACING_TIME,
+        help = "time spent pacing the flushes of the write cache"
+    )
+    private final Counter flushPacingTime;
     @StatsDoc(
         name = THROTTLED_WRITE_REQUESTS,
         help = "The number of requests throttled due to write cache is full"
@@ -173,6 +257,47 @@ class DbLedgerStorageStats {
         help = "The number of requests rejected due to write cache is full"
     )
     private final Counter rejectedWriteRequests;
+    @StatsDoc(
+        name = BACKPRESSURE_REJECTED_WRITE_REQUESTS,
+        help = "The number of requests rejected before the write cache is full, because it fills faster than it is"
+            + " flushed"
+    )
+    private final Counter backpressureRejectedWriteRequests;
+    @StatsDoc(
+        name = CAPACITY_TIER_MOVE,
+        help = "operation stats of moving entry logs to the capacity tier"
+    )
+    private final OpStatsLogger capacityTierMoveStats;
+    @StatsDoc(
+        name = CAPACITY_TIER_MOVED_BYTES,
+        help = "The number of bytes of entry logs moved to the capacity tier"
+    )
+    private final Counter capacityTierMovedBytes;
+    @StatsDoc(
+        name = SCRUBBER_PASS,
+        help = "operation stats of the passes of the scrubber over all the entries of the ledger directory"
+    )
+    private final OpStatsLogger scrubberPassStats;
+    @StatsDoc(
+        name = SCRUBBER_CHECKED_ENTRIES,
+        help = "The number of entries checked by the scrubber"
+    )
+    private final Counter scrubberCheckedEntries;
+    @StatsDoc(
+        name = SCRUBBER_CHECKED_BYTES,
+        help = "The number of bytes of entries checked by the scrubber"
+    )
+    private final Counter scrubberCheckedBytes;
+    @StatsDoc(
+        name = SCRUBBER_ERRORS,
+        help = "The number of entries found by the scrubber to be unreadable or not matching their digest"
+    )
+    private final Counter scrubberErrors;
+    @StatsDoc(
+        name = SCRUBBER_YIELD_TIME,
+        help = "time the scrubber spent waiting for the I/Os of the disk to drop below its max queue depth"
+    )
+    private final Counter scrubberYieldTime;
 
     @StatsDoc(
         name = WRITE_CACHE_SIZE,
@@ -188,38 +313,76 @@ class DbLedgerStorageStats {
         name = READ_CACHE_SIZE,
         help = "Current number of bytes in read cache"
     )
-    private final Gauge<Long> readCacheSizeGauge;
+    private Gauge<Long> readCacheSizeGauge;
     @StatsDoc(
         name = READ_CACHE_COUNT,
         help = "Current number of entries in read cache"
     )
-    private final Gauge<Long> readCacheCountGauge;
+    private Gauge<Long> readCacheCountGauge;
+    @StatsDoc(
+        name = WRITE_CACHE_FILL_RATE,
+        help = "Rate at which the write cache is filled, in bytes per second, when backpressure is enabled"
+    )
+    private Gauge<Long> writeCacheFillRateGauge;
+    @StatsDoc(
+        name = FLUSH_THROUGHPUT,
+        help = "Throughput of the last flushes of the write cache, in bytes per second, when backpressure is enabled"
+    )
+    private Gauge<Long> flushThroughputGauge;
+    @StatsDoc(
+        name = WRITE_CACHE_BACKPRESSURE_REJECT_PERCENT,
+        help = "Current probability, in percent, of rejecting a write because the write cache fills faster than it"
+            + " is flushed"
+    )
+    private Gauge<Double> writeCacheBackpressureRejectPercentGauge;
+    @StatsDoc(
+        name = SCRUBBER_COVERAGE,
+        help = "Percentage of the active ledgers checked by the current pass of the scrubber"
+    )
+    private Gauge<Double> scrubberCoverageGauge;
 
     DbLedgerStorageStats(StatsLogger stats,
                          Supplier<Long> writeCacheSizeSupplier,
-                         Supplier<Long> writeCacheCountSupplier,
-                         Supplier<Long> readCacheSizeSupplier,
-                         Supplier<Long> readCacheCountSupplier) {
+                         Supplier<Long> writeCacheCountSupplier) {
         addEntryStats = stats.getThreadScopedOpStatsLogger(ADD_ENTRY);
         readEntryStats = stats.getThreadScopedOpStatsLogger(READ_ENTRY);
         readFromLocationIndexTime = stats.getThreadScopedCounter(READ_ENTRY_LOCATIONS_INDEX_TIME);
         readFromEntryLogTime = stats.getThreadScopedCounter(READ_ENTRYLOG_TIME);
         readCacheHitCounter = stats.getCounter(READ_CACHE_HITS);
         readCacheMissCounter = stats.getCounter(READ_CACHE_MISSES);
+        readCacheProbationHits = stats.getCounter(READ_CACHE_PROBATION_HITS);
+        readCacheProtectedHits = stats.getCounter(READ_CACHE_PROTECTED_HITS);
+        readCachePromotions = stats.getCounter(READ_CACHE_PROMOTIONS);
+        readCacheProbationEvictions = stats.getCounter(READ_CACHE_PROBATION_EVICTIONS);
+        readCacheProtectedEvictions = stats.getCounter(READ_CACHE_PROTECTED_EVICTIONS);
+        readCacheDemotions = stats.getCounter(READ_CACHE_DEMOTIONS);
         writeCacheHitCounter = stats.getCounter(WRITE_CACHE_HITS);
         writeCacheMissCounter = stats.getCounter(WRITE_CACHE_MISSES);
         readAheadBatchCountStats = stats.getOpStatsLogger(READAHEAD_BATCH_COUNT);
         readAheadBatchSizeStats = stats.getOpStatsLogger(READAHEAD_BATCH_SIZE);
         readAheadTime = stats.getThreadScopedCounter(READAHEAD_TIME);
+        readAheadWindowSizeStats = stats.getOpStatsLogger(READAHEAD_WINDOW_SIZE);
+        readAheadAsyncBatches = stats.getCounter(READAHEAD_ASYNC_BATCHES);
         flushStats = stats.getOpStatsLogger(FLUSH);
         flushEntryLogStats = stats.getOpStatsLogger(FLUSH_ENTRYLOG);
         flushLocationIndexStats = stats.getOpStatsLogger(FLUSH_LOCATIONS_INDEX);
         flushLedgerIndexStats = stats.getOpStatsLogger(FLUSH_LEDGER_INDEX);
         flushSizeStats = stats.getOpStatsLogger(FLUSH_SIZE);
+        flushRateStats = stats.getOpStatsLogger(FLUSH_RATE);
+        flushRateJitterStats = stats.getOpStatsLogger(FLUSH_RATE_JITTER);
+        flushPacingTime = stats.getCounter(FLUSH_PACING_TIME);
 
         throttledWriteRequests = stats.getThreadScopedCounter(THROTTLED_WRITE_REQUESTS);
         throttledWriteStats = stats.getOpStatsLogger(THROTTLED_WRITE);
         rejectedWriteRequests = stats.getThreadScopedCounter(REJECTED_WRITE_REQUESTS);
+        backpressureRejectedWriteRequests = stats.getCounter(BACKPRESSURE_REJECTED_WRITE_REQUESTS);
+        capacityTierMoveStats = stats.getOpStatsLogger(CAPACITY_TIER_MOVE);
+        capacityTierMovedBytes = stats.getCounter(CAPACITY_TIER_MOVED_BYTES);
+        scrubberPassStats = stats.getOpStatsLogger(SCRUBBER_PASS);
+        scrubberCheckedEntries = stats.getCounter(SCRUBBER_CHECKED_ENTRIES);
+        scrubberCheckedBytes = stats.getCounter(SCRUBBER_CHECKED_BYTES);
+        scrubberErrors = stats.getCounter(SCRUBBER_ERRORS);
+        scrubberYieldTime = stats.getCounter(SCRUBBER_YIELD_TIME);
 
         writeCacheSizeGauge = new Gauge<Long>() {
             @Override
@@ -245,6 +408,9 @@ class DbLedgerStorageStats {
             }
         };
         stats.registerGauge(WRITE_CACHE_COUNT, writeCacheCountGauge);
+    }
+
+    void registerReadCacheGauges(StatsLogger stats, ReadCache readCache) {
         readCacheSizeGauge = new Gauge<Long>() {
             @Override
             public Long getDefaultValue() {
@@ -253,7 +419,7 @@ class DbLedgerStorageStats {
 
             @Override
             public Long getSample() {
-                return readCacheSizeSupplier.get();
+                return readCache.size();
             }
         };
         stats.registerGauge(READ_CACHE_SIZE, readCacheSizeGauge);
@@ -266,10 +432,64 @@ class DbLedgerStorageStats {
 
             @Override
             public Long getSample() {
-                return readCacheCountSupplier.get();
+                return readCache.count();
             }
         };
         stats.registerGauge(READ_CACHE_COUNT, readCacheCountGauge);
     }
 
+    void registerWriteCacheBackpressureGauges(StatsLogger stats, WriteCacheBackpressure backpressure) {
+        writeCacheFillRateGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return backpressure.getFillRate();
+            }
+        };
+        stats.registerGauge(WRITE_CACHE_FILL_RATE, writeCacheFillRateGauge);
+        flushThroughputGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return backpressure.getFlushThroughput();
+            }
+        };
+        stats.registerGauge(FLUSH_THROUGHPUT, flushThroughputGauge);
+        writeCacheBackpressureRejectPercentGauge = new Gauge<Double>() {
+            @Override
+            public Double getDefaultValue() {
+                return 0.0;
+            }
+
+            @Override
+            public Double getSample() {
+                return backpressure.getRejectPercent();
+            }
+        };
+        stats.registerGauge(WRITE_CACHE_BACKPRESSURE_REJECT_PERCENT, writeCacheBackpressureRejectPercentGauge);
+    }
+
+    void registerScrubberGauges(StatsLogger stats, DbLedgerStorageScrubber scrubber) {
+        scrubberCoverageGauge = new Gauge<Double>() {
+            @Override
+            public Double getDefaultValue() {
+                return 0.0;
+            }
+
+            @Override
+            public Double getSample() {
+                return scrubber.getCoverage();
+            }
+        };
+        stats.registerGauge(SCRUBBER_COVERAGE, scrubberCoverageGauge);
+    }
+
 }
@@ -20,6 +20,8 @@
  */
 package org.apache.bookkeeper.bookie.storage.ldb;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.collect.Iterables;
 
 import java.io.Closeable;
@@ -31,9 +33,11 @@ import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.EntryLocation;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,12 +53,19 @@ public class EntryLocationIndex implements Closeable {
     private final KeyValueStorage locationsDb;
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
 
+    // In-memory copy of the locations of the ledgers no longer written, null when disabled
+    private final SealedLedgersLocationIndex sealedLedgers;
+
     private final EntryLocationIndexStats stats;
 
     public EntryLocationIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
             StatsLogger stats) throws IOException {
         locationsDb = storageFactory.newKeyValueStorage(basePath, "locations", DbConfigType.EntryLocation, conf);
 
+        long sealedLedgersMaxSize = conf.getLong(DbLedgerStorage.SEALED_LEDGERS_LOCATION_INDEX_MAX_SIZE_MB,
+                DbLedgerStorage.DEFAULT_SEALED_LEDGERS_LOCATION_INDEX_MAX_SIZE_MB) * 1024 * 1024;
+        sealedLedgers = sealedLedgersMaxSize > 0 ? new SealedLedgersLocationIndex(sealedLedgersMaxSize) : null;
+
         this.stats = new EntryLocationIndexStats(
             stats,
             () -> {
@@ -63,7 +74,10 @@ public class EntryLocationIndex implements Closeable {
                 } catch (IOException e) {
                     return -1L;
                 }
-            });
+            },
+            () -> sealedLedgers != null ? sealedLedgers.count() : 0L,
+            () -> sealedLedgers != null ? sealedLedgers.size() : 0L);
+        locationsDb.registerStats(stats.scope("locations-db"));
     }
 
     @Override
@@ -71,7 +85,22 @@ public class EntryLocationIndex implements Closeable {
         locationsDb.close();
     }
 
+    /**
+     * @return the dump of the internal stats of the underlying storage, or null if it does not expose any
+     */
+    public String getStatsDump() throws IOException {
+        return locationsDb.getStatsDump();
+    }
+
     public long getLocation(long ledgerId, long entryId) throws IOException {
+        if (sealedLedgers != null) {
+            long location = sealedLedgers.getLocation(ledgerId, entryId);
+            if (location != 0) {
+                stats.getSealedLedgersLookupHits().inc();
+                return location;
+            }
+        }
+
         LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
         LongWrapper value = LongWrapper.get();
 
@@ -83,6 +112,9 @@ public class EntryLocationIndex implements Closeable {
                 return 0;
             }
 
+            if (sealedLedgers != null) {
+                sealedLedgers.recordStorageLookup(ledgerId);
+            }
             return value.getValue();
         } finally {
             key.recycle();
@@ -90,6 +122,55 @@ public class EntryLocationIndex implements Closeable {
         }
     }
 
+    /**
+     * Get the locations of a range of entries of a ledger.
+     *
+     * <p>The locations are fetched with a single bounded scan over the index, instead of doing one point lookup
+     * for each entry.
+     *
+     * @param ledgerId
+     *            the ledger id
+     * @param firstEntryId
+     *            the first entry in the range (included)
+     * @param lastEntryId
+     *            the last entry in the range (included)
+     * @return an array where the element {@code i} holds the location of the entry {@code firstEntryId + i}, or 0
+     *         if that entry was not found in the index
+     */
+    public long[] getLocations(long ledgerId, long firstEntryId, long lastEntryId) throws IOException {
+        checkArgument(firstEntryId >= 0 && firstEntryId <= lastEntryId && lastEntryId < Long.MAX_VALUE,
+                "Invalid entries range: %s - %s", firstEntryId, lastEntryId);
+        checkArgument(lastEntryId - firstEntryId < Integer.MAX_VALUE, "Entries range too large: %s - %s",
+                firstEntryId, lastEntryId);
+
+        long[] locations = new long[(int) (lastEntryId - firstEntryId + 1)];
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, firstEntryId);
+        LongPairWrapper lastKey = LongPairWrapper.get(ledgerId, lastEntryId + 1);
+        long startTime = MathUtils.nowInNano();
+        int found = 0;
+
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = locationsDb.iterator(firstKey.array,
+                lastKey.array)) {
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                long entryId = ArrayUtil.getLong(entry.getKey(), 8);
+                locations[(int) (entryId - firstEntryId)] = ArrayUtil.getLong(entry.getValue(), 0);
+                ++found;
+            }
+        } finally {
+            firstKey.recycle();
+            lastKey.recycle();
+        }
+
+        stats.getLookupRangeStats().registerSuccessfulEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+        stats.getLookupRangeEntries().registerSuccessfulValue(found);
+        if (log.isDebugEnabled()) {
+            log.debug("Found {} locations for ledger {} in range {} - {}", found, ledgerId, firstEntryId,
+                    lastEntryId);
+        }
+        return locations;
+    }
+
     public long getLastEntryInLedger(long ledgerId) throws IOException {
         if (deletedLedgers.contains(ledgerId)) {
             // Ledger already deleted
@@ -142,6 +223,11 @@ public class EntryLocationIndex implements Closeable {
     }
 
     public void addLocation(Batch batch, long ledgerId, long entryId, long location) throws IOException {
+        if (sealedLedgers != null && !sealedLedgers.isEmpty()) {
+            // The ledger is being written again
+            sealedLedgers.invalidate(ledgerId);
+        }
+
         LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
         LongWrapper value = LongWrapper.get(location);
 
@@ -174,16 +260,100 @@ public class EntryLocationIndex implements Closeable {
 
         batch.flush();
         batch.close();
+
+        if (sealedLedgers != null) {
+            // Drop also the copies of the ledgers that were loaded while the batch was being written
+            for (EntryLocation e : newLocations) {
+                sealedLedgers.invalidate(e.ledger);
+            }
+        }
     }
 
     public void delete(long ledgerId) throws IOException {
         // We need to find all the LedgerIndexPage records belonging to one specific
         // ledgers
         deletedLedgers.add(ledgerId);
+        if (sealedLedgers != null) {
+            sealedLedgers.invalidate(ledgerId);
+        }
+    }
+
+    boolean isSealedLedgersIndexEnabled() {
+        return sealedLedgers != null;
+    }
+
+    /**
+     * Load in memory the locations of the ledgers that were recently looked up in the storage.
+     *
+     * @param activeLedgers ledgers that are still being written, and are not worth being sealed
+     */
+    void sealLedgers(ConcurrentLongHashSet activeLedgers) throws IOException {
+        if (sealedLedgers == null) {
+            return;
+        }
+
+        for (long ledgerId : sealedLedgers.drainCandidates()) {
+            if (!activeLedgers.contains(ledgerId) && !deletedLedgers.contains(ledgerId)) {
+                sealLedger(ledgerId);
+            }
+        }
+    }
+
+    private void sealLedger(long ledgerId) throws IOException {
+        SealedLedgersLocationIndex.SealedLedger slot = sealedLedgers.reserve(ledgerId);
+        if (slot == null) {
+            return;
+        }
+
+        long startTime = MathUtils.nowInNano();
+        boolean published = false;
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, 0);
+        try {
+            Entry<byte[], byte[]> firstEntry = locationsDb.getCeil(firstKey.array);
+            if (firstEntry == null || ArrayUtil.getLong(firstEntry.getKey(), 0) != ledgerId) {
+                return;
+            }
+            long firstEntryId = ArrayUtil.getLong(firstEntry.getKey(), 8);
+            long lastEntryId = getLastEntryInLedgerInternal(ledgerId);
+
+            SealedLedgersLocationIndex.CompactLocations.Builder builder =
+                    SealedLedgersLocationIndex.CompactLocations.newBuilder(firstEntryId);
+            for (long first = firstEntryId; first <= lastEntryId; first += SEAL_LEDGER_BATCH_SIZE) {
+                long last = Math.min(lastEntryId, first + SEAL_LEDGER_BATCH_SIZE - 1);
+                for (long location : getLocations(ledgerId, first, last)) {
+                    builder.add(location);
+                }
+
+                if (builder.sizeInBytes() > sealedLedgers.getMaxSize()) {
+                    // Ledger too big to fit in the index
+                    return;
+                }
+            }
+
+            published = sealedLedgers.publish(ledgerId, slot, builder.build());
+            if (log.isDebugEnabled()) {
+                log.debug("Sealed ledger {} entries ({} -> {}): {}", ledgerId, firstEntryId, lastEntryId,
+                        published);
+            }
+        } catch (Bookie.NoEntryException e) {
+            // The ledger has no entries
+        } finally {
+            firstKey.recycle();
+            if (published) {
+                stats.getSealLedgerStats().registerSuccessfulEvent(MathUtils.elapsedNanos(startTime),
+                        TimeUnit.NANOSECONDS);
+            } else {
+                sealedLedgers.release(ledgerId, slot);
+                stats.getSealLedgerStats().registerFailedEvent(MathUtils.elapsedNanos(startTime),
+                        TimeUnit.NANOSECONDS);
+            }
+        }
     }
 
     private static final int DELETE_ENTRIES_BATCH_SIZE = 100000;
 
+    private static final int SEAL_LEDGER_BATCH_SIZE = 10000;
+
     public void removeOffsetFromDeletedLedgers() throws IOException {
         LongPairWrapper firstKeyWrapper = LongPairWrapper.get(-1, -1);
         LongPairWrapper lastKeyWrapper = LongPairWrapper.get(-1, -1);
@@ -24,7 +24,9 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER
 
 import java.util.function.Supplier;
 import lombok.Getter;
+import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.annotations.StatsDoc;
 
@@ -40,15 +42,54 @@ import org.apache.bookkeeper.stats.annotations.StatsDoc;
 class EntryLocationIndexStats {
 
     private static final String ENTRIES_COUNT = "entries-count";
+    private static final String LOOKUP_RANGE = "lookup-range";
+    private static final String LOOKUP_RANGE_ENTRIES = "lookup-range-entries";
+    private static final String SEALED_LEDGERS_LOOKUP_HITS = "sealed-ledgers-lookup-hits";
+    private static final String SEAL_LEDGER = "seal-ledger";
+    private static final String SEALED_LEDGERS_COUNT = "sealed-ledgers-count";
+    private static final String SEALED_LEDGERS_SIZE = "sealed-ledgers-size";
 
     @StatsDoc(
         name = ENTRIES_COUNT,
         help = "Current number of entries"
     )
     private final Gauge<Long> entriesCountGauge;
+    @StatsDoc(
+        name = LOOKUP_RANGE,
+        help = "operation stats of looking up the locations of a range of entries"
+    )
+    private final OpStatsLogger lookupRangeStats;
+    @StatsDoc(
+        name = LOOKUP_RANGE_ENTRIES,
+        help = "the distribution of num of locations found in one range lookup"
+    )
+    private final OpStatsLogger lookupRangeEntries;
+    @StatsDoc(
+        name = SEALED_LEDGERS_LOOKUP_HITS,
+        help = "number of locations found in the in-memory index of the sealed ledgers"
+    )
+    private final Counter sealedLedgersLookupHits;
+    @StatsDoc(
+        name = SEAL_LEDGER,
+        help = "operation stats of loading the locations of a ledger into the in-memory index of the sealed ledgers,"
+            + " failed if the ledger could not be loaded"
+    )
+    private final OpStatsLogger sealLedgerStats;
+    @StatsDoc(
+        name = SEALED_LEDGERS_COUNT,
+        help = "Current number of ledgers in the in-memory index of the sealed ledgers"
+    )
+    private final Gauge<Long> sealedLedgersCountGauge;
+    @StatsDoc(
+        name = SEALED_LEDGERS_SIZE,
+        help = "Current number of bytes used by the in-memory index of the sealed ledgers"
+    )
+    private final Gauge<Long> sealedLedgersSizeGauge;
 
     EntryLocationIndexStats(StatsLogger statsLogger,
-                            Supplier<Long> entriesCountSupplier) {
+                            Supplier<Long> entriesCountSupplier,
+                            Supplier<Long> sealedLedgersCountSupplier,
+                            Supplier<Long> sealedLedgersSizeSupplier) {
         entriesCountGauge = new Gauge<Long>() {
             @Override
             public Long getDefaultValue() {
@@ -61,6 +102,34 @@ class EntryLocationIndexStats {
             }
         };
         statsLogger.registerGauge(ENTRIES_COUNT, entriesCountGauge);
+        lookupRangeStats = statsLogger.getOpStatsLogger(LOOKUP_RANGE);
+        lookupRangeEntries = statsLogger.getOpStatsLogger(LOOKUP_RANGE_ENTRIES);
+        sealedLedgersLookupHits = statsLogger.getCounter(SEALED_LEDGERS_LOOKUP_HITS);
+        sealLedgerStats = statsLogger.getOpStatsLogger(SEAL_LEDGER);
+        sealedLedgersCountGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return sealedLedgersCountSupplier.get();
+            }
+        };
+        statsLogger.registerGauge(SEALED_LEDGERS_COUNT, sealedLedgersCountGauge);
+        sealedLedgersSizeGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return sealedLedgersSizeSupplier.get();
+            }
+        };
+        statsLogger.registerGauge(SEALED_LEDGERS_SIZE, sealedLedgersSizeGauge);
     }
 
 }
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import com.google.common.util.concurrent.RateLimiter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pace the writes of the entries of a flushed write cache into the entry logs.
+ *
+ * <p>Instead of writing the whole write cache as fast as possible, which makes periodic bursts of I/O competing with
+ * the journal fsyncs when they share the disks, the entries are written at a rate such that the flush lasts a part
+ * of the time it took to fill the write cache. The rate is applied by chunks, so that the rate limiter is not asked
+ * for every single entry.
+ */
+class FlushPacer {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final RateLimiter rateLimiter;
+    private int pendingBytes = 0;
+    private long waitNanos = 0;
+
+    FlushPacer(double bytesPerSecond) {
+        this.rateLimiter = RateLimiter.create(bytesPerSecond);
+    }
+
+    /**
+     * Create the pacer of a flush.
+     *
+     * @param sizeToFlush number of bytes to flush
+     * @param fillTimeNanos time it took to fill the write cache being flushed
+     * @param spreadPercent part of the fill time, in percent, over which the flush is spread
+     * @param minBytesPerSecond rate below which the flush is never paced
+     * @return the pacer, or null if there is nothing to pace
+     */
+    static FlushPacer create(long sizeToFlush, long fillTimeNanos, int spreadPercent, long minBytesPerSecond) {
+        if (sizeToFlush <= 0 || fillTimeNanos <= 0 || spreadPercent <= 0) {
+            return null;
+        }
+
+        double writeRate = sizeToFlush * (double) TimeUnit.SECONDS.toNanos(1) / fillTimeNanos;
+        return new FlushPacer(Math.max(writeRate * 100 / spreadPercent, minBytesPerSecond));
+    }
+
+    /**
+     * Wait, if needed, after writing an entry.
+     *
+     * @param size size of the entry
+     * @param paused whether to stop pacing, when the flush is needed as soon as possible
+     */
+    void onEntryWritten(int size, boolean paused) {
+        pendingBytes += size;
+        if (pendingBytes < CHUNK_SIZE) {
+            return;
+        }
+
+        if (!paused) {
+            waitNanos += (long) (rateLimiter.acquire(pendingBytes) * TimeUnit.SECONDS.toNanos(1));
+        }
+        pendingBytes = 0;
+    }
+
+    /**
+     * @return the target rate, in bytes per second
+     */
+    double getRate() {
+        return rateLimiter.getRate();
+    }
+
+    /**
+     * @return the time spent waiting so far
+     */
+    long getWaitNanos() {
+        return waitNanos;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Approximate access frequency of (ledgerId, entryId) pairs, in the style of TinyLFU.
+ *
+ * <p>A count-min sketch of 4-bit counters: each item is tracked by 4 counters and its frequency is the minimum
+ * among them. After a number of increments proportional to the sketch size all the counters are halved, so that
+ * the frequencies decay and reflect the recent accesses only.
+ *
+ * <p>Updates are not atomic. Concurrent increments of the same counter may be lost, which is acceptable for an
+ * estimate that is only used to take caching decisions.
+ */
+class FrequencySketch {
+
+    static final int MAX_FREQUENCY = 15;
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private static final int MIN_TABLE_SIZE = 64;
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param expectedItems number of distinct items expected to be tracked at the same time
+     */
+    FrequencySketch(long expectedItems) {
+        long size = Math.max(MIN_TABLE_SIZE, Math.min(MAX_TABLE_SIZE, expectedItems));
+        int tableSize = Integer.highestOneBit((int) size - 1) << 1;
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = 10 * tableSize;
+    }
+
+    /**
+     * @return the estimated number of recent accesses to the entry, capped at {@link #MAX_FREQUENCY}
+     */
+    int frequency(long ledgerId, long entryId) {
+        int hash = spread(ledgerId, entryId);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access to the entry.
+     */
+    void increment(long ledgerId, long entryId) {
+        int hash = spread(ledgerId, entryId);
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && additions.incrementAndGet() >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        long value = table[index];
+        if ((value & mask) != mask) {
+            table[index] = value + (1L << offset);
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void reset() {
+        if (additions.get() < sampleSize) {
+            // Another thread already halved the counters
+            return;
+        }
+
+        int oddCounters = 0;
+        for (int i = 0; i < table.length; i++) {
+            oddCounters += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions.set((additions.get() - (oddCounters >>> 2)) >>> 1);
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(long ledgerId, long entryId) {
+        long h = ledgerId * 0x9e3779b97f4a7c15L + entryId;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
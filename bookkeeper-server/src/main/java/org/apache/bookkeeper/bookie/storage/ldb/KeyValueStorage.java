@@ -23,6 +23,7 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Map.Entry;
+import org.apache.bookkeeper.stats.StatsLogger;
 
 /**
  * Abstraction of a generic key-value local database.
@@ -132,6 +133,21 @@ public interface KeyValueStorage extends Closeable {
      */
     CloseableIterator<Entry<byte[], byte[]>> iterator();
 
+    /**
+     * Return an iterator object that can be used to sequentially scan through all
+     * the entries within a specified range.
+     *
+     * <p>This allows to fetch a set of adjacent keys with a single bounded scan instead
+     * of one point lookup for each key. The returned entry may be reused across calls
+     * to {@link CloseableIterator#next()}.
+     *
+     * @param firstKey
+     *            the first key in the range (included)
+     * @param lastKey
+     *            the lastKey in the range (not included)
+     */
+    CloseableIterator<Entry<byte[], byte[]>> iterator(byte[] firstKey, byte[] lastKey);
+
     /**
      * Commit all pending write to durable storage.
      */
@@ -142,6 +158,21 @@ public interface KeyValueStorage extends Closeable {
      */
     long count() throws IOException;
 
+    /**
+     * Register the internal stats of the storage engine, if it exposes any.
+     *
+     * @param statsLogger
+     *            the stats logger scoped to this storage
+     */
+    default void registerStats(StatsLogger statsLogger) {}
+
+    /**
+     * @return a human readable dump of the internal stats of the storage engine, or null if it does not expose any
+     */
+    default String getStatsDump() throws IOException {
+        return null;
+    }
+
     /**
      * Iterator interface.
      *
@@ -0,0 +1,1297 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.primitives.UnsignedBytes;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pure Java, log-structured implementation of the KeyValueStorage, for the fixed-length keys of the DbLedgerStorage
+ * indexes.
+ *
+ * <p>The writes are appended to a write-ahead log and applied to an in-memory sorted table. Once the table is full,
+ * it is written, in the background, to an immutable sorted run: a file of fixed-size records that is memory-mapped
+ * and binary-searched by the reads, without copying it in the Java heap. The runs are merged in the background when
+ * the newest ones grow as big as the older ones, so that a lookup only goes through a few of them. The merges run on
+ * their own thread, so that a long merge does not delay the flushes and block the writes. The deleted keys are kept as
+ * tombstones until they are merged into the oldest run.
+ *
+ * <p>All the keys of a storage must have the same length. The records of a run are as big as its biggest value, so
+ * this storage is meant for the small values of the indexes.
+ */
+public class KeyValueStorageLsm implements KeyValueStorage {
+
+    static KeyValueStorageFactory factory = (defaultBasePath, subPath, dbConfigType, conf) ->
+            new KeyValueStorageLsm(defaultBasePath, subPath, dbConfigType, conf);
+
+    // Marks a directory holding a KeyValueStorageLsm, so that it is never opened as a RocksDB database
+    static final String MARKER_FILE = "LSM";
+
+    private static final String MEMTABLE_MAX_SIZE_MB = "dbStorage_lsmMemTableMaxSizeMb";
+    private static final long DEFAULT_MEMTABLE_MAX_SIZE_MB = 64;
+    private static final long LEDGER_METADATA_MEMTABLE_MAX_SIZE_MB = 4;
+
+    private static final String WAL_SUFFIX = ".wal";
+    private static final String RUN_SUFFIX = ".run";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // Estimated memory used by an entry of the memtable on top of its key and value
+    private static final int MEMTABLE_ENTRY_OVERHEAD = 64;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    private static final Comparator<byte[]> KEY_COMPARATOR = UnsignedBytes.lexicographicalComparator();
+
+    // Value of the deleted keys in the memtables, compared by reference
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final File dir;
+    private final boolean readOnly;
+    private final long memTableMaxSize;
+    private final ExecutorService flushExecutor;
+    private final ExecutorService mergeExecutor;
+
+    private volatile State state;
+
+    // Guarded by this
+    private WriteAheadLog wal;
+    private long memTableSize;
+    // Number of values and tombstones of the memtable and of the memtable being flushed
+    private long memTableValues;
+    private long memTableTombstones;
+    private long immutableMemTableValues;
+    private long immutableMemTableTombstones;
+    private long nextFileId;
+    private int keyLength = -1;
+    private IOException backgroundError;
+    private boolean closed;
+
+    public KeyValueStorageLsm(String basePath, String subPath, DbConfigType dbConfigType, ServerConfiguration conf)
+            throws IOException {
+        this(basePath, subPath, dbConfigType, conf, false);
+    }
+
+    public KeyValueStorageLsm(String basePath, String subPath, DbConfigType dbConfigType, ServerConfiguration conf,
+                              boolean readOnly) throws IOException {
+        this.dir = new File(basePath, subPath);
+        this.readOnly = readOnly;
+        long defaultMemTableMaxSizeMb = dbConfigType == DbConfigType.LedgerMetadata
+                ? LEDGER_METADATA_MEMTABLE_MAX_SIZE_MB : DEFAULT_MEMTABLE_MAX_SIZE_MB;
+        this.memTableMaxSize = conf.getLong(MEMTABLE_MAX_SIZE_MB, defaultMemTableMaxSizeMb) * 1024 * 1024;
+
+        if (new File(dir, "CURRENT").exists()) {
+            throw new IOException("Directory " + dir + " contains a RocksDB database");
+        }
+        if (!readOnly) {
+            Files.createDirectories(dir.toPath());
+            File marker = new File(dir, MARKER_FILE);
+            if (!marker.exists()) {
+                Files.createFile(marker.toPath());
+            }
+        } else if (!dir.isDirectory()) {
+            throw new IOException("Directory " + dir + " does not exist");
+        }
+
+        this.flushExecutor = readOnly ? null
+                : Executors.newSingleThreadExecutor(new DefaultThreadFactory("kv-storage-" + subPath));
+        this.mergeExecutor = readOnly ? null
+                : Executors.newSingleThreadExecutor(new DefaultThreadFactory("kv-storage-merge-" + subPath));
+        recover();
+    }
+
+    /**
+     * Load the runs and replay the write-ahead logs that were not flushed to a run yet.
+     */
+    private void recover() throws IOException {
+        List<Run> runs = new ArrayList<>();
+        List<Long> walIds = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list directory " + dir);
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(TMP_SUFFIX)) {
+                if (!readOnly) {
+                    // Leftover of an interrupted flush or merge
+                    Files.deleteIfExists(file.toPath());
+                }
+            } else if (fileName.endsWith(RUN_SUFFIX)) {
+                runs.add(Run.open(file));
+                nextFileId = Math.max(nextFileId, fileId(file) + 1);
+            } else if (fileName.endsWith(WAL_SUFFIX)) {
+                walIds.add(fileId(file));
+                nextFileId = Math.max(nextFileId, fileId(file) + 1);
+            }
+        }
+
+        // Newest first. The inputs of a merge that are still there after a crash are covered by the merged run
+        runs.sort(Comparator.comparingLong((Run run) -> run.maxWalId).reversed()
+                .thenComparingLong(run -> run.minWalId));
+        List<Run> liveRuns = new ArrayList<>();
+        for (Run run : runs) {
+            Run last = liveRuns.isEmpty() ? null : liveRuns.get(liveRuns.size() - 1);
+            if (last != null && last.minWalId <= run.minWalId && run.maxWalId <= last.maxWalId) {
+                if (!readOnly) {
+                    Files.deleteIfExists(run.file.toPath());
+                }
+            } else {
+                liveRuns.add(run);
+            }
+        }
+        long flushedWalId = liveRuns.isEmpty() ? -1 : liveRuns.get(0).maxWalId;
+        for (Run run : liveRuns) {
+            if (keyLength < 0 && run.count > 0) {
+                keyLength = run.keyLength;
+            }
+        }
+
+        ConcurrentSkipListMap<byte[], byte[]> memTable = new ConcurrentSkipListMap<>(KEY_COMPARATOR);
+        Collections.sort(walIds);
+        long firstWalId = -1;
+        long lastWalId = -1;
+        for (long walId : walIds) {
+            File walFile = walFile(walId);
+            if (walId <= flushedWalId) {
+                if (!readOnly) {
+                    Files.deleteIfExists(walFile.toPath());
+                }
+                continue;
+            }
+            replay(walFile, memTable);
+            if (firstWalId < 0) {
+                firstWalId = walId;
+            }
+            lastWalId = walId;
+        }
+        this.state = new State(memTable, null, Collections.unmodifiableList(liveRuns));
+        for (byte[] value : memTable.values()) {
+            if (value == TOMBSTONE) {
+                memTableTombstones++;
+            } else {
+                memTableValues++;
+            }
+        }
+
+        if (readOnly) {
+            return;
+        }
+
+        if (!memTable.isEmpty()) {
+            // Make the replayed writes a run, so that the new write-ahead log starts from scratch
+            State frozen = new State(new ConcurrentSkipListMap<>(KEY_COMPARATOR), memTable, state.runs);
+            this.state = frozen;
+            immutableMemTableValues = memTableValues;
+            immutableMemTableTombstones = memTableTombstones;
+            memTableValues = 0;
+            memTableTombstones = 0;
+            flushMemTable(frozen, firstWalId, lastWalId);
+        }
+        for (long walId : walIds) {
+            if (walId > flushedWalId) {
+                Files.deleteIfExists(walFile(walId).toPath());
+            }
+        }
+        this.wal = new WriteAheadLog(walFile(nextFileId++));
+    }
+
+    private void replay(File walFile, ConcurrentSkipListMap<byte[], byte[]> memTable) throws IOException {
+        CRC32 crc = new CRC32();
+        long replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(walFile)))) {
+            while (true) {
+                byte[] record;
+                long checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (length < 0 || length > WriteAheadLog.MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(record, 0, record.length);
+                if (crc.getValue() != checksum) {
+                    // Torn write at the end of the log
+                    break;
+                }
+
+                ByteBuffer buf = ByteBuffer.wrap(record);
+                while (buf.hasRemaining()) {
+                    byte op = buf.get();
+                    byte[] key = new byte[buf.getInt()];
+                    buf.get(key);
+                    if (op == OP_PUT) {
+                        byte[] value = new byte[buf.getInt()];
+                        buf.get(value);
+                        memTable.put(key, value);
+                    } else {
+                        memTable.put(key, TOMBSTONE);
+                    }
+                    if (keyLength < 0) {
+                        keyLength = key.length;
+                    }
+                    replayed++;
+                }
+            }
+        }
+        log.info("Replayed {} writes from {}", replayed, walFile);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) throws IOException {
+        // The callers reuse their arrays
+        write(Collections.singletonList(key.clone()), Collections.singletonList(value.clone()), false);
+    }
+
+    @Override
+    public byte[] get(byte[] key) throws IOException {
+        State s = state;
+        byte[] value = s.memTable.get(key);
+        if (value == null && s.immutableMemTable != null) {
+            value = s.immutableMemTable.get(key);
+        }
+        if (value != null) {
+            return value == TOMBSTONE ? null : value;
+        }
+
+        for (Run run : s.runs) {
+            long index = run.indexOf(key);
+            if (index >= 0) {
+                return run.value(index);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int get(byte[] key, byte[] value) throws IOException {
+        State s = state;
+        byte[] v = s.memTable.get(key);
+        if (v == null && s.immutableMemTable != null) {
+            v = s.immutableMemTable.get(key);
+        }
+        if (v != null) {
+            if (v == TOMBSTONE) {
+                return -1;
+            } else if (v.length > value.length) {
+                throw new IOException("Value array is too small to fit the result");
+            }
+            System.arraycopy(v, 0, value, 0, v.length);
+            return v.length;
+        }
+
+        for (Run run : s.runs) {
+            long index = run.indexOf(key);
+            if (index >= 0) {
+                return run.copyValue(index, value);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Entry<byte[], byte[]> getFloor(byte[] key) throws IOException {
+        State s = state;
+        byte[] upperBound = key;
+        while (true) {
+            // Biggest key lower than the bound in any source, taking the value of the newest source
+            byte[] floorKey = null;
+            byte[] floorValue = null;
+            Entry<byte[], byte[]> e = s.memTable.lowerEntry(upperBound);
+            if (e != null) {
+                floorKey = e.getKey();
+                floorValue = e.getValue();
+            }
+            if (s.immutableMemTable != null) {
+                e = s.immutableMemTable.lowerEntry(upperBound);
+                if (e != null && (floorKey == null || KEY_COMPARATOR.compare(e.getKey(), floorKey) > 0)) {
+                    floorKey = e.getKey();
+                    floorValue = e.getValue();
+                }
+            }
+            for (Run run : s.runs) {
+                long index = run.lowerBound(upperBound) - 1;
+                if (index >= 0 && (floorKey == null || run.compareKey(index, floorKey) > 0)) {
+                    floorKey = run.key(index);
+                    floorValue = run.rawValue(index);
+                }
+            }
+
+            if (floorKey == null) {
+                return null;
+            } else if (floorValue != TOMBSTONE) {
+                return new SimpleImmutableEntry<>(floorKey, floorValue);
+            }
+            upperBound = floorKey;
+        }
+    }
+
+    @Override
+    public Entry<byte[], byte[]> getCeil(byte[] key) throws IOException {
+        try (MergeIterator iterator = new MergeIterator(state, key, null, true)) {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+
+    @Override
+    public void delete(byte[] key) throws IOException {
+        write(Collections.singletonList(key.clone()), Collections.singletonList(null), false);
+    }
+
+    /**
+     * Flush the memtable and merge all the runs, dropping the deleted keys.
+     */
+    @Override
+    public void compact(byte[] firstKey, byte[] lastKey) throws IOException {
+        checkState(!readOnly, "Storage is read-only");
+        synchronized (this) {
+            if (!state.memTable.isEmpty()) {
+                waitForFlush();
+                freezeMemTable();
+            }
+            // Merge all the writes done so far
+            waitForFlush();
+        }
+
+        try {
+            mergeExecutor.submit(() -> {
+                mergeRuns(state.runs.size());
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting " + dir, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compact " + dir, e.getCause());
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        checkState(!readOnly, "Storage is read-only");
+        synchronized (this) {
+            throwIfFailed();
+            wal.sync();
+        }
+    }
+
+    @Override
+    public CloseableIterator<byte[]> keys() {
+        return keys(null, null);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> keys(byte[] firstKey, byte[] lastKey) {
+        final MergeIterator iterator = new MergeIterator(state, firstKey, lastKey, true);
+        return new CloseableIterator<byte[]>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                return iterator.next().getKey();
+            }
+
+            @Override
+            public void close() {
+                iterator.close();
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<Entry<byte[], byte[]>> iterator() {
+        return new MergeIterator(state, null, null, true);
+    }
+
+    @Override
+    public CloseableIterator<Entry<byte[], byte[]>> iterator(byte[] firstKey, byte[] lastKey) {
+        return new MergeIterator(state, firstKey, lastKey, true);
+    }
+
+    /**
+     * Like RocksDB, the number of keys is estimated from the number of records and tombstones of each source, without
+     * reading them: a key updated in several sources is counted once for each of them, and each tombstone is assumed
+     * to delete a key of the older sources. The count is exact once all the runs are merged.
+     *
+     * @return the estimated number of keys
+     */
+    @Override
+    public synchronized long count() throws IOException {
+        State s = state;
+        List<Run> runs = s.runs;
+        long count = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            Run run = runs.get(i);
+            // The tombstones of the oldest run do not hide any key
+            count += run.count - (i < runs.size() - 1 ? 2 : 1) * run.tombstones;
+        }
+        if (s.immutableMemTable != null) {
+            count += immutableMemTableValues - (runs.isEmpty() ? 0 : immutableMemTableTombstones);
+        }
+        boolean hasOlderSource = s.immutableMemTable != null || !runs.isEmpty();
+        count += memTableValues - (hasOlderSource ? memTableTombstones : 0);
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public Batch newBatch() {
+        return new LsmBatch();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (wal != null) {
+                wal.sync();
+            }
+            notifyAll();
+        }
+
+        if (flushExecutor != null) {
+            // The flushes schedule merges, so they are stopped first
+            awaitTermination(flushExecutor, "flush");
+            awaitTermination(mergeExecutor, "merge");
+        }
+
+        synchronized (this) {
+            if (wal != null) {
+                wal.close();
+            }
+        }
+    }
+
+    private void awaitTermination(ExecutorService executor, String task) {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.info("Waiting for the {} of {}", task, dir);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Append the writes to the write-ahead log and apply them to the memtable.
+     *
+     * @param values the values to put, null for the keys to delete
+     */
+    private synchronized void write(List<byte[]> keys, List<byte[]> values, boolean sync) throws IOException {
+        checkState(!readOnly, "Storage is read-only");
+        if (keys.isEmpty()) {
+            return;
+        }
+        for (byte[] key : keys) {
+            if (keyLength < 0) {
+                keyLength = key.length;
+            } else if (key.length != keyLength) {
+                throw new IOException("Invalid key length " + key.length + ", expected " + keyLength);
+            }
+        }
+
+        if (memTableSize >= memTableMaxSize) {
+            // Wait for the previous memtable to be flushed before freezing the current one
+            waitForFlush();
+            freezeMemTable();
+        }
+        throwIfFailed();
+        if (closed) {
+            throw new IOException("Storage " + dir + " is closed");
+        }
+
+        wal.append(keys, values);
+        if (sync) {
+            wal.sync();
+        }
+
+        ConcurrentSkipListMap<byte[], byte[]> memTable = state.memTable;
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] value = values.get(i);
+            byte[] previous = memTable.put(keys.get(i), value != null ? value : TOMBSTONE);
+            if (previous == null || (previous == TOMBSTONE) != (value == null)) {
+                if (value != null) {
+                    memTableValues++;
+                } else {
+                    memTableTombstones++;
+                }
+                if (previous == TOMBSTONE) {
+                    memTableTombstones--;
+                } else if (previous != null) {
+                    memTableValues--;
+                }
+            }
+            memTableSize += keys.get(i).length + (value != null ? value.length : 0) + MEMTABLE_ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Wait until there is no memtable being flushed.
+     */
+    private synchronized void waitForFlush() throws IOException {
+        while (state.immutableMemTable != null && backgroundError == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the flush of " + dir, e);
+            }
+        }
+        throwIfFailed();
+        if (closed) {
+            throw new IOException("Storage " + dir + " is closed");
+        }
+    }
+
+    /**
+     * Switch to a new memtable and write-ahead log, and flush the current memtable in the background.
+     */
+    private synchronized void freezeMemTable() throws IOException {
+        WriteAheadLog frozenWal = wal;
+        frozenWal.sync();
+        frozenWal.close();
+        wal = new WriteAheadLog(walFile(nextFileId++));
+
+        State frozen = new State(new ConcurrentSkipListMap<>(KEY_COMPARATOR), state.memTable, state.runs);
+        state = frozen;
+        memTableSize = 0;
+        immutableMemTableValues = memTableValues;
+        immutableMemTableTombstones = memTableTombstones;
+        memTableValues = 0;
+        memTableTombstones = 0;
+
+        flushExecutor.execute(() -> {
+            try {
+                flushMemTable(frozen, frozenWal.id, frozenWal.id);
+                Files.deleteIfExists(frozenWal.file.toPath());
+            } catch (Throwable t) {
+                log.error("Failed to flush the memtable of {}", dir, t);
+                synchronized (this) {
+                    backgroundError = t instanceof IOException ? (IOException) t : new IOException(t);
+                    notifyAll();
+                }
+                return;
+            }
+
+            try {
+                mergeExecutor.execute(() -> {
+                    try {
+                        maybeMergeRuns();
+                    } catch (Throwable t) {
+                        // The runs are left as they are, and merged again after the next flush
+                        log.error("Failed to merge the runs of {}", dir, t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Closing
+            }
+        });
+    }
+
+    /**
+     * Write the frozen memtable of a state to a new run, and replace the memtable by the run.
+     */
+    private void flushMemTable(State frozen, long minWalId, long maxWalId) throws IOException {
+        NavigableMap<byte[], byte[]> memTable = frozen.immutableMemTable;
+        int valueWidth = 0;
+        for (byte[] value : memTable.values()) {
+            valueWidth = Math.max(valueWidth, value.length);
+        }
+
+        long fileId;
+        synchronized (this) {
+            fileId = nextFileId++;
+        }
+        Run run = Run.write(runFile(fileId), memTable.firstKey().length, valueWidth, minWalId, maxWalId,
+                memTable.entrySet().iterator());
+        if (log.isDebugEnabled()) {
+            log.debug("Flushed {} keys of {} to {}", run.count, dir, run.file);
+        }
+
+        synchronized (this) {
+            List<Run> runs = new ArrayList<>(state.runs.size() + 1);
+            runs.add(run);
+            runs.addAll(state.runs);
+            state = new State(state.memTable, null, Collections.unmodifiableList(runs));
+            immutableMemTableValues = 0;
+            immutableMemTableTombstones = 0;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Merge the newest runs once they are as big as the next one, so that the run sizes grow geometrically.
+     */
+    private void maybeMergeRuns() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        List<Run> runs = state.runs;
+        if (runs.size() < 2) {
+            return;
+        }
+        int count = 1;
+        long size = runs.get(0).sizeInBytes();
+        while (count < runs.size() && size * 2 >= runs.get(count).sizeInBytes()) {
+            size += runs.get(count).sizeInBytes();
+            count++;
+        }
+        if (count > 1) {
+            mergeRuns(count);
+        }
+    }
+
+    /**
+     * Merge the given number of newest runs into one. Only called from the merge thread, which is the only one
+     * removing runs, while the flush thread adds newer runs.
+     */
+    private void mergeRuns(int count) throws IOException {
+        List<Run> runs = state.runs;
+        if (count < 2 && (count < 1 || runs.get(0).tombstones == 0)) {
+            return;
+        }
+
+        List<Run> inputs = runs.subList(0, count);
+        // The deleted keys can be dropped once there is no older run where they could still be found
+        boolean dropTombstones = count == runs.size();
+        int valueWidth = 0;
+        for (Run run : inputs) {
+            valueWidth = Math.max(valueWidth, run.valueWidth);
+        }
+
+        long fileId;
+        synchronized (this) {
+            fileId = nextFileId++;
+        }
+        File file = runFile(fileId);
+        long startTime = System.nanoTime();
+        Run merged;
+        try (MergeIterator iterator = new MergeIterator(new State(null, null, inputs), null, null,
+                dropTombstones)) {
+            merged = Run.write(file, inputs.get(0).keyLength, valueWidth, inputs.get(count - 1).minWalId,
+                    inputs.get(0).maxWalId, iterator);
+        }
+        log.info("Merged {} runs of {} into {} ({} keys) in {} ms", count, dir, file, merged.count,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        synchronized (this) {
+            // The runs flushed during the merge are newer than the inputs, which are still in the same order
+            List<Run> current = state.runs;
+            int first = current.indexOf(inputs.get(0));
+            List<Run> newRuns = new ArrayList<>(current.subList(0, first));
+            if (merged.count > 0) {
+                newRuns.add(merged);
+            }
+            newRuns.addAll(current.subList(first + count, current.size()));
+            state = new State(state.memTable, state.immutableMemTable, Collections.unmodifiableList(newRuns));
+        }
+
+        if (merged.count == 0) {
+            Files.deleteIfExists(file.toPath());
+        }
+        // The readers still using the inputs keep their mapping until they are garbage collected
+        for (Run run : inputs) {
+            Files.deleteIfExists(run.file.toPath());
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (backgroundError != null) {
+            throw new IOException("Background flush of " + dir + " failed", backgroundError);
+        }
+    }
+
+    private File walFile(long fileId) {
+        return new File(dir, String.format("%016x%s", fileId, WAL_SUFFIX));
+    }
+
+    private File runFile(long fileId) {
+        return new File(dir, String.format("%016x%s", fileId, RUN_SUFFIX));
+    }
+
+    private static long fileId(File file) {
+        String fileName = file.getName();
+        return Long.parseLong(fileName.substring(0, fileName.indexOf('.')), 16);
+    }
+
+    /**
+     * Snapshot of the sources of the storage, from the newest to the oldest.
+     */
+    private static final class State {
+        final ConcurrentSkipListMap<byte[], byte[]> memTable;
+        // Memtable being flushed to a run, or null
+        final ConcurrentSkipListMap<byte[], byte[]> immutableMemTable;
+        // Newest first
+        final List<Run> runs;
+
+        State(ConcurrentSkipListMap<byte[], byte[]> memTable, ConcurrentSkipListMap<byte[], byte[]> immutableMemTable,
+              List<Run> runs) {
+            this.memTable = memTable;
+            this.immutableMemTable = immutableMemTable;
+            this.runs = runs;
+        }
+    }
+
+    private class LsmBatch implements Batch {
+        private final List<byte[]> keys = new ArrayList<>();
+        private final List<byte[]> values = new ArrayList<>();
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            keys.add(key.clone());
+            values.add(value.clone());
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            keys.add(key.clone());
+            values.add(null);
+        }
+
+        /**
+         * Delete the keys of the range that exist when this method is called.
+         */
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            try (CloseableIterator<byte[]> iterator = keys(beginKey, endKey)) {
+                while (iterator.hasNext()) {
+                    remove(iterator.next());
+                }
+            }
+        }
+
+        @Override
+        public void clear() {
+            keys.clear();
+            values.clear();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            write(keys, values, true);
+        }
+
+        @Override
+        public void close() {
+            clear();
+        }
+    }
+
+    /**
+     * Append-only log of the writes applied to the memtable.
+     *
+     * <p>Each record holds the writes of a put, a delete or a batch, so that a batch is replayed entirely or not at
+     * all. A record is made of its length, its CRC32 and the writes: op, key length, key and, for the puts, value
+     * length and value.
+     */
+    private static final class WriteAheadLog {
+        static final int MAX_RECORD_SIZE = Integer.MAX_VALUE - 8;
+
+        final long id;
+        final File file;
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+
+        WriteAheadLog(File file) throws IOException {
+            this.id = fileId(file);
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        void append(List<byte[]> keys, List<byte[]> values) throws IOException {
+            long size = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] value = values.get(i);
+                size += 1 + 4 + keys.get(i).length + (value != null ? 4 + value.length : 0);
+            }
+            if (size > MAX_RECORD_SIZE) {
+                throw new IOException("Batch is too big: " + size + " bytes");
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(8 + (int) size);
+            record.position(8);
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.get(i);
+                byte[] value = values.get(i);
+                record.put(value != null ? OP_PUT : OP_DELETE);
+                record.putInt(key.length);
+                record.put(key);
+                if (value != null) {
+                    record.putInt(value.length);
+                    record.put(value);
+                }
+            }
+            crc.reset();
+            crc.update(record.array(), 8, (int) size);
+            record.putInt(0, (int) size);
+            record.putInt(4, (int) crc.getValue());
+            record.flip();
+
+            // Written to the file right away, so that the writes survive a crash of the process without a sync
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+
+        void sync() throws IOException {
+            channel.force(false);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Immutable, memory-mapped file of sorted records.
+     *
+     * <p>After a header, the file holds fixed-size records: the key, the value length, or -1 for a deleted key, and
+     * the value padded to the biggest value of the run. The records are mapped in segments of whole records, since a
+     * single mapping cannot exceed 2GB.
+     */
+    private static final class Run {
+        private static final int MAGIC = 0x4C534D52; // "LSMR"
+        private static final int VERSION = 1;
+        private static final int HEADER_SIZE = 64;
+        private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+        final File file;
+        final int keyLength;
+        final int valueWidth;
+        final long count;
+        final long tombstones;
+        // Range of the write-ahead logs whose writes are in this run
+        final long minWalId;
+        final long maxWalId;
+
+        private final int recordSize;
+        private final int recordsPerSegment;
+        private final ByteBuffer[] segments;
+
+        private Run(File file, int keyLength, int valueWidth, long count, long tombstones, long minWalId,
+                    long maxWalId, ByteBuffer[] segments) {
+            this.file = file;
+            this.keyLength = keyLength;
+            this.valueWidth = valueWidth;
+            this.count = count;
+            this.tombstones = tombstones;
+            this.minWalId = minWalId;
+            this.maxWalId = maxWalId;
+            this.recordSize = keyLength + 4 + valueWidth;
+            this.recordsPerSegment = MAX_SEGMENT_SIZE / recordSize;
+            this.segments = segments;
+        }
+
+        static Run write(File file, int keyLength, int valueWidth, long minWalId, long maxWalId,
+                         Iterator<Entry<byte[], byte[]>> entries) throws IOException {
+            File tmpFile = new File(file.getParentFile(), file.getName() + TMP_SUFFIX);
+            long count = 0;
+            long tombstones = 0;
+            byte[] padding = new byte[valueWidth];
+            try (FileOutputStream fos = new FileOutputStream(tmpFile);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1024 * 1024))) {
+                out.write(new byte[HEADER_SIZE]);
+                while (entries.hasNext()) {
+                    Entry<byte[], byte[]> entry = entries.next();
+                    byte[] value = entry.getValue();
+                    out.write(entry.getKey());
+                    if (value == TOMBSTONE) {
+                        out.writeInt(-1);
+                        out.write(padding);
+                        tombstones++;
+                    } else {
+                        out.writeInt(value.length);
+                        out.write(value);
+                        out.write(padding, 0, valueWidth - value.length);
+                    }
+                    count++;
+                }
+                out.flush();
+                fos.getChannel().force(true);
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(keyLength);
+                raf.writeInt(valueWidth);
+                raf.writeLong(count);
+                raf.writeLong(tombstones);
+                raf.writeLong(minWalId);
+                raf.writeLong(maxWalId);
+                raf.getFD().sync();
+            }
+
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return open(file);
+        }
+
+        static Run open(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining()) {
+                    if (channel.read(header, header.position()) < 0) {
+                        throw new IOException("Truncated header in " + file);
+                    }
+                }
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Invalid header in " + file);
+                }
+                int keyLength = header.getInt();
+                int valueWidth = header.getInt();
+                long count = header.getLong();
+                long tombstones = header.getLong();
+                long minWalId = header.getLong();
+                long maxWalId = header.getLong();
+
+                int recordSize = keyLength + 4 + valueWidth;
+                if (channel.size() != HEADER_SIZE + count * recordSize) {
+                    throw new IOException("Invalid size of " + file);
+                }
+
+                int recordsPerSegment = MAX_SEGMENT_SIZE / recordSize;
+                int numSegments = (int) ((count + recordsPerSegment - 1) / recordsPerSegment);
+                ByteBuffer[] segments = new ByteBuffer[numSegments];
+                for (int i = 0; i < numSegments; i++) {
+                    long first = (long) i * recordsPerSegment;
+                    long records = Math.min(recordsPerSegment, count - first);
+                    segments[i] = channel.map(MapMode.READ_ONLY, HEADER_SIZE + first * recordSize,
+                            records * recordSize);
+                }
+                return new Run(file, keyLength, valueWidth, count, tombstones, minWalId, maxWalId, segments);
+            }
+        }
+
+        long sizeInBytes() {
+            return count * recordSize;
+        }
+
+        private ByteBuffer segment(long index) {
+            return segments[(int) (index / recordsPerSegment)];
+        }
+
+        private int offset(long index) {
+            return (int) (index % recordsPerSegment) * recordSize;
+        }
+
+        /**
+         * Compare the key of a record with a key, as unsigned bytes.
+         */
+        int compareKey(long index, byte[] key) {
+            ByteBuffer segment = segment(index);
+            int offset = offset(index);
+            int length = Math.min(keyLength, key.length);
+            int i = 0;
+            for (; i + 8 <= length; i += 8) {
+                int res = Long.compareUnsigned(segment.getLong(offset + i), ArrayUtil.getLong(key, i));
+                if (res != 0) {
+                    return res;
+                }
+            }
+            for (; i < length; i++) {
+                int res = Integer.compare(segment.get(offset + i) & 0xFF, key[i] & 0xFF);
+                if (res != 0) {
+                    return res;
+                }
+            }
+            return Integer.compare(keyLength, key.length);
+        }
+
+        /**
+         * @return the index of the first record whose key is greater or equal to the key
+         */
+        long lowerBound(byte[] key) {
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (compareKey(mid, key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the index of the record of the key, or -1 if the key is not in this run
+         */
+        long indexOf(byte[] key) {
+            long index = lowerBound(key);
+            return index < count && compareKey(index, key) == 0 ? index : -1;
+        }
+
+        byte[] key(long index) {
+            byte[] key = new byte[keyLength];
+            ByteBuffer buf = segment(index).duplicate();
+            buf.position(offset(index));
+            buf.get(key);
+            return key;
+        }
+
+        boolean isTombstone(long index) {
+            return segment(index).getInt(offset(index) + keyLength) < 0;
+        }
+
+        /**
+         * @return the value of the record, or {@link #TOMBSTONE} if the key was deleted
+         */
+        byte[] rawValue(long index) {
+            ByteBuffer buf = segment(index).duplicate();
+            buf.position(offset(index) + keyLength);
+            int length = buf.getInt();
+            if (length < 0) {
+                return TOMBSTONE;
+            }
+            byte[] value = new byte[length];
+            buf.get(value);
+            return value;
+        }
+
+        /**
+         * @return the value of the record, or null if the key was deleted
+         */
+        byte[] value(long index) {
+            byte[] value = rawValue(index);
+            return value == TOMBSTONE ? null : value;
+        }
+
+        int copyValue(long index, byte[] value) throws IOException {
+            ByteBuffer buf = segment(index).duplicate();
+            buf.position(offset(index) + keyLength);
+            int length = buf.getInt();
+            if (length < 0) {
+                return -1;
+            } else if (length > value.length) {
+                throw new IOException("Value array is too small to fit the result");
+            }
+            buf.get(value, 0, length);
+            return length;
+        }
+    }
+
+    /**
+     * Sorted cursor over one of the sources of the storage.
+     */
+    private abstract static class Cursor {
+        // Sources with a lower rank are newer
+        final int rank;
+        byte[] key;
+        byte[] value;
+
+        Cursor(int rank) {
+            this.rank = rank;
+        }
+
+        /**
+         * Move to the next key.
+         *
+         * @return false if there are no more keys
+         */
+        abstract boolean advance();
+    }
+
+    private static final class MemTableCursor extends Cursor {
+        private final Iterator<Entry<byte[], byte[]>> iterator;
+
+        MemTableCursor(int rank, ConcurrentSkipListMap<byte[], byte[]> memTable, byte[] firstKey, byte[] lastKey) {
+            super(rank);
+            NavigableMap<byte[], byte[]> range = memTable;
+            if (firstKey != null) {
+                range = range.tailMap(firstKey, true);
+            }
+            if (lastKey != null) {
+                range = range.headMap(lastKey, false);
+            }
+            this.iterator = range.entrySet().iterator();
+        }
+
+        @Override
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            Entry<byte[], byte[]> entry = iterator.next();
+            key = entry.getKey();
+            value = entry.getValue();
+            return true;
+        }
+    }
+
+    private static final class RunCursor extends Cursor {
+        private final Run run;
+        private final long end;
+        private long index;
+
+        RunCursor(int rank, Run run, byte[] firstKey, byte[] lastKey) {
+            super(rank);
+            this.run = run;
+            this.index = firstKey != null ? run.lowerBound(firstKey) : 0;
+            this.end = lastKey != null ? run.lowerBound(lastKey) : run.count;
+        }
+
+        @Override
+        boolean advance() {
+            if (index >= end) {
+                return false;
+            }
+            key = run.key(index);
+            value = run.rawValue(index);
+            index++;
+            return true;
+        }
+    }
+
+    /**
+     * Iterator merging the sources of a state, returning for each key the value of the newest source.
+     */
+    private static final class MergeIterator implements CloseableIterator<Entry<byte[], byte[]>>,
+            Iterator<Entry<byte[], byte[]>> {
+        private final PriorityQueue<Cursor> cursors = new PriorityQueue<>((c1, c2) -> {
+            int res = KEY_COMPARATOR.compare(c1.key, c2.key);
+            return res != 0 ? res : Integer.compare(c1.rank, c2.rank);
+        });
+        private final boolean skipTombstones;
+        private Entry<byte[], byte[]> next;
+
+        MergeIterator(State state, byte[] firstKey, byte[] lastKey, boolean skipTombstones) {
+            this.skipTombstones = skipTombstones;
+            int rank = 0;
+            List<Cursor> sources = new ArrayList<>();
+            if (state.memTable != null) {
+                sources.add(new MemTableCursor(rank++, state.memTable, firstKey, lastKey));
+            }
+            if (state.immutableMemTable != null) {
+                sources.add(new MemTableCursor(rank++, state.immutableMemTable, firstKey, lastKey));
+            }
+            for (Run run : state.runs) {
+                sources.add(new RunCursor(rank++, run, firstKey, lastKey));
+            }
+            for (Cursor cursor : sources) {
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+            fetchNext();
+        }
+
+        private void fetchNext() {
+            next = null;
+            while (next == null && !cursors.isEmpty()) {
+                Cursor newest = cursors.poll();
+                byte[] key = newest.key;
+                byte[] value = newest.value;
+                if (newest.advance()) {
+                    cursors.add(newest);
+                }
+
+                // Skip the older versions of the key
+                while (!cursors.isEmpty() && KEY_COMPARATOR.compare(cursors.peek().key, key) == 0) {
+                    Cursor older = cursors.poll();
+                    if (older.advance()) {
+                        cursors.add(older);
+                    }
+                }
+
+                if (value != TOMBSTONE || !skipTombstones) {
+                    next = new SimpleImmutableEntry<>(key, value);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<byte[], byte[]> next() {
+            checkState(next != null);
+            Entry<byte[], byte[]> entry = next;
+            fetchNext();
+            return entry;
+        }
+
+        @Override
+        public void close() {
+            cursors.clear();
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(KeyValueStorageLsm.class);
+}
@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map.Entry;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.StatsLogger;
 import org.rocksdb.ColumnFamilyDescriptor;
 import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.DBOptions;
@@ -42,6 +43,7 @@ import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
 import org.rocksdb.Slice;
+import org.rocksdb.Statistics;
 import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
 import org.slf4j.Logger;
@@ -64,7 +66,17 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
     private final ReadOptions optionDontCache;
     private final WriteBatch emptyBatch;
 
+    // Null when the statistics are disabled
+    private final Statistics statistics;
+    private final RocksDBStatsCollector statsCollector;
+
+    // Null when each database has its own block cache
+    private final RocksDBSharedCache sharedCache;
+
     private static final String ROCKSDB_LOG_PATH = "dbStorage_rocksDB_logPath";
+    static final String ROCKSDB_STATISTICS_ENABLED = "dbStorage_rocksDB_statisticsEnabled";
+    static final String ROCKSDB_STATS_REFRESH_INTERVAL_SECONDS = "dbStorage_rocksDB_statsRefreshIntervalSeconds";
+    static final long DEFAULT_ROCKSDB_STATS_REFRESH_INTERVAL_SECONDS = 10;
 
     public KeyValueStorageRocksDB(String basePath, String subPath, DbConfigType dbConfigType, ServerConfiguration conf)
             throws IOException {
@@ -90,6 +102,7 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         DBOptions dbOptions = new DBOptions();
         final List<ColumnFamilyDescriptor> cfDescs = new ArrayList<>();
         final List<ColumnFamilyHandle> cfHandles = new ArrayList<>();
+        RocksDBSharedCache sharedCache = null;
         try {
             if (dbConfigType == DbConfigType.EntryLocation) {
                 dbFilePath = conf.getEntryLocationRocksdbConf();
@@ -108,7 +121,22 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
                 log.info("RocksDB<{}> log path: {}", subPath, logPathSetting);
                 dbOptions.setDbLogDir(logPathSetting.toString());
             }
+            if (conf.getBoolean(ROCKSDB_STATISTICS_ENABLED, false)) {
+                statistics = new Statistics();
+                dbOptions.setStatistics(statistics);
+            } else {
+                statistics = null;
+            }
             String path = FileSystems.getDefault().getPath(basePath, subPath).toFile().toString();
+            if (Files.exists(FileSystems.getDefault().getPath(path, KeyValueStorageLsm.MARKER_FILE))) {
+                throw new IOException("Directory " + path + " contains a " + KeyValueStorageLsm.class.getSimpleName()
+                        + " database");
+            }
+
+            sharedCache = RocksDBSharedCache.acquire(conf);
+            if (sharedCache != null) {
+                sharedCache.configure(dbOptions, cfDescs, dbFilePath);
+            }
 
             if (readOnly) {
                 db = RocksDB.openReadOnly(dbOptions, path, cfDescs, cfHandles);
@@ -116,19 +144,32 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
                 db = RocksDB.open(dbOptions, path, cfDescs, cfHandles);
             }
         } catch (RocksDBException e) {
+            RocksDBSharedCache.release(sharedCache);
             throw new IOException("Error open RocksDB database", e);
+        } catch (IOException e) {
+            RocksDBSharedCache.release(sharedCache);
+            throw e;
         }
+        this.sharedCache = sharedCache;
 
         optionSync.setSync(true);
         optionDontSync.setSync(false);
 
         optionCache.setFillCache(true);
         optionDontCache.setFillCache(false);
+
+        statsCollector = new RocksDBStatsCollector(subPath, db, statistics,
+                conf.getLong(ROCKSDB_STATS_REFRESH_INTERVAL_SECONDS, DEFAULT_ROCKSDB_STATS_REFRESH_INTERVAL_SECONDS));
     }
 
     @Override
     public void close() throws IOException {
+        statsCollector.close();
         db.close();
+        if (statistics != null) {
+            statistics.close();
+        }
+        RocksDBSharedCache.release(sharedCache);
         optionSync.close();
         optionDontSync.close();
         optionCache.close();
@@ -310,6 +351,38 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         };
     }
 
+    @Override
+    public CloseableIterator<Entry<byte[], byte[]>> iterator(byte[] firstKey, byte[] lastKey) {
+        final Slice upperBound = new Slice(lastKey);
+        final ReadOptions option = new ReadOptions(optionCache).setIterateUpperBound(upperBound);
+        final RocksIterator iterator = db.newIterator(option);
+        iterator.seek(firstKey);
+        final EntryWrapper entryWrapper = new EntryWrapper();
+
+        return new CloseableIterator<Entry<byte[], byte[]>>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.isValid();
+            }
+
+            @Override
+            public Entry<byte[], byte[]> next() {
+                checkState(iterator.isValid());
+                entryWrapper.key = iterator.key();
+                entryWrapper.value = iterator.value();
+                iterator.next();
+                return entryWrapper;
+            }
+
+            @Override
+            public void close() {
+                iterator.close();
+                option.close();
+                upperBound.close();
+            }
+        };
+    }
+
     @Override
     public long count() throws IOException {
         try {
@@ -319,6 +392,16 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         }
     }
 
+    @Override
+    public void registerStats(StatsLogger statsLogger) {
+        new KeyValueStorageRocksDBStats(statsLogger, statsCollector);
+    }
+
+    @Override
+    public String getStatsDump() throws IOException {
+        return statsCollector.getStatsDump();
+    }
+
     @Override
     public Batch newBatch() {
         return new RocksDBBatch();
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+
+import java.util.function.Supplier;
+import lombok.Getter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+
+/**
+ * A umbrella class for the stats of a RocksDB key-value storage.
+ */
+@StatsDoc(
+    name = BOOKIE_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "RocksDB key-value storage stats"
+)
+@Getter
+class KeyValueStorageRocksDBStats {
+
+    private static final String BLOCK_CACHE_HITS = "block-cache-hits";
+    private static final String BLOCK_CACHE_MISSES = "block-cache-misses";
+    private static final String BLOCK_CACHE_HIT_RATE = "block-cache-hit-rate";
+    private static final String STALL_MICROS = "stall-micros";
+    private static final String MEMTABLE_STALLS = "memtable-stalls";
+    private static final String LEVEL0_STALLS = "level0-stalls";
+    private static final String PENDING_COMPACTION_BYTES = "pending-compaction-bytes";
+    private static final String RUNNING_COMPACTIONS = "running-compactions";
+    private static final String LEVEL0_FILES = "level0-files";
+    private static final String GET_LATENCY_P50 = "get-latency-p50";
+    private static final String GET_LATENCY_P99 = "get-latency-p99";
+    private static final String GET_LATENCY_MAX = "get-latency-max";
+    private static final String LEVEL_READ_LATENCY_P50 = "level-%d-read-latency-p50";
+    private static final String LEVEL_READ_LATENCY_P99 = "level-%d-read-latency-p99";
+
+    @StatsDoc(
+        name = BLOCK_CACHE_HITS,
+        help = "Total number of block cache hits"
+    )
+    private final Gauge<Long> blockCacheHitsGauge;
+    @StatsDoc(
+        name = BLOCK_CACHE_MISSES,
+        help = "Total number of block cache misses"
+    )
+    private final Gauge<Long> blockCacheMissesGauge;
+    @StatsDoc(
+        name = BLOCK_CACHE_HIT_RATE,
+        help = "Percentage of the block cache lookups that were hits, since the previous collection"
+    )
+    private final Gauge<Double> blockCacheHitRateGauge;
+    @StatsDoc(
+        name = STALL_MICROS,
+        help = "Total time the writes were stalled, in micros"
+    )
+    private final Gauge<Long> stallMicrosGauge;
+    @StatsDoc(
+        name = MEMTABLE_STALLS,
+        help = "Number of times the writes were slowed down or stopped waiting for a memtable flush"
+    )
+    private final Gauge<Long> memTableStallsGauge;
+    @StatsDoc(
+        name = LEVEL0_STALLS,
+        help = "Number of times the writes were slowed down or stopped by the number of level 0 files"
+    )
+    private final Gauge<Long> level0StallsGauge;
+    @StatsDoc(
+        name = PENDING_COMPACTION_BYTES,
+        help = "Estimated number of bytes the compactions need to rewrite to bring all levels under their target size"
+    )
+    private final Gauge<Long> pendingCompactionBytesGauge;
+    @StatsDoc(
+        name = RUNNING_COMPACTIONS,
+        help = "Current number of running compactions"
+    )
+    private final Gauge<Long> runningCompactionsGauge;
+    @StatsDoc(
+        name = LEVEL0_FILES,
+        help = "Current number of level 0 files"
+    )
+    private final Gauge<Long> level0FilesGauge;
+    @StatsDoc(
+        name = GET_LATENCY_P50,
+        help = "Median latency of the point lookups, in micros"
+    )
+    private final Gauge<Double> getLatencyP50Gauge;
+    @StatsDoc(
+        name = GET_LATENCY_P99,
+        help = "99th percentile latency of the point lookups, in micros"
+    )
+    private final Gauge<Double> getLatencyP99Gauge;
+    @StatsDoc(
+        name = GET_LATENCY_MAX,
+        help = "Maximum latency of the point lookups, in micros"
+    )
+    private final Gauge<Double> getLatencyMaxGauge;
+    @StatsDoc(
+        name = LEVEL_READ_LATENCY_P50,
+        help = "Median latency of the file reads of each level, in micros"
+    )
+    private final Gauge<Double>[] levelReadLatencyP50Gauges;
+    @StatsDoc(
+        name = LEVEL_READ_LATENCY_P99,
+        help = "99th percentile latency of the file reads of each level, in micros"
+    )
+    private final Gauge<Double>[] levelReadLatencyP99Gauges;
+
+    @SuppressWarnings("unchecked")
+    KeyValueStorageRocksDBStats(StatsLogger statsLogger, RocksDBStatsCollector collector) {
+        blockCacheHitsGauge = registerGauge(statsLogger, BLOCK_CACHE_HITS, 0L, collector::getBlockCacheHits);
+        blockCacheMissesGauge = registerGauge(statsLogger, BLOCK_CACHE_MISSES, 0L, collector::getBlockCacheMisses);
+        blockCacheHitRateGauge = registerGauge(statsLogger, BLOCK_CACHE_HIT_RATE, 0.0,
+                collector::getBlockCacheHitRate);
+        stallMicrosGauge = registerGauge(statsLogger, STALL_MICROS, 0L, collector::getStallMicros);
+        memTableStallsGauge = registerGauge(statsLogger, MEMTABLE_STALLS, 0L, collector::getMemTableStalls);
+        level0StallsGauge = registerGauge(statsLogger, LEVEL0_STALLS, 0L, collector::getLevel0Stalls);
+        pendingCompactionBytesGauge = registerGauge(statsLogger, PENDING_COMPACTION_BYTES, 0L,
+                collector::getPendingCompactionBytes);
+        runningCompactionsGauge = registerGauge(statsLogger, RUNNING_COMPACTIONS, 0L,
+                collector::getRunningCompactions);
+        level0FilesGauge = registerGauge(statsLogger, LEVEL0_FILES, 0L, collector::getLevel0Files);
+        getLatencyP50Gauge = registerGauge(statsLogger, GET_LATENCY_P50, 0.0, collector::getGetLatencyP50);
+        getLatencyP99Gauge = registerGauge(statsLogger, GET_LATENCY_P99, 0.0, collector::getGetLatencyP99);
+        getLatencyMaxGauge = registerGauge(statsLogger, GET_LATENCY_MAX, 0.0, collector::getGetLatencyMax);
+
+        levelReadLatencyP50Gauges = new Gauge[RocksDBStatsCollector.NUM_LEVELS];
+        levelReadLatencyP99Gauges = new Gauge[RocksDBStatsCollector.NUM_LEVELS];
+        for (int i = 0; i < RocksDBStatsCollector.NUM_LEVELS; i++) {
+            final int level = i;
+            levelReadLatencyP50Gauges[level] = registerGauge(statsLogger,
+                    String.format(LEVEL_READ_LATENCY_P50, level), 0.0,
+                    () -> collector.getLevelReadLatencyP50(level));
+            levelReadLatencyP99Gauges[level] = registerGauge(statsLogger,
+                    String.format(LEVEL_READ_LATENCY_P99, level), 0.0,
+                    () -> collector.getLevelReadLatencyP99(level));
+        }
+    }
+
+    private static <T extends Number> Gauge<T> registerGauge(StatsLogger statsLogger, String name, T defaultValue,
+                                                             Supplier<T> supplier) {
+        Gauge<T> gauge = new Gauge<T>() {
+            @Override
+            public T getDefaultValue() {
+                return defaultValue;
+            }
+
+            @Override
+            public T getSample() {
+                return supplier.get();
+            }
+        };
+        statsLogger.registerGauge(name, gauge);
+        return gauge;
+    }
+}
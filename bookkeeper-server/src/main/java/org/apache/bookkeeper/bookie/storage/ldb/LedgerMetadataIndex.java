@@ -24,24 +24,24 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.protobuf.ByteString;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.AbstractMap.SimpleEntry;
 import java.util.Arrays;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorageDataFormats.LedgerData;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,31 +49,44 @@ import org.slf4j.LoggerFactory;
  * Maintains an index for the ledgers metadata.
  *
  * <p>The key is the ledgerId and the value is the {@link LedgerData} content.
+ *
+ * <p>The ledgers are kept in memory in an off-heap {@link LedgerMetadataTable}, with the explicit LAC of the few
+ * ledgers that have one kept aside on heap. The ledgers updated since the last flush are tracked by id, and their
+ * current state is written to the database in batches on flush.
  */
 public class LedgerMetadataIndex implements Closeable {
     // Non-ledger data should have negative ID
     private static final long STORAGE_FLAGS = -0xeefd;
 
+    // Maximum number of ledgers written to the database in a single batch
+    private static final int FLUSH_BATCH_SIZE = 10000;
+
     // Contains all ledgers stored in the bookie
-    private final ConcurrentLongHashMap<LedgerData> ledgers;
-    private final AtomicInteger ledgersCount;
+    private final LedgerMetadataTable ledgers;
+    // Explicit LAC of the ledgers that have one
+    private final ConcurrentLongHashMap<byte[]> explicitLacs;
 
     private final KeyValueStorage ledgersDb;
     private final LedgerMetadataIndexStats stats;
 
-    // Holds ledger modifications applied in memory map, and pending to be flushed on db
-    private final ConcurrentLinkedQueue<Entry<Long, LedgerData>> pendingLedgersUpdates;
+    // Holds the ids of the ledgers modified in memory, and pending to be flushed on db
+    private final ConcurrentLongHashSet pendingLedgersUpdates;
 
     // Holds ledger ids that were delete from memory map, and pending to be flushed on db
-    private final ConcurrentLinkedQueue<Long> pendingDeletedLedgers;
+    private final ConcurrentLongHashSet pendingDeletedLedgers;
     private final ReentrantLock[] locks = new ReentrantLock[16];
 
     public LedgerMetadataIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
             StatsLogger stats) throws IOException {
+        this(conf, storageFactory, basePath, stats, ByteBufAllocator.DEFAULT);
+    }
+
+    public LedgerMetadataIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
+            StatsLogger stats, ByteBufAllocator allocator) throws IOException {
         ledgersDb = storageFactory.newKeyValueStorage(basePath, "ledgers", DbConfigType.LedgerMetadata, conf);
 
-        ledgers = ConcurrentLongHashMap.<LedgerData>newBuilder().build();
-        ledgersCount = new AtomicInteger();
+        ledgers = new LedgerMetadataTable(allocator, (int) Math.min(Integer.MAX_VALUE, ledgersDb.count()));
+        explicitLacs = ConcurrentLongHashMap.<byte[]>newBuilder().build();
 
         // Read all ledgers from db
         CloseableIterator<Entry<byte[], byte[]>> iterator = ledgersDb.iterator();
@@ -83,20 +96,20 @@ public class LedgerMetadataIndex implements Closeable {
                 long ledgerId = ArrayUtil.getLong(entry.getKey(), 0);
                 if (ledgerId >= 0) {
                     LedgerData ledgerData = LedgerData.parseFrom(entry.getValue());
-                    ledgers.put(ledgerId, ledgerData);
-                    ledgersCount.incrementAndGet();
+                    putLedgerData(ledgerId, ledgerData);
                 }
             }
         } finally {
             iterator.close();
         }
 
-        this.pendingLedgersUpdates = new ConcurrentLinkedQueue<Entry<Long, LedgerData>>();
-        this.pendingDeletedLedgers = new ConcurrentLinkedQueue<Long>();
+        this.pendingLedgersUpdates = ConcurrentLongHashSet.newBuilder().build();
+        this.pendingDeletedLedgers = ConcurrentLongHashSet.newBuilder().build();
 
         this.stats = new LedgerMetadataIndexStats(
             stats,
-            () -> (long) ledgersCount.get());
+            () -> ledgers.size());
+        ledgersDb.registerStats(stats.scope("ledgers-db"));
 
         for (int i = 0; i < locks.length; i++) {
             locks[i] = new ReentrantLock();
@@ -106,18 +119,69 @@ public class LedgerMetadataIndex implements Closeable {
     @Override
     public void close() throws IOException {
         ledgersDb.close();
+        ledgers.close();
+    }
+
+    /**
+     * @return the dump of the internal stats of the underlying storage, or null if it does not expose any
+     */
+    public String getStatsDump() throws IOException {
+        return ledgersDb.getStatsDump();
     }
 
     public LedgerData get(long ledgerId) throws IOException {
-        LedgerData ledgerData = ledgers.get(ledgerId);
-        if (ledgerData == null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Ledger not found {}", ledgerId);
+        // Under the ledger lock, so that the master key of the state isn't released meanwhile
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            long state = ledgers.get(ledgerId);
+            if (state == LedgerMetadataTable.NOT_FOUND) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Ledger not found {}", ledgerId);
+                }
+                throw new Bookie.NoLedgerException(ledgerId);
             }
-            throw new Bookie.NoLedgerException(ledgerId);
+
+            return toLedgerData(ledgerId, state);
+        } finally {
+            lock.unlock();
         }
+    }
+
+    public boolean exists(long ledgerId) {
+        long state = ledgers.get(ledgerId);
+        return state != LedgerMetadataTable.NOT_FOUND
+                && (LedgerMetadataTable.flags(state) & LedgerMetadataTable.FLAG_EXISTS) != 0;
+    }
+
+    public boolean isFenced(long ledgerId) throws IOException {
+        return (getFlags(ledgerId) & LedgerMetadataTable.FLAG_FENCED) != 0;
+    }
 
-        return ledgerData;
+    public boolean isLimbo(long ledgerId) throws IOException {
+        return (getFlags(ledgerId) & LedgerMetadataTable.FLAG_LIMBO) != 0;
+    }
+
+    public byte[] getMasterKey(long ledgerId) throws IOException {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            long state = ledgers.get(ledgerId);
+            if (state == LedgerMetadataTable.NOT_FOUND) {
+                throw new Bookie.NoLedgerException(ledgerId);
+            }
+            return ledgers.getMasterKey(LedgerMetadataTable.masterKeyId(state)).clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getFlags(long ledgerId) throws IOException {
+        long state = ledgers.get(ledgerId);
+        if (state == LedgerMetadataTable.NOT_FOUND) {
+            throw new Bookie.NoLedgerException(ledgerId);
+        }
+        return LedgerMetadataTable.flags(state);
     }
 
     public void set(long ledgerId, LedgerData ledgerData) throws IOException {
@@ -126,14 +190,13 @@ public class LedgerMetadataIndex implements Closeable {
         ReentrantLock lock = lockForLedger(ledgerId);
         lock.lock();
         try {
-            if (ledgers.put(ledgerId, ledgerData) == null) {
+            if (!putLedgerData(ledgerId, ledgerData)) {
                 if (log.isDebugEnabled()) {
                     log.debug("Added new ledger {}", ledgerId);
                 }
-                ledgersCount.incrementAndGet();
             }
 
-            pendingLedgersUpdates.add(new SimpleEntry<Long, LedgerData>(ledgerId, ledgerData));
+            pendingLedgersUpdates.add(ledgerId);
             pendingDeletedLedgers.remove(ledgerId);
         } finally {
             lock.unlock();
@@ -144,15 +207,17 @@ public class LedgerMetadataIndex implements Closeable {
         ReentrantLock lock = lockForLedger(ledgerId);
         lock.lock();
         try {
-            if (ledgers.remove(ledgerId) != null) {
+            long state = ledgers.remove(ledgerId);
+            if (state != LedgerMetadataTable.NOT_FOUND) {
                 if (log.isDebugEnabled()) {
                     log.debug("Removed ledger {}", ledgerId);
                 }
-                ledgersCount.decrementAndGet();
+                ledgers.releaseMasterKey(LedgerMetadataTable.masterKeyId(state));
             }
+            explicitLacs.remove(ledgerId);
 
             pendingDeletedLedgers.add(ledgerId);
-            pendingLedgersUpdates.removeIf(e -> e.getKey() == ledgerId);
+            pendingLedgersUpdates.remove(ledgerId);
         } finally {
             lock.unlock();
         }
@@ -160,7 +225,7 @@ public class LedgerMetadataIndex implements Closeable {
 
     public Iterable<Long> getActiveLedgersInRange(final long firstLedgerId, final long lastLedgerId)
             throws IOException {
-        return Iterables.filter(ledgers.keys(), new Predicate<Long>() {
+        return Iterables.filter(ledgers.ledgers(), new Predicate<Long>() {
             @Override
             public boolean apply(Long ledgerId) {
                 return ledgerId >= firstLedgerId && ledgerId < lastLedgerId;
@@ -169,116 +234,79 @@ public class LedgerMetadataIndex implements Closeable {
     }
 
     public boolean setFenced(long ledgerId) throws IOException {
-        ReentrantLock lock = lockForLedger(ledgerId);
-        lock.lock();
-        try {
-            LedgerData ledgerData = get(ledgerId);
-            if (ledgerData.getFenced()) {
-                return false;
-            }
-
-            LedgerData newLedgerData = LedgerData.newBuilder(ledgerData).setFenced(true).build();
-
-            if (ledgers.put(ledgerId, newLedgerData) == null) {
-                // Ledger had been deleted
-                if (log.isDebugEnabled()) {
-                    log.debug("Re-inserted fenced ledger {}", ledgerId);
-                }
-                ledgersCount.incrementAndGet();
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("Set fenced ledger {}", ledgerId);
-                }
-            }
+        int flags = updateFlags(ledgerId, LedgerMetadataTable.FLAG_FENCED, 0);
+        if (flags == -1) {
+            throw new Bookie.NoLedgerException(ledgerId);
+        } else if ((flags & LedgerMetadataTable.FLAG_FENCED) != 0) {
+            return false;
+        }
 
-            pendingLedgersUpdates.add(new SimpleEntry<Long, LedgerData>(ledgerId, newLedgerData));
-            pendingDeletedLedgers.remove(ledgerId);
-            return true;
-        } finally {
-            lock.unlock();
+        if (log.isDebugEnabled()) {
+            log.debug("Set fenced ledger {}", ledgerId);
         }
+        pendingLedgersUpdates.add(ledgerId);
+        return true;
     }
 
     public boolean setLimbo(long ledgerId) throws IOException {
-        ReentrantLock lock = lockForLedger(ledgerId);
-        lock.lock();
-        try {
-            LedgerData ledgerData = get(ledgerId);
-            if (ledgerData.getLimbo()) {
-                return false;
-            }
+        int flags = updateFlags(ledgerId, LedgerMetadataTable.FLAG_LIMBO, 0);
+        if (flags == -1) {
+            throw new Bookie.NoLedgerException(ledgerId);
+        } else if ((flags & LedgerMetadataTable.FLAG_LIMBO) != 0) {
+            return false;
+        }
 
-            LedgerData newLedgerData = LedgerData.newBuilder(ledgerData).setLimbo(true).build();
+        if (log.isDebugEnabled()) {
+            log.debug("Set limbo ledger {}", ledgerId);
+        }
+        pendingLedgersUpdates.add(ledgerId);
+        return true;
+    }
 
-            if (ledgers.put(ledgerId, newLedgerData) == null) {
-                // Ledger had been deleted
-                if (log.isDebugEnabled()) {
-                    log.debug("Re-inserted limbo ledger {}", ledgerId);
-                }
-                ledgersCount.incrementAndGet();
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("Set limbo ledger {}", ledgerId);
-                }
-            }
+    public boolean clearLimbo(long ledgerId) throws IOException {
+        int flags = updateFlags(ledgerId, 0, LedgerMetadataTable.FLAG_LIMBO);
+        if (flags == -1) {
+            throw new Bookie.NoLedgerException(ledgerId);
+        }
 
-            pendingLedgersUpdates.add(new SimpleEntry<Long, LedgerData>(ledgerId, newLedgerData));
-            pendingDeletedLedgers.remove(ledgerId);
-            return true;
-        } finally {
-            lock.unlock();
+        if (log.isDebugEnabled()) {
+            log.debug("Clear limbo ledger {}", ledgerId);
         }
+        pendingLedgersUpdates.add(ledgerId);
+        return (flags & LedgerMetadataTable.FLAG_LIMBO) != 0;
     }
 
-    public boolean clearLimbo(long ledgerId) throws IOException {
+    /**
+     * Update the flags under the lock of the ledger, so that they are not lost by a concurrent put of the ledger.
+     */
+    private int updateFlags(long ledgerId, int setFlags, int clearFlags) {
         ReentrantLock lock = lockForLedger(ledgerId);
         lock.lock();
         try {
-            LedgerData ledgerData = get(ledgerId);
-            if (ledgerData == null) {
-                throw new Bookie.NoLedgerException(ledgerId);
-            }
-            final boolean oldValue = ledgerData.getLimbo();
-            LedgerData newLedgerData = LedgerData.newBuilder(ledgerData).setLimbo(false).build();
-
-            if (ledgers.put(ledgerId, newLedgerData) == null) {
-                // Ledger had been deleted
-                if (log.isDebugEnabled()) {
-                    log.debug("Re-inserted limbo ledger {}", ledgerId);
-                }
-                ledgersCount.incrementAndGet();
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("Set limbo ledger {}", ledgerId);
-                }
-            }
-
-            pendingLedgersUpdates.add(new SimpleEntry<Long, LedgerData>(ledgerId, newLedgerData));
-            pendingDeletedLedgers.remove(ledgerId);
-            return oldValue;
+            return ledgers.updateFlags(ledgerId, setFlags, clearFlags);
         } finally {
             lock.unlock();
         }
     }
 
-
     public void setMasterKey(long ledgerId, byte[] masterKey) throws IOException {
         ReentrantLock lock = lockForLedger(ledgerId);
         lock.lock();
         try {
-            LedgerData ledgerData = ledgers.get(ledgerId);
-            if (ledgerData == null) {
+            long state = ledgers.get(ledgerId);
+            if (state == LedgerMetadataTable.NOT_FOUND) {
                 // New ledger inserted
-                ledgerData = LedgerData.newBuilder().setExists(true).setFenced(false)
-                    .setMasterKey(ByteString.copyFrom(masterKey)).build();
+                ledgers.put(ledgerId, LedgerMetadataTable.FLAG_EXISTS, ledgers.internMasterKey(masterKey));
                 if (log.isDebugEnabled()) {
                     log.debug("Inserting new ledger {}", ledgerId);
                 }
             } else {
-                byte[] storedMasterKey = ledgerData.getMasterKey().toByteArray();
+                int masterKeyId = LedgerMetadataTable.masterKeyId(state);
+                byte[] storedMasterKey = ledgers.getMasterKey(masterKeyId);
                 if (ArrayUtil.isArrayAllZeros(storedMasterKey)) {
                     // update master key of the ledger
-                    ledgerData = LedgerData.newBuilder(ledgerData).setMasterKey(ByteString.copyFrom(masterKey)).build();
+                    ledgers.put(ledgerId, LedgerMetadataTable.flags(state), ledgers.internMasterKey(masterKey));
+                    ledgers.releaseMasterKey(masterKeyId);
                     if (log.isDebugEnabled()) {
                         log.debug("Replace old master key {} with new master key {}", storedMasterKey, masterKey);
                     }
@@ -288,11 +316,7 @@ public class LedgerMetadataIndex implements Closeable {
                 }
             }
 
-            if (ledgers.put(ledgerId, ledgerData) == null) {
-                ledgersCount.incrementAndGet();
-            }
-
-            pendingLedgersUpdates.add(new SimpleEntry<Long, LedgerData>(ledgerId, ledgerData));
+            pendingLedgersUpdates.add(ledgerId);
             pendingDeletedLedgers.remove(ledgerId);
         } finally {
             lock.unlock();
@@ -306,12 +330,34 @@ public class LedgerMetadataIndex implements Closeable {
         LongWrapper key = LongWrapper.get();
 
         int updatedLedgers = 0;
-        while (!pendingLedgersUpdates.isEmpty()) {
-            Entry<Long, LedgerData> entry = pendingLedgersUpdates.poll();
-            key.set(entry.getKey());
-            byte[] value = entry.getValue().toByteArray();
-            ledgersDb.put(key.array, value);
-            ++updatedLedgers;
+        try (Batch batch = ledgersDb.newBatch()) {
+            for (long ledgerId : pendingLedgersUpdates.items()) {
+                // Removed before reading the state, so that an update made meanwhile is flushed next time
+                pendingLedgersUpdates.remove(ledgerId);
+                LedgerData ledgerData;
+                ReentrantLock lock = lockForLedger(ledgerId);
+                lock.lock();
+                try {
+                    long state = ledgers.get(ledgerId);
+                    if (state == LedgerMetadataTable.NOT_FOUND) {
+                        // Deleted since
+                        continue;
+                    }
+                    ledgerData = toLedgerData(ledgerId, state);
+                } finally {
+                    lock.unlock();
+                }
+
+                key.set(ledgerId);
+                batch.put(key.array, ledgerData.toByteArray());
+                if (++updatedLedgers % FLUSH_BATCH_SIZE == 0) {
+                    batch.flush();
+                    batch.clear();
+                }
+            }
+            batch.flush();
+        } finally {
+            key.recycle();
         }
 
         if (log.isDebugEnabled()) {
@@ -319,17 +365,17 @@ public class LedgerMetadataIndex implements Closeable {
         }
 
         ledgersDb.sync();
-        key.recycle();
     }
 
     public void removeDeletedLedgers() throws IOException {
         LongWrapper key = LongWrapper.get();
 
         int deletedLedgers = 0;
-        while (!pendingDeletedLedgers.isEmpty()) {
-            long ledgerId = pendingDeletedLedgers.poll();
+        for (long ledgerId : pendingDeletedLedgers.items()) {
+            pendingDeletedLedgers.remove(ledgerId);
             key.set(ledgerId);
             ledgersDb.delete(key.array);
+            ++deletedLedgers;
         }
 
         if (log.isDebugEnabled()) {
@@ -340,6 +386,55 @@ public class LedgerMetadataIndex implements Closeable {
         key.recycle();
     }
 
+    /**
+     * Insert or replace a ledger in memory.
+     *
+     * @return whether the ledger was already in memory
+     */
+    private boolean putLedgerData(long ledgerId, LedgerData ledgerData) {
+        int flags = 0;
+        if (ledgerData.getExists()) {
+            flags |= LedgerMetadataTable.FLAG_EXISTS;
+        }
+        if (ledgerData.getFenced()) {
+            flags |= LedgerMetadataTable.FLAG_FENCED;
+        }
+        if (ledgerData.getLimbo()) {
+            flags |= LedgerMetadataTable.FLAG_LIMBO;
+        }
+
+        long previous = ledgers.put(ledgerId, flags, ledgers.internMasterKey(ledgerData.getMasterKey().toByteArray()));
+        if (previous != LedgerMetadataTable.NOT_FOUND) {
+            ledgers.releaseMasterKey(LedgerMetadataTable.masterKeyId(previous));
+        }
+
+        if (ledgerData.hasExplicitLac()) {
+            explicitLacs.put(ledgerId, ledgerData.getExplicitLac().toByteArray());
+        } else {
+            explicitLacs.remove(ledgerId);
+        }
+        return previous != LedgerMetadataTable.NOT_FOUND;
+    }
+
+    /**
+     * Must be called under the lock of the ledger, for the master key id of the state to remain valid.
+     */
+    private LedgerData toLedgerData(long ledgerId, long state) {
+        int flags = LedgerMetadataTable.flags(state);
+        LedgerData.Builder builder = LedgerData.newBuilder()
+                .setExists((flags & LedgerMetadataTable.FLAG_EXISTS) != 0)
+                .setFenced((flags & LedgerMetadataTable.FLAG_FENCED) != 0)
+                .setMasterKey(ByteString.copyFrom(ledgers.getMasterKey(LedgerMetadataTable.masterKeyId(state))));
+        if ((flags & LedgerMetadataTable.FLAG_LIMBO) != 0) {
+            builder.setLimbo(true);
+        }
+        byte[] explicitLac = explicitLacs.get(ledgerId);
+        if (explicitLac != null) {
+            builder.setExplicitLac(ByteString.copyFrom(explicitLac));
+        }
+        return builder.build();
+    }
+
     private ReentrantLock lockForLedger(long ledgerId) {
         return locks[Math.abs((int) ledgerId) % locks.length];
     }
@@ -393,22 +488,22 @@ public class LedgerMetadataIndex implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(LedgerMetadataIndex.class);
 
     void setExplicitLac(long ledgerId, ByteBuf lac) throws IOException {
-        LedgerData ledgerData = ledgers.get(ledgerId);
-        if (ledgerData != null) {
-            LedgerData newLedgerData = LedgerData.newBuilder(ledgerData)
-                    .setExplicitLac(ByteString.copyFrom(lac.nioBuffer())).build();
-
-            if (ledgers.put(ledgerId, newLedgerData) == null) {
-                // Ledger had been deleted
-                return;
-            } else {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            if (ledgers.get(ledgerId) != LedgerMetadataTable.NOT_FOUND) {
+                byte[] explicitLac = new byte[lac.readableBytes()];
+                lac.getBytes(lac.readerIndex(), explicitLac);
+                explicitLacs.put(ledgerId, explicitLac);
                 if (log.isDebugEnabled()) {
                     log.debug("Set explicitLac on ledger {}", ledgerId);
                 }
+                pendingLedgersUpdates.add(ledgerId);
+            } else {
+                // unknown ledger here
             }
-            pendingLedgersUpdates.add(new SimpleEntry<Long, LedgerData>(ledgerId, newLedgerData));
-        } else {
-            // unknown ledger here
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -0,0 +1,432 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Off-heap table of the state of the ledgers of a {@link LedgerMetadataIndex}.
+ *
+ * <p>Each ledger takes a fixed size record in a direct memory open addressing hash table, with the ledger id, the
+ * flags of the ledger and the id of its master key. The master keys, which are usually shared by many ledgers, are
+ * interned in a reference counted on-heap dictionary. The table is split in sections, each one with its own lock,
+ * and reading or updating a ledger does not allocate any object.
+ *
+ * <p>The state of a ledger is returned as a single long, from which {@link #flags(long)} and
+ * {@link #masterKeyId(long)} extract the fields, or {@link #NOT_FOUND} if the ledger is not in the table.
+ */
+class LedgerMetadataTable implements Closeable {
+
+    static final int FLAG_EXISTS = 1;
+    static final int FLAG_FENCED = 1 << 1;
+    static final int FLAG_LIMBO = 1 << 2;
+
+    static final long NOT_FOUND = -1L;
+
+    // Record: ledgerId (8) | flags (4) | master key id (4)
+    private static final int RECORD_SIZE = 16;
+    private static final int FLAGS_OFFSET = 8;
+    private static final int MASTER_KEY_ID_OFFSET = 12;
+
+    private static final long EMPTY_KEY = -1L;
+    private static final long DELETED_KEY = -2L;
+
+    private static final float FILL_FACTOR = 0.66f;
+    private static final int NUM_SECTIONS = 16;
+
+    private static final long HASH_MIXER = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    private final Section[] sections;
+    private final MasterKeys masterKeys = new MasterKeys();
+
+    LedgerMetadataTable(ByteBufAllocator allocator, int expectedLedgers) {
+        int perSectionCapacity = alignToPowerOfTwo(
+                Math.max(16, (int) (expectedLedgers / NUM_SECTIONS / FILL_FACTOR) + 1));
+        this.sections = new Section[NUM_SECTIONS];
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            sections[i] = new Section(allocator, perSectionCapacity);
+        }
+    }
+
+    static int flags(long state) {
+        return (int) (state >>> 32);
+    }
+
+    static int masterKeyId(long state) {
+        return (int) state;
+    }
+
+    private static long state(int flags, int masterKeyId) {
+        return ((long) flags << 32) | (masterKeyId & 0xffffffffL);
+    }
+
+    /**
+     * @return the state of the ledger, or {@link #NOT_FOUND}
+     */
+    long get(long ledgerId) {
+        if (ledgerId < 0) {
+            return NOT_FOUND;
+        }
+        long h = hash(ledgerId);
+        return section(h).get(ledgerId, (int) h);
+    }
+
+    /**
+     * Insert or replace the state of a ledger.
+     *
+     * @return the previous state of the ledger, or {@link #NOT_FOUND}
+     */
+    long put(long ledgerId, int flags, int masterKeyId) {
+        checkArgument(ledgerId >= 0, "Invalid ledger id %s", ledgerId);
+        long h = hash(ledgerId);
+        return section(h).put(ledgerId, state(flags, masterKeyId), (int) h);
+    }
+
+    /**
+     * Set and clear flags of a ledger already in the table.
+     *
+     * @return the previous flags of the ledger, or -1 if it is not in the table
+     */
+    int updateFlags(long ledgerId, int flagsToSet, int flagsToClear) {
+        if (ledgerId < 0) {
+            return -1;
+        }
+        long h = hash(ledgerId);
+        return section(h).updateFlags(ledgerId, flagsToSet, flagsToClear, (int) h);
+    }
+
+    /**
+     * @return the previous state of the ledger, or {@link #NOT_FOUND}
+     */
+    long remove(long ledgerId) {
+        if (ledgerId < 0) {
+            return NOT_FOUND;
+        }
+        long h = hash(ledgerId);
+        return section(h).remove(ledgerId, (int) h);
+    }
+
+    long size() {
+        long size = 0;
+        for (Section s : sections) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return a snapshot of the ids of the ledgers in the table
+     */
+    List<Long> ledgers() {
+        List<Long> ledgers = new ArrayList<>((int) size());
+        for (Section s : sections) {
+            s.addLedgersTo(ledgers);
+        }
+        return ledgers;
+    }
+
+    /**
+     * @return the id of the master key, whose reference count is incremented
+     */
+    int internMasterKey(byte[] masterKey) {
+        return masterKeys.intern(masterKey);
+    }
+
+    void releaseMasterKey(int masterKeyId) {
+        masterKeys.release(masterKeyId);
+    }
+
+    /**
+     * @return the interned master key, which must not be modified
+     */
+    byte[] getMasterKey(int masterKeyId) {
+        return masterKeys.get(masterKeyId);
+    }
+
+    @Override
+    public void close() {
+        for (Section s : sections) {
+            s.close();
+        }
+    }
+
+    private Section section(long hash) {
+        return sections[(int) (hash >>> 32) & (sections.length - 1)];
+    }
+
+    private static final class Section extends StampedLock {
+        private final ByteBufAllocator allocator;
+        private ByteBuf table;
+        private int capacity;
+        private int size;
+        // Buckets taken by a ledger or by a deleted marker
+        private int usedBuckets;
+
+        Section(ByteBufAllocator allocator, int capacity) {
+            this.allocator = allocator;
+            this.capacity = capacity;
+            this.table = newTable(allocator, capacity);
+        }
+
+        long get(long ledgerId, int hash) {
+            long stamp = readLock();
+            try {
+                int bucket = hash & (capacity - 1);
+                while (true) {
+                    long storedKey = table.getLong(bucket * RECORD_SIZE);
+                    if (storedKey == ledgerId) {
+                        return state(table.getInt(bucket * RECORD_SIZE + FLAGS_OFFSET),
+                                table.getInt(bucket * RECORD_SIZE + MASTER_KEY_ID_OFFSET));
+                    } else if (storedKey == EMPTY_KEY) {
+                        return NOT_FOUND;
+                    }
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        long put(long ledgerId, long state, int hash) {
+            long stamp = writeLock();
+            try {
+                int bucket = hash & (capacity - 1);
+                int firstDeletedBucket = -1;
+                while (true) {
+                    long storedKey = table.getLong(bucket * RECORD_SIZE);
+                    if (storedKey == ledgerId) {
+                        long previous = state(table.getInt(bucket * RECORD_SIZE + FLAGS_OFFSET),
+                                table.getInt(bucket * RECORD_SIZE + MASTER_KEY_ID_OFFSET));
+                        writeState(bucket, state);
+                        return previous;
+                    } else if (storedKey == EMPTY_KEY) {
+                        // Reuse the first deleted bucket found on the way, if any
+                        if (firstDeletedBucket != -1) {
+                            bucket = firstDeletedBucket;
+                        } else {
+                            ++usedBuckets;
+                        }
+                        table.setLong(bucket * RECORD_SIZE, ledgerId);
+                        writeState(bucket, state);
+                        ++size;
+                        if (usedBuckets > capacity * FILL_FACTOR) {
+                            // Grow the table, or only drop the deleted markers if the table is mostly deleted markers
+                            rehash(size * 2 > capacity * FILL_FACTOR ? capacity * 2 : capacity);
+                        }
+                        return NOT_FOUND;
+                    } else if (storedKey == DELETED_KEY && firstDeletedBucket == -1) {
+                        firstDeletedBucket = bucket;
+                    }
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        int updateFlags(long ledgerId, int flagsToSet, int flagsToClear, int hash) {
+            long stamp = writeLock();
+            try {
+                int bucket = hash & (capacity - 1);
+                while (true) {
+                    long storedKey = table.getLong(bucket * RECORD_SIZE);
+                    if (storedKey == ledgerId) {
+                        int flags = table.getInt(bucket * RECORD_SIZE + FLAGS_OFFSET);
+                        table.setInt(bucket * RECORD_SIZE + FLAGS_OFFSET, (flags | flagsToSet) & ~flagsToClear);
+                        return flags;
+                    } else if (storedKey == EMPTY_KEY) {
+                        return -1;
+                    }
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        long remove(long ledgerId, int hash) {
+            long stamp = writeLock();
+            try {
+                int bucket = hash & (capacity - 1);
+                while (true) {
+                    long storedKey = table.getLong(bucket * RECORD_SIZE);
+                    if (storedKey == ledgerId) {
+                        long previous = state(table.getInt(bucket * RECORD_SIZE + FLAGS_OFFSET),
+                                table.getInt(bucket * RECORD_SIZE + MASTER_KEY_ID_OFFSET));
+                        --size;
+
+                        int nextBucket = (bucket + 1) & (capacity - 1);
+                        if (table.getLong(nextBucket * RECORD_SIZE) == EMPTY_KEY) {
+                            // No probe sequence goes through this bucket, it can be emptied along with the deleted
+                            // markers before it
+                            table.setLong(bucket * RECORD_SIZE, EMPTY_KEY);
+                            --usedBuckets;
+                            int previousBucket = (bucket - 1) & (capacity - 1);
+                            while (table.getLong(previousBucket * RECORD_SIZE) == DELETED_KEY) {
+                                table.setLong(previousBucket * RECORD_SIZE, EMPTY_KEY);
+                                --usedBuckets;
+                                previousBucket = (previousBucket - 1) & (capacity - 1);
+                            }
+                        } else {
+                            table.setLong(bucket * RECORD_SIZE, DELETED_KEY);
+                        }
+                        return previous;
+                    } else if (storedKey == EMPTY_KEY) {
+                        return NOT_FOUND;
+                    }
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = readLock();
+            try {
+                return size;
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        void addLedgersTo(List<Long> ledgers) {
+            long stamp = readLock();
+            try {
+                for (int bucket = 0; bucket < capacity; bucket++) {
+                    long storedKey = table.getLong(bucket * RECORD_SIZE);
+                    if (storedKey >= 0) {
+                        ledgers.add(storedKey);
+                    }
+                }
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        private void writeState(int bucket, long state) {
+            table.setInt(bucket * RECORD_SIZE + FLAGS_OFFSET, flags(state));
+            table.setInt(bucket * RECORD_SIZE + MASTER_KEY_ID_OFFSET, masterKeyId(state));
+        }
+
+        private void rehash(int newCapacity) {
+            ByteBuf newTable = newTable(allocator, newCapacity);
+            for (int bucket = 0; bucket < capacity; bucket++) {
+                long storedKey = table.getLong(bucket * RECORD_SIZE);
+                if (storedKey >= 0) {
+                    int newBucket = (int) hash(storedKey) & (newCapacity - 1);
+                    while (newTable.getLong(newBucket * RECORD_SIZE) != EMPTY_KEY) {
+                        newBucket = (newBucket + 1) & (newCapacity - 1);
+                    }
+                    newTable.setBytes(newBucket * RECORD_SIZE, table, bucket * RECORD_SIZE, RECORD_SIZE);
+                }
+            }
+
+            table.release();
+            table = newTable;
+            capacity = newCapacity;
+            usedBuckets = size;
+        }
+
+        void close() {
+            long stamp = writeLock();
+            try {
+                table.release();
+                table = null;
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        private static ByteBuf newTable(ByteBufAllocator allocator, int capacity) {
+            ByteBuf table = allocator.directBuffer(capacity * RECORD_SIZE, capacity * RECORD_SIZE);
+            for (int bucket = 0; bucket < capacity; bucket++) {
+                table.setLong(bucket * RECORD_SIZE, EMPTY_KEY);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Reference counted dictionary of the master keys.
+     */
+    private static final class MasterKeys {
+        private final Map<ByteBuffer, Integer> ids = new HashMap<>();
+        private final List<byte[]> keys = new ArrayList<>();
+        private int[] refCounts = new int[16];
+        private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+
+        synchronized int intern(byte[] masterKey) {
+            Integer id = ids.get(ByteBuffer.wrap(masterKey));
+            if (id == null) {
+                byte[] key = masterKey.clone();
+                if (freeIds.isEmpty()) {
+                    id = keys.size();
+                    keys.add(key);
+                    if (id == refCounts.length) {
+                        refCounts = Arrays.copyOf(refCounts, refCounts.length * 2);
+                    }
+                } else {
+                    id = freeIds.poll();
+                    keys.set(id, key);
+                }
+                ids.put(ByteBuffer.wrap(key), id);
+            }
+            refCounts[id]++;
+            return id;
+        }
+
+        synchronized void release(int id) {
+            if (--refCounts[id] == 0) {
+                ids.remove(ByteBuffer.wrap(keys.get(id)));
+                keys.set(id, null);
+                freeIds.add(id);
+            }
+        }
+
+        synchronized byte[] get(int id) {
+            return keys.get(id);
+        }
+    }
+
+    private static long hash(long key) {
+        long hash = key * HASH_MIXER;
+        hash ^= hash >>> R;
+        hash *= HASH_MIXER;
+        return hash;
+    }
+
+    private static int alignToPowerOfTwo(int n) {
+        return (int) Math.pow(2, 32 - Integer.numberOfLeadingZeros(n - 1));
+    }
+}
@@ -58,8 +58,9 @@ public class LedgersIndexCheckOp {
         LOG.info("Starting index scan");
 
         try {
-            KeyValueStorage index = new KeyValueStorageRocksDB(basePath, LedgersSubPath,
-                    DbConfigType.Default, conf, true);
+            KeyValueStorage index = DbLedgerStorage.isLsmKeyValueStorage(conf)
+                    ? new KeyValueStorageLsm(basePath, LedgersSubPath, DbConfigType.Default, conf, true)
+                    : new KeyValueStorageRocksDB(basePath, LedgersSubPath, DbConfigType.Default, conf, true);
             // Read all ledgers from db
             KeyValueStorage.CloseableIterator<Map.Entry<byte[], byte[]>> iterator = index.iterator();
             int ctr = 0;
@@ -24,6 +24,7 @@ import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import java.io.File;
 import java.io.IOException;
@@ -43,6 +44,7 @@ import org.apache.bookkeeper.bookie.Journal;
 import org.apache.bookkeeper.bookie.LedgerDirsManager;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.util.BookKeeperConstants;
 import org.apache.bookkeeper.util.DiskChecker;
 
@@ -92,7 +94,7 @@ public class LedgersIndexRebuildOp {
             LOG.info("Scan complete, found {} ledgers. "
                     + "Starting to build a new ledgers index", ledgers.size());
 
-            try (KeyValueStorage newIndex = KeyValueStorageRocksDB.factory.newKeyValueStorage(
+            try (KeyValueStorage newIndex = DbLedgerStorage.getKeyValueStorageFactory(conf).newKeyValueStorage(
                     basePath, tempLedgersSubPath, DbConfigType.Default, conf)) {
                 LOG.info("Created ledgers index at temp location {}", tempPath);
 
@@ -136,8 +138,12 @@ public class LedgersIndexRebuildOp {
     }
 
     private void scanEntryLogFiles(Set<Long> ledgers) throws IOException {
-        EntryLogger entryLogger = new EntryLogger(conf, new LedgerDirsManager(conf, conf.getLedgerDirs(),
-                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold())));
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        // Include the entry logs moved to the capacity tier
+        EntryLogger entryLogger = new EntryLogger(conf, ledgerDirsManager, null, NullStatsLogger.INSTANCE,
+                PooledByteBufAllocator.DEFAULT, null,
+                CapacityTierMover.getCapacityTierDirs(conf, ledgerDirsManager.getAllLedgerDirs().get(0)));
         Set<Long> entryLogs = entryLogger.getEntryLogsSet();
 
         int totalEntryLogs = entryLogs.size();
@@ -23,6 +23,7 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 import com.google.common.collect.Sets;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 
 import java.io.IOException;
 import java.nio.file.FileSystems;
@@ -69,14 +70,19 @@ public class LocationsIndexRebuildOp {
 
         long startTime = System.nanoTime();
 
-        EntryLogger entryLogger = new EntryLogger(conf, new LedgerDirsManager(conf, conf.getLedgerDirs(),
-                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold())));
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        // Include the entry logs moved to the capacity tier
+        EntryLogger entryLogger = new EntryLogger(conf, ledgerDirsManager, null, NullStatsLogger.INSTANCE,
+                PooledByteBufAllocator.DEFAULT, null,
+                CapacityTierMover.getCapacityTierDirs(conf, ledgerDirsManager.getAllLedgerDirs().get(0)));
         Set<Long> entryLogs = entryLogger.getEntryLogsSet();
 
-        Set<Long> activeLedgers = getActiveLedgers(conf, KeyValueStorageRocksDB.factory, basePath);
+        KeyValueStorageFactory storageFactory = DbLedgerStorage.getKeyValueStorageFactory(conf);
+        Set<Long> activeLedgers = getActiveLedgers(conf, storageFactory, basePath);
         LOG.info("Found {} active ledgers in ledger manager", activeLedgers.size());
 
-        KeyValueStorage newIndex = KeyValueStorageRocksDB.factory.newKeyValueStorage(basePath, "locations",
+        KeyValueStorage newIndex = storageFactory.newKeyValueStorage(basePath, "locations",
                 DbConfigType.Default, conf);
 
         int totalEntryLogs = entryLogs.size();
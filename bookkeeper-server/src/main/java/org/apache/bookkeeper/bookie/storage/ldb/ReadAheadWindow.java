@@ -0,0 +1,124 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+/**
+ * Tracks one sequential stream of reads of a ledger to size its read-ahead.
+ *
+ * <p>A ledger can have several streams at the same time, for instance when multiple readers are catching up on
+ * it from different positions. Each miss is matched to the stream it continues, by its entry id, so that the
+ * readers don't make each other look random.
+ *
+ * <p>The window doubles, up to the max size, each time the stream is continued by a miss and drops to 0 on a read
+ * that doesn't continue it. The window is only updated on cache misses, and on the hit of the trigger entry, in
+ * the middle of the last batch read ahead: when a sequential reader gets there, the next batch is requested so that
+ * it can be read asynchronously before the reader needs it.
+ */
+class ReadAheadWindow {
+
+    private final int minSize;
+    private final int maxSize;
+
+    private long lastReadEntryId = -1;
+    private int size;
+    // Last entry requested to be read ahead
+    private long readAheadEndEntryId = -1;
+    // Entry whose cache hit requests the next batch, -1 if none
+    private long triggerEntryId = -1;
+    private boolean asyncReadAheadPending = false;
+
+    /**
+     * @param initialSize read-ahead of the first read of the stream
+     */
+    ReadAheadWindow(int minSize, int maxSize, int initialSize) {
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+        this.size = initialSize;
+    }
+
+    /**
+     * @return whether a read of the entry continues this stream, either right after the last entry read or within
+     *         the entries already read ahead
+     */
+    synchronized boolean isContinuedBy(long entryId) {
+        return lastReadEntryId >= 0 && entryId > lastReadEntryId && entryId <= readAheadEndEntryId + 1;
+    }
+
+    /**
+     * Record a read that was not found in the caches.
+     *
+     * @return the number of entries to read ahead after the entry, 0 if the stream is read at random
+     */
+    synchronized int onCacheMiss(long entryId) {
+        if (lastReadEntryId < 0) {
+            // First read of the stream, keep the initial size
+        } else if (isContinuedBy(entryId)) {
+            size = size == 0 ? minSize : Math.min(maxSize, size * 2);
+        } else {
+            size = 0;
+        }
+
+        lastReadEntryId = entryId;
+        readAheadEndEntryId = entryId + size;
+        return size;
+    }
+
+    /**
+     * Record the cache hit of the trigger entry.
+     *
+     * @return the first entry of the next batch to read ahead asynchronously, or -1 if there is none
+     */
+    synchronized long onTriggerHit(long entryId) {
+        lastReadEntryId = Math.max(lastReadEntryId, entryId);
+        if (size == 0 || asyncReadAheadPending) {
+            return -1;
+        }
+
+        size = Math.min(maxSize, size * 2);
+        asyncReadAheadPending = true;
+        long firstEntryId = readAheadEndEntryId + 1;
+        readAheadEndEntryId += size;
+        return firstEntryId;
+    }
+
+    /**
+     * Move the trigger to the middle of the last batch requested.
+     *
+     * @return the previous trigger entry, or -1 if there was none
+     */
+    synchronized long updateTrigger() {
+        long previousTriggerEntryId = triggerEntryId;
+        triggerEntryId = size > 0 ? readAheadEndEntryId - size / 2 : -1;
+        return previousTriggerEntryId;
+    }
+
+    synchronized long getTriggerEntryId() {
+        return triggerEntryId;
+    }
+
+    synchronized void asyncReadAheadCompleted() {
+        asyncReadAheadPending = false;
+    }
+
+    synchronized int getSize() {
+        return size;
+    }
+}
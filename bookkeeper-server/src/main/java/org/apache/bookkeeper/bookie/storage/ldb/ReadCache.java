@@ -20,6 +20,7 @@
  */
 package org.apache.bookkeeper.bookie.storage.ldb;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.bookkeeper.bookie.storage.ldb.WriteCache.align64;
 
 import io.netty.buffer.ByteBuf;
@@ -32,6 +33,8 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
 import org.slf4j.Logger;
@@ -46,186 +49,364 @@ import org.slf4j.LoggerFactory;
  * ring-buffer fashion. When the read cache is full, the oldest segment
  * is cleared and rotated to make space for new entries to be added to
  * the read cache.
+ *
+ * <p>Optionally, part of the memory can be reserved to a protected ring of
+ * segments, implementing a segmented LRU. New entries are always inserted in
+ * the probation ring. An entry found in the probation ring is moved into the
+ * protected ring when its recent access frequency, tracked by a
+ * {@link FrequencySketch}, shows that it is being read more than once. Entries
+ * that are read ahead and then read only once, like the ones of a large
+ * catch-up read, are then never able to push the hot entries out of the
+ * protected ring. When a protected segment is rotated, its entries that are
+ * still being accessed are demoted back to the probation ring rather than
+ * dropped.
+ *
+ * <p>Each ring has its own lock, so that the lookups and the insertions in one
+ * ring don't contend with the segment rotations of the other.
  */
 public class ReadCache implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(ReadCache.class);
 
-    private static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
+    static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
+
+    // Min number of recent accesses for an entry to be promoted to the protected ring
+    static final int PROMOTION_FREQUENCY = 2;
 
-    private final List<ByteBuf> cacheSegments;
-    private final List<ConcurrentLongLongPairHashMap> cacheIndexes;
+    // Average entry size assumed to size the frequency sketch
+    private static final int ESTIMATED_ENTRY_SIZE = 1024;
 
-    private int currentSegmentIdx;
-    private final AtomicInteger currentSegmentOffset = new AtomicInteger(0);
+    private final ByteBufAllocator allocator;
 
-    private final int segmentSize;
+    private final Ring probationRing;
+    // Null when the segmented LRU is disabled
+    private final Ring protectedRing;
+    private final FrequencySketch frequencySketch;
 
-    private ByteBufAllocator allocator;
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final DbLedgerStorageStats stats;
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize) {
         this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
     }
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
-        this.allocator = allocator;
-        int segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
-        segmentSize = (int) (maxCacheSize / segmentsCount);
-
-        cacheSegments = new ArrayList<>();
-        cacheIndexes = new ArrayList<>();
+        this(allocator, maxCacheSize, maxSegmentSize, 0, new DbLedgerStorageStats(NullStatsLogger.INSTANCE,
+                () -> 0L, () -> 0L));
+    }
 
-        for (int i = 0; i < segmentsCount; i++) {
-            cacheSegments.add(Unpooled.directBuffer(segmentSize, segmentSize));
-            ConcurrentLongLongPairHashMap concurrentLongLongPairHashMap = ConcurrentLongLongPairHashMap.newBuilder()
-                    .expectedItems(4096)
-                    .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
-                    .build();
-            cacheIndexes.add(concurrentLongLongPairHashMap);
+    /**
+     * @param protectedPercent percentage of the cache memory reserved to the entries that are read repeatedly.
+     *                         0 disables the segmented LRU and uses a single ring of segments
+     */
+    ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, int protectedPercent,
+              DbLedgerStorageStats stats) {
+        checkArgument(protectedPercent >= 0 && protectedPercent < 100,
+                "Invalid read cache protected percentage: %s", protectedPercent);
+        this.allocator = allocator;
+        this.stats = stats;
+
+        long protectedSize = maxCacheSize * protectedPercent / 100;
+        probationRing = new Ring(maxCacheSize - protectedSize, maxSegmentSize,
+                stats.getReadCacheProbationEvictions(), null);
+        if (protectedPercent > 0) {
+            protectedRing = new Ring(protectedSize, maxSegmentSize, stats.getReadCacheProtectedEvictions(),
+                    probationRing);
+            frequencySketch = new FrequencySketch(maxCacheSize / ESTIMATED_ENTRY_SIZE);
+        } else {
+            protectedRing = null;
+            frequencySketch = null;
         }
     }
 
     @Override
     public void close() {
-        cacheSegments.forEach(ByteBuf::release);
+        probationRing.close();
+        if (protectedRing != null) {
+            protectedRing.close();
+        }
     }
 
     public void put(long ledgerId, long entryId, ByteBuf entry) {
-        int entrySize = entry.readableBytes();
-        int alignedSize = align64(entrySize);
+        probationRing.put(ledgerId, entryId, entry);
+    }
 
-        lock.readLock().lock();
+    public ByteBuf get(long ledgerId, long entryId) {
+        if (protectedRing == null) {
+            return probationRing.get(ledgerId, entryId);
+        }
+
+        frequencySketch.increment(ledgerId, entryId);
 
-        try {
-            if (entrySize > segmentSize) {
-                log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
-                return;
+        ByteBuf entry = protectedRing.get(ledgerId, entryId);
+        if (entry != null) {
+            stats.getReadCacheProtectedHits().inc();
+            return entry;
+        }
+
+        entry = probationRing.get(ledgerId, entryId);
+        if (entry == null) {
+            // A concurrent get may have just moved the entry to the protected ring, where it is inserted before
+            // being removed from probation
+            entry = protectedRing.get(ledgerId, entryId);
+            if (entry != null) {
+                stats.getReadCacheProtectedHits().inc();
             }
-            int offset = currentSegmentOffset.getAndAdd(alignedSize);
-            if (offset + entrySize > segmentSize) {
-                // Roll-over the segment (outside the read-lock)
-            } else {
+            return entry;
+        }
+        stats.getReadCacheProbationHits().inc();
+
+        // Move the entry, so that it is only indexed once. Its bytes in the probation segment are reclaimed when
+        // that segment is rotated. Only the first of concurrent gets copies it into the protected ring.
+        if (frequencySketch.frequency(ledgerId, entryId) >= PROMOTION_FREQUENCY
+                && protectedRing.putIfAbsent(ledgerId, entryId, entry)) {
+            probationRing.remove(ledgerId, entryId);
+            stats.getReadCachePromotions().inc();
+        }
+        return entry;
+    }
+
+    public boolean hasEntry(long ledgerId, long entryId) {
+        return (protectedRing != null && protectedRing.hasEntry(ledgerId, entryId))
+                || probationRing.hasEntry(ledgerId, entryId);
+    }
+
+    /**
+     * @return the total size of cached entries
+     */
+    public long size() {
+        return probationRing.size() + (protectedRing != null ? protectedRing.size() : 0);
+    }
+
+    /**
+     * @return the total number of cached entries
+     */
+    public long count() {
+        return probationRing.count() + (protectedRing != null ? protectedRing.count() : 0);
+    }
+
+    /**
+     * @return the number of entries cached in the protected ring, 0 when the segmented LRU is disabled
+     */
+    long protectedCount() {
+        return protectedRing != null ? protectedRing.count() : 0;
+    }
+
+    /**
+     * A ring of segments, with the hashmaps indexing their content, guarded by its own lock.
+     */
+    private class Ring {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final List<ByteBuf> cacheSegments;
+        private final List<ConcurrentLongLongPairHashMap> cacheIndexes;
+
+        private int currentSegmentIdx;
+        private final AtomicInteger currentSegmentOffset = new AtomicInteger(0);
+
+        private final int segmentSize;
+
+        private final Counter evictions;
+        // Ring where the entries still being accessed are moved when their segment is rotated, or null
+        private final Ring demotionRing;
+
+        Ring(long maxRingSize, int maxSegmentSize, Counter evictions, Ring demotionRing) {
+            this.evictions = evictions;
+            this.demotionRing = demotionRing;
+            int segmentsCount = Math.max(2, (int) (maxRingSize / maxSegmentSize));
+            segmentSize = (int) (maxRingSize / segmentsCount);
+
+            cacheSegments = new ArrayList<>();
+            cacheIndexes = new ArrayList<>();
+
+            for (int i = 0; i < segmentsCount; i++) {
+                cacheSegments.add(Unpooled.directBuffer(segmentSize, segmentSize));
+                ConcurrentLongLongPairHashMap concurrentLongLongPairHashMap = ConcurrentLongLongPairHashMap
+                        .newBuilder()
+                        .expectedItems(4096)
+                        .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                        .build();
+                cacheIndexes.add(concurrentLongLongPairHashMap);
+            }
+        }
+
+        void close() {
+            cacheSegments.forEach(ByteBuf::release);
+        }
+
+        void put(long ledgerId, long entryId, ByteBuf entry) {
+            int entrySize = entry.readableBytes();
+            int alignedSize = align64(entrySize);
+
+            lock.readLock().lock();
+
+            try {
+                if (entrySize > segmentSize) {
+                    log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
+                    return;
+                }
+                int offset = currentSegmentOffset.getAndAdd(alignedSize);
+                if (offset + entrySize > segmentSize) {
+                    // Roll-over the segment (outside the read-lock)
+                } else {
+                    // Copy entry into read cache segment
+                    cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(),
+                            entry.readableBytes());
+                    cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
+                    return;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            // We could not insert in segment, we to get the write lock and roll-over to
+            // next segment
+            lock.writeLock().lock();
+
+            try {
+                int offset = currentSegmentOffset.getAndAdd(entrySize);
+                if (offset + entrySize > segmentSize) {
+                    // Rollover to next segment
+                    currentSegmentIdx = (currentSegmentIdx + 1) % cacheSegments.size();
+                    currentSegmentOffset.set(alignedSize);
+                    ConcurrentLongLongPairHashMap evictedIndex = cacheIndexes.get(currentSegmentIdx);
+                    if (demotionRing != null) {
+                        demote(cacheSegments.get(currentSegmentIdx), evictedIndex);
+                    }
+                    evictions.add(evictedIndex.size());
+                    evictedIndex.clear();
+                    offset = 0;
+                }
+
                 // Copy entry into read cache segment
                 cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(),
                         entry.readableBytes());
                 cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
-                return;
-            }
-        } finally {
-            lock.readLock().unlock();
-        }
-
-        // We could not insert in segment, we to get the write lock and roll-over to
-        // next segment
-        lock.writeLock().lock();
-
-        try {
-            int offset = currentSegmentOffset.getAndAdd(entrySize);
-            if (offset + entrySize > segmentSize) {
-                // Rollover to next segment
-                currentSegmentIdx = (currentSegmentIdx + 1) % cacheSegments.size();
-                currentSegmentOffset.set(alignedSize);
-                cacheIndexes.get(currentSegmentIdx).clear();
-                offset = 0;
+            } finally {
+                lock.writeLock().unlock();
             }
-
-            // Copy entry into read cache segment
-            cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(), entry.readableBytes());
-            cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
-        } finally {
-            lock.writeLock().unlock();
         }
-    }
 
-    public ByteBuf get(long ledgerId, long entryId) {
-        lock.readLock().lock();
-
-        try {
-            // We need to check all the segments, starting from the current one and looking
-            // backward to minimize the
-            // checks for recently inserted entries
-            int size = cacheSegments.size();
-            for (int i = 0; i < size; i++) {
-                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
-
-                LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
-                if (res != null) {
-                    int entryOffset = (int) res.first;
-                    int entryLen = (int) res.second;
-
-                    ByteBuf entry = allocator.buffer(entryLen, entryLen);
-                    entry.writeBytes(cacheSegments.get(segmentIdx), entryOffset, entryLen);
-                    return entry;
+        /**
+         * Move the entries of the evicted segment that were accessed recently to the demotion ring, so that a
+         * hot entry gets another chance in probation instead of being dropped. Called with the write lock held.
+         */
+        private void demote(ByteBuf evictedSegment, ConcurrentLongLongPairHashMap evictedIndex) {
+            evictedIndex.forEach((ledgerId, entryId, entryOffset, entryLen) -> {
+                if (frequencySketch.frequency(ledgerId, entryId) > 0) {
+                    demotionRing.put(ledgerId, entryId, evictedSegment.slice((int) entryOffset, (int) entryLen));
+                    stats.getReadCacheDemotions().inc();
                 }
-            }
-        } finally {
-            lock.readLock().unlock();
+            });
         }
 
-        // Entry not found in any segment
-        return null;
-    }
-
-    public boolean hasEntry(long ledgerId, long entryId) {
-        lock.readLock().lock();
+        ByteBuf get(long ledgerId, long entryId) {
+            lock.readLock().lock();
+            try {
+                // We need to check all the segments, starting from the current one and looking
+                // backward to minimize the
+                // checks for recently inserted entries
+                int size = cacheSegments.size();
+                for (int i = 0; i < size; i++) {
+                    int segmentIdx = (currentSegmentIdx + (size - i)) % size;
+
+                    LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
+                    if (res != null) {
+                        int entryOffset = (int) res.first;
+                        int entryLen = (int) res.second;
+
+                        ByteBuf entry = allocator.buffer(entryLen, entryLen);
+                        entry.writeBytes(cacheSegments.get(segmentIdx), entryOffset, entryLen);
+                        return entry;
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
 
-        try {
-            int size = cacheSegments.size();
-            for (int i = 0; i < size; i++) {
-                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
+            // Entry not found in any segment
+            return null;
+        }
 
-                LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
-                if (res != null) {
-                    return true;
+        /**
+         * Insert the entry unless it is already in the ring, checked under the write lock.
+         *
+         * @return whether the entry was inserted by this call
+         */
+        boolean putIfAbsent(long ledgerId, long entryId, ByteBuf entry) {
+            lock.writeLock().lock();
+            try {
+                if (hasEntry(ledgerId, entryId)) {
+                    return false;
                 }
+                put(ledgerId, entryId, entry);
+                return true;
+            } finally {
+                lock.writeLock().unlock();
             }
-        } finally {
-            lock.readLock().unlock();
         }
 
-        // Entry not found in any segment
-        return false;
-    }
+        void remove(long ledgerId, long entryId) {
+            lock.readLock().lock();
+            try {
+                for (int i = 0; i < cacheIndexes.size(); i++) {
+                    cacheIndexes.get(i).remove(ledgerId, entryId);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
 
-    /**
-     * @return the total size of cached entries
-     */
-    public long size() {
-        lock.readLock().lock();
-
-        try {
-            long size = 0;
-            for (int i = 0; i < cacheIndexes.size(); i++) {
-                if (i == currentSegmentIdx) {
-                    size += currentSegmentOffset.get();
-                } else if (!cacheIndexes.get(i).isEmpty()) {
-                    size += segmentSize;
-                } else {
-                    // the segment is empty
+        boolean hasEntry(long ledgerId, long entryId) {
+            lock.readLock().lock();
+            try {
+                int size = cacheSegments.size();
+                for (int i = 0; i < size; i++) {
+                    int segmentIdx = (currentSegmentIdx + (size - i)) % size;
+
+                    LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
+                    if (res != null) {
+                        return true;
+                    }
                 }
+            } finally {
+                lock.readLock().unlock();
             }
 
-            return size;
-        } finally {
-            lock.readLock().unlock();
+            // Entry not found in any segment
+            return false;
         }
-    }
 
-    /**
-     * @return the total number of cached entries
-     */
-    public long count() {
-        lock.readLock().lock();
+        long size() {
+            lock.readLock().lock();
+            try {
+                long size = 0;
+                for (int i = 0; i < cacheIndexes.size(); i++) {
+                    if (i == currentSegmentIdx) {
+                        size += currentSegmentOffset.get();
+                    } else if (!cacheIndexes.get(i).isEmpty()) {
+                        size += segmentSize;
+                    } else {
+                        // the segment is empty
+                    }
+                }
 
-        try {
-            long count = 0;
-            for (int i = 0; i < cacheIndexes.size(); i++) {
-                count += cacheIndexes.get(i).size();
+                return size;
+            } finally {
+                lock.readLock().unlock();
             }
+        }
 
-            return count;
-        } finally {
-            lock.readLock().unlock();
+        long count() {
+            lock.readLock().lock();
+            try {
+                long count = 0;
+                for (int i = 0; i < cacheIndexes.size(); i++) {
+                    count += cacheIndexes.get(i).size();
+                }
+
+                return count;
+            } finally {
+                lock.readLock().unlock();
+            }
         }
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.ChecksumType;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.DBOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.WriteBufferManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Block cache and write buffer manager shared by all the RocksDB key-value storages of the process.
+ *
+ * <p>Instead of a block cache sized in the options file of each database, the blocks of all the ledger and entry
+ * location indexes of all the directories share a single cache, so that the memory goes to the directories that
+ * are actually read. The memtables are charged to the same cache through the write buffer manager, which makes
+ * the cache size the total memory budget of the indexes. The index and filter blocks are kept in the cache with
+ * high priority, so that they are not evicted by a scan of data blocks.
+ *
+ * <p>The cache is created by the first storage opened, and released when the last one is closed.
+ *
+ * <p>Only the block size, format version, checksum and bloom filter of the block based table options of the options
+ * files are kept with the shared cache, the other block based table options are logged and ignored.
+ */
+class RocksDBSharedCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RocksDBSharedCache.class);
+
+    static final String SHARED_CACHE_SIZE_MB = "dbStorage_rocksDB_sharedCacheSizeMB";
+    static final String SHARED_CACHE_WRITE_BUFFER_PERCENT = "dbStorage_rocksDB_sharedCacheWriteBufferPercent";
+    static final String SHARED_CACHE_HIGH_PRIORITY_PERCENT = "dbStorage_rocksDB_sharedCacheHighPriorityPercent";
+
+    static final int DEFAULT_SHARED_CACHE_WRITE_BUFFER_PERCENT = 25;
+    static final int DEFAULT_SHARED_CACHE_HIGH_PRIORITY_PERCENT = 20;
+
+    private static final Pattern TABLE_OPTIONS_SECTION = Pattern.compile(
+            "\\[TableOptions/BlockBasedTable \"(.*)\"\\]");
+
+    private static RocksDBSharedCache instance = null;
+    private static int refCount = 0;
+
+    private final Cache cache;
+    private final WriteBufferManager writeBufferManager;
+
+    private RocksDBSharedCache(long cacheSize, long writeBufferSize, double highPriorityRatio) {
+        this.cache = new LRUCache(cacheSize, -1, false, highPriorityRatio);
+        this.writeBufferManager = new WriteBufferManager(writeBufferSize, cache);
+    }
+
+    /**
+     * Get the shared cache, creating it if needed.
+     *
+     * @return the shared cache, or null if it is disabled
+     */
+    static synchronized RocksDBSharedCache acquire(ServerConfiguration conf) {
+        long cacheSize = conf.getLong(SHARED_CACHE_SIZE_MB, 0) * 1024 * 1024;
+        if (cacheSize <= 0) {
+            return null;
+        }
+
+        if (instance == null) {
+            long writeBufferSize = cacheSize * conf.getInt(SHARED_CACHE_WRITE_BUFFER_PERCENT,
+                    DEFAULT_SHARED_CACHE_WRITE_BUFFER_PERCENT) / 100;
+            double highPriorityRatio = conf.getInt(SHARED_CACHE_HIGH_PRIORITY_PERCENT,
+                    DEFAULT_SHARED_CACHE_HIGH_PRIORITY_PERCENT) / 100.0;
+            log.info("Creating RocksDB shared cache of {} bytes, with up to {} bytes of memtables and {} of index and"
+                    + " filter blocks", cacheSize, writeBufferSize, highPriorityRatio);
+            instance = new RocksDBSharedCache(cacheSize, writeBufferSize, highPriorityRatio);
+        }
+        refCount++;
+        return instance;
+    }
+
+    /**
+     * Release the shared cache, which is closed once released by all the storages.
+     */
+    static synchronized void release(RocksDBSharedCache sharedCache) {
+        if (sharedCache == null) {
+            return;
+        }
+
+        if (--refCount == 0) {
+            instance.writeBufferManager.close();
+            instance.cache.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Make a database use the shared cache.
+     *
+     * <p>The block based table options of the column families, which cannot be read back from RocksDB once loaded,
+     * are read again from the options file to replace the block cache.
+     */
+    void configure(DBOptions dbOptions, List<ColumnFamilyDescriptor> cfDescs, String optionsFile) throws IOException {
+        dbOptions.setWriteBufferManager(writeBufferManager);
+
+        Map<String, Map<String, String>> tableOptions = loadTableOptions(optionsFile);
+        for (ColumnFamilyDescriptor cfDesc : cfDescs) {
+            String cfName = new String(cfDesc.getName(), UTF_8);
+            BlockBasedTableConfig tableConfig = newTableConfig(cfName,
+                    tableOptions.getOrDefault(cfName, new HashMap<>()));
+            cfDesc.getOptions().setTableFormatConfig(tableConfig);
+        }
+    }
+
+    private BlockBasedTableConfig newTableConfig(String cfName, Map<String, String> options) {
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            String value = option.getValue();
+            try {
+                switch (option.getKey()) {
+                    case "block_size":
+                        tableConfig.setBlockSize(Long.parseLong(value));
+                        break;
+                    case "format_version":
+                        tableConfig.setFormatVersion(Integer.parseInt(value));
+                        break;
+                    case "checksum":
+                        tableConfig.setChecksumType(ChecksumType.valueOf(value));
+                        break;
+                    case "filter_policy":
+                        // rocksdb.BloomFilter:[bits_per_key]:[use_block_based_builder]
+                        String[] parts = value.split(":");
+                        if (parts.length >= 2 && parts[0].endsWith("BloomFilter")) {
+                            tableConfig.setFilterPolicy(new BloomFilter(Double.parseDouble(parts[1]),
+                                    parts.length > 2 && Boolean.parseBoolean(parts[2])));
+                        } else {
+                            log.warn("Ignoring unsupported filter policy {} of column family {}", value, cfName);
+                        }
+                        break;
+                    case "block_cache":
+                    case "cache_index_and_filter_blocks":
+                        // Replaced by the shared cache
+                        break;
+                    default:
+                        log.warn("Ignoring block based table option {}={} of column family {} with the shared cache",
+                                option.getKey(), value, cfName);
+                }
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring invalid block based table option {}={} of column family {}",
+                        option.getKey(), value, cfName);
+            }
+        }
+
+        tableConfig.setBlockCache(cache);
+        tableConfig.setCacheIndexAndFilterBlocks(true);
+        tableConfig.setCacheIndexAndFilterBlocksWithHighPriority(true);
+        tableConfig.setPinL0FilterAndIndexBlocksInCache(true);
+        return tableConfig;
+    }
+
+    /**
+     * @return the block based table options of each column family of a RocksDB options file
+     */
+    static Map<String, Map<String, String>> loadTableOptions(String optionsFile) throws IOException {
+        Map<String, Map<String, String>> tableOptions = new HashMap<>();
+        Map<String, String> current = null;
+        for (String line : Files.readAllLines(Paths.get(optionsFile), UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            if (line.startsWith("[")) {
+                Matcher m = TABLE_OPTIONS_SECTION.matcher(line);
+                current = m.matches() ? tableOptions.computeIfAbsent(m.group(1), cf -> new HashMap<>()) : null;
+            } else if (current != null) {
+                int idx = line.indexOf('=');
+                if (idx > 0) {
+                    current.put(line.substring(0, idx).trim(), line.substring(idx + 1).trim());
+                }
+            }
+        }
+        return tableOptions;
+    }
+
+    @VisibleForTesting
+    static synchronized int getRefCount() {
+        return refCount;
+    }
+}
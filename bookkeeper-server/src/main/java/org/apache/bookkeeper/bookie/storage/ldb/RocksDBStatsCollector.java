@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.rocksdb.HistogramData;
+import org.rocksdb.HistogramType;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collect the internal stats of a RocksDB database.
+ *
+ * <p>The tickers and histograms of the {@link Statistics} attached to the database, when enabled, and the
+ * properties of the database are read again when a value is asked for and the last collection is older than the
+ * refresh interval, so that the stats reporter does not go through JNI for every single gauge.
+ */
+class RocksDBStatsCollector {
+
+    // Default number of levels of RocksDB
+    static final int NUM_LEVELS = 7;
+
+    // Level latencies in the output of the "rocksdb.cf-file-histogram" property
+    private static final Pattern LEVEL_READ_LATENCY = Pattern.compile(
+            "\\*\\* Level (\\d+) read latency histogram.*?P50: ([\\d.]+) P75: [\\d.]+ P99: ([\\d.]+)", Pattern.DOTALL);
+
+    private final String name;
+    private final RocksDB db;
+    // Null when the statistics are disabled
+    private final Statistics statistics;
+    private final long refreshIntervalNanos;
+
+    private boolean closed = false;
+    private long lastRefreshNanos;
+
+    private long blockCacheHits;
+    private long blockCacheMisses;
+    private double blockCacheHitRate;
+    private long stallMicros;
+    private long memTableStalls;
+    private long level0Stalls;
+    private long pendingCompactionBytes;
+    private long runningCompactions;
+    private long level0Files;
+    private double getLatencyP50;
+    private double getLatencyP99;
+    private double getLatencyMax;
+    private final double[] levelReadLatencyP50 = new double[NUM_LEVELS];
+    private final double[] levelReadLatencyP99 = new double[NUM_LEVELS];
+
+    RocksDBStatsCollector(String name, RocksDB db, Statistics statistics, long refreshIntervalSeconds) {
+        this.name = name;
+        this.db = db;
+        this.statistics = statistics;
+        this.refreshIntervalNanos = TimeUnit.SECONDS.toNanos(refreshIntervalSeconds);
+    }
+
+    private void refreshIfNeeded() {
+        long now = System.nanoTime();
+        if (closed || (lastRefreshNanos != 0 && now - lastRefreshNanos < refreshIntervalNanos)) {
+            return;
+        }
+        lastRefreshNanos = now;
+
+        try {
+            pendingCompactionBytes = db.getLongProperty("rocksdb.estimate-pending-compaction-bytes");
+            runningCompactions = db.getLongProperty("rocksdb.num-running-compactions");
+            level0Files = Long.parseLong(db.getProperty("rocksdb.num-files-at-level0").trim());
+        } catch (RocksDBException | NumberFormatException e) {
+            log.warn("Failed to read the properties of RocksDB<{}>", name, e);
+        }
+
+        // The stall breakdown is only counted by the column family stats, the per-cause stall tickers are deprecated
+        try {
+            Map<String, String> cfStats = db.getMapProperty("rocksdb.cfstats");
+            memTableStalls = getStallCount(cfStats, "memtable_compaction")
+                    + getStallCount(cfStats, "memtable_slowdown");
+            level0Stalls = getStallCount(cfStats, "level0_slowdown")
+                    + getStallCount(cfStats, "level0_numfiles");
+        } catch (RocksDBException | NumberFormatException e) {
+            log.warn("Failed to read the column family stats of RocksDB<{}>", name, e);
+        }
+
+        if (statistics == null) {
+            return;
+        }
+
+        long hits = statistics.getTickerCount(TickerType.BLOCK_CACHE_HIT);
+        long misses = statistics.getTickerCount(TickerType.BLOCK_CACHE_MISS);
+        long lookups = (hits - blockCacheHits) + (misses - blockCacheMisses);
+        if (lookups > 0) {
+            // Hit rate since the previous collection, the last one is kept while there are no lookups
+            blockCacheHitRate = 100.0 * (hits - blockCacheHits) / lookups;
+        }
+        blockCacheHits = hits;
+        blockCacheMisses = misses;
+
+        stallMicros = statistics.getTickerCount(TickerType.STALL_MICROS);
+
+        HistogramData getLatency = statistics.getHistogramData(HistogramType.DB_GET);
+        getLatencyP50 = getLatency.getMedian();
+        getLatencyP99 = getLatency.getPercentile99();
+        getLatencyMax = getLatency.getMax();
+
+        try {
+            String histograms = db.getProperty("rocksdb.cf-file-histogram");
+            Matcher m = LEVEL_READ_LATENCY.matcher(histograms);
+            while (m.find()) {
+                int level = Integer.parseInt(m.group(1));
+                if (level < NUM_LEVELS) {
+                    levelReadLatencyP50[level] = Double.parseDouble(m.group(2));
+                    levelReadLatencyP99[level] = Double.parseDouble(m.group(3));
+                }
+            }
+        } catch (RocksDBException | NumberFormatException e) {
+            log.warn("Failed to read the file read latencies of RocksDB<{}>", name, e);
+        }
+    }
+
+    private static long getStallCount(Map<String, String> cfStats, String cause) {
+        String count = cfStats.get("io_stalls." + cause);
+        return count != null ? Long.parseLong(count.trim()) : 0L;
+    }
+
+    synchronized long getBlockCacheHits() {
+        refreshIfNeeded();
+        return blockCacheHits;
+    }
+
+    synchronized long getBlockCacheMisses() {
+        refreshIfNeeded();
+        return blockCacheMisses;
+    }
+
+    synchronized double getBlockCacheHitRate() {
+        refreshIfNeeded();
+        return blockCacheHitRate;
+    }
+
+    synchronized long getStallMicros() {
+        refreshIfNeeded();
+        return stallMicros;
+    }
+
+    synchronized long getMemTableStalls() {
+        refreshIfNeeded();
+        return memTableStalls;
+    }
+
+    synchronized long getLevel0Stalls() {
+        refreshIfNeeded();
+        return level0Stalls;
+    }
+
+    synchronized long getPendingCompactionBytes() {
+        refreshIfNeeded();
+        return pendingCompactionBytes;
+    }
+
+    synchronized long getRunningCompactions() {
+        refreshIfNeeded();
+        return runningCompactions;
+    }
+
+    synchronized long getLevel0Files() {
+        refreshIfNeeded();
+        return level0Files;
+    }
+
+    synchronized double getGetLatencyP50() {
+        refreshIfNeeded();
+        return getLatencyP50;
+    }
+
+    synchronized double getGetLatencyP99() {
+        refreshIfNeeded();
+        return getLatencyP99;
+    }
+
+    synchronized double getGetLatencyMax() {
+        refreshIfNeeded();
+        return getLatencyMax;
+    }
+
+    synchronized double getLevelReadLatencyP50(int level) {
+        refreshIfNeeded();
+        return levelReadLatencyP50[level];
+    }
+
+    synchronized double getLevelReadLatencyP99(int level) {
+        refreshIfNeeded();
+        return levelReadLatencyP99[level];
+    }
+
+    /**
+     * @return the raw stats of the database, as formatted by RocksDB, or null once the database is closed
+     */
+    synchronized String getStatsDump() throws IOException {
+        if (closed) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        try {
+            sb.append(db.getProperty("rocksdb.stats"));
+        } catch (RocksDBException e) {
+            throw new IOException("Failed to read the stats of RocksDB<" + name + ">", e);
+        }
+        if (statistics != null) {
+            sb.append("\n** Statistics **\n").append(statistics);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stop reading from the database, which must be called before closing it.
+     */
+    synchronized void close() {
+        closed = true;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(RocksDBStatsCollector.class);
+}
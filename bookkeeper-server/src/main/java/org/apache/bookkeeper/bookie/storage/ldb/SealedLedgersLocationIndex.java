@@ -0,0 +1,288 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+
+/**
+ * In-memory, read-only copy of the entry locations of the ledgers that are read but no longer written.
+ *
+ * <p>The locations of each ledger are delta-encoded, so that the entries stored one after the other in the same
+ * entry log take 1 or 2 bytes each, and are looked up without going through the key-value storage.
+ *
+ * <p>This is only a cache over {@link EntryLocationIndex}: a location that is not found here must be looked up in
+ * the storage. The copy of a ledger is dropped whenever the locations of any of its entries are updated.
+ */
+class SealedLedgersLocationIndex {
+
+    // Max number of ledgers waiting to be sealed
+    private static final int MAX_CANDIDATES = 10000;
+
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong();
+
+    private final ConcurrentLongHashMap<SealedLedger> ledgers;
+    private final ConcurrentLongHashSet candidates;
+
+    SealedLedgersLocationIndex(long maxSize) {
+        this.maxSize = maxSize;
+        this.ledgers = ConcurrentLongHashMap.<SealedLedger>newBuilder()
+                .expectedItems(1024)
+                .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                .build();
+        this.candidates = ConcurrentLongHashSet.newBuilder()
+                .expectedItems(1024)
+                .build();
+    }
+
+    /**
+     * @return the location of the entry, or 0 if it must be looked up in the storage
+     */
+    long getLocation(long ledgerId, long entryId) {
+        SealedLedger ledger = ledgers.get(ledgerId);
+        CompactLocations locations = ledger != null ? ledger.locations : null;
+        return locations != null ? locations.get(entryId) : 0;
+    }
+
+    /**
+     * Record a lookup that had to go through the storage, making the ledger a candidate to be sealed.
+     */
+    void recordStorageLookup(long ledgerId) {
+        if (candidates.size() < MAX_CANDIDATES) {
+            candidates.add(ledgerId);
+        }
+    }
+
+    Set<Long> drainCandidates() {
+        Set<Long> items = candidates.items();
+        for (long ledgerId : items) {
+            candidates.remove(ledgerId);
+        }
+        return items;
+    }
+
+    /**
+     * Reserve a slot for a ledger about to be sealed.
+     *
+     * @return the slot where to publish the locations once they are loaded, or null if the ledger is already
+     *         sealed or there is no more room in the index
+     */
+    SealedLedger reserve(long ledgerId) {
+        if (size.get() >= maxSize) {
+            return null;
+        }
+
+        SealedLedger ledger = new SealedLedger();
+        return ledgers.putIfAbsent(ledgerId, ledger) == null ? ledger : null;
+    }
+
+    /**
+     * Publish the locations loaded for a ledger, unless the ledger was invalidated while they were being loaded.
+     */
+    boolean publish(long ledgerId, SealedLedger ledger, CompactLocations locations) {
+        synchronized (ledger) {
+            if (!ledger.invalidated && size.get() + locations.sizeInBytes() <= maxSize) {
+                ledger.locations = locations;
+                size.addAndGet(locations.sizeInBytes());
+                return true;
+            }
+        }
+
+        ledgers.remove(ledgerId, ledger);
+        return false;
+    }
+
+    /**
+     * Give up a slot reserved with {@link #reserve(long)}.
+     */
+    void release(long ledgerId, SealedLedger ledger) {
+        ledgers.remove(ledgerId, ledger);
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    void invalidate(long ledgerId) {
+        SealedLedger ledger = ledgers.remove(ledgerId);
+        if (ledger != null) {
+            synchronized (ledger) {
+                ledger.invalidated = true;
+                if (ledger.locations != null) {
+                    size.addAndGet(-ledger.locations.sizeInBytes());
+                    ledger.locations = null;
+                }
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return ledgers.isEmpty();
+    }
+
+    /**
+     * @return the memory used by the sealed ledgers locations
+     */
+    long size() {
+        return size.get();
+    }
+
+    /**
+     * @return the number of sealed ledgers
+     */
+    long count() {
+        return ledgers.size();
+    }
+
+    static final class SealedLedger {
+        private volatile CompactLocations locations;
+        private boolean invalidated;
+    }
+
+    /**
+     * Delta-encoded locations of the entries of a ledger.
+     *
+     * <p>Entries are grouped in blocks of {@value #BLOCK_SIZE}. Each block starts from the last location of the
+     * previous blocks and stores, for each entry, the zig-zag varint of the difference with the previous location,
+     * or 0 if the entry is missing. Since 2 entries never share the same location, a difference is never 0.
+     */
+    static final class CompactLocations {
+        private static final int BLOCK_SHIFT = 6;
+        private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+        private final long firstEntryId;
+        private final long count;
+        private final long[] blockBaseLocations;
+        private final int[] blockOffsets;
+        private final byte[] data;
+
+        private CompactLocations(long firstEntryId, long count, long[] blockBaseLocations, int[] blockOffsets,
+                                 byte[] data) {
+            this.firstEntryId = firstEntryId;
+            this.count = count;
+            this.blockBaseLocations = blockBaseLocations;
+            this.blockOffsets = blockOffsets;
+            this.data = data;
+        }
+
+        long get(long entryId) {
+            long index = entryId - firstEntryId;
+            if (index < 0 || index >= count) {
+                return 0;
+            }
+
+            int block = (int) (index >>> BLOCK_SHIFT);
+            int target = (int) (index & (BLOCK_SIZE - 1));
+            long location = blockBaseLocations[block];
+            int pos = blockOffsets[block];
+            for (int i = 0; ; i++) {
+                long value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    value |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+
+                if (i == target) {
+                    return value == 0 ? 0 : location + ((value >>> 1) ^ -(value & 1));
+                } else if (value != 0) {
+                    location += (value >>> 1) ^ -(value & 1);
+                }
+            }
+        }
+
+        long sizeInBytes() {
+            return data.length + blockBaseLocations.length * 8L + blockOffsets.length * 4L;
+        }
+
+        static Builder newBuilder(long firstEntryId) {
+            return new Builder(firstEntryId);
+        }
+
+        static final class Builder {
+            private final long firstEntryId;
+            private long count = 0;
+            private long lastLocation = 0;
+
+            private long[] blockBaseLocations = new long[16];
+            private int[] blockOffsets = new int[16];
+            private byte[] data = new byte[1024];
+            private int dataSize = 0;
+
+            private Builder(long firstEntryId) {
+                this.firstEntryId = firstEntryId;
+            }
+
+            /**
+             * Add the location of the next entry, 0 if the entry is missing.
+             */
+            Builder add(long location) {
+                if ((count & (BLOCK_SIZE - 1)) == 0) {
+                    int block = (int) (count >>> BLOCK_SHIFT);
+                    if (block == blockOffsets.length) {
+                        blockBaseLocations = Arrays.copyOf(blockBaseLocations, block * 2);
+                        blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+                    }
+                    blockBaseLocations[block] = lastLocation;
+                    blockOffsets[block] = dataSize;
+                }
+
+                long value = 0;
+                if (location != 0) {
+                    long delta = location - lastLocation;
+                    value = (delta << 1) ^ (delta >> 63);
+                    lastLocation = location;
+                }
+                writeVarLong(value);
+                count++;
+                return this;
+            }
+
+            private void writeVarLong(long value) {
+                if (dataSize + 10 > data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                while ((value & ~0x7fL) != 0) {
+                    data[dataSize++] = (byte) ((value & 0x7f) | 0x80);
+                    value >>>= 7;
+                }
+                data[dataSize++] = (byte) value;
+            }
+
+            long sizeInBytes() {
+                return dataSize + blockOffsets.length * 12L;
+            }
+
+            CompactLocations build() {
+                int blocks = (int) ((count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT);
+                return new CompactLocations(firstEntryId, count, Arrays.copyOf(blockBaseLocations, blocks),
+                        Arrays.copyOf(blockOffsets, blocks), Arrays.copyOf(data, dataSize));
+            }
+        }
+    }
+}
@@ -41,16 +41,18 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.StampedLock;
 
-import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
 import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.bookie.BookieException.OperationRejectedException;
@@ -58,8 +60,11 @@ import org.apache.bookkeeper.bookie.CheckpointSource;
 import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
 import org.apache.bookkeeper.bookie.Checkpointer;
 import org.apache.bookkeeper.bookie.CompactableLedgerStorage;
+import org.apache.bookkeeper.bookie.DirectIOFileChannelProvider;
 import org.apache.bookkeeper.bookie.EntryLocation;
+import org.apache.bookkeeper.bookie.EntryLogCompactionScheduler;
 import org.apache.bookkeeper.bookie.EntryLogger;
+import org.apache.bookkeeper.bookie.FileChannelProvider;
 import org.apache.bookkeeper.bookie.GarbageCollectionStatus;
 import org.apache.bookkeeper.bookie.GarbageCollectorThread;
 import org.apache.bookkeeper.bookie.LastAddConfirmedUpdateNotification;
@@ -80,6 +85,8 @@ import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.ThreadRegistry;
 import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.commons.lang.mutable.MutableLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -93,6 +100,7 @@ import org.slf4j.LoggerFactory;
 public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage {
     private final EntryLogger entryLogger;
 
+    private final String baseDir;
     private final LedgerMetadataIndex ledgerIndex;
     private final EntryLocationIndex entryLocationIndex;
 
@@ -133,9 +141,36 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     private final long writeCacheMaxSize;
     private final long readCacheMaxSize;
     private final int readAheadCacheBatchSize;
+    private final int maxReadAheadCacheBatchSize;
+
+    // Executor used to read the entries not found in the caches for the async reads, null when they are disabled
+    private final ExecutorService asyncReadExecutor;
+
+    // Executor used to read ahead of the sequential readers, null when the adaptive read-ahead is disabled
+    private final ExecutorService readAheadExecutor;
+    // (ledgerId, entryId) of the entries whose cache hit requests the next read-ahead batch of their stream
+    private final ConcurrentLongLongPairHashMap readAheadTriggers;
+
+    // Executor moving the old entry logs to the capacity tier, null when there is no capacity tier
+    private final ScheduledExecutorService capacityTierExecutor;
+    private final CapacityTierMover capacityTierMover;
+
+    // Executor of the continuous scrubber of the ledger directory, null when it is disabled
+    private final ScheduledExecutorService scrubberExecutor;
+    private final DbLedgerStorageScrubber scrubber;
 
     private final long maxThrottleTimeNanos;
 
+    // Whether the flushes are spread over a part of the time the write cache took to fill
+    private final boolean pacedFlushEnabled;
+    private final int pacedFlushSpreadPercent;
+    private final long pacedFlushMinRate;
+    private volatile long lastWriteCacheSwapNanos = MathUtils.nowInNano();
+    private volatile long lastWriteCacheFillNanos = 0;
+
+    // Null when the writes are only throttled once the write cache is full
+    private final WriteCacheBackpressure writeCacheBackpressure;
+
     private final DbLedgerStorageStats dbLedgerStorageStats;
 
     private static final long DEFAULT_MAX_THROTTLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
@@ -148,10 +183,23 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager, StatsLogger statsLogger,
             ByteBufAllocator allocator, ScheduledExecutorService gcExecutor, long writeCacheSize, long readCacheSize,
             int readAheadCacheBatchSize) throws IOException {
+        this(conf, ledgerManager, ledgerDirsManager, indexDirsManager, statsLogger, allocator, gcExecutor, null,
+                writeCacheSize, readCacheSize, readAheadCacheBatchSize);
+    }
+
+    /**
+     * @param compactionScheduler compaction threads shared with the other directories, or null to let the garbage
+     *                            collector of this directory compact its entry logs
+     */
+    public SingleDirectoryDbLedgerStorage(ServerConfiguration conf, LedgerManager ledgerManager,
+            LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager, StatsLogger statsLogger,
+            ByteBufAllocator allocator, ScheduledExecutorService gcExecutor,
+            EntryLogCompactionScheduler compactionScheduler, long writeCacheSize, long readCacheSize,
+            int readAheadCacheBatchSize) throws IOException {
         checkArgument(ledgerDirsManager.getAllLedgerDirs().size() == 1,
                 "Db implementation only allows for one storage dir");
 
-        String baseDir = ledgerDirsManager.getAllLedgerDirs().get(0).toString();
+        baseDir = ledgerDirsManager.getAllLedgerDirs().get(0).toString();
         log.info("Creating single directory db ledger storage on {}", baseDir);
 
         StatsLogger ledgerDirStatsLogger = statsLogger.scopeLabel("ledgerDir",
@@ -164,18 +212,67 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         readCacheMaxSize = readCacheSize;
         this.readAheadCacheBatchSize = readAheadCacheBatchSize;
 
-        // Do not attempt to perform read-ahead more than half the total size of the cache
-        maxReadAheadBytesSize = readCacheMaxSize / 2;
+        if (conf.getBoolean(DbLedgerStorage.READ_AHEAD_ADAPTIVE, false)) {
+            maxReadAheadCacheBatchSize = conf.getInt(DbLedgerStorage.READ_AHEAD_CACHE_MAX_BATCH_SIZE,
+                    DbLedgerStorage.DEFAULT_READ_AHEAD_CACHE_MAX_BATCH_SIZE);
+            readAheadExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("db-storage-readahead"));
+            readAheadTriggers = ConcurrentLongLongPairHashMap.newBuilder()
+                    .concurrencyLevel(Runtime.getRuntime().availableProcessors() * 2)
+                    .build();
+        } else {
+            maxReadAheadCacheBatchSize = readAheadCacheBatchSize;
+            readAheadExecutor = null;
+            readAheadTriggers = null;
+        }
+
+        int asyncReadThreads = conf.getInt(DbLedgerStorage.ASYNC_READ_THREADS,
+                DbLedgerStorage.DEFAULT_ASYNC_READ_THREADS);
+        if (asyncReadThreads > 0) {
+            asyncReadExecutor = Executors.newFixedThreadPool(asyncReadThreads,
+                    new DefaultThreadFactory("db-storage-read"));
+        } else {
+            asyncReadExecutor = null;
+        }
+
+        int readCacheProtectedPercent = conf.getInt(DbLedgerStorage.READ_AHEAD_CACHE_PROTECTED_PERCENT,
+                DbLedgerStorage.DEFAULT_READ_AHEAD_CACHE_PROTECTED_PERCENT);
+
+        // Do not attempt to perform read-ahead more than half the size of the cache where the
+        // new entries are inserted
+        maxReadAheadBytesSize = readCacheMaxSize * (100 - readCacheProtectedPercent) / 100 / 2;
 
         long maxThrottleTimeMillis = conf.getLong(DbLedgerStorage.MAX_THROTTLE_TIME_MILLIS,
                 DEFAULT_MAX_THROTTLE_TIME_MILLIS);
         maxThrottleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleTimeMillis);
 
-        readCache = new ReadCache(allocator, readCacheMaxSize);
+        dbLedgerStorageStats = new DbLedgerStorageStats(
+                ledgerDirStatsLogger,
+            () -> writeCache.size() + writeCacheBeingFlushed.size(),
+            () -> writeCache.count() + writeCacheBeingFlushed.count()
+        );
 
-        ledgerIndex = new LedgerMetadataIndex(conf, KeyValueStorageRocksDB.factory, baseDir, ledgerDirStatsLogger);
-        entryLocationIndex = new EntryLocationIndex(conf,
-                KeyValueStorageRocksDB.factory, baseDir, ledgerDirStatsLogger);
+        pacedFlushEnabled = conf.getBoolean(DbLedgerStorage.PACED_FLUSH_ENABLED, false);
+        pacedFlushSpreadPercent = conf.getInt(DbLedgerStorage.PACED_FLUSH_SPREAD_PERCENT,
+                DbLedgerStorage.DEFAULT_PACED_FLUSH_SPREAD_PERCENT);
+        pacedFlushMinRate = conf.getLong(DbLedgerStorage.PACED_FLUSH_MIN_RATE_MB,
+                DbLedgerStorage.DEFAULT_PACED_FLUSH_MIN_RATE_MB) * 1024 * 1024;
+
+        if (conf.getBoolean(DbLedgerStorage.WRITE_CACHE_BACKPRESSURE_ENABLED, false)) {
+            writeCacheBackpressure = new WriteCacheBackpressure(writeCacheMaxSize / 2,
+                    conf.getInt(DbLedgerStorage.WRITE_CACHE_BACKPRESSURE_START_PERCENT,
+                            DbLedgerStorage.DEFAULT_WRITE_CACHE_BACKPRESSURE_START_PERCENT));
+            dbLedgerStorageStats.registerWriteCacheBackpressureGauges(ledgerDirStatsLogger, writeCacheBackpressure);
+        } else {
+            writeCacheBackpressure = null;
+        }
+
+        readCache = new ReadCache(allocator, readCacheMaxSize, ReadCache.DEFAULT_MAX_SEGMENT_SIZE,
+                readCacheProtectedPercent, dbLedgerStorageStats);
+        dbLedgerStorageStats.registerReadCacheGauges(ledgerDirStatsLogger, readCache);
+
+        KeyValueStorageFactory storageFactory = DbLedgerStorage.getKeyValueStorageFactory(conf);
+        ledgerIndex = new LedgerMetadataIndex(conf, storageFactory, baseDir, ledgerDirStatsLogger, allocator);
+        entryLocationIndex = new EntryLocationIndex(conf, storageFactory, baseDir, ledgerDirStatsLogger);
 
         transientLedgerInfoCache = ConcurrentLongHashMap.<TransientLedgerInfo>newBuilder()
                 .expectedItems(16 * 1024)
@@ -185,16 +282,38 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES,
                 TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES, TimeUnit.MINUTES);
 
-        entryLogger = new EntryLogger(conf, ledgerDirsManager, null, statsLogger, allocator);
-        gcThread = new GarbageCollectorThread(conf, ledgerManager, ledgerDirsManager, this, statsLogger);
-
-        dbLedgerStorageStats = new DbLedgerStorageStats(
-                ledgerDirStatsLogger,
-            () -> writeCache.size() + writeCacheBeingFlushed.size(),
-            () -> writeCache.count() + writeCacheBeingFlushed.count(),
-            () -> readCache.size(),
-            () -> readCache.count()
-        );
+        List<File> capacityTierDirs = CapacityTierMover.getCapacityTierDirs(conf,
+                ledgerDirsManager.getAllLedgerDirs().get(0));
+        entryLogger = new EntryLogger(conf, ledgerDirsManager, null, statsLogger, allocator,
+                newEntryLogFileChannelProvider(conf), capacityTierDirs);
+        if (!capacityTierDirs.isEmpty()) {
+            log.info("Moving the old entry logs of {} to the capacity tier {}", baseDir, capacityTierDirs);
+            long checkIntervalSeconds = conf.getLong(DbLedgerStorage.CAPACITY_TIER_CHECK_INTERVAL_SECONDS,
+                    DbLedgerStorage.DEFAULT_CAPACITY_TIER_CHECK_INTERVAL_SECONDS);
+            capacityTierMover = new CapacityTierMover(conf, entryLogger, dbLedgerStorageStats);
+            capacityTierExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new DefaultThreadFactory("db-storage-capacity-tier"));
+            capacityTierExecutor.scheduleWithFixedDelay(capacityTierMover, checkIntervalSeconds,
+                    checkIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            capacityTierMover = null;
+            capacityTierExecutor = null;
+        }
+        if (conf.getBoolean(DbLedgerStorage.SCRUBBER_ENABLED, false)) {
+            scrubber = new DbLedgerStorageScrubber(conf, baseDir, ledgerIndex, entryLocationIndex, entryLogger,
+                    ledgerManager, allocator, dbLedgerStorageStats);
+            dbLedgerStorageStats.registerScrubberGauges(ledgerDirStatsLogger, scrubber);
+            scrubberExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new DefaultThreadFactory("db-storage-scrubber"));
+            // Each run checks the entries for a slice of time, then saves its position
+            scrubberExecutor.scheduleWithFixedDelay(scrubber, 1, 1, TimeUnit.MINUTES);
+        } else {
+            scrubber = null;
+            scrubberExecutor = null;
+        }
+        gcThread = new GarbageCollectorThread(conf, ledgerManager, ledgerDirsManager, this, statsLogger,
+                Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("GarbageCollectorThread")),
+                compactionScheduler);
 
         flushExecutorTime = ledgerDirStatsLogger.getThreadScopedCounter("db-storage-thread-time");
 
@@ -215,6 +334,30 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         /// Initialized in constructor
     }
 
+    /**
+     * Create the provider for the entry log files. When direct I/O is enabled, the entry logs are opened with
+     * O_DIRECT so that they don't compete with the indexes and the read cache for the OS page cache.
+     *
+     * @return the direct I/O provider, or null to use the default buffered I/O
+     */
+    private static FileChannelProvider newEntryLogFileChannelProvider(ServerConfiguration conf) {
+        if (!conf.getBoolean(DbLedgerStorage.DIRECT_IO_ENTRY_LOGGER, false)) {
+            return null;
+        }
+
+        if (!DirectIOFileChannelProvider.isSupported()) {
+            log.warn("Direct I/O entry logger is enabled but not supported on this platform, using buffered I/O");
+            return null;
+        }
+
+        int readBufferSize = conf.getInt(DbLedgerStorage.DIRECT_IO_ENTRY_LOGGER_READ_BUFFER_SIZE_KB,
+                DbLedgerStorage.DEFAULT_DIRECT_IO_ENTRY_LOGGER_READ_BUFFER_SIZE_KB) * 1024;
+        log.info("Using direct I/O entry logger. Write buffer: {} bytes -- Read buffer: {} bytes",
+                conf.getWriteBufferBytes(), readBufferSize);
+        return new DirectIOFileChannelProvider(conf.getWriteBufferBytes(), readBufferSize,
+                DirectIOFileChannelProvider.DEFAULT_MAX_POOLED_READ_BUFFERS);
+    }
+
     @Override
     public void setStateManager(StateManager stateManager) { }
 
@@ -232,6 +375,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         transientLedgerInfoCache.removeIf((ledgerId, ledgerInfo) -> {
             boolean isStale = ledgerInfo.isStale();
             if (isStale) {
+                removeReadAheadTriggers(ledgerId, ledgerInfo);
                 ledgerInfo.close();
             }
 
@@ -260,11 +404,31 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             flush();
 
             gcThread.shutdown();
+            if (scrubberExecutor != null) {
+                scrubber.stop();
+                scrubberExecutor.shutdown();
+                scrubberExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            if (capacityTierExecutor != null) {
+                capacityTierMover.stop();
+                capacityTierExecutor.shutdown();
+                // Let the move in progress complete before closing the entry logger
+                capacityTierExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
             entryLogger.shutdown();
 
             cleanupExecutor.shutdown();
             cleanupExecutor.awaitTermination(1, TimeUnit.SECONDS);
 
+            if (asyncReadExecutor != null) {
+                asyncReadExecutor.shutdown();
+                asyncReadExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+            if (readAheadExecutor != null) {
+                readAheadExecutor.shutdown();
+                readAheadExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+
             ledgerIndex.close();
             entryLocationIndex.close();
 
@@ -280,16 +444,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     @Override
     public boolean ledgerExists(long ledgerId) throws IOException {
-        try {
-            LedgerData ledgerData = ledgerIndex.get(ledgerId);
-            if (log.isDebugEnabled()) {
-                log.debug("Ledger exists. ledger: {} : {}", ledgerId, ledgerData.getExists());
-            }
-            return ledgerData.getExists();
-        } catch (Bookie.NoLedgerException nle) {
-            // ledger does not exist
-            return false;
+        boolean exists = ledgerIndex.exists(ledgerId);
+        if (log.isDebugEnabled()) {
+            log.debug("Ledger exists. ledger: {} : {}", ledgerId, exists);
         }
+        return exists;
     }
 
     @Override
@@ -341,7 +500,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             log.debug("isFenced. ledger: {}", ledgerId);
         }
 
-        boolean isFenced = ledgerIndex.get(ledgerId).getFenced();
+        boolean isFenced = ledgerIndex.isFenced(ledgerId);
 
         // Only a negative result while in limbo equates to unknown
         if (!isFenced) {
@@ -380,7 +539,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         if (log.isDebugEnabled()) {
             log.debug("Read master key. ledger: {}", ledgerId);
         }
-        return ledgerIndex.get(ledgerId).getMasterKey().toByteArray();
+        return ledgerIndex.getMasterKey(ledgerId);
     }
 
     @Override
@@ -395,6 +554,14 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             log.debug("Add entry. {}@{}, lac = {}", ledgerId, entryId, lac);
         }
 
+        if (writeCacheBackpressure != null && writeCacheBackpressure.shouldReject(writeCache.size(),
+                writeCacheBeingFlushed.size(), isFlushOngoing.get())) {
+            // Let the client send the entry to another bookie, or retry later, rather than waiting for the flush
+            dbLedgerStorageStats.getBackpressureRejectedWriteRequests().inc();
+            recordFailedEvent(dbLedgerStorageStats.getAddEntryStats(), startTime);
+            throw new OperationRejectedException();
+        }
+
         // First we try to do an optimistic locking to get access to the current write cache.
         // This is based on the fact that the write cache is only being rotated (swapped) every 1 minute. During the
         // rest of the time, we can have multiple thread using the optimistic lock here without interfering.
@@ -489,6 +656,49 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    @Override
+    public CompletableFuture<ByteBuf> getEntryAsync(long ledgerId, long entryId) {
+        long startTime = MathUtils.nowInNano();
+        CompletableFuture<ByteBuf> result = new CompletableFuture<>();
+        try {
+            ByteBuf entry;
+            if (asyncReadExecutor == null || entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+                entry = doGetEntry(ledgerId, entryId);
+            } else {
+                entry = getEntryFromCaches(ledgerId, entryId);
+            }
+
+            if (entry != null) {
+                recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+                result.complete(entry);
+                return result;
+            }
+        } catch (IOException | BookieException e) {
+            recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        // Cache miss, let the read threads of this directory go to disk, so that the caller
+        // can process other requests in the meantime
+        try {
+            asyncReadExecutor.execute(() -> {
+                try {
+                    ByteBuf entry = getEntryFromStorage(ledgerId, entryId);
+                    recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+                    result.complete(entry);
+                } catch (Throwable t) {
+                    recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            result.completeExceptionally(new IOException("Db ledger storage is shutting down", e));
+        }
+        return result;
+    }
+
     private ByteBuf doGetEntry(long ledgerId, long entryId) throws IOException, BookieException {
         if (log.isDebugEnabled()) {
             log.debug("Get Entry: {}@{}", ledgerId, entryId);
@@ -498,6 +708,20 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return getLastEntry(ledgerId);
         }
 
+        ByteBuf entry = getEntryFromCaches(ledgerId, entryId);
+        if (entry != null) {
+            return entry;
+        }
+
+        return getEntryFromStorage(ledgerId, entryId);
+    }
+
+    /**
+     * Look up the entry in the write and read caches.
+     *
+     * @return the entry, or null if it's not cached
+     */
+    private ByteBuf getEntryFromCaches(long ledgerId, long entryId) {
         // We need to try to read from both write caches, since recent entries could be found in either of the two. The
         // write caches are already thread safe on their own, here we just need to make sure we get references to both
         // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
@@ -535,12 +759,23 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         entry = readCache.get(ledgerId, entryId);
         if (entry != null) {
             dbLedgerStorageStats.getReadCacheHitCounter().inc();
+            if (readAheadTriggers != null && readAheadTriggers.containsKey(ledgerId, entryId)
+                    && readAheadTriggers.remove(ledgerId, entryId)) {
+                readAheadAsync(ledgerId, entryId);
+            }
             return entry;
         }
 
         dbLedgerStorageStats.getReadCacheMissCounter().inc();
+        return null;
+    }
 
+    /**
+     * Read the entry from the entry logs, and read ahead the following entries.
+     */
+    private ByteBuf getEntryFromStorage(long ledgerId, long entryId) throws IOException, BookieException {
         // Read from main storage
+        ByteBuf entry;
         long entryLocation;
         long locationIndexStartNano = MathUtils.nowInNano();
         try {
@@ -564,27 +799,101 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         readCache.put(ledgerId, entryId, entry);
 
-        // Try to read more entries
-        long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
-        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        int readAheadEntries = readAheadCacheBatchSize;
+        if (readAheadExecutor != null) {
+            ReadAheadWindow window = getOrAddLedgerInfo(ledgerId).getReadAheadWindow(entryId,
+                    readAheadCacheBatchSize, maxReadAheadCacheBatchSize,
+                    evictedTriggerEntryId -> readAheadTriggers.remove(ledgerId, evictedTriggerEntryId));
+            readAheadEntries = window.onCacheMiss(entryId);
+            updateReadAheadTrigger(ledgerId, window);
+            dbLedgerStorageStats.getReadAheadWindowSizeStats().registerSuccessfulValue(readAheadEntries);
+        }
+
+        if (readAheadEntries > 0) {
+            // Try to read more entries
+            long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
+            fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation, readAheadEntries);
+        }
 
         return entry;
     }
 
-    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation) {
+    /**
+     * Read the next batch of entries of a stream in background, when its sequential reader hits the trigger entry
+     * in the middle of the entries already read ahead.
+     */
+    private void readAheadAsync(long ledgerId, long entryId) {
+        TransientLedgerInfo ledgerInfo = transientLedgerInfoCache.get(ledgerId);
+        ReadAheadWindow window = ledgerInfo != null ? ledgerInfo.getReadAheadWindowByTrigger(entryId) : null;
+        if (window == null) {
+            return;
+        }
+
+        long firstEntryId = window.onTriggerHit(entryId);
+        if (firstEntryId < 0) {
+            return;
+        }
+        updateReadAheadTrigger(ledgerId, window);
+
+        int readAheadEntries = window.getSize();
+        dbLedgerStorageStats.getReadAheadAsyncBatches().inc();
+        try {
+            readAheadExecutor.execute(() -> {
+                try {
+                    long firstEntryLocation = entryLocationIndex.getLocation(ledgerId, firstEntryId);
+                    if (firstEntryLocation != 0) {
+                        fillReadAheadCache(ledgerId, firstEntryId, firstEntryLocation, readAheadEntries);
+                    }
+                } catch (Throwable t) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Async read ahead failed for ledger: {}", ledgerId, t);
+                    }
+                } finally {
+                    window.asyncReadAheadCompleted();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Storage is shutting down
+            window.asyncReadAheadCompleted();
+        }
+    }
+
+    private void updateReadAheadTrigger(long ledgerId, ReadAheadWindow window) {
+        long previousTriggerEntryId = window.updateTrigger();
+        if (previousTriggerEntryId >= 0) {
+            readAheadTriggers.remove(ledgerId, previousTriggerEntryId);
+        }
+        long triggerEntryId = window.getTriggerEntryId();
+        if (triggerEntryId >= 0) {
+            readAheadTriggers.put(ledgerId, triggerEntryId, 0, 0);
+        }
+    }
+
+    private void removeReadAheadTriggers(long ledgerId, TransientLedgerInfo ledgerInfo) {
+        if (readAheadTriggers != null) {
+            ledgerInfo.forEachReadAheadTrigger(triggerEntryId -> readAheadTriggers.remove(ledgerId, triggerEntryId));
+        }
+    }
+
+    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation,
+                                    int maxEntries) {
         long readAheadStartNano = MathUtils.nowInNano();
         int count = 0;
         long size = 0;
+        long nextEntryId = firstEntryId;
 
         try {
             long firstEntryLogId = (firstEntryLocation >> 32);
             long currentEntryLogId = firstEntryLogId;
             long currentEntryLocation = firstEntryLocation;
 
-            while (count < readAheadCacheBatchSize
+            // Read-ahead is a sequential scan of the entry log. It stops at the first entry of another ledger or at
+            // the end of the entry log, since reading the next entries at random offsets would cost more than
+            // letting the reader miss on them.
+            while (count < maxEntries
                     && size < maxReadAheadBytesSize
                     && currentEntryLogId == firstEntryLogId) {
-                ByteBuf entry = entryLogger.internalReadEntry(orginalLedgerId, firstEntryId, currentEntryLocation,
+                ByteBuf entry = entryLogger.internalReadEntry(orginalLedgerId, nextEntryId, currentEntryLocation,
                         false /* validateEntry */);
 
                 try {
@@ -600,7 +909,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                     readCache.put(orginalLedgerId, currentEntryId, entry);
 
                     count++;
-                    firstEntryId++;
+                    nextEntryId = currentEntryId + 1;
                     size += entry.readableBytes();
 
                     currentEntryLocation += 4 + entry.readableBytes();
@@ -611,7 +920,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             }
         } catch (Exception e) {
             if (log.isDebugEnabled()) {
-                log.debug("Exception during read ahead for ledger: {}: e", orginalLedgerId, e);
+                log.debug("Exception during read ahead for ledger: {}", orginalLedgerId, e);
             }
         } finally {
             dbLedgerStorageStats.getReadAheadBatchCountStats().registerSuccessfulValue(count);
@@ -714,16 +1023,32 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             // Write all the pending entries into the entry logger and collect the offset
             // position for each entry
 
+            FlushPacer pacer = pacedFlushEnabled ? FlushPacer.create(sizeToFlush, lastWriteCacheFillNanos,
+                    pacedFlushSpreadPercent, pacedFlushMinRate) : null;
+            // Stop pacing once the new write cache is half full, so that the flush completes before it is full
+            long maxPacedWriteCacheSize = writeCacheMaxSize / 4;
+
+            long entriesStartTime = MathUtils.nowInNano();
             Batch batch = entryLocationIndex.newBatch();
+            boolean sealLedgers = entryLocationIndex.isSealedLedgersIndexEnabled();
+            ConcurrentLongHashSet flushedLedgers = sealLedgers ? ConcurrentLongHashSet.newBuilder().build() : null;
             writeCacheBeingFlushed.forEach((ledgerId, entryId, entry) -> {
                 try {
                     long location = entryLogger.addEntry(ledgerId, entry, true);
                     entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
+                    if (flushedLedgers != null) {
+                        flushedLedgers.add(ledgerId);
+                    }
+                    if (pacer != null) {
+                        pacer.onEntryWritten(entry.readableBytes(), writeCache.size() > maxPacedWriteCacheSize);
+                    }
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             });
 
+            recordFlushRate(sizeToFlush, MathUtils.elapsedNanos(entriesStartTime), pacer);
+
             long entryLoggerStart = MathUtils.nowInNano();
             entryLogger.flush();
             recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
@@ -751,6 +1076,12 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
                     entryLocationIndex.removeOffsetFromDeletedLedgers();
                     ledgerIndex.removeDeletedLedgers();
+
+                    if (sealLedgers) {
+                        // Load in memory the locations of the ledgers being read that were not
+                        // written since the last checkpoint
+                        entryLocationIndex.sealLedgers(flushedLedgers);
+                    }
                 } catch (Throwable t) {
                     log.warn("Failed to cleanup db indexes", t);
                 }
@@ -770,6 +1101,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
             recordSuccessfulEvent(dbLedgerStorageStats.getFlushStats(), startTime);
             dbLedgerStorageStats.getFlushSizeStats().registerSuccessfulValue(sizeToFlush);
+            if (writeCacheBackpressure != null) {
+                // The throughput the disks can sustain, not the one the flush was paced at
+                long pacingNanos = pacer != null ? pacer.getWaitNanos() : 0;
+                writeCacheBackpressure.onFlushCompleted(sizeToFlush, MathUtils.elapsedNanos(startTime) - pacingNanos);
+            }
         } catch (IOException e) {
             recordFailedEvent(dbLedgerStorageStats.getFlushStats(), startTime);
             // Leave IOExecption as it is
@@ -787,6 +1123,20 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    private void recordFlushRate(long sizeToFlush, long elapsedNanos, FlushPacer pacer) {
+        if (sizeToFlush <= 0 || elapsedNanos <= 0) {
+            return;
+        }
+
+        double rate = sizeToFlush * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        dbLedgerStorageStats.getFlushRateStats().registerSuccessfulValue((long) rate);
+        if (pacer != null) {
+            double jitter = 100 * Math.abs(rate - pacer.getRate()) / pacer.getRate();
+            dbLedgerStorageStats.getFlushRateJitterStats().registerSuccessfulValue((long) jitter);
+            dbLedgerStorageStats.getFlushPacingTime().add(pacer.getWaitNanos());
+        }
+    }
+
     /**
      * Swap the current write cache with the replacement cache.
      */
@@ -801,6 +1151,14 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
             // since the cache is switched, we can allow flush to be triggered
             hasFlushBeenTriggered.set(false);
+
+            long now = MathUtils.nowInNano();
+            lastWriteCacheFillNanos = now - lastWriteCacheSwapNanos;
+            lastWriteCacheSwapNanos = now;
+
+            if (writeCacheBackpressure != null) {
+                writeCacheBackpressure.onWriteCacheSwapped();
+            }
         } finally {
             try {
                 isFlushOngoing.set(true);
@@ -841,6 +1199,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         TransientLedgerInfo tli = transientLedgerInfoCache.remove(ledgerId);
         if (tli != null) {
+            removeReadAheadTriggers(ledgerId, tli);
             tli.close();
         }
     }
@@ -1010,6 +1369,23 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return Collections.singletonList(gcThread.getGarbageCollectionStatus());
     }
 
+    /**
+     * @return the dump of the internal stats of the ledger and entry location indexes, by index path. The indexes
+     *         whose storage does not expose any stats are left out.
+     */
+    public Map<String, String> getIndexStatsDump() throws IOException {
+        Map<String, String> dump = new TreeMap<>();
+        String ledgersDump = ledgerIndex.getStatsDump();
+        if (ledgersDump != null) {
+            dump.put(baseDir + File.separator + "ledgers", ledgersDump);
+        }
+        String locationsDump = entryLocationIndex.getStatsDump();
+        if (locationsDump != null) {
+            dump.put(baseDir + File.separator + "locations", locationsDump);
+        }
+        return dump;
+    }
+
     /**
      * Interface which process ledger logger.
      */
@@ -1096,7 +1472,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         if (log.isDebugEnabled()) {
             log.debug("hasLimboState. ledger: {}", ledgerId);
         }
-        return ledgerIndex.get(ledgerId).getLimbo();
+        return ledgerIndex.isLimbo(ledgerId);
     }
 
     @Override
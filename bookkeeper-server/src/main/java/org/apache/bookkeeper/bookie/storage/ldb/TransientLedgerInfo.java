@@ -27,7 +27,10 @@ import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
 import org.apache.bookkeeper.bookie.LastAddConfirmedUpdateNotification;
 import org.apache.bookkeeper.common.util.Watchable;
@@ -57,6 +60,13 @@ class TransientLedgerInfo extends Watchable<LastAddConfirmedUpdateNotification>
 
     private long lastAccessed;
 
+    // max number of sequential read streams tracked for the ledger
+    static final int MAX_READ_AHEAD_STREAMS = 8;
+
+    // sequential read streams of the ledger, most recently used first, only tracked when the adaptive read-ahead
+    // is enabled
+    private final LinkedList<ReadAheadWindow> readAheadWindows = new LinkedList<>();
+
     /**
      * Construct an Watchable with zero watchers.
      */
@@ -139,6 +149,61 @@ class TransientLedgerInfo extends Watchable<LastAddConfirmedUpdateNotification>
         setLastAddConfirmed(explicitLacValue);
     }
 
+    /**
+     * Get the read stream continued by a cache miss on the entry, or start a new one.
+     *
+     * @param evictedTriggerAction applied to the trigger entry of the least recently used stream, when it is
+     *                             replaced by the new one
+     */
+    synchronized ReadAheadWindow getReadAheadWindow(long entryId, int minSize, int maxSize,
+                                                    LongConsumer evictedTriggerAction) {
+        lastAccessed = System.currentTimeMillis();
+        for (Iterator<ReadAheadWindow> iterator = readAheadWindows.iterator(); iterator.hasNext();) {
+            ReadAheadWindow window = iterator.next();
+            if (window.isContinuedBy(entryId)) {
+                iterator.remove();
+                readAheadWindows.addFirst(window);
+                return window;
+            }
+        }
+
+        // The first read of the ledger is assumed to be the beginning of a sequential scan, while the
+        // following new streams have to be read sequentially once before reading ahead
+        ReadAheadWindow window = new ReadAheadWindow(minSize, maxSize, readAheadWindows.isEmpty() ? minSize : 0);
+        if (readAheadWindows.size() >= MAX_READ_AHEAD_STREAMS) {
+            long evictedTriggerEntryId = readAheadWindows.removeLast().getTriggerEntryId();
+            if (evictedTriggerEntryId >= 0) {
+                evictedTriggerAction.accept(evictedTriggerEntryId);
+            }
+        }
+        readAheadWindows.addFirst(window);
+        return window;
+    }
+
+    /**
+     * @return the read stream whose trigger is the entry, or null if there is none
+     */
+    synchronized ReadAheadWindow getReadAheadWindowByTrigger(long entryId) {
+        for (ReadAheadWindow window : readAheadWindows) {
+            if (window.getTriggerEntryId() == entryId) {
+                return window;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Apply the action to the trigger entries of the read streams of the ledger.
+     */
+    synchronized void forEachReadAheadTrigger(LongConsumer action) {
+        for (ReadAheadWindow window : readAheadWindows) {
+            long triggerEntryId = window.getTriggerEntryId();
+            if (triggerEntryId >= 0) {
+                action.accept(triggerEntryId);
+            }
+        }
+    }
+
     boolean isStale() {
         return (lastAccessed + TimeUnit.MINUTES.toMillis(LEDGER_INFO_CACHING_TIME_MINUTES)) < System
                 .currentTimeMillis();
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.util.MathUtils;
+
+/**
+ * Reject part of the writes before the write cache is full, when it fills faster than it can be flushed.
+ *
+ * <p>Without it, the writes are only throttled once the write cache is full and the previous one is still being
+ * flushed, which blocks the threads adding entries, and so the writes of all the ledgers, for up to
+ * {@code dbStorage_maxThrottleTimeMs}. Instead, once the write cache is filled above a threshold while a flush is
+ * ongoing, the time left before it is full, at the rate it was filled since it was swapped, is compared to the
+ * time left to complete the flush, at the throughput of the last flushes. When the cache would be full first, the
+ * writes are rejected with a probability growing with the ratio of these times, so that the clients move the
+ * excess of writes to other bookies, or slow down, while the remaining writes keep a low latency.
+ */
+class WriteCacheBackpressure {
+
+    // Weight of the last flush in the flush throughput
+    private static final double FLUSH_THROUGHPUT_ALPHA = 0.3;
+
+    // Flushes too small to give a meaningful throughput
+    private static final long MIN_FLUSH_SIZE = 1024 * 1024;
+
+    private final long writeCacheSize;
+    private final long startSize;
+
+    private volatile long swapTimeNanos = MathUtils.nowInNano();
+
+    // Bytes per second, 0 until the first flush
+    private volatile double flushThroughput = 0;
+    private volatile double fillRate = 0;
+    private volatile double rejectProbability = 0;
+
+    /**
+     * @param writeCacheSize size of each of the two write caches
+     * @param startPercent fill of the write cache, in percent, below which no write is rejected
+     */
+    WriteCacheBackpressure(long writeCacheSize, int startPercent) {
+        this.writeCacheSize = writeCacheSize;
+        this.startSize = writeCacheSize * Math.max(0, Math.min(startPercent, 100)) / 100;
+    }
+
+    /**
+     * Record that the write cache was swapped, and that the flush of the previous one started.
+     */
+    void onWriteCacheSwapped() {
+        swapTimeNanos = MathUtils.nowInNano();
+    }
+
+    /**
+     * Record the completion of a flush.
+     */
+    void onFlushCompleted(long size, long elapsedNanos) {
+        if (size < MIN_FLUSH_SIZE || elapsedNanos <= 0) {
+            return;
+        }
+
+        double throughput = size * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        double previous = flushThroughput;
+        flushThroughput = previous == 0 ? throughput
+                : FLUSH_THROUGHPUT_ALPHA * throughput + (1 - FLUSH_THROUGHPUT_ALPHA) * previous;
+    }
+
+    /**
+     * @param cacheSize current size of the write cache
+     * @param flushingSize size of the write cache being flushed
+     * @param flushOngoing whether the write cache being flushed is not flushed yet
+     * @return whether the next write should be rejected
+     */
+    boolean shouldReject(long cacheSize, long flushingSize, boolean flushOngoing) {
+        double probability = computeRejectProbability(cacheSize, flushingSize, flushOngoing,
+                MathUtils.elapsedNanos(swapTimeNanos));
+        if (probability != rejectProbability) {
+            rejectProbability = probability;
+        }
+        return probability > 0 && ThreadLocalRandom.current().nextDouble() < probability;
+    }
+
+    /**
+     * @param elapsedNanos time elapsed since the write cache was swapped
+     * @return the probability of rejecting the next write
+     */
+    double computeRejectProbability(long cacheSize, long flushingSize, boolean flushOngoing, long elapsedNanos) {
+        if (cacheSize < startSize || !flushOngoing) {
+            // When no flush is ongoing, the write cache can be swapped right away once full
+            return 0;
+        }
+
+        double throughput = flushThroughput;
+        if (throughput == 0 || elapsedNanos <= 0) {
+            return 0;
+        }
+
+        double elapsedSeconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        double rate = cacheSize / elapsedSeconds;
+        fillRate = rate;
+
+        double timeToFull = Math.max(writeCacheSize - cacheSize, 0) / rate;
+        double timeToFlush = Math.max(flushingSize / throughput - elapsedSeconds, 0);
+        if (timeToFull >= timeToFlush) {
+            return 0;
+        }
+        return 1 - timeToFull / timeToFlush;
+    }
+
+    /**
+     * @return the throughput of the last flushes, in bytes per second
+     */
+    long getFlushThroughput() {
+        return (long) flushThroughput;
+    }
+
+    /**
+     * @return the rate at which the write cache was filled since it was swapped, as last computed
+     */
+    long getFillRate() {
+        return (long) fillRate;
+    }
+
+    /**
+     * @return the last probability of rejecting a write, in percent
+     */
+    double getRejectPercent() {
+        return 100 * rejectProbability;
+    }
+}
@@ -37,6 +37,8 @@ class ClientInternalConf {
 
     final int explicitLacInterval;
     final long waitForWriteSetMs;
+    final long tooManyRequestsBackoffMs;
+    final int tooManyRequestsMaxRetries;
     final long addEntryQuorumTimeoutNanos;
     final boolean enableParallelRecoveryRead;
     final boolean enableReorderReadSequence;
@@ -70,6 +72,8 @@ class ClientInternalConf {
         this.enableParallelRecoveryRead = conf.getEnableParallelRecoveryRead();
         this.recoveryReadBatchSize = conf.getRecoveryReadBatchSize();
         this.waitForWriteSetMs = conf.getWaitTimeoutOnBackpressureMillis();
+        this.tooManyRequestsBackoffMs = conf.getTooManyRequestsBackoffMillis();
+        this.tooManyRequestsMaxRetries = conf.getTooManyRequestsMaxRetries();
         this.addEntryQuorumTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getAddEntryQuorumTimeout());
         this.throttleValue = conf.getThrottleValue();
         this.bookieFailureHistoryExpirationMSec = conf.getBookieFailureHistoryExpirationMSec();
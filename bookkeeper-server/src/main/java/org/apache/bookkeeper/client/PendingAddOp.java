@@ -38,6 +38,7 @@ import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallbackWithLatency;
 import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.apache.bookkeeper.util.ByteBufList;
@@ -58,6 +59,9 @@ import org.slf4j.LoggerFactory;
 class PendingAddOp extends SafeRunnable implements WriteCallback {
     private static final Logger LOG = LoggerFactory.getLogger(PendingAddOp.class);
 
+    // Backoff of the first retry of an add rejected by a bookie, when the configured one is lower
+    static final long MIN_TOO_MANY_REQUESTS_BACKOFF_MS = 10;
+
     ByteBuf payload;
     ByteBufList toSend;
     AddCallbackWithLatency cb;
@@ -82,6 +86,7 @@ class PendingAddOp extends SafeRunnable implements WriteCallback {
     boolean hasRun;
     EnumSet<WriteFlag> writeFlags;
     boolean allowFailFast = false;
+    int tooManyRequestsRetries;
     List<BookieId> ensemble;
 
     static PendingAddOp create(LedgerHandle lh, ClientContext clientCtx,
@@ -107,6 +112,7 @@ class PendingAddOp extends SafeRunnable implements WriteCallback {
         op.hasRun = false;
         op.requestTimeNanos = Long.MAX_VALUE;
         op.allowFailFast = false;
+        op.tooManyRequestsRetries = 0;
         op.qwcLatency = 0;
         op.writeFlags = writeFlags;
 
@@ -302,6 +308,16 @@ class PendingAddOp extends SafeRunnable implements WriteCallback {
             addEntrySuccessBookies.add(ensemble.get(bookieIndex));
         }
 
+        if (rc == BKException.Code.TooManyRequestsException && !callbackTriggered
+                && tooManyRequestsRetries < clientCtx.getConf().tooManyRequestsMaxRetries) {
+            // The bookie rejected the add because of its load: it is only busy, so the add is sent to it again
+            // instead of replacing it in the ensemble, until the retries are exhausted. An add failing fast because
+            // the channel to the bookie was not writable doesn't get this code and is handled as a bookie failure
+            // below, to be written to another bookie.
+            retryWriteRequestAfterBackoff(bookieIndex, addr);
+            return;
+        }
+
         if (completed) {
             if (rc != BKException.Code.OK) {
                 // Got an error after satisfying AQ. This means we are under replicated at the create itself.
@@ -411,6 +427,55 @@ class PendingAddOp extends SafeRunnable implements WriteCallback {
         }
     }
 
+    /**
+     * Send a write request again to the same bookie, once it backed off after rejecting it.
+     */
+    private void retryWriteRequestAfterBackoff(int bookieIndex, BookieId addr) {
+        // Doubled with each retry, so that the adds don't keep coming back to the bookie while it is overloaded
+        final long backoffMs = Math.max(clientCtx.getConf().tooManyRequestsBackoffMs, MIN_TOO_MANY_REQUESTS_BACKOFF_MS)
+                << tooManyRequestsRetries;
+        ++tooManyRequestsRetries;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Bookie {} rejected entry ({}, {}), retrying in {} ms", addr, lh.ledgerId, entryId, backoffMs);
+        }
+
+        // Counted as pending until sent again, so that the op is not recycled in the meantime
+        ++pendingWriteRequests;
+        final long ledgerId = lh.ledgerId;
+        final OrderedExecutor mainWorkerPool = clientCtx.getMainWorkerPool();
+        SafeRunnable retry = new SafeRunnable() {
+            @Override
+            public void safeRun() {
+                --pendingWriteRequests;
+                if (callbackTriggered || !ensemble.get(bookieIndex).equals(addr)) {
+                    // Completed or failed in the meantime, or the bookie was replaced and sent the entry already
+                    maybeRecycle();
+                    return;
+                }
+                sendWriteRequest(ensemble, bookieIndex);
+            }
+
+            @Override
+            public String toString() {
+                return String.format("RetryAddEntry(lid=%d, eid=%d, bookie=%s)", ledgerId, entryId, addr);
+            }
+        };
+
+        try {
+            clientCtx.getScheduler().schedule(() -> {
+                try {
+                    mainWorkerPool.executeOrdered(ledgerId, retry);
+                } catch (RejectedExecutionException e) {
+                    LOG.warn("Retry of entry ({}, {}) on bookie {} failed: client closed", ledgerId, entryId, addr);
+                }
+            }, backoffMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            --pendingWriteRequests;
+            LOG.warn("Retry of entry ({}, {}) on bookie {} failed: client closed", ledgerId, entryId, addr);
+            lh.errorOutPendingAdds(BKException.Code.ClientClosedException);
+        }
+    }
+
     void sendAddSuccessCallbacks() {
         lh.sendAddSuccessCallbacks();
     }
@@ -519,6 +584,7 @@ class PendingAddOp extends SafeRunnable implements WriteCallback {
         callbackTriggered = false;
         hasRun = false;
         allowFailFast = false;
+        tooManyRequestsRetries = 0;
         writeFlags = null;
         addEntrySuccessBookies.clear();
         writeDelayedStartTime = -1;
@@ -134,6 +134,8 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String TIMEOUT_TIMER_NUM_TICKS = "timeoutTimerNumTicks";
     // backpressure configuration
     protected static final String WAIT_TIMEOUT_ON_BACKPRESSURE = "waitTimeoutOnBackpressureMs";
+    protected static final String TOO_MANY_REQUESTS_BACKOFF_MS = "tooManyRequestsBackoffMs";
+    protected static final String TOO_MANY_REQUESTS_MAX_RETRIES = "tooManyRequestsMaxRetries";
 
     // Bookie health check settings
     protected static final String BOOKIE_HEALTH_CHECK_ENABLED = "bookieHealthCheckEnabled";
@@ -859,6 +861,54 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Time during which a bookie is considered as not writable after it rejected an add with too many requests,
+     * for instance because its write cache fills faster than it is flushed.
+     *
+     * <p>While not writable, the adds wait for the bookie as configured by
+     * {@link #setWaitTimeoutOnBackpressureMillis(long)}. The rejected adds are sent again to the same bookie,
+     * without changing the ensemble, after a backoff starting at this time, or 10 ms when lower, and doubling
+     * with each retry of the add.
+     *
+     * @return backoff time, 0 to keep sending the adds to the bookie. Default is 0.
+     */
+    public long getTooManyRequestsBackoffMillis() {
+        return getLong(TOO_MANY_REQUESTS_BACKOFF_MS, 0);
+    }
+
+    /**
+     * Set the time during which a bookie is considered as not writable after it rejected an add with too many
+     * requests.
+     *
+     * @param value backoff time, 0 to keep sending the adds to the bookie
+     * @return client configuration.
+     */
+    public ClientConfiguration setTooManyRequestsBackoffMillis(long value) {
+        setProperty(TOO_MANY_REQUESTS_BACKOFF_MS, value);
+        return this;
+    }
+
+    /**
+     * Number of times an add rejected by a bookie with too many requests is sent again to it. Once they are
+     * exhausted, the bookie is replaced in the ensemble as for any other failure.
+     *
+     * @return max number of retries of a rejected add. Default is 3.
+     */
+    public int getTooManyRequestsMaxRetries() {
+        return getInt(TOO_MANY_REQUESTS_MAX_RETRIES, 3);
+    }
+
+    /**
+     * Set the number of times an add rejected by a bookie with too many requests is sent again to it.
+     *
+     * @param value max number of retries, 0 to replace the bookie right away
+     * @return client configuration.
+     */
+    public ClientConfiguration setTooManyRequestsMaxRetries(int value) {
+        setProperty(TOO_MANY_REQUESTS_MAX_RETRIES, value);
+        return this;
+    }
+
     /**
      * Get the number of worker threads. This is the number of
      * worker threads used by bookkeeper client to submit operations.
@@ -107,6 +107,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String COMPACTION_RATE = "compactionRate";
     protected static final String COMPACTION_RATE_BY_ENTRIES = "compactionRateByEntries";
     protected static final String COMPACTION_RATE_BY_BYTES = "compactionRateByBytes";
+    protected static final String COMPACTION_THREADS = "compactionThreads";
 
     // Gc Parameters
     protected static final String GC_WAIT_TIME = "gcWaitTime";
@@ -116,8 +117,11 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
             "gcOverreplicatedLedgerMaxConcurrentRequests";
     protected static final String USE_TRANSACTIONAL_COMPACTION = "useTransactionalCompaction";
     protected static final String VERIFY_METADATA_ON_GC = "verifyMetadataOnGC";
+    protected static final String GC_LEDGER_DELETION_NOTIFICATIONS_ENABLED = "gcLedgerDeletionNotificationsEnabled";
+    protected static final String GC_FULL_SCAN_INTERVAL = "gcFullScanInterval";
     protected static final String GC_ENTRYLOGMETADATA_CACHE_ENABLED = "gcEntryLogMetadataCacheEnabled";
     protected static final String GC_ENTRYLOG_METADATA_CACHE_PATH = "gcEntryLogMetadataCachePath";
+    protected static final String GC_ENTRYLOG_METADATA_EXTRACTION_THREADS = "gcEntryLogMetadataExtractionThreads";
     // Scrub Parameters
     protected static final String LOCAL_SCRUB_PERIOD = "localScrubInterval";
     protected static final String LOCAL_SCRUB_RATE_LIMIT = "localScrubRateLimit";
@@ -150,6 +154,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String NUM_JOURNAL_CALLBACK_THREADS = "numJournalCallbackThreads";
     protected static final String JOURNAL_FORMAT_VERSION_TO_WRITE = "journalFormatVersionToWrite";
     protected static final String JOURNAL_QUEUE_SIZE = "journalQueueSize";
+    protected static final String JOURNAL_REPLAY_THREADS = "journalReplayThreads";
     protected static final String JOURNAL_MAX_MEMORY_SIZE_MB = "journalMaxMemorySizeMb";
     protected static final String JOURNAL_PAGECACHE_FLUSH_INTERVAL_MSEC = "journalPageCacheFlushIntervalMSec";
     protected static final String JOURNAL_CHANNEL_PROVIDER = "journalChannelProvider";
@@ -231,6 +236,11 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
 
     protected static final String READ_BUFFER_SIZE = "readBufferSizeBytes";
     protected static final String WRITE_BUFFER_SIZE = "writeBufferSizeBytes";
+    protected static final String ENTRY_LOG_MMAP_READS_ENABLED = "entryLogMmapReadsEnabled";
+    protected static final String ENTRY_LOG_MMAP_MAX_SIZE_MB = "entryLogMmapMaxSizeMb";
+    protected static final String ENTRY_LOG_MMAP_IDLE_TIMEOUT_SECONDS = "entryLogMmapIdleTimeoutSeconds";
+    protected static final String ENTRY_LOG_COMPRESSION_ENABLED = "entryLogCompressionEnabled";
+    protected static final String ENTRY_LOG_COMPRESSION_BLOCK_CACHE_SIZE_MB = "entryLogCompressionBlockCacheSizeMb";
     // Whether the bookie should use its hostname or ipaddress for the
     // registration.
     protected static final String USE_HOST_NAME_AS_BOOKIE_ID = "useHostNameAsBookieID";
@@ -242,6 +252,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String SKIP_LIST_SIZE_LIMIT = "skipListSizeLimit";
     protected static final String SKIP_LIST_CHUNK_SIZE_ENTRY = "skipListArenaChunkSize";
     protected static final String SKIP_LIST_MAX_ALLOC_ENTRY = "skipListArenaMaxAllocSize";
+    protected static final String SKIP_LIST_ARENA_OFF_HEAP = "skipListArenaOffHeap";
 
     // Statistics Parameters
     protected static final String ENABLE_STATISTICS = "enableStatistics";
@@ -290,6 +301,11 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String ENTRY_LOG_PER_LEDGER_ENABLED = "entryLogPerLedgerEnabled";
     // In the case of multipleentrylogs, multiple threads can be used to flush the memtable parallelly.
     protected static final String NUMBER_OF_MEMTABLE_FLUSH_THREADS = "numOfMemtableFlushThreads";
+    // Size the memtable flush parallelism per snapshot instead of always using all the flush threads.
+    protected static final String MEMTABLE_FLUSH_ADAPTIVE_PARALLELISM_ENABLED =
+        "memtableFlushAdaptiveParallelismEnabled";
+    // The minimum estimated amount of work handed to a memtable flush thread.
+    protected static final String MEMTABLE_FLUSH_MIN_TASK_TIME_MICROS = "memtableFlushMinTaskTimeMicros";
 
 
     /*
@@ -315,6 +331,19 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String ENTRY_LOG_PER_LEDGER_COUNTER_LIMITS_MULT_FACTOR =
             "entryLogPerLedgerCounterLimitsMultFactor";
 
+    /*
+     * in EntryLogManagerForEntryLogPerLedger, these configs specify how the
+     * ledgers are placed into groups of entrylogs by write rate and expected
+     * lifetime.
+     */
+    protected static final String ENTRY_LOG_PER_LEDGER_GROUPING_ENABLED = "entryLogPerLedgerGroupingEnabled";
+    protected static final String ENTRY_LOG_PER_LEDGER_GROUP_OWN_LOG_RATE_KB = "entryLogPerLedgerGroupOwnLogRateKb";
+    protected static final String ENTRY_LOG_PER_LEDGER_GROUP_LOW_RATE_KB = "entryLogPerLedgerGroupLowRateKb";
+    protected static final String ENTRY_LOG_PER_LEDGER_GROUP_YOUNG_LEDGER_MAX_AGE =
+            "entryLogPerLedgerGroupYoungLedgerMaxAgeSeconds";
+    protected static final String ENTRY_LOG_PER_LEDGER_GROUP_CREATION_WINDOW =
+            "entryLogPerLedgerGroupCreationWindowSeconds";
+
     // Perform local consistency check on bookie startup
     protected static final String LOCAL_CONSISTENCY_CHECK_ON_STARTUP = "localConsistencyCheckOnStartup";
 
@@ -503,6 +532,50 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get whether the garbage collector finds the deleted ledgers from the ledger deletion notifications of the
+     * metadata store, instead of listing all the ledgers of the metadata store on every run.
+     *
+     * @return whether the garbage collection is driven by the ledger deletion notifications
+     */
+    public boolean isGcLedgerDeletionNotificationsEnabled() {
+        return this.getBoolean(GC_LEDGER_DELETION_NOTIFICATIONS_ENABLED, false);
+    }
+
+    /**
+     * Set whether the garbage collector finds the deleted ledgers from the ledger deletion notifications of the
+     * metadata store.
+     *
+     * @param enabled
+     * @return server configuration
+     */
+    public ServerConfiguration setGcLedgerDeletionNotificationsEnabled(boolean enabled) {
+        this.setProperty(GC_LEDGER_DELETION_NOTIFICATIONS_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the interval, in milliseconds, between the full scans of the ledgers of the metadata store when the
+     * garbage collection is driven by the ledger deletion notifications. Default is 1 day.
+     *
+     * @return full scan interval in milliseconds
+     */
+    public long getGcFullScanIntervalMillis() {
+        return this.getLong(GC_FULL_SCAN_INTERVAL, TimeUnit.DAYS.toMillis(1));
+    }
+
+    /**
+     * Set the interval, in milliseconds, between the full scans of the ledgers of the metadata store when the
+     * garbage collection is driven by the ledger deletion notifications.
+     *
+     * @param intervalMillis
+     * @return server configuration
+     */
+    public ServerConfiguration setGcFullScanIntervalMillis(long intervalMillis) {
+        this.setProperty(GC_FULL_SCAN_INTERVAL, Long.toString(intervalMillis));
+        return this;
+    }
+
     /**
      * Get whether the bookie is configured to use persistent
      * entrylogMetadataMap.
@@ -550,6 +623,29 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the number of threads of each ledger directory extracting the metadata of the entry logs. Default is 0.
+     *
+     * <p>When greater than 0, the garbage collector of each ledger directory extracts the metadata of several entry
+     * logs at the same time, within the compaction rate. When 0, it extracts them one at a time.
+     *
+     * @return number of entry log metadata extraction threads
+     */
+    public int getGcEntryLogMetadataExtractionThreads() {
+        return getInt(GC_ENTRYLOG_METADATA_EXTRACTION_THREADS, 0);
+    }
+
+    /**
+     * Set the number of threads of each ledger directory extracting the metadata of the entry logs.
+     *
+     * @param threads number of entry log metadata extraction threads
+     * @return server configuration
+     */
+    public ServerConfiguration setGcEntryLogMetadataExtractionThreads(int threads) {
+        setProperty(GC_ENTRYLOG_METADATA_EXTRACTION_THREADS, threads);
+        return this;
+    }
+
     /**
      * Get whether local scrub is enabled.
      *
@@ -1892,6 +1988,116 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the entries of the entry logs that are no longer written are read through memory mappings of the
+     * files, instead of being copied by a org.apache.bookkeeper.bookie.BufferedReadChannel.
+     * Default is false.
+     *
+     * @return true if the entry logs are read through memory mappings
+     */
+    public boolean isEntryLogMmapReadsEnabled() {
+        return getBoolean(ENTRY_LOG_MMAP_READS_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable reading the entry logs that are no longer written through memory mappings.
+     *
+     * @param enabled
+     *          whether to read the entry logs through memory mappings
+     * @return server configuration
+     */
+    public ServerConfiguration setEntryLogMmapReadsEnabled(boolean enabled) {
+        setProperty(ENTRY_LOG_MMAP_READS_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the max total size, in MB, of the entry logs mapped at the same time. When the limit is reached, the
+     * least recently read entry logs are unmapped. Default is 4096 MB.
+     *
+     * @return max size of the mapped entry logs, in MB
+     */
+    public long getEntryLogMmapMaxSizeMb() {
+        return getLong(ENTRY_LOG_MMAP_MAX_SIZE_MB, 4096);
+    }
+
+    /**
+     * Set the max total size, in MB, of the entry logs mapped at the same time.
+     *
+     * @param maxSizeMb
+     *          max size of the mapped entry logs, in MB
+     * @return server configuration
+     */
+    public ServerConfiguration setEntryLogMmapMaxSizeMb(long maxSizeMb) {
+        setProperty(ENTRY_LOG_MMAP_MAX_SIZE_MB, maxSizeMb);
+        return this;
+    }
+
+    /**
+     * Get the time, in seconds, after which an entry log that is not read anymore is unmapped.
+     * Default is 300 seconds.
+     *
+     * @return idle timeout of the entry log mappings, in seconds
+     */
+    public long getEntryLogMmapIdleTimeoutSeconds() {
+        return getLong(ENTRY_LOG_MMAP_IDLE_TIMEOUT_SECONDS, 300);
+    }
+
+    /**
+     * Set the time, in seconds, after which an entry log that is not read anymore is unmapped.
+     *
+     * @param idleTimeoutSeconds
+     *          idle timeout of the entry log mappings, in seconds
+     * @return server configuration
+     */
+    public ServerConfiguration setEntryLogMmapIdleTimeoutSeconds(long idleTimeoutSeconds) {
+        setProperty(ENTRY_LOG_MMAP_IDLE_TIMEOUT_SECONDS, idleTimeoutSeconds);
+        return this;
+    }
+
+    /**
+     * Whether the new entry logs are written in LZ4 compressed blocks, one per flush of the write buffer.
+     * The entry logs written with compression remain readable after it is disabled. Default is false.
+     *
+     * @return true if the new entry logs are compressed
+     */
+    public boolean isEntryLogCompressionEnabled() {
+        return getBoolean(ENTRY_LOG_COMPRESSION_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable the compression of the new entry logs.
+     *
+     * @param enabled
+     *          whether to compress the new entry logs
+     * @return server configuration
+     */
+    public ServerConfiguration setEntryLogCompressionEnabled(boolean enabled) {
+        setProperty(ENTRY_LOG_COMPRESSION_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the size, in MB, of the cache of decompressed blocks of the compressed entry logs. Default is 128 MB.
+     *
+     * @return size of the decompressed block cache, in MB
+     */
+    public long getEntryLogCompressionBlockCacheSizeMb() {
+        return getLong(ENTRY_LOG_COMPRESSION_BLOCK_CACHE_SIZE_MB, 128);
+    }
+
+    /**
+     * Set the size, in MB, of the cache of decompressed blocks of the compressed entry logs.
+     *
+     * @param sizeMb
+     *          size of the decompressed block cache, in MB
+     * @return server configuration
+     */
+    public ServerConfiguration setEntryLogCompressionBlockCacheSizeMb(long sizeMb) {
+        setProperty(ENTRY_LOG_COMPRESSION_BLOCK_CACHE_SIZE_MB, sizeMb);
+        return this;
+    }
+
     /**
      * Set the number of threads that would handle write requests.
      *
@@ -2128,6 +2334,31 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getInt(NUM_JOURNAL_CALLBACK_THREADS, 1);
     }
 
+    /**
+     * Get the number of threads applying the journal entries to the ledger storage when the bookie replays its
+     * journals on startup. Default is 0.
+     *
+     * <p>When greater than 0, the journals are read on one thread and the entries of each ledger are applied, in
+     * order, by one of these threads. With DbLedgerStorage, using the number of ledger directories lets each thread
+     * apply the entries of one directory. When 0, the entries are applied by the thread reading the journals.
+     *
+     * @return the number of journal replay threads
+     */
+    public int getJournalReplayThreads() {
+        return getInt(JOURNAL_REPLAY_THREADS, 0);
+    }
+
+    /**
+     * Set the number of threads applying the journal entries to the ledger storage when replaying the journals.
+     *
+     * @param numThreads number of journal replay threads
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalReplayThreads(int numThreads) {
+        setProperty(JOURNAL_REPLAY_THREADS, numThreads);
+        return this;
+    }
+
     /**
      * Set sorted-ledger storage enabled or not.
      *
@@ -2217,6 +2448,28 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the chunks of the skiplist arena are allocated in direct memory, from the pooled allocator of the
+     * bookie, instead of on the heap. The entries of the memtable are then flushed and read without being copied
+     * back onto the heap.
+     *
+     * @return whether the skiplist arena is off-heap (Default is false)
+     */
+    public boolean isSkipListArenaOffHeap() {
+        return getBoolean(SKIP_LIST_ARENA_OFF_HEAP, false);
+    }
+
+    /**
+     * Set whether the chunks of the skiplist arena are allocated in direct memory.
+     *
+     * @param offHeap whether the skiplist arena is off-heap
+     * @return server configuration object.
+     */
+    public ServerConfiguration setSkipListArenaOffHeap(boolean offHeap) {
+        setProperty(SKIP_LIST_ARENA_OFF_HEAP, offHeap);
+        return this;
+    }
+
     /**
      * Should the data be fsynced on journal before acknowledgment.
      *
@@ -2878,6 +3131,31 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the number of threads compacting entry logs concurrently. Default is 0.
+     *
+     * <p>When greater than 0, the entry logs of all the ledger directories are compacted on a shared pool of
+     * threads, the most profitable ones first, and the compaction rate is a budget shared by all of them.
+     * When 0, each ledger directory compacts its entry logs one at a time, with its own compaction rate.
+     *
+     * @return number of compaction threads
+     */
+    public int getCompactionThreads() {
+        return getInt(COMPACTION_THREADS, 0);
+    }
+
+    /**
+     * Set the number of threads compacting entry logs concurrently.
+     *
+     * @param threads number of compaction threads, 0 to compact the entry logs one at a time
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionThreads(int threads) {
+        setProperty(COMPACTION_THREADS, threads);
+        return this;
+    }
+
     /**
      * Should we remove pages from page cache after force write.
      *
@@ -3754,6 +4032,41 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /*
+     * In the case of multipleentrylogs, whether the number of threads used to flush a memtable snapshot is sized
+     * from the number of ledgers in the snapshot and the observed per-ledger flush latency. When disabled, every
+     * ledger of the snapshot is handed to the flush threads.
+     */
+    public boolean isMemtableFlushAdaptiveParallelismEnabled() {
+        return this.getBoolean(MEMTABLE_FLUSH_ADAPTIVE_PARALLELISM_ENABLED, false);
+    }
+
+    /*
+     * enables/disables adaptive memtable flush parallelism.
+     *
+     */
+    public ServerConfiguration setMemtableFlushAdaptiveParallelismEnabled(boolean enabled) {
+        this.setProperty(MEMTABLE_FLUSH_ADAPTIVE_PARALLELISM_ENABLED, Boolean.toString(enabled));
+        return this;
+    }
+
+    /*
+     * With adaptive memtable flush parallelism, the minimum estimated flush time, in microseconds, that is worth
+     * handing to another flush thread. Snapshots estimated to flush quicker than this are flushed inline.
+     */
+    public long getMemtableFlushMinTaskTimeMicros() {
+        return this.getLong(MEMTABLE_FLUSH_MIN_TASK_TIME_MICROS, 1000L);
+    }
+
+    /*
+     * Sets the minimum estimated flush time, in microseconds, handed to a memtable flush thread.
+     *
+     */
+    public ServerConfiguration setMemtableFlushMinTaskTimeMicros(long minTaskTimeMicros) {
+        this.setProperty(MEMTABLE_FLUSH_MIN_TASK_TIME_MICROS, Long.toString(minTaskTimeMicros));
+        return this;
+    }
+
     /*
      * in entryLogPerLedger feature, this specifies the time, once this duration
      * has elapsed after the entry's last access, that entry should be
@@ -3810,6 +4123,93 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /*
+     * in EntryLogManagerForEntryLogPerLedger, specifies if the ledgers are
+     * placed into groups of entrylogs by write rate and expected lifetime,
+     * instead of each having its own entrylog.
+     */
+    public boolean isEntryLogPerLedgerGroupingEnabled() {
+        return this.getBoolean(ENTRY_LOG_PER_LEDGER_GROUPING_ENABLED, false);
+    }
+
+    /*
+     * enables/disables the grouping of the ledgers into entrylogs.
+     */
+    public ServerConfiguration setEntryLogPerLedgerGroupingEnabled(boolean entryLogPerLedgerGroupingEnabled) {
+        this.setProperty(ENTRY_LOG_PER_LEDGER_GROUPING_ENABLED, Boolean.toString(entryLogPerLedgerGroupingEnabled));
+        return this;
+    }
+
+    /*
+     * with ledger grouping, the write rate in KB per second above which a
+     * ledger keeps its own entrylog.
+     */
+    public int getEntryLogPerLedgerGroupOwnLogRateKb() {
+        return this.getInt(ENTRY_LOG_PER_LEDGER_GROUP_OWN_LOG_RATE_KB, 1024);
+    }
+
+    /*
+     * sets the write rate in KB per second above which a ledger keeps its own
+     * entrylog.
+     */
+    public ServerConfiguration setEntryLogPerLedgerGroupOwnLogRateKb(int entryLogPerLedgerGroupOwnLogRateKb) {
+        this.setProperty(ENTRY_LOG_PER_LEDGER_GROUP_OWN_LOG_RATE_KB,
+                Integer.toString(entryLogPerLedgerGroupOwnLogRateKb));
+        return this;
+    }
+
+    /*
+     * with ledger grouping, the write rate in KB per second which separates
+     * the groups of the ledgers written at a low rate from the others.
+     */
+    public int getEntryLogPerLedgerGroupLowRateKb() {
+        return this.getInt(ENTRY_LOG_PER_LEDGER_GROUP_LOW_RATE_KB, 64);
+    }
+
+    /*
+     * sets the write rate in KB per second which separates the groups of the
+     * ledgers written at a low rate from the others.
+     */
+    public ServerConfiguration setEntryLogPerLedgerGroupLowRateKb(int entryLogPerLedgerGroupLowRateKb) {
+        this.setProperty(ENTRY_LOG_PER_LEDGER_GROUP_LOW_RATE_KB, Integer.toString(entryLogPerLedgerGroupLowRateKb));
+        return this;
+    }
+
+    /*
+     * with ledger grouping, the time in seconds since its first write during
+     * which a ledger is expected to be short-lived, and shares the entrylog of
+     * the ledgers created in the same creation window.
+     */
+    public int getEntryLogPerLedgerGroupYoungLedgerMaxAge() {
+        return this.getInt(ENTRY_LOG_PER_LEDGER_GROUP_YOUNG_LEDGER_MAX_AGE, 600);
+    }
+
+    /*
+     * sets the time in seconds since its first write during which a ledger is
+     * expected to be short-lived.
+     */
+    public ServerConfiguration setEntryLogPerLedgerGroupYoungLedgerMaxAge(int youngLedgerMaxAgeSeconds) {
+        this.setProperty(ENTRY_LOG_PER_LEDGER_GROUP_YOUNG_LEDGER_MAX_AGE, Integer.toString(youngLedgerMaxAgeSeconds));
+        return this;
+    }
+
+    /*
+     * with ledger grouping, the duration in seconds of the windows grouping
+     * the young ledgers by the time of their first write.
+     */
+    public int getEntryLogPerLedgerGroupCreationWindow() {
+        return this.getInt(ENTRY_LOG_PER_LEDGER_GROUP_CREATION_WINDOW, 60);
+    }
+
+    /*
+     * sets the duration in seconds of the windows grouping the young ledgers
+     * by the time of their first write.
+     */
+    public ServerConfiguration setEntryLogPerLedgerGroupCreationWindow(int creationWindowSeconds) {
+        this.setProperty(ENTRY_LOG_PER_LEDGER_GROUP_CREATION_WINDOW, Integer.toString(creationWindowSeconds));
+        return this;
+    }
+
     /**
      * True if a local consistency check should be performed on startup.
      */
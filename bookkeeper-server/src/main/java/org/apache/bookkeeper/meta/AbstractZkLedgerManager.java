@@ -51,6 +51,7 @@ import org.apache.bookkeeper.util.ZkUtils;
 import org.apache.bookkeeper.versioning.LongVersion;
 import org.apache.bookkeeper.versioning.Version;
 import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.zookeeper.AddWatchMode;
 import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.AsyncCallback.StatCallback;
@@ -61,6 +62,7 @@ import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.WatcherType;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
@@ -85,6 +87,9 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
     // ledger metadata listeners
     protected final ConcurrentMap<Long, Set<LedgerMetadataListener>> listeners =
             new ConcurrentHashMap<Long, Set<LedgerMetadataListener>>();
+    // ledger deletion listeners, notified through a single persistent recursive watch on the ledgers root
+    protected final Set<LedgerDeletionListener> deletionListeners = ConcurrentHashMap.newKeySet();
+    private final Watcher deletionWatcher = this::processDeletionEvent;
     // we use this to prevent long stack chains from building up in callbacks
     protected ScheduledExecutorService scheduler;
 
@@ -425,6 +430,69 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
         }
     }
 
+    @Override
+    public CompletableFuture<Void> registerLedgerDeletionListener(LedgerDeletionListener listener) {
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        deletionListeners.add(listener);
+        // Adding the watch again is a no-op on the same session, and restores it on a new session
+        zk.addWatch(ledgerRootPath, deletionWatcher, AddWatchMode.PERSISTENT_RECURSIVE, (rc, path, ctx) -> {
+            if (Code.OK.intValue() == rc) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Registered ledger deletion listener {}.", listener);
+                }
+                promise.complete(null);
+            } else {
+                promise.completeExceptionally(
+                        new BKException.ZKException(KeeperException.create(Code.get(rc), path)));
+            }
+        }, null);
+        return promise;
+    }
+
+    @Override
+    public void unregisterLedgerDeletionListener(LedgerDeletionListener listener) {
+        if (deletionListeners.remove(listener) && deletionListeners.isEmpty()) {
+            zk.removeWatches(ledgerRootPath, deletionWatcher, WatcherType.Any, false, (rc, path, ctx) -> {
+                if (Code.OK.intValue() != rc && LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to remove the ledger deletion watch on {} : {}", path, Code.get(rc));
+                }
+            }, null);
+        }
+    }
+
+    private void processDeletionEvent(WatchedEvent event) {
+        if (Event.EventType.None == event.getType()) {
+            if (Event.KeeperState.Disconnected == event.getState() || Event.KeeperState.Expired == event.getState()) {
+                deletionListeners.forEach(LedgerDeletionListener::onDeletionsMissed);
+            }
+            return;
+        }
+        String path = event.getPath();
+        if (Event.EventType.NodeDeleted != event.getType() || null == path
+                || path.length() <= ledgerRootPath.length() + 1) {
+            return;
+        }
+
+        // Skip the special znodes, and the parent znodes of the ledgers which are not ledgers themselves
+        String relativePath = path.substring(ledgerRootPath.length() + 1);
+        int slash = relativePath.indexOf('/');
+        if (!isLedgerParentNode(slash < 0 ? relativePath : relativePath.substring(0, slash))) {
+            return;
+        }
+        final long ledgerId;
+        try {
+            ledgerId = getLedgerId(path);
+        } catch (IOException ioe) {
+            return;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Ledger {} deleted, notifying {} listeners.", ledgerId, deletionListeners.size());
+        }
+        for (LedgerDeletionListener l : deletionListeners) {
+            l.onLedgerDeleted(ledgerId);
+        }
+    }
+
     @Override
     public CompletableFuture<Versioned<LedgerMetadata>> readLedgerMetadata(long ledgerId) {
         return readLedgerMetadata(ledgerId, null);
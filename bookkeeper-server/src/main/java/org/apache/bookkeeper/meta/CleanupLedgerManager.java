@@ -107,6 +107,16 @@ public class CleanupLedgerManager implements LedgerManager {
         underlying.unregisterLedgerMetadataListener(ledgerId, listener);
     }
 
+    @Override
+    public CompletableFuture<Void> registerLedgerDeletionListener(LedgerDeletionListener listener) {
+        return underlying.registerLedgerDeletionListener(listener);
+    }
+
+    @Override
+    public void unregisterLedgerDeletionListener(LedgerDeletionListener listener) {
+        underlying.unregisterLedgerDeletionListener(listener);
+    }
+
     private GenericCallback removeCallback(GenericCallback callback) {
         return callbacks.remove(callback);
     }
@@ -25,6 +25,7 @@ import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
 
 import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
 import org.apache.bookkeeper.versioning.Version;
@@ -122,6 +123,28 @@ public interface LedgerManager extends Closeable {
      */
     void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener);
 
+    /**
+     * Register a <i>listener</i> of the deletions of all the ledgers, through a single subscription to the
+     * metadata store.
+     *
+     * @param listener
+     *          ledger deletion listener.
+     * @return a future completed once the deletions are notified to the listener, or failed with
+     *         {@link UnsupportedOperationException} if the metadata store does not support it.
+     */
+    default CompletableFuture<Void> registerLedgerDeletionListener(LedgerDeletionListener listener) {
+        return FutureUtils.exception(new UnsupportedOperationException("Ledger deletion listeners not supported"));
+    }
+
+    /**
+     * Unregister a ledger deletion <i>listener</i>.
+     *
+     * @param listener
+     *          ledger deletion listener.
+     */
+    default void unregisterLedgerDeletionListener(LedgerDeletionListener listener) {
+    }
+
     /**
      * Loop to process all ledgers.
      * <p>
@@ -156,6 +179,26 @@ public interface LedgerManager extends Closeable {
      */
     LedgerRangeIterator getLedgerRanges(long zkOpTimeOutMs);
 
+    /**
+     * Listener of the deletions of all the ledgers.
+     */
+    interface LedgerDeletionListener {
+
+        /**
+         * Called when a ledger is deleted from the metadata store.
+         *
+         * @param ledgerId
+         *          id of the deleted ledger.
+         */
+        void onLedgerDeleted(long ledgerId);
+
+        /**
+         * Called when deletions might not have been notified, for instance while the connection to the metadata
+         * store was lost. The listener has to be registered again to be notified of the next deletions.
+         */
+        void onDeletionsMissed();
+    }
+
     /**
      * Used to represent the Ledgers range returned from the
      * current scan.
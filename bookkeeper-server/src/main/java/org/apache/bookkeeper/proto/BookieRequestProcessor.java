@@ -508,8 +508,6 @@ public class BookieRequestProcessor implements RequestProcessor {
                                                     lpThread, requestTimer);
             threadPool = longPollThreadPool;
         } else {
-            read = new ReadEntryProcessorV3(r, c, this, fenceThread);
-
             // If it's a high priority read (fencing or as part of recovery process), we want to make sure it
             // gets executed as fast as possible, so bypass the normal readThreadPool
             // and execute in highPriorityThreadPool
@@ -520,6 +518,8 @@ public class BookieRequestProcessor implements RequestProcessor {
             } else {
                 threadPool = readThreadPool;
             }
+
+            read = new ReadEntryProcessorV3(r, c, this, fenceThread, threadPool);
         }
 
         if (null == threadPool) {
@@ -653,7 +653,6 @@ public class BookieRequestProcessor implements RequestProcessor {
     private void processReadRequest(final BookieProtocol.ReadRequest r, final Channel c) {
         ExecutorService fenceThreadPool =
                 null == highPriorityThreadPool ? null : highPriorityThreadPool.chooseThread(c);
-        ReadEntryProcessor read = ReadEntryProcessor.create(r, c, this, fenceThreadPool, throttleReadResponses);
 
         // If it's a high priority read (fencing or as part of recovery process), we want to make sure it
         // gets executed as fast as possible, so bypass the normal readThreadPool
@@ -664,6 +663,8 @@ public class BookieRequestProcessor implements RequestProcessor {
         } else {
             threadPool = readThreadPool;
         }
+        ReadEntryProcessor read = ReadEntryProcessor.create(r, c, this, fenceThreadPool, threadPool,
+                throttleReadResponses);
 
         if (null == threadPool) {
             read.run();
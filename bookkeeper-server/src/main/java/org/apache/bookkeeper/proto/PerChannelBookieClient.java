@@ -176,6 +176,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     final OrderedExecutor executor;
     final long addEntryTimeoutNanos;
     final long readEntryTimeoutNanos;
+    final long tooManyRequestsBackoffNanos;
     final int maxFrameSize;
     final long getBookieInfoTimeoutNanos;
     final int startTLSTimeout;
@@ -342,6 +343,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private final ExtensionRegistry extRegistry;
     private final SecurityHandlerFactory shFactory;
     private volatile boolean isWritable = true;
+    // Until when the bookie is not writable after rejecting an add, 0 if it did not
+    private volatile long backoffEndNanos = 0;
     private long lastBookieUnavailableLogTimestamp = 0;
 
     public PerChannelBookieClient(OrderedExecutor executor, EventLoopGroup eventLoopGroup,
@@ -393,6 +396,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         this.state = ConnectionState.DISCONNECTED;
         this.addEntryTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getAddEntryTimeout());
         this.readEntryTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getReadEntryTimeout());
+        this.tooManyRequestsBackoffNanos = TimeUnit.MILLISECONDS.toNanos(conf.getTooManyRequestsBackoffMillis());
         this.getBookieInfoTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getBookieInfoTimeout());
         this.startTLSTimeout = conf.getStartTLSTimeout();
         this.useV2WireProtocol = conf.getUseV2WireProtocol();
@@ -617,7 +621,28 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
      * @return boolean, true is PCBC is writable
      */
     public boolean isWritable() {
-        return isWritable;
+        return isWritable && !isBackingOff();
+    }
+
+    private boolean isBackingOff() {
+        long endNanos = backoffEndNanos;
+        if (endNanos == 0) {
+            return false;
+        }
+        if (MathUtils.nowInNano() - endNanos >= 0) {
+            backoffEndNanos = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop considering the bookie as writable for a while, after it rejected an add because of its load.
+     */
+    private void backOff() {
+        if (tooManyRequestsBackoffNanos > 0) {
+            backoffEndNanos = MathUtils.nowInNano() + tooManyRequestsBackoffNanos;
+        }
     }
 
     public void setWritable(boolean val) {
@@ -1129,11 +1154,14 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             isWritable = isChannelWritable;
         }
 
+        // Only the adds to a busy channel fail fast: a bookie backing off after rejecting adds is still sent the
+        // adds, which are retried on it by the client rather than moved to another bookie. They fail as when the
+        // bookie is not available, too many requests being only the rejections of the bookie itself.
         if (allowFastFail && !isWritable) {
-            LOG.warn("Operation {} failed: TooManyRequestsException",
+            LOG.warn("Operation {} failed: channel not writable",
                     StringUtils.requestToString(request));
 
-            errorOut(key, BKException.Code.TooManyRequestsException);
+            errorOut(key, BKException.Code.BookieHandleNotAvailableException);
             return;
         }
 
@@ -2212,6 +2240,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 logResponse(status, "ledger", ledgerId, "entry", entryId);
             }
 
+            if (status == StatusCode.ETOOMANYREQUESTS) {
+                backOff();
+            }
             int rc = convertStatus(status, BKException.Code.WriteException);
             writeComplete(rc, ledgerId, entryId, bookieId, ctx);
         }
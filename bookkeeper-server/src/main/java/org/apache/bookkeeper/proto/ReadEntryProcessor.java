@@ -23,13 +23,16 @@ import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.common.concurrent.FutureEventListener;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.proto.BookieProtocol.ReadRequest;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.util.MathUtils;
@@ -41,16 +44,19 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
     private static final Logger LOG = LoggerFactory.getLogger(ReadEntryProcessor.class);
 
     private ExecutorService fenceThreadPool;
+    private OrderedExecutor readThreadPool;
     private boolean throttleReadResponses;
 
     public static ReadEntryProcessor create(ReadRequest request,
                                             Channel channel,
                                             BookieRequestProcessor requestProcessor,
                                             ExecutorService fenceThreadPool,
+                                            OrderedExecutor readThreadPool,
                                             boolean throttleReadResponses) {
         ReadEntryProcessor rep = RECYCLER.get();
         rep.init(request, channel, requestProcessor);
         rep.fenceThreadPool = fenceThreadPool;
+        rep.readThreadPool = readThreadPool;
         rep.throttleReadResponses = throttleReadResponses;
         return rep;
     }
@@ -76,36 +82,63 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
                     throw BookieException.create(BookieException.Code.UnauthorizedAccessException);
                 }
             }
+            if (fenceResult == null) {
+                // The bookie completes the read without blocking this thread on disk I/O
+                CompletableFuture<ByteBuf> entryFuture =
+                        requestProcessor.getBookie().readEntryAsync(request.getLedgerId(), request.getEntryId());
+                // A read served from the caches is completed inline, on this thread
+                final boolean completedInline = entryFuture.isDone();
+                entryFuture.whenComplete((entry, cause) -> {
+                    int rc = cause == null ? BookieProtocol.EOK : getErrorCode(cause);
+                    if (completedInline) {
+                        sendResponse(entry, rc, startTimeNanos);
+                    } else {
+                        sendResponseFromStorageThread(entry, rc, startTimeNanos);
+                    }
+                });
+                return;
+            }
             data = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
             if (LOG.isDebugEnabled()) {
                 LOG.debug("##### Read entry ##### {} -- ref-count: {}", data.readableBytes(), data.refCnt());
             }
-            if (fenceResult != null) {
-                handleReadResultForFenceRead(fenceResult, data, startTimeNanos);
-                return;
-            }
-        } catch (Bookie.NoLedgerException e) {
+            handleReadResultForFenceRead(fenceResult, data, startTimeNanos);
+            return;
+        } catch (Throwable t) {
+            errorCode = getErrorCode(t);
+        }
+
+        sendResponse(data, errorCode, startTimeNanos);
+    }
+
+    private int getErrorCode(Throwable t) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+
+        int errorCode;
+        if (t instanceof Bookie.NoLedgerException) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Error reading {}", request, e);
+                LOG.debug("Error reading {}", request, t);
             }
             errorCode = BookieProtocol.ENOLEDGER;
-        } catch (Bookie.NoEntryException e) {
+        } else if (t instanceof Bookie.NoEntryException) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Error reading {}", request, e);
+                LOG.debug("Error reading {}", request, t);
             }
             errorCode = BookieProtocol.ENOENTRY;
-        } catch (IOException e) {
+        } else if (t instanceof IOException) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Error reading {}", request, e);
+                LOG.debug("Error reading {}", request, t);
             }
             errorCode = BookieProtocol.EIO;
-        } catch (BookieException.DataUnknownException e) {
-            LOG.error("Ledger {} is in an unknown state", request.getLedgerId(), e);
+        } else if (t instanceof BookieException.DataUnknownException) {
+            LOG.error("Ledger {} is in an unknown state", request.getLedgerId(), t);
             errorCode = BookieProtocol.EUNKNOWNLEDGERSTATE;
-        } catch (BookieException e) {
-            LOG.error("Unauthorized access to ledger {}", request.getLedgerId(), e);
+        } else if (t instanceof BookieException) {
+            LOG.error("Unauthorized access to ledger {}", request.getLedgerId(), t);
             errorCode = BookieProtocol.EUA;
-        } catch (Throwable t) {
+        } else {
             LOG.error("Unexpected exception reading at {}:{} : {}", request.getLedgerId(), request.getEntryId(),
                       t.getMessage(), t);
             errorCode = BookieProtocol.EBADREQ;
@@ -114,10 +147,33 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Read entry rc = {} for {}", errorCode, request);
         }
-        sendResponse(data, errorCode, startTimeNanos);
+        return errorCode;
+    }
+
+    /**
+     * Send the response of a read completed by a storage read thread. The response is sent from the read thread of
+     * the request, so that waiting for it to be written doesn't hold the storage read threads.
+     */
+    private void sendResponseFromStorageThread(ByteBuf data, int errorCode, long startTimeNanos) {
+        if (null != readThreadPool) {
+            try {
+                readThreadPool.executeOrdered(request.getLedgerId(),
+                        () -> sendResponse(data, errorCode, startTimeNanos));
+                return;
+            } catch (RejectedExecutionException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Read thread queue is full, sending the response of {} without waiting", request);
+                }
+            }
+        }
+        sendResponse(data, errorCode, startTimeNanos, false);
     }
 
     private void sendResponse(ByteBuf data, int errorCode, long startTimeNanos) {
+        sendResponse(data, errorCode, startTimeNanos, throttleReadResponses);
+    }
+
+    private void sendResponse(ByteBuf data, int errorCode, long startTimeNanos, boolean waitForWrite) {
         final RequestStats stats = requestProcessor.getRequestStats();
         final OpStatsLogger logger = stats.getReadEntryStats();
         BookieProtocol.Response response;
@@ -132,7 +188,7 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
             response = ResponseBuilder.buildErrorResponse(errorCode, request);
         }
 
-        if (throttleReadResponses) {
+        if (waitForWrite) {
             sendResponseAndWait(errorCode, response, stats.getReadRequestStats());
         } else {
             sendResponse(errorCode, response, stats.getReadRequestStats());
@@ -24,11 +24,14 @@ import io.netty.channel.Channel;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.common.concurrent.FutureEventListener;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
@@ -45,6 +48,7 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
 
     protected Stopwatch lastPhaseStartTime;
     private final ExecutorService fenceThreadPool;
+    private final OrderedExecutor readThreadPool;
 
     private CompletableFuture<Boolean> fenceResult = null;
 
@@ -60,6 +64,14 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                                 Channel channel,
                                 BookieRequestProcessor requestProcessor,
                                 ExecutorService fenceThreadPool) {
+        this(request, channel, requestProcessor, fenceThreadPool, null);
+    }
+
+    public ReadEntryProcessorV3(Request request,
+                                Channel channel,
+                                BookieRequestProcessor requestProcessor,
+                                ExecutorService fenceThreadPool,
+                                OrderedExecutor readThreadPool) {
         super(request, channel, requestProcessor);
         requestProcessor.onReadRequestStart(channel);
 
@@ -78,6 +90,7 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
         }
 
         this.fenceThreadPool = fenceThreadPool;
+        this.readThreadPool = readThreadPool;
         lastPhaseStartTime = Stopwatch.createStarted();
     }
 
@@ -175,20 +188,29 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
             handleReadResultForFenceRead(entryBody, readResponseBuilder, entryId, startTimeSw);
             return null;
         } else {
-            try {
-                readResponseBuilder.setBody(ByteString.copyFrom(entryBody.nioBuffer()));
-                if (readLACPiggyBack) {
-                    readResponseBuilder.setEntryId(entryId);
-                } else {
-                    long knownLAC = requestProcessor.getBookie().readLastAddConfirmed(ledgerId);
-                    readResponseBuilder.setMaxLAC(knownLAC);
-                }
-                registerSuccessfulEvent(readStats, startTimeSw);
-                readResponseBuilder.setStatus(StatusCode.EOK);
-                return readResponseBuilder.build();
-            } finally {
-                ReferenceCountUtil.release(entryBody);
+            return buildReadResponse(readResponseBuilder, entryBody, entryId, readLACPiggyBack, startTimeSw);
+        }
+    }
+
+    private ReadResponse buildReadResponse(ReadResponse.Builder readResponseBuilder,
+                                           ByteBuf entryBody,
+                                           long entryId,
+                                           boolean readLACPiggyBack,
+                                           Stopwatch startTimeSw)
+        throws IOException, BookieException {
+        try {
+            readResponseBuilder.setBody(ByteString.copyFrom(entryBody.nioBuffer()));
+            if (readLACPiggyBack) {
+                readResponseBuilder.setEntryId(entryId);
+            } else {
+                long knownLAC = requestProcessor.getBookie().readLastAddConfirmed(ledgerId);
+                readResponseBuilder.setMaxLAC(knownLAC);
             }
+            registerSuccessfulEvent(readStats, startTimeSw);
+            readResponseBuilder.setStatus(StatusCode.EOK);
+            return readResponseBuilder.build();
+        } finally {
+            ReferenceCountUtil.release(entryBody);
         }
     }
 
@@ -214,7 +236,19 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                 }
             }
             return readEntry(readResponse, entryId, startTimeSw);
-        } catch (Bookie.NoLedgerException e) {
+        } catch (IOException | BookieException e) {
+            return buildErrorResponse(readResponse, e, startTimeSw);
+        }
+    }
+
+    private ReadResponse buildErrorResponse(ReadResponse.Builder readResponse,
+                                            Throwable t,
+                                            Stopwatch startTimeSw) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+
+        if (t instanceof Bookie.NoLedgerException) {
             if (RequestUtils.isFenceRequest(readRequest)) {
                 LOG.info("No ledger found reading entry {} when fencing ledger {}", entryId, ledgerId);
             } else if (entryId != BookieProtocol.LAST_ADD_CONFIRMED) {
@@ -224,24 +258,27 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                 LOG.debug("No ledger found while reading entry: {} from ledger: {}", entryId, ledgerId);
             }
             return buildResponse(readResponse, StatusCode.ENOLEDGER, startTimeSw);
-        } catch (Bookie.NoEntryException e) {
+        } else if (t instanceof Bookie.NoEntryException) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No entry found while reading entry: {} from ledger: {}", entryId, ledgerId);
             }
             return buildResponse(readResponse, StatusCode.ENOENTRY, startTimeSw);
-        } catch (IOException e) {
-            LOG.error("IOException while reading entry: {} from ledger {} ", entryId, ledgerId, e);
+        } else if (t instanceof IOException) {
+            LOG.error("IOException while reading entry: {} from ledger {} ", entryId, ledgerId, t);
             return buildResponse(readResponse, StatusCode.EIO, startTimeSw);
-        } catch (BookieException.DataUnknownException e) {
+        } else if (t instanceof BookieException.DataUnknownException) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Ledger has unknown state for entry: {} from ledger {}", entryId, ledgerId);
             }
             return buildResponse(readResponse, StatusCode.EUNKNOWNLEDGERSTATE, startTimeSw);
-        } catch (BookieException e) {
+        } else if (t instanceof BookieException) {
             LOG.error(
                 "Unauthorized access to ledger:{} while reading entry:{} in request from address: {}",
                     ledgerId, entryId, channel.remoteAddress());
             return buildResponse(readResponse, StatusCode.EUA, startTimeSw);
+        } else {
+            LOG.error("Unexpected exception while reading entry: {} from ledger {} ", entryId, ledgerId, t);
+            return buildResponse(readResponse, StatusCode.EBADREQ, startTimeSw);
         }
     }
 
@@ -264,10 +301,70 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
     }
 
     protected void executeOp() {
-        ReadResponse readResponse = getReadResponse();
-        if (null != readResponse) {
-            sendResponse(readResponse);
+        if (RequestUtils.isFenceRequest(readRequest)) {
+            // Fencing reads wait for the fence result, they stay on the synchronous path
+            ReadResponse readResponse = getReadResponse();
+            if (null != readResponse) {
+                sendResponse(readResponse);
+            }
+            return;
+        }
+
+        // The bookie completes the read without blocking this thread on disk I/O
+        final Stopwatch startTimeSw = Stopwatch.createStarted();
+        final ReadResponse.Builder readResponse = ReadResponse.newBuilder()
+            .setLedgerId(ledgerId)
+            .setEntryId(entryId);
+        CompletableFuture<ByteBuf> entryFuture = requestProcessor.getBookie().readEntryAsync(ledgerId, entryId);
+        // A read served from the caches is completed inline, on this thread
+        final boolean completedInline = entryFuture.isDone();
+        entryFuture.whenComplete((entryBody, cause) -> {
+            if (completedInline) {
+                sendReadResponse(readResponse, entryBody, cause, startTimeSw);
+            } else {
+                sendReadResponseFromStorageThread(readResponse, entryBody, cause, startTimeSw);
+            }
+        });
+    }
+
+    /**
+     * Send the response of a read completed by a storage read thread. Building the response may read the last add
+     * confirmed from the storage, so it is done from the read thread of the request rather than the storage thread.
+     */
+    private void sendReadResponseFromStorageThread(ReadResponse.Builder readResponse,
+                                                   ByteBuf entryBody,
+                                                   Throwable cause,
+                                                   Stopwatch startTimeSw) {
+        if (null != readThreadPool) {
+            try {
+                readThreadPool.executeOrdered(ledgerId,
+                        () -> sendReadResponse(readResponse, entryBody, cause, startTimeSw));
+                return;
+            } catch (RejectedExecutionException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Read thread queue is full, sending the response of {}@{} from the storage thread",
+                            entryId, ledgerId);
+                }
+            }
+        }
+        sendReadResponse(readResponse, entryBody, cause, startTimeSw);
+    }
+
+    private void sendReadResponse(ReadResponse.Builder readResponse,
+                                  ByteBuf entryBody,
+                                  Throwable cause,
+                                  Stopwatch startTimeSw) {
+        ReadResponse response;
+        if (cause == null) {
+            try {
+                response = buildReadResponse(readResponse, entryBody, entryId, false, startTimeSw);
+            } catch (Throwable t) {
+                response = buildErrorResponse(readResponse, t, startTimeSw);
+            }
+        } else {
+            response = buildErrorResponse(readResponse, cause, startTimeSw);
         }
+        sendResponse(response);
     }
 
     private void getFenceResponse(ReadResponse.Builder readResponse,
@@ -52,6 +52,7 @@ import org.apache.bookkeeper.server.http.service.ExpandStorageService;
 import org.apache.bookkeeper.server.http.service.GCDetailsService;
 import org.apache.bookkeeper.server.http.service.GetLastLogMarkService;
 import org.apache.bookkeeper.server.http.service.GetLedgerMetaService;
+import org.apache.bookkeeper.server.http.service.IndexStatsService;
 import org.apache.bookkeeper.server.http.service.ListBookieInfoService;
 import org.apache.bookkeeper.server.http.service.ListBookiesService;
 import org.apache.bookkeeper.server.http.service.ListDiskFilesService;
@@ -218,6 +219,8 @@ public class BKHttpServiceProvider implements HttpServiceProvider {
                 return new TriggerGCService(configuration, bookieServer);
             case GC_DETAILS:
                 return new GCDetailsService(configuration, bookieServer);
+            case INDEX_STATS:
+                return new IndexStatsService(configuration, bookieServer);
             case BOOKIE_STATE:
                 return new BookieStateService(bookieServer.getBookie());
             case BOOKIE_STATE_READONLY:
@@ -20,6 +20,7 @@ package org.apache.bookkeeper.util;
 
 import com.sun.jna.LastErrorException;
 import com.sun.jna.Native;
+import com.sun.jna.Platform;
 
 import java.io.FileDescriptor;
 import java.lang.reflect.Field;
@@ -35,6 +36,14 @@ public final class NativeIO {
 
     private static final int POSIX_FADV_DONTNEED = 4; /* fadvise.h */
 
+    /* fcntl.h */
+    public static final int O_RDONLY = 00;
+    public static final int O_RDWR = 02;
+    public static final int O_CREAT = 0100;
+    // O_DIRECT is architecture specific, see asm/fcntl.h
+    private static final int O_DIRECT_X86 = 040000;
+    private static final int O_DIRECT_AARCH64 = 0200000;
+
     private static boolean initialized = false;
     private static boolean fadvisePossible = true;
 
@@ -54,8 +63,47 @@ public final class NativeIO {
     // fadvice
     public static native int posix_fadvise(int fd, long offset, long len, int flag) throws LastErrorException;
 
+    // Raw file descriptor operations, used to bypass the page cache with O_DIRECT.
+    // Buffers are passed as raw memory addresses, which is only valid on 64 bits platforms.
+    public static native int open(String pathname, int flags, int mode) throws LastErrorException;
+
+    public static native int close(int fd) throws LastErrorException;
+
+    public static native long pread(int fd, long buf, long count, long offset) throws LastErrorException;
+
+    public static native long pwrite(int fd, long buf, long count, long offset) throws LastErrorException;
+
+    public static native int fsync(int fd) throws LastErrorException;
+
+    public static native int ftruncate(int fd, long length) throws LastErrorException;
+
     private NativeIO() {}
 
+    /**
+     * Check whether files can be opened with O_DIRECT through {@link #open(String, int, int)}.
+     *
+     * @return true if the C library was linked and the platform is linux on x86_64 or aarch64
+     */
+    public static boolean isDirectIOSupported() {
+        return initialized && Platform.isLinux() && getDirectFlag() != 0;
+    }
+
+    /**
+     * Get the value of the O_DIRECT flag for the current architecture.
+     *
+     * @return the O_DIRECT flag, or 0 if unknown for this architecture
+     */
+    public static int getDirectFlag() {
+        String arch = System.getProperty("os.arch");
+        if ("amd64".equals(arch) || "x86_64".equals(arch)) {
+            return O_DIRECT_X86;
+        } else if ("aarch64".equals(arch)) {
+            return O_DIRECT_AARCH64;
+        } else {
+            return 0;
+        }
+    }
+
     private static Field getFieldByReflection(Class cls, String fieldName) {
         Field field = null;
 
@@ -0,0 +1,218 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.bookkeeper.bookie.DirectIOFile.AlignedBuffer;
+import org.apache.bookkeeper.util.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectIOFileTest {
+
+    private final List<File> tempDirs = new ArrayList<>();
+    private DirectIOFileChannelProvider provider;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(DirectIOFileChannelProvider.isSupported());
+        File dir = IOUtils.createTempDir("directio", "test");
+        tempDirs.add(dir);
+        file = new File(dir, "0.log");
+        // Small buffers, so that the tests cross the block and buffer boundaries
+        provider = new DirectIOFileChannelProvider(DirectIOFile.ALIGNMENT, DirectIOFile.ALIGNMENT, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (provider != null) {
+            provider.close();
+        }
+        for (File dir : tempDirs) {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private DirectIOFileChannel open() throws IOException {
+        try {
+            return provider.openChannel(file);
+        } catch (IOException e) {
+            // The file system of the temp dir doesn't support O_DIRECT
+            Assume.assumeNoException(e);
+            throw e;
+        }
+    }
+
+    private static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] read(DirectIOFileChannel channel, long position, int length) throws IOException {
+        ByteBuffer dst = ByteBuffer.allocate(length);
+        while (dst.hasRemaining()) {
+            int rc = channel.read(dst, position + dst.position());
+            Assert.assertTrue("Unexpected end of file at " + (position + dst.position()), rc > 0);
+        }
+        return dst.array();
+    }
+
+    @Test
+    public void testAlignment() {
+        Assert.assertEquals(0, DirectIOFile.alignUp(0));
+        Assert.assertEquals(DirectIOFile.ALIGNMENT, DirectIOFile.alignUp(1));
+        Assert.assertEquals(DirectIOFile.ALIGNMENT, DirectIOFile.alignUp(DirectIOFile.ALIGNMENT));
+        Assert.assertEquals(2 * DirectIOFile.ALIGNMENT, DirectIOFile.alignUp(DirectIOFile.ALIGNMENT + 1));
+        Assert.assertEquals(0, DirectIOFile.alignDown(DirectIOFile.ALIGNMENT - 1));
+        Assert.assertEquals(DirectIOFile.ALIGNMENT, DirectIOFile.alignDown(2 * DirectIOFile.ALIGNMENT - 1));
+
+        AlignedBuffer buffer = AlignedBuffer.allocate(3 * DirectIOFile.ALIGNMENT);
+        try {
+            Assert.assertEquals(0, buffer.address() % DirectIOFile.ALIGNMENT);
+            Assert.assertEquals(3 * DirectIOFile.ALIGNMENT, buffer.capacity());
+        } finally {
+            buffer.free();
+        }
+    }
+
+    @Test
+    public void testReadUnflushedTail() throws Exception {
+        byte[] data = data(10000, 1);
+        DirectIOFileChannel writer = open();
+        DirectIOFileChannel reader = open();
+        try {
+            writer.write(ByteBuffer.wrap(data));
+            Assert.assertEquals(data.length, reader.size());
+            // Reads spanning the blocks on disk and the partial block still in memory
+            Assert.assertArrayEquals(data, read(reader, 0, data.length));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 8000, 10000), read(reader, 8000, 2000));
+            Assert.assertEquals(-1, reader.read(ByteBuffer.allocate(1), data.length));
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testForceDoesNotPadTheFile() throws Exception {
+        byte[] first = data(5000, 2);
+        byte[] second = data(3000, 3);
+        DirectIOFileChannel channel = open();
+        try {
+            channel.write(ByteBuffer.wrap(first));
+            channel.force(false);
+            Assert.assertEquals(first.length, file.length());
+            Assert.assertArrayEquals(first, Files.readAllBytes(file.toPath()));
+
+            channel.write(ByteBuffer.wrap(second));
+            channel.force(false);
+            Assert.assertEquals(first.length + second.length, file.length());
+            byte[] content = Files.readAllBytes(file.toPath());
+            Assert.assertArrayEquals(first, Arrays.copyOfRange(content, 0, first.length));
+            Assert.assertArrayEquals(second, Arrays.copyOfRange(content, first.length, content.length));
+
+            // A force without new data leaves the file untouched
+            channel.force(false);
+            Assert.assertEquals(first.length + second.length, file.length());
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        byte[] first = data(6000, 4);
+        byte[] second = data(3000, 5);
+        DirectIOFileChannel channel = open();
+        channel.write(ByteBuffer.wrap(first));
+        channel.close();
+        Assert.assertEquals(first.length, file.length());
+
+        channel = open();
+        try {
+            Assert.assertEquals(first.length, channel.size());
+            Assert.assertArrayEquals(first, read(channel, 0, first.length));
+
+            // Appending loads the partial block back from the disk
+            channel.position(channel.size());
+            channel.write(ByteBuffer.wrap(second));
+            Assert.assertArrayEquals(first, read(channel, 0, first.length));
+            Assert.assertArrayEquals(second, read(channel, first.length, second.length));
+        } finally {
+            channel.close();
+        }
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        Assert.assertEquals(first.length + second.length, content.length);
+        Assert.assertArrayEquals(second, Arrays.copyOfRange(content, first.length, content.length));
+    }
+
+    @Test
+    public void testOverwriteHeader() throws Exception {
+        byte[] data = data(10000, 6);
+        byte[] header = data(100, 7);
+        DirectIOFileChannel channel = open();
+        try {
+            channel.write(ByteBuffer.wrap(data));
+            channel.write(ByteBuffer.wrap(header), 0);
+            System.arraycopy(header, 0, data, 0, header.length);
+            Assert.assertArrayEquals(data, read(channel, 0, data.length));
+
+            channel.force(false);
+            Assert.assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        byte[] data = data(10000, 8);
+        DirectIOFileChannel channel = open();
+        try {
+            channel.write(ByteBuffer.wrap(data));
+            channel.truncate(5000);
+            Assert.assertEquals(5000, channel.size());
+            Assert.assertEquals(5000, file.length());
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 0, 5000), read(channel, 0, 5000));
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.apache.bookkeeper.bookie.EntryLogCompactionScheduler.CompactionProgress;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EntryLogCompactionSchedulerTest {
+
+    private EntryLogCompactionScheduler scheduler;
+
+    @After
+    public void tearDown() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private EntryLogCompactionScheduler newScheduler(int threads) {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setCompactionThreads(threads);
+        scheduler = new EntryLogCompactionScheduler(conf);
+        return scheduler;
+    }
+
+    private static EntryLogMetadata entryLog(long logId, long totalSize, long remainingSize) {
+        EntryLogMetadata meta = new EntryLogMetadata(logId);
+        if (remainingSize > 0) {
+            meta.addLedgerSize(1, remainingSize);
+        }
+        if (totalSize > remainingSize) {
+            meta.addLedgerSize(2, totalSize - remainingSize);
+            meta.removeLedgerIf(ledgerId -> ledgerId == 2);
+        }
+        return meta;
+    }
+
+    @Test
+    public void testCompactionScore() {
+        Assert.assertEquals(0, EntryLogCompactionScheduler.compactionScore(new EntryLogMetadata(1)), 0);
+        Assert.assertEquals(1, EntryLogCompactionScheduler.compactionScore(entryLog(1, 100, 0)), 0);
+        Assert.assertEquals(0, EntryLogCompactionScheduler.compactionScore(entryLog(1, 100, 100)), 0);
+        Assert.assertEquals(1.0 / 3, EntryLogCompactionScheduler.compactionScore(entryLog(1, 100, 50)), 1e-9);
+    }
+
+    @Test
+    public void testMostProfitableFirst() throws Exception {
+        newScheduler(1);
+        List<EntryLogMetadata> entryLogs = Arrays.asList(
+                entryLog(1, 100, 90), entryLog(2, 100, 10), entryLog(3, 100, 50), entryLog(4, 100, 0));
+        List<Long> compacted = Collections.synchronizedList(new ArrayList<>());
+        CompactionProgress progress = new CompactionProgress();
+
+        scheduler.compact(entryLogs, 1, () -> true, meta -> compacted.add(meta.getEntryLogId()), progress);
+
+        Assert.assertEquals(Arrays.asList(4L, 2L, 3L, 1L), compacted);
+        Assert.assertEquals(4, progress.compactedEntryLogs.get());
+        Assert.assertEquals(100 + 90 + 50 + 10, progress.reclaimedBytes.get());
+        Assert.assertEquals(0, progress.pendingEntryLogs.get());
+        Assert.assertEquals(0, progress.pendingReclaimableBytes.get());
+        Assert.assertEquals(0, progress.compactingEntryLogs.get());
+    }
+
+    @Test
+    public void testMostProfitableFirstAcrossDirectories() throws Exception {
+        newScheduler(1);
+        List<Long> compacted = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blockerStarted = new CountDownLatch(1);
+        CountDownLatch releaseBlocker = new CountDownLatch(1);
+
+        // Keep the only compaction thread busy while the other directories queue their entry logs
+        Thread blocker = new Thread(() -> compactQuietly(Collections.singletonList(entryLog(1, 100, 0)), meta -> {
+            blockerStarted.countDown();
+            awaitQuietly(releaseBlocker);
+            return compacted.add(meta.getEntryLogId());
+        }));
+        blocker.start();
+        Assert.assertTrue(blockerStarted.await(10, TimeUnit.SECONDS));
+
+        CompactionProgress lowProgress = new CompactionProgress();
+        Thread low = new Thread(() -> compactQuietly(Collections.singletonList(entryLog(2, 100, 90)), lowProgress,
+                meta -> compacted.add(meta.getEntryLogId())));
+        low.start();
+        waitForQueued(lowProgress);
+        CompactionProgress highProgress = new CompactionProgress();
+        Thread high = new Thread(() -> compactQuietly(Collections.singletonList(entryLog(3, 100, 10)), highProgress,
+                meta -> compacted.add(meta.getEntryLogId())));
+        high.start();
+        waitForQueued(highProgress);
+
+        releaseBlocker.countDown();
+        blocker.join();
+        low.join();
+        high.join();
+        Assert.assertEquals(Arrays.asList(1L, 3L, 2L), compacted);
+    }
+
+    @Test
+    public void testParallelismLimit() throws Exception {
+        newScheduler(4);
+        List<EntryLogMetadata> entryLogs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            entryLogs.add(entryLog(i, 100, i));
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CompactionProgress progress = new CompactionProgress();
+
+        scheduler.compact(entryLogs, 2, () -> true, meta -> {
+            int current = running.incrementAndGet();
+            maxRunning.accumulateAndGet(current, Math::max);
+            sleepQuietly(20);
+            running.decrementAndGet();
+            return true;
+        }, progress);
+
+        Assert.assertTrue("Max running: " + maxRunning.get(), maxRunning.get() <= 2);
+        Assert.assertEquals(8, progress.compactedEntryLogs.get());
+    }
+
+    @Test
+    public void testFailedCompactions() throws Exception {
+        newScheduler(2);
+        List<EntryLogMetadata> entryLogs = Arrays.asList(
+                entryLog(1, 100, 0), entryLog(2, 100, 10), entryLog(3, 100, 20));
+        CompactionProgress progress = new CompactionProgress();
+
+        scheduler.compact(entryLogs, 2, () -> true, meta -> {
+            if (meta.getEntryLogId() == 2) {
+                throw new RuntimeException("Compaction failure");
+            }
+            return meta.getEntryLogId() == 1;
+        }, progress);
+
+        // Only the successful compactions count as reclaimed
+        Assert.assertEquals(1, progress.compactedEntryLogs.get());
+        Assert.assertEquals(100, progress.reclaimedBytes.get());
+        Assert.assertEquals(0, progress.pendingEntryLogs.get());
+        Assert.assertEquals(0, progress.compactingEntryLogs.get());
+    }
+
+    @Test
+    public void testCancellation() throws Exception {
+        newScheduler(1);
+        List<EntryLogMetadata> entryLogs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entryLogs.add(entryLog(i, 100, i));
+        }
+        AtomicInteger compactions = new AtomicInteger();
+        CompactionProgress progress = new CompactionProgress();
+
+        // Stop after 2 compactions, for instance when the compaction time is over
+        scheduler.compact(entryLogs, 1, () -> compactions.get() < 2, meta -> {
+            compactions.incrementAndGet();
+            return true;
+        }, progress);
+
+        Assert.assertEquals(2, compactions.get());
+        Assert.assertEquals(2, progress.compactedEntryLogs.get());
+        Assert.assertEquals(0, progress.pendingEntryLogs.get());
+        Assert.assertEquals(0, progress.pendingReclaimableBytes.get());
+    }
+
+    @Test
+    public void testCompactAfterShutdown() throws Exception {
+        newScheduler(1).shutdown();
+        AtomicInteger compactions = new AtomicInteger();
+        CompactionProgress progress = new CompactionProgress();
+
+        // The batch is skipped instead of waiting forever
+        scheduler.compact(Arrays.asList(entryLog(1, 100, 0), entryLog(2, 100, 0)), 1, () -> true, meta -> {
+            compactions.incrementAndGet();
+            return true;
+        }, progress);
+        Assert.assertEquals(0, compactions.get());
+        Assert.assertEquals(0, progress.compactedEntryLogs.get());
+        Assert.assertEquals(0, progress.pendingEntryLogs.get());
+    }
+
+    private void compactQuietly(List<EntryLogMetadata> entryLogs, Predicate<EntryLogMetadata> compaction) {
+        compactQuietly(entryLogs, new CompactionProgress(), compaction);
+    }
+
+    private void compactQuietly(List<EntryLogMetadata> entryLogs, CompactionProgress progress,
+                                Predicate<EntryLogMetadata> compaction) {
+        try {
+            scheduler.compact(entryLogs, 1, () -> true, compaction, progress);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitForQueued(CompactionProgress progress) throws InterruptedException {
+        // The entry logs are pending as soon as the batch is created, and queued right after
+        while (progress.pendingEntryLogs.get() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(100);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
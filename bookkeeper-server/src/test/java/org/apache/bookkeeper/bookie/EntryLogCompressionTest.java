@@ -0,0 +1,233 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the entry logs written with compression, see {@link EntryLogCompression}.
+ */
+public class EntryLogCompressionTest {
+
+    private static final int NUM_LEDGERS = 3;
+    private static final int NUM_ENTRIES = 200;
+    private static final int ENTRY_SIZE = 1024;
+
+    private File ledgerDir;
+    private ServerConfiguration conf;
+    private EntryLogger entryLogger;
+
+    @Before
+    public void setUp() throws Exception {
+        ledgerDir = IOUtils.createTempDir("entry-log-compression", "test");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setEntryLogCompressionEnabled(true);
+        entryLogger = new EntryLogger(conf);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (entryLogger != null) {
+            entryLogger.shutdown();
+        }
+        FileUtils.deleteDirectory(ledgerDir);
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        byte[] content = ("ledger-" + ledgerId + "-entry-" + entryId + "-").getBytes(StandardCharsets.UTF_8);
+        while (entry.isWritable()) {
+            entry.writeBytes(content, 0, Math.min(content.length, entry.writableBytes()));
+        }
+        return entry;
+    }
+
+    /**
+     * Add the entries of all the ledgers to the current entry log.
+     *
+     * @return the locations of the entries, indexed by ledger and entry id
+     */
+    private long[][] addEntries() throws Exception {
+        long[][] locations = new long[NUM_LEDGERS][NUM_ENTRIES];
+        for (int entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+            for (int ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+                locations[ledgerId][entryId] = entryLogger.addEntry(ledgerId, entry(ledgerId, entryId));
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Roll the current entry log, which appends its ledgers map, and flush it.
+     */
+    private void rollLog() throws Exception {
+        ((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(EntryLogger.UNASSIGNED_LEDGERID);
+        entryLogger.flush();
+    }
+
+    private void assertEntry(long ledgerId, long entryId, long location) throws Exception {
+        ByteBuf expected = entry(ledgerId, entryId);
+        ByteBuf entry = entryLogger.readEntry(ledgerId, entryId, location);
+        try {
+            Assert.assertEquals("Entry " + ledgerId + "@" + entryId, expected, entry);
+        } finally {
+            entry.release();
+            expected.release();
+        }
+    }
+
+    private void assertEntries(long[][] locations) throws Exception {
+        for (int ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            for (int entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+                assertEntry(ledgerId, entryId, locations[ledgerId][entryId]);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        long[][] locations = addEntries();
+        long logId = EntryLogger.logIdForOffset(locations[0][0]);
+
+        // Read from the log being written, before and after its blocks are flushed
+        assertEntries(locations);
+        entryLogger.flush();
+        assertEntries(locations);
+
+        rollLog();
+        assertEntries(locations);
+        File logFile = new File(BookieImpl.getCurrentDirectory(ledgerDir), Long.toHexString(logId) + ".log");
+        Assert.assertTrue(logFile.length() < (long) NUM_LEDGERS * NUM_ENTRIES * ENTRY_SIZE / 2);
+
+        // Read from the file by a new entry logger
+        entryLogger.shutdown();
+        entryLogger = new EntryLogger(conf);
+        assertEntries(locations);
+
+        // The logs written with compression remain readable once it is disabled
+        entryLogger.shutdown();
+        conf.setEntryLogCompressionEnabled(false);
+        entryLogger = new EntryLogger(conf);
+        assertEntries(locations);
+    }
+
+    @Test
+    public void testLedgersMap() throws Exception {
+        long[][] locations = addEntries();
+        long logId = EntryLogger.logIdForOffset(locations[0][0]);
+        rollLog();
+
+        EntryLogMetadata meta = entryLogger.extractEntryLogMetadataFromIndex(logId);
+        Assert.assertEquals(logId, meta.getEntryLogId());
+        Assert.assertEquals(NUM_LEDGERS, meta.getLedgersMap().size());
+        for (int ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            Assert.assertTrue(meta.containsLedger(ledgerId));
+            Assert.assertEquals((long) NUM_ENTRIES * (ENTRY_SIZE + 4), meta.getLedgersMap().get(ledgerId));
+        }
+        Assert.assertEquals((long) NUM_LEDGERS * NUM_ENTRIES * (ENTRY_SIZE + 4), meta.getTotalSize());
+
+        // Same sizes when scanning the entries of the log
+        EntryLogMetadata scanned = new EntryLogMetadata(logId);
+        entryLogger.scanEntryLog(logId, new EntryLogger.EntryLogScanner() {
+            @Override
+            public boolean accept(long ledgerId) {
+                return true;
+            }
+
+            @Override
+            public void process(long ledgerId, long offset, ByteBuf entry) {
+                scanned.addLedgerSize(ledgerId, entry.readableBytes() + 4);
+            }
+        });
+        Assert.assertEquals(meta.getTotalSize(), scanned.getTotalSize());
+        for (int ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            Assert.assertEquals(meta.getLedgersMap().get(ledgerId), scanned.getLedgersMap().get(ledgerId));
+        }
+
+        // Also read from the file by a new entry logger
+        entryLogger.shutdown();
+        entryLogger = new EntryLogger(conf);
+        Assert.assertEquals(meta.getTotalSize(), entryLogger.getEntryLogMetadata(logId).getTotalSize());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        long[][] locations = addEntries();
+        long logId = EntryLogger.logIdForOffset(locations[0][0]);
+        rollLog();
+
+        List<EntryLocation> newLocations = new ArrayList<>();
+        CompactableLedgerStorage ledgerStorage = mock(CompactableLedgerStorage.class);
+        doAnswer(invocation -> {
+            Iterable<EntryLocation> updated = invocation.getArgument(0);
+            updated.forEach(newLocations::add);
+            return null;
+        }).when(ledgerStorage).updateEntriesLocations(any());
+        List<Long> removedLogs = new ArrayList<>();
+        EntryLogCompactor compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, removedLogs::add);
+
+        // Ledger 0 was deleted, the entries of the others are moved to the current log
+        EntryLogMetadata meta = entryLogger.getEntryLogMetadata(logId);
+        meta.removeLedgerIf(ledgerId -> ledgerId == 0);
+        Assert.assertTrue(compactor.compact(meta));
+        Assert.assertEquals(1, removedLogs.size());
+        Assert.assertEquals(logId, removedLogs.get(0).longValue());
+
+        Assert.assertEquals((NUM_LEDGERS - 1) * NUM_ENTRIES, newLocations.size());
+        for (EntryLocation location : newLocations) {
+            Assert.assertNotEquals(0, location.getLedger());
+            Assert.assertNotEquals(logId, EntryLogger.logIdForOffset(location.getLocation()));
+            assertEntry(location.getLedger(), location.getEntry(), location.getLocation());
+        }
+
+        // The compacted entries are found in the ledgers map of the new log
+        long newLogId = EntryLogger.logIdForOffset(newLocations.get(0).getLocation());
+        rollLog();
+        EntryLogMetadata newMeta = entryLogger.extractEntryLogMetadataFromIndex(newLogId);
+        Assert.assertFalse(newMeta.containsLedger(0));
+        Assert.assertEquals((long) (NUM_LEDGERS - 1) * NUM_ENTRIES * (ENTRY_SIZE + 4), newMeta.getTotalSize());
+    }
+}
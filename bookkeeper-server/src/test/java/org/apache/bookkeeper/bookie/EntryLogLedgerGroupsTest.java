@@ -0,0 +1,175 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the grouping of the ledgers into entry logs by write rate and expected lifetime.
+ */
+public class EntryLogLedgerGroupsTest {
+
+    private static final int KB = 1024;
+    private static final int MB = 1024 * 1024;
+    private static final long WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    // Start of a creation window
+    private static final long T0 = WINDOW_MILLIS * 30_000_000L;
+
+    private ServerConfiguration conf;
+    private EntryLogLedgerGroups groups;
+
+    @Before
+    public void setUp() {
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setEntryLogPerLedgerGroupOwnLogRateKb(1024)
+                .setEntryLogPerLedgerGroupLowRateKb(64)
+                .setEntryLogPerLedgerGroupYoungLedgerMaxAge(600)
+                .setEntryLogPerLedgerGroupCreationWindow(60);
+        groups = new EntryLogLedgerGroups(conf);
+    }
+
+    @Test
+    public void testYoungLedgersGroupedByCreationWindow() {
+        long key1 = groups.getLogKey(1, KB, T0);
+        Assert.assertTrue(key1 < EntryLogger.UNASSIGNED_LEDGERID);
+        // Created in the same window at a similar rate
+        Assert.assertEquals(key1, groups.getLogKey(2, KB, T0 + 1000));
+        Assert.assertEquals(key1, groups.getLogKey(3, 2 * KB, T0 + WINDOW_MILLIS - 1));
+        // The group of a ledger does not change while it stays young and keeps its rate
+        Assert.assertEquals(key1, groups.getLogKey(1, KB, T0 + 5000));
+
+        // Created in the next window
+        long key4 = groups.getLogKey(4, KB, T0 + WINDOW_MILLIS);
+        Assert.assertTrue(key4 < EntryLogger.UNASSIGNED_LEDGERID);
+        Assert.assertNotEquals(key1, key4);
+        Assert.assertEquals(key1, groups.getLogKey(2, KB, T0 + WINDOW_MILLIS));
+    }
+
+    @Test
+    public void testRateClasses() {
+        // 100 KB over the first window of 10 s: below the low rate
+        long lowRateKey = groups.getLogKey(1, 100 * KB, T0);
+        // 1 MB over the first window: between the low rate and the own log rate
+        long highRateKey = groups.getLogKey(2, MB, T0);
+        Assert.assertTrue(lowRateKey < EntryLogger.UNASSIGNED_LEDGERID);
+        Assert.assertTrue(highRateKey < EntryLogger.UNASSIGNED_LEDGERID);
+        Assert.assertNotEquals(lowRateKey, highRateKey);
+        Assert.assertEquals(highRateKey, groups.getLogKey(3, 2 * MB, T0 + 1000));
+
+        // 20 MB over the first window: above the own log rate
+        Assert.assertEquals(4, groups.getLogKey(4, 20 * MB, T0));
+    }
+
+    @Test
+    public void testRateMeasuredOverWindows() {
+        Assert.assertEquals(1, groups.getLogKey(1, 20 * MB, T0));
+        // 2 MB/s over the first window
+        Assert.assertEquals(1, groups.getLogKey(1, 1, T0 + 10_000));
+        // Averaged with the next windows, in which nothing is written
+        Assert.assertEquals(1, groups.getLogKey(1, 1, T0 + 20_000));
+        long key = groups.getLogKey(1, 1, T0 + 30_000);
+        Assert.assertTrue(key < EntryLogger.UNASSIGNED_LEDGERID);
+        // Now in the same group as the young ledgers written between the low rate and the own log rate
+        Assert.assertEquals(key, groups.getLogKey(2, MB, T0 + 30_000));
+    }
+
+    @Test
+    public void testOldLedgersGroupedByRate() {
+        long youngKey = groups.getLogKey(1, KB, T0);
+        groups.getLogKey(2, KB, T0 + 5 * WINDOW_MILLIS);
+
+        // Written for longer than the young ledger max age: whatever their creation window, the ledgers written
+        // at a similar rate share the same entry log
+        long oldKey = groups.getLogKey(1, KB, T0 + TimeUnit.SECONDS.toMillis(601));
+        Assert.assertTrue(oldKey < EntryLogger.UNASSIGNED_LEDGERID);
+        Assert.assertNotEquals(youngKey, oldKey);
+        Assert.assertEquals(oldKey, groups.getLogKey(2, KB, T0 + 5 * WINDOW_MILLIS + TimeUnit.SECONDS.toMillis(601)));
+
+        // Still young
+        Assert.assertNotEquals(oldKey, groups.getLogKey(3, KB, T0 + TimeUnit.SECONDS.toMillis(601)));
+    }
+
+    @Test
+    public void testEntryLogsOfGroups() throws Exception {
+        File ledgerDir = IOUtils.createTempDir("entry-log-groups", "test");
+        EntryLogger entryLogger = null;
+        try {
+            BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+            conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() })
+                    .setEntryLogPerLedgerEnabled(true)
+                    .setEntryLogPerLedgerGroupingEnabled(true)
+                    .setEntryLogPerLedgerGroupOwnLogRateKb(1)
+                    // A single creation window for the whole test
+                    .setEntryLogPerLedgerGroupCreationWindow(Integer.MAX_VALUE);
+            entryLogger = new EntryLogger(conf);
+
+            long location1 = entryLogger.addEntry(1L, entry(1, 0, KB));
+            long location2 = entryLogger.addEntry(2L, entry(2, 0, KB));
+            // Written above the own log rate
+            long location3 = entryLogger.addEntry(3L, entry(3, 0, 20 * KB));
+            long location4 = entryLogger.addEntry(4L, entry(4, 0, 20 * KB));
+            entryLogger.flush();
+
+            // The slow ledgers share an entry log, the fast ones have their own
+            long logId = EntryLogger.logIdForOffset(location1);
+            Assert.assertEquals(logId, EntryLogger.logIdForOffset(location2));
+            Assert.assertNotEquals(logId, EntryLogger.logIdForOffset(location3));
+            Assert.assertNotEquals(logId, EntryLogger.logIdForOffset(location4));
+            Assert.assertNotEquals(EntryLogger.logIdForOffset(location3), EntryLogger.logIdForOffset(location4));
+
+            // Each entry is registered under its own ledger
+            for (long ledgerId = 1; ledgerId <= 2; ledgerId++) {
+                Assert.assertTrue(entryLogger.getEntryLogManager().getCurrentLogIfPresent(logId)
+                        .getLedgersMap().containsKey(ledgerId));
+            }
+            ByteBuf read = entryLogger.readEntry(2, 0, location2);
+            Assert.assertEquals(2, read.getLong(0));
+            read.release();
+        } finally {
+            if (entryLogger != null) {
+                entryLogger.shutdown();
+            }
+            FileUtils.deleteDirectory(ledgerDir);
+        }
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writerIndex(size);
+        return entry;
+    }
+}
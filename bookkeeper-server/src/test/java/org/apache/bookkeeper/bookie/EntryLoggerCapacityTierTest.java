@@ -0,0 +1,241 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test moving the entry logs of an {@link EntryLogger} to the capacity tier.
+ */
+public class EntryLoggerCapacityTierTest {
+
+    private static final int NUM_ENTRIES = 100;
+
+    private File ledgerDir;
+    private File capacityTierDir;
+    private EntryLogger entryLogger;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        ledgerDir = IOUtils.createTempDir("entry-logger-tier", "ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        capacityTierDir = IOUtils.createTempDir("entry-logger-tier", "capacity");
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        entryLogger = new EntryLogger(conf, ledgerDirsManager, null, NullStatsLogger.INSTANCE,
+                UnpooledByteBufAllocator.DEFAULT, null, Collections.singletonList(capacityTierDir));
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        entryLogger.shutdown();
+        FileUtils.deleteDirectory(ledgerDir);
+        FileUtils.deleteDirectory(capacityTierDir);
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(256);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writerIndex(entry.capacity());
+        return entry;
+    }
+
+    /**
+     * Write the entries of a ledger to a new entry log, which is then no longer written.
+     *
+     * @return the locations of the entries
+     */
+    private long[] writeLog(long ledgerId) throws Exception {
+        long[] locations = new long[NUM_ENTRIES];
+        for (int entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+            locations[entryId] = entryLogger.addEntry(ledgerId, entry(ledgerId, entryId));
+        }
+        ((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(EntryLogger.UNASSIGNED_LEDGERID);
+        entryLogger.flush();
+        return locations;
+    }
+
+    private List<Long> candidates() {
+        return entryLogger.getCapacityTierCandidates(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    private void assertEntries(long ledgerId, long[] locations) throws Exception {
+        for (int entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+            ByteBuf entry = entryLogger.readEntry(ledgerId, entryId, locations[entryId]);
+            Assert.assertEquals(ledgerId, entry.getLong(0));
+            Assert.assertEquals(entryId, entry.getLong(8));
+            entry.release();
+        }
+    }
+
+    @Test
+    public void testMove() throws Exception {
+        long[] locations = writeLog(1);
+        long logId = EntryLogger.logIdForOffset(locations[0]);
+        Assert.assertEquals(Collections.singletonList(logId), candidates());
+        // Read through the channel of the file in the ledger directory
+        assertEntries(1, locations);
+
+        Assert.assertTrue(entryLogger.moveToCapacityTier(logId, null) > 0);
+        Assert.assertTrue(new File(capacityTierDir, Long.toHexString(logId) + ".log").exists());
+        Assert.assertFalse(new File(BookieImpl.getCurrentDirectory(ledgerDir),
+                Long.toHexString(logId) + ".log").exists());
+        Assert.assertTrue(candidates().isEmpty());
+        Assert.assertEquals(-1, entryLogger.moveToCapacityTier(logId, null));
+
+        // The locations remain valid, and the scans read the new file
+        assertEntries(1, locations);
+        AtomicInteger scanned = new AtomicInteger();
+        entryLogger.scanEntryLog(logId, new EntryLogger.EntryLogScanner() {
+            @Override
+            public boolean accept(long ledgerId) {
+                return true;
+            }
+
+            @Override
+            public void process(long ledgerId, long offset, ByteBuf entry) {
+                scanned.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(NUM_ENTRIES, scanned.get());
+        Assert.assertTrue(entryLogger.getEntryLogMetadata(logId).containsLedger(1));
+    }
+
+    @Test
+    public void testLogBeingScannedNotMoved() throws Exception {
+        long[] locations = writeLog(1);
+        long logId = EntryLogger.logIdForOffset(locations[0]);
+
+        // Compaction scan blocked on its first entry
+        CountDownLatch scanning = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        AtomicInteger scanned = new AtomicInteger();
+        Future<?> scan = executor.submit(() -> {
+            entryLogger.scanEntryLog(logId, new EntryLogger.EntryLogScanner() {
+                @Override
+                public boolean accept(long ledgerId) {
+                    return true;
+                }
+
+                @Override
+                public void process(long ledgerId, long offset, ByteBuf entry) {
+                    scanning.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    scanned.incrementAndGet();
+                }
+            });
+            return null;
+        });
+        Assert.assertTrue(scanning.await(10, TimeUnit.SECONDS));
+
+        Assert.assertTrue(candidates().isEmpty());
+        Assert.assertEquals(-1, entryLogger.moveToCapacityTier(logId, null));
+        Assert.assertFalse(new File(capacityTierDir, Long.toHexString(logId) + ".log").exists());
+        Assert.assertFalse(new File(capacityTierDir, Long.toHexString(logId) + ".log.tmp").exists());
+
+        // The scan completes on the file it started with, and the log can be moved afterwards
+        resume.countDown();
+        scan.get();
+        Assert.assertEquals(NUM_ENTRIES, scanned.get());
+        Assert.assertEquals(Collections.singletonList(logId), candidates());
+        Assert.assertTrue(entryLogger.moveToCapacityTier(logId, null) > 0);
+        assertEntries(1, locations);
+    }
+
+    @Test
+    public void testScansOfSeveralLogs() throws Exception {
+        long[] locations1 = writeLog(1);
+        long[] locations2 = writeLog(2);
+        long logId1 = EntryLogger.logIdForOffset(locations1[0]);
+        long logId2 = EntryLogger.logIdForOffset(locations2[0]);
+
+        // Only the log being scanned is kept in the ledger directory, also when its scans overlap
+        CountDownLatch scanning = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        Future<?> scan = executor.submit(() -> {
+            entryLogger.scanEntryLog(logId1, new EntryLogger.EntryLogScanner() {
+                @Override
+                public boolean accept(long ledgerId) {
+                    return true;
+                }
+
+                @Override
+                public void process(long ledgerId, long offset, ByteBuf entry) {
+                    scanning.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            return null;
+        });
+        Assert.assertTrue(scanning.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(entryLogger.getEntryLogMetadata(logId1).containsLedger(1));
+
+        Assert.assertEquals(Collections.singletonList(logId2), candidates());
+        Assert.assertTrue(entryLogger.moveToCapacityTier(logId2, null) > 0);
+        Assert.assertEquals(-1, entryLogger.moveToCapacityTier(logId1, null));
+
+        resume.countDown();
+        scan.get();
+        Assert.assertEquals(Collections.singletonList(logId1), candidates());
+        assertEntries(1, locations1);
+        assertEntries(2, locations2);
+    }
+}
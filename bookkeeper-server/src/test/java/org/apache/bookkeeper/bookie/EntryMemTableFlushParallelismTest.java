@@ -0,0 +1,182 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SKIP_LIST_FLUSH_PARALLELISM;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.utils.TestStatsProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the sizing of the parallelism of the flushes of {@link EntryMemTableWithParallelFlusher}.
+ */
+public class EntryMemTableFlushParallelismTest {
+
+    private static final int NUM_THREADS = 4;
+    private static final int NUM_ENTRIES = 10;
+
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private EntryMemTableWithParallelFlusher memTable;
+
+    @Before
+    public void setUp() {
+        conf.setNumOfMemtableFlushThreads(NUM_THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (memTable != null) {
+            memTable.close();
+        }
+    }
+
+    private void newMemTable() {
+        memTable = new EntryMemTableWithParallelFlusher(conf, CheckpointSource.DEFAULT,
+                statsProvider.getStatsLogger(""));
+    }
+
+    /**
+     * Collects the threads flushing each ledger, and the entries flushed.
+     */
+    private static class CollectingFlusher implements SkipListFlusher {
+        final Map<Long, String> threads = new ConcurrentHashMap<>();
+        final Map<Long, List<Long>> entries = new ConcurrentHashMap<>();
+        final long ledgerFlushMillis;
+        volatile boolean failOnThread = false;
+
+        CollectingFlusher(long ledgerFlushMillis) {
+            this.ledgerFlushMillis = ledgerFlushMillis;
+        }
+
+        @Override
+        public void process(long ledgerId, long entryId, ByteBuf entry) {
+            String thread = Thread.currentThread().getName();
+            if (!thread.equals(threads.computeIfAbsent(ledgerId, id -> thread))) {
+                failOnThread = true;
+            }
+            entries.computeIfAbsent(ledgerId, id -> Collections.synchronizedList(new ArrayList<>())).add(entryId);
+            if (entryId == 0 && ledgerFlushMillis > 0) {
+                try {
+                    Thread.sleep(ledgerFlushMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot and flush the entries of the ledgers, and return the parallelism chosen for the flush.
+     */
+    private int flushLedgers(int numLedgers, CollectingFlusher flusher) throws Exception {
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+                ByteBuffer entry = ByteBuffer.allocate(64);
+                entry.putLong(ledgerId).putLong(entryId).position(0);
+                memTable.addEntry(ledgerId, entryId, entry, cp -> { });
+            }
+        }
+        statsProvider.getOpStatsLogger(SKIP_LIST_FLUSH_PARALLELISM).clear();
+        Assert.assertNotNull(memTable.snapshot());
+        memTable.flush(flusher);
+
+        Assert.assertFalse("The entries of a ledger were flushed by several threads", flusher.failOnThread);
+        Assert.assertEquals(numLedgers, flusher.entries.size());
+        for (List<Long> entries : flusher.entries.values()) {
+            Assert.assertEquals(NUM_ENTRIES, entries.size());
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                Assert.assertEquals(i, entries.get(i).longValue());
+            }
+        }
+        return (int) statsProvider.getOpStatsLogger(SKIP_LIST_FLUSH_PARALLELISM).getSuccessAverage();
+    }
+
+    @Test
+    public void testOneTaskPerLedgerWhenNotAdaptive() throws Exception {
+        newMemTable();
+        CollectingFlusher flusher = new CollectingFlusher(0);
+        Assert.assertEquals(NUM_THREADS, flushLedgers(10, flusher));
+        // All the ledgers are handed to the flush threads
+        Assert.assertFalse(flusher.threads.containsValue(Thread.currentThread().getName()));
+
+        flusher = new CollectingFlusher(0);
+        Assert.assertEquals(1, flushLedgers(1, flusher));
+        Assert.assertFalse(flusher.threads.containsValue(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testLedgersStripedOverThreads() throws Exception {
+        conf.setMemtableFlushAdaptiveParallelismEnabled(true);
+        // Any flush is shorter than a task, the estimate of a ledger only starts at the task time
+        conf.setMemtableFlushMinTaskTimeMicros(TimeUnit.HOURS.toMicros(1));
+        newMemTable();
+
+        // Initially estimated to a task per ledger, up to the number of threads
+        CollectingFlusher flusher = new CollectingFlusher(0);
+        Assert.assertEquals(NUM_THREADS, flushLedgers(10, flusher));
+        Assert.assertEquals(NUM_THREADS, flusher.threads.values().stream().distinct().count());
+        for (long ledgerId = NUM_THREADS; ledgerId < 10; ledgerId++) {
+            Assert.assertEquals(flusher.threads.get(ledgerId % NUM_THREADS), flusher.threads.get(ledgerId));
+        }
+        Assert.assertFalse(flusher.threads.containsValue(Thread.currentThread().getName()));
+
+        // The quick flushes lower the estimate, a small snapshot is then flushed inline
+        flusher = new CollectingFlusher(0);
+        Assert.assertEquals(1, flushLedgers(2, flusher));
+        Assert.assertEquals(Collections.singleton(Thread.currentThread().getName()),
+                flusher.threads.values().stream().distinct().collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void testSlowLedgersRaiseParallelism() throws Exception {
+        conf.setMemtableFlushAdaptiveParallelismEnabled(true);
+        conf.setMemtableFlushMinTaskTimeMicros(TimeUnit.MILLISECONDS.toMicros(5));
+        newMemTable();
+
+        // A single ledger is not worth a hand-off
+        CollectingFlusher flusher = new CollectingFlusher(40);
+        Assert.assertEquals(1, flushLedgers(1, flusher));
+        Assert.assertTrue(flusher.threads.containsValue(Thread.currentThread().getName()));
+
+        // Estimated from the slow ledger to more than a task per ledger
+        flusher = new CollectingFlusher(40);
+        Assert.assertEquals(3, flushLedgers(3, flusher));
+        Assert.assertEquals(3, flusher.threads.values().stream().distinct().count());
+        Assert.assertFalse(flusher.threads.containsValue(Thread.currentThread().getName()));
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.bookkeeper.bookie.SkipListArena.MemorySlice;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the release of the direct chunks of the skiplist arena of {@link EntryMemTable}.
+ */
+public class EntryMemTableOffHeapTest {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int MAX_ALLOC = 1024;
+    private static final int ENTRY_SIZE = 100;
+
+    /**
+     * Records the direct buffers allocated, to check their reference counts.
+     */
+    private static class TrackingAllocator extends AbstractByteBufAllocator {
+        final List<ByteBuf> buffers = new CopyOnWriteArrayList<>();
+
+        TrackingAllocator() {
+            super(true);
+        }
+
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return UnpooledByteBufAllocator.DEFAULT.heapBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            ByteBuf buffer = UnpooledByteBufAllocator.DEFAULT.directBuffer(initialCapacity, maxCapacity);
+            buffers.add(buffer);
+            return buffer;
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return false;
+        }
+    }
+
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private final TrackingAllocator allocator = new TrackingAllocator();
+
+    @Before
+    public void setUp() {
+        conf.setSkipListArenaChunkSize(CHUNK_SIZE);
+        conf.setSkipListArenaMaxAllocSize(MAX_ALLOC);
+        conf.setSkipListArenaOffHeap(true);
+    }
+
+    private static ByteBuffer entry(long ledgerId, long entryId) {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(ledgerId);
+        entry.putLong(entryId);
+        entry.position(0);
+        return entry;
+    }
+
+    private static void addEntries(EntryMemTable memTable, long ledgerId, int numEntries) throws Exception {
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            memTable.addEntry(ledgerId, entryId, entry(ledgerId, entryId), cp -> { });
+        }
+    }
+
+    @Test
+    public void testArenaRelease() {
+        SkipListArena arena = new SkipListArena(conf, allocator);
+        Assert.assertTrue(arena.isOffHeap());
+        MemorySlice first = arena.allocateBytes(ENTRY_SIZE);
+        MemorySlice second = arena.allocateBytes(ENTRY_SIZE);
+        Assert.assertNull(first.getData());
+        Assert.assertSame(first.getBuffer(), second.getBuffer());
+        Assert.assertEquals(0, first.getOffset());
+        Assert.assertEquals(ENTRY_SIZE, second.getOffset());
+
+        // Allocations above the max get their own buffer
+        MemorySlice large = arena.allocateBytes(2 * MAX_ALLOC);
+        Assert.assertNotSame(first.getBuffer(), large.getBuffer());
+        Assert.assertEquals(2 * MAX_ALLOC, large.getBuffer().capacity());
+
+        // The allocations not fitting in the current chunk go to a new one
+        for (int i = 2; i < CHUNK_SIZE / ENTRY_SIZE + 1; i++) {
+            arena.allocateBytes(ENTRY_SIZE);
+        }
+        Assert.assertEquals(3, allocator.buffers.size());
+
+        arena.release();
+        for (ByteBuf buffer : allocator.buffers) {
+            Assert.assertEquals(0, buffer.refCnt());
+        }
+        // Released only once
+        arena.release();
+    }
+
+    @Test
+    public void testOnHeapArena() throws Exception {
+        conf.setSkipListArenaOffHeap(false);
+        SkipListArena arena = new SkipListArena(conf);
+        Assert.assertFalse(arena.isOffHeap());
+        Assert.assertNull(arena.allocateBytes(2 * MAX_ALLOC));
+        Assert.assertNotNull(arena.allocateBytes(ENTRY_SIZE).getData());
+
+        EntryMemTable memTable = new EntryMemTable(conf, CheckpointSource.DEFAULT, NullStatsLogger.INSTANCE,
+                allocator);
+        addEntries(memTable, 1, 10);
+        ByteBuf value = memTable.getEntryValue(1, 5);
+        Assert.assertTrue(value.hasArray());
+        Assert.assertEquals(5, value.getLong(8));
+        value.release();
+        memTable.close();
+        Assert.assertTrue(allocator.buffers.isEmpty());
+    }
+
+    @Test
+    public void testFlushReleasesSnapshotChunks() throws Exception {
+        testFlushReleasesSnapshotChunks(new EntryMemTable(conf, CheckpointSource.DEFAULT, NullStatsLogger.INSTANCE,
+                allocator));
+    }
+
+    @Test
+    public void testParallelFlushReleasesSnapshotChunks() throws Exception {
+        conf.setNumOfMemtableFlushThreads(4);
+        testFlushReleasesSnapshotChunks(new EntryMemTableWithParallelFlusher(conf, CheckpointSource.DEFAULT,
+                NullStatsLogger.INSTANCE, allocator));
+    }
+
+    private void testFlushReleasesSnapshotChunks(EntryMemTable memTable) throws Exception {
+        int numLedgers = 4;
+        int numEntries = 20;
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            addEntries(memTable, ledgerId, numEntries);
+        }
+        List<ByteBuf> snapshotChunks = new CopyOnWriteArrayList<>(allocator.buffers);
+        Assert.assertEquals(numLedgers * numEntries * ENTRY_SIZE / CHUNK_SIZE + 1, snapshotChunks.size());
+
+        // A value read before the flush is a slice retaining its chunk
+        ByteBuf value = memTable.getEntryValue(1, 3);
+        Assert.assertFalse(value.hasArray());
+        Assert.assertEquals(1, value.getLong(0));
+        Assert.assertEquals(3, value.getLong(8));
+        ByteBuf lastValue = memTable.getLastEntryValue(2);
+        Assert.assertEquals(numEntries - 1, lastValue.getLong(8));
+        lastValue.release();
+
+        Assert.assertNotNull(memTable.snapshot());
+        addEntries(memTable, numLedgers, 1);
+        Assert.assertEquals(snapshotChunks.size() + 1, allocator.buffers.size());
+        ByteBuf currentChunk = allocator.buffers.get(snapshotChunks.size());
+
+        // The flusher gets slices of the chunks, released once processed
+        Set<Long> flushed = ConcurrentHashMap.newKeySet();
+        memTable.flush((ledgerId, entryId, entry) -> {
+            Assert.assertTrue(entry.refCnt() > 0);
+            Assert.assertEquals(ledgerId, entry.getLong(0));
+            Assert.assertEquals(entryId, entry.getLong(8));
+            flushed.add(ledgerId * numEntries + entryId);
+        });
+        Assert.assertEquals(numLedgers * numEntries, flushed.size());
+        Assert.assertNull(memTable.getEntryValue(1, 3));
+
+        // Only the chunk of the value still read is kept, until it is released
+        ByteBuf valueChunk = null;
+        for (ByteBuf chunk : snapshotChunks) {
+            if (chunk.refCnt() > 0) {
+                Assert.assertNull(valueChunk);
+                valueChunk = chunk;
+            }
+        }
+        Assert.assertNotNull(valueChunk);
+        Assert.assertEquals(1, valueChunk.refCnt());
+        Assert.assertEquals(3, value.getLong(8));
+        value.release();
+        Assert.assertEquals(0, valueChunk.refCnt());
+
+        // The chunks of the entries added after the snapshot are released with the memtable
+        Assert.assertEquals(1, currentChunk.refCnt());
+        memTable.close();
+        Assert.assertEquals(0, currentChunk.refCnt());
+    }
+}
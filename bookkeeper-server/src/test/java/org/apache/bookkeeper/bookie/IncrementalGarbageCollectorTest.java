@@ -0,0 +1,254 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.bookkeeper.bookie.GarbageCollector.GarbageCleaner;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerDeletionListener;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the garbage collection driven by the ledger deletion notifications.
+ */
+public class IncrementalGarbageCollectorTest {
+
+    private final Set<Long> storedLedgers = ConcurrentHashMap.newKeySet();
+    private final Set<Long> metadataLedgers = ConcurrentHashMap.newKeySet();
+    private final List<Long> cleanedLedgers = new ArrayList<>();
+    private final GarbageCleaner cleaner = ledgerId -> {
+        cleanedLedgers.add(ledgerId);
+        storedLedgers.remove(ledgerId);
+    };
+    private final AtomicInteger triggeredRuns = new AtomicInteger();
+
+    private File stateDir;
+    private ServerConfiguration conf;
+    private LedgerManager ledgerManager;
+    private CompactableLedgerStorage ledgerStorage;
+    private ScanAndCompareGarbageCollector fullScanCollector;
+    private LedgerDeletionListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        stateDir = IOUtils.createTempDir("incremental-gc", "test");
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setGcFullScanIntervalMillis(3600000);
+
+        ledgerStorage = mock(CompactableLedgerStorage.class);
+        when(ledgerStorage.ledgerExists(anyLong()))
+                .thenAnswer(invocation -> storedLedgers.contains(invocation.<Long>getArgument(0)));
+        when(ledgerStorage.getActiveLedgersInRange(anyLong(), anyLong()))
+                .thenAnswer(invocation -> new ArrayList<>(storedLedgers));
+
+        ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.registerLedgerDeletionListener(any())).thenAnswer(invocation -> {
+            listener = invocation.getArgument(0);
+            return FutureUtils.Void();
+        });
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            if (metadataLedgers.contains(ledgerId)) {
+                return CompletableFuture.completedFuture(
+                        new Versioned<>(mock(LedgerMetadata.class), new LongVersion(0)));
+            }
+            return FutureUtils.exception(new BKException.BKNoSuchLedgerExistsOnMetadataServerException());
+        });
+
+        fullScanCollector = mock(ScanAndCompareGarbageCollector.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(stateDir);
+    }
+
+    private IncrementalGarbageCollector newCollector() {
+        return new IncrementalGarbageCollector(ledgerManager, ledgerStorage, fullScanCollector, conf, stateDir,
+                triggeredRuns::incrementAndGet);
+    }
+
+    private void addLedger(long ledgerId) {
+        storedLedgers.add(ledgerId);
+        metadataLedgers.add(ledgerId);
+    }
+
+    @Test
+    public void testCollectNotifiedDeletions() throws Exception {
+        addLedger(1L);
+        addLedger(2L);
+        IncrementalGarbageCollector collector = newCollector();
+
+        // The first run subscribes and does the initial full scan
+        collector.gc(cleaner);
+        verify(ledgerManager, times(1)).registerLedgerDeletionListener(any());
+        verify(fullScanCollector, times(1)).gc(cleaner);
+        Assert.assertEquals(2, collector.getNumActiveLedgers());
+
+        metadataLedgers.remove(1L);
+        listener.onLedgerDeleted(1L);
+        // A ledger not stored in the bookie is ignored
+        listener.onLedgerDeleted(3L);
+        Assert.assertEquals(1, triggeredRuns.get());
+
+        collector.gc(cleaner);
+        Assert.assertEquals(Collections.singletonList(1L), cleanedLedgers);
+        Assert.assertEquals(1, collector.getNumActiveLedgers());
+        // A single subscription, and no full scan until the interval elapses
+        verify(ledgerManager, times(1)).registerLedgerDeletionListener(any());
+        verify(fullScanCollector, times(1)).gc(cleaner);
+
+        collector.close();
+        verify(ledgerManager, times(1)).unregisterLedgerDeletionListener(listener);
+    }
+
+    @Test
+    public void testMetadataVerifiedBeforeCollecting() throws Exception {
+        addLedger(1L);
+        IncrementalGarbageCollector collector = newCollector();
+        collector.gc(cleaner);
+
+        // The ledger is reported as deleted but is still in the metadata store
+        listener.onLedgerDeleted(1L);
+        collector.gc(cleaner);
+        verify(ledgerManager, times(1)).readLedgerMetadata(1L);
+        Assert.assertTrue(cleanedLedgers.isEmpty());
+        Assert.assertTrue(storedLedgers.contains(1L));
+
+        // And is not checked again
+        collector.gc(cleaner);
+        verify(ledgerManager, times(1)).readLedgerMetadata(1L);
+    }
+
+    @Test
+    public void testRestartFromPersistedState() throws Exception {
+        addLedger(1L);
+        addLedger(2L);
+        IncrementalGarbageCollector collector = newCollector();
+        collector.gc(cleaner);
+        verify(fullScanCollector, times(1)).gc(cleaner);
+
+        // The metadata store fails to confirm the deletion before the restart
+        when(ledgerManager.readLedgerMetadata(2L))
+                .thenReturn(FutureUtils.exception(new BKException.ZKException()));
+        metadataLedgers.remove(2L);
+        listener.onLedgerDeleted(2L);
+        collector.gc(cleaner);
+        Assert.assertTrue(cleanedLedgers.isEmpty());
+        collector.close();
+        Assert.assertTrue(new File(stateDir, IncrementalGarbageCollector.STATE_FILE).exists());
+
+        when(ledgerManager.readLedgerMetadata(2L))
+                .thenReturn(FutureUtils.exception(new BKException.BKNoSuchLedgerExistsOnMetadataServerException()));
+        IncrementalGarbageCollector restarted = newCollector();
+        restarted.gc(cleaner);
+        // The pending deletion is collected without a new full scan
+        Assert.assertEquals(Collections.singletonList(2L), cleanedLedgers);
+        verify(fullScanCollector, times(1)).gc(cleaner);
+    }
+
+    @Test
+    public void testFullScanWhenDeletionsMissed() throws Exception {
+        addLedger(1L);
+        IncrementalGarbageCollector collector = newCollector();
+        collector.gc(cleaner);
+        collector.gc(cleaner);
+        verify(fullScanCollector, times(1)).gc(cleaner);
+
+        // Session expired, the next run subscribes again and does a full scan
+        listener.onDeletionsMissed();
+        collector.gc(cleaner);
+        verify(ledgerManager, times(2)).registerLedgerDeletionListener(any());
+        verify(fullScanCollector, times(2)).gc(cleaner);
+
+        collector.gc(cleaner);
+        verify(fullScanCollector, times(2)).gc(cleaner);
+    }
+
+    @Test
+    public void testFullScanWhenSubscriptionUnsupported() throws Exception {
+        when(ledgerManager.registerLedgerDeletionListener(any())).thenReturn(
+                FutureUtils.exception(new UnsupportedOperationException("Ledger deletion listeners not supported")));
+        addLedger(1L);
+        IncrementalGarbageCollector collector = newCollector();
+
+        collector.gc(cleaner);
+        collector.gc(cleaner);
+        collector.gc(cleaner);
+        // Every run falls back to a full scan, without retrying the subscription
+        verify(fullScanCollector, times(3)).gc(cleaner);
+        verify(ledgerManager, times(1)).registerLedgerDeletionListener(any());
+
+        collector.close();
+        verify(ledgerManager, never()).unregisterLedgerDeletionListener(any());
+    }
+
+    @Test
+    public void testFullScanRetriedWhenSubscriptionFails() throws Exception {
+        when(ledgerManager.registerLedgerDeletionListener(any()))
+                .thenReturn(FutureUtils.exception(new BKException.ZKException()))
+                .thenAnswer(invocation -> {
+                    listener = invocation.getArgument(0);
+                    return FutureUtils.Void();
+                });
+        addLedger(1L);
+        IncrementalGarbageCollector collector = newCollector();
+
+        collector.gc(cleaner);
+        verify(fullScanCollector, times(1)).gc(cleaner);
+        // Subscribed on the second run, which still does a full scan to cover the first one
+        collector.gc(cleaner);
+        verify(ledgerManager, times(2)).registerLedgerDeletionListener(any());
+        verify(fullScanCollector, times(2)).gc(cleaner);
+
+        collector.gc(cleaner);
+        verify(fullScanCollector, times(2)).gc(cleaner);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.NUM_INDEX_PAGES;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.utils.TestStatsProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the clock eviction and the memory of the index pages of {@link IndexInMemPageMgr}.
+ */
+public class IndexInMemPageMgrTest {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int ENTRIES_PER_PAGE = PAGE_SIZE / LedgerEntryPage.getIndexEntrySize();
+
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private IndexPersistenceMgr persistenceMgr;
+    private IndexInMemPageMgr pageMgr;
+
+    @Before
+    public void setUp() throws Exception {
+        // New pages, flushed by marking them clean
+        persistenceMgr = mock(IndexPersistenceMgr.class);
+        when(persistenceMgr.updatePage(any())).thenReturn(true);
+        doAnswer(invocation -> {
+            List<LedgerEntryPage> pages = invocation.getArgument(1);
+            for (LedgerEntryPage lep : pages) {
+                lep.setClean(lep.getVersion());
+            }
+            return null;
+        }).when(persistenceMgr).flushLedgerEntries(anyLong(), any());
+    }
+
+    private void newPageMgr(int pageLimit) {
+        conf.setPageLimit(pageLimit);
+        pageMgr = new IndexInMemPageMgr(PAGE_SIZE, ENTRIES_PER_PAGE, conf, persistenceMgr,
+                statsProvider.getStatsLogger(""));
+    }
+
+    private static long page(int page) {
+        return (long) page * ENTRIES_PER_PAGE;
+    }
+
+    /**
+     * Check if a page is in memory. Setting the reference bit of the page, so only used at the end of a test.
+     */
+    private boolean isCached(long ledgerId, long firstEntry) {
+        LedgerEntryPage lep = pageMgr.getLedgerEntryPageFromCache(ledgerId, firstEntry, false);
+        if (lep == null) {
+            return false;
+        }
+        lep.releasePage();
+        return true;
+    }
+
+    private int numPages() {
+        return statsProvider.getGauge(NUM_INDEX_PAGES).getSample().intValue();
+    }
+
+    @Test
+    public void testClockGivesSecondChance() throws Exception {
+        newPageMgr(3);
+        for (int i = 0; i < 3; i++) {
+            pageMgr.getEntryOffset(1, page(i));
+        }
+
+        // All the pages were used since the hand started, the hand clears their reference bits and reclaims the
+        // first page after its position in the second round
+        pageMgr.getEntryOffset(2, page(0));
+
+        // The page used again is skipped by the next round, the one not used since is reclaimed
+        pageMgr.getEntryOffset(1, page(0));
+        pageMgr.getEntryOffset(2, page(1));
+
+        Assert.assertEquals(3, numPages());
+        Assert.assertFalse(isCached(1, page(1)));
+        Assert.assertFalse(isCached(1, page(2)));
+        Assert.assertTrue(isCached(1, page(0)));
+        Assert.assertTrue(isCached(2, page(0)));
+        Assert.assertTrue(isCached(2, page(1)));
+        verify(persistenceMgr, never()).flushLedgerEntries(anyLong(), any());
+    }
+
+    @Test
+    public void testDirtyAndInUsePagesNotReclaimed() throws Exception {
+        newPageMgr(2);
+        pageMgr.putEntryOffset(1, page(0), 100);
+        LedgerEntryPage inUse = pageMgr.getLedgerEntryPage(1, page(1));
+
+        // No page can be reclaimed until the dirty page is flushed
+        pageMgr.putEntryOffset(2, page(0), 200);
+        verify(persistenceMgr).flushLedgerEntries(eq(1L), any());
+
+        Assert.assertEquals(2, numPages());
+        Assert.assertFalse(isCached(1, page(0)));
+        Assert.assertEquals(200, pageMgr.getEntryOffset(2, page(0)));
+        // The page in use kept its ledger and entries
+        Assert.assertTrue(inUse.inUse());
+        Assert.assertEquals(1, inUse.getLedger());
+        Assert.assertEquals(page(1), inUse.getFirstEntry());
+        inUse.releasePage();
+        Assert.assertTrue(isCached(1, page(1)));
+    }
+
+    @Test
+    public void testFreePagesUsedBeforeClock() throws Exception {
+        newPageMgr(3);
+        pageMgr.putEntryOffset(1, page(0), 10);
+        pageMgr.putEntryOffset(1, page(1), 11);
+        pageMgr.putEntryOffset(2, page(0), 20);
+        pageMgr.flushOneOrMoreLedgers(true);
+
+        // The pages of the deleted ledger go to the free list, and are reused without going through the clock
+        pageMgr.removePagesForLedger(1);
+        pageMgr.putEntryOffset(3, page(0), 30);
+        pageMgr.putEntryOffset(3, page(1), 31);
+        Assert.assertEquals(3, numPages());
+        Assert.assertTrue(isCached(2, page(0)));
+
+        // Once the free list is empty, the clock reclaims one of the pages, each page having a single owner
+        pageMgr.flushOneOrMoreLedgers(true);
+        pageMgr.putEntryOffset(3, page(2), 32);
+        Assert.assertEquals(3, numPages());
+        Assert.assertFalse(isCached(1, page(0)));
+        Assert.assertFalse(isCached(1, page(1)));
+        Assert.assertTrue(isCached(3, page(2)));
+
+        long[][] pages = { { 2, page(0), 20 }, { 3, page(0), 30 }, { 3, page(1), 31 }, { 3, page(2), 32 } };
+        int cached = 0;
+        for (long[] p : pages) {
+            if (isCached(p[0], p[1])) {
+                cached++;
+                Assert.assertEquals(p[2], pageMgr.getEntryOffset(p[0], p[1]));
+            }
+        }
+        Assert.assertEquals(3, cached);
+    }
+
+    @Test
+    public void testPagesSlicedWithinPageLimit() throws Exception {
+        BufferPoolMXBean directPool = null;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                directPool = pool;
+            }
+        }
+        Assert.assertNotNull(directPool);
+
+        int numPages = 3;
+        newPageMgr(numPages);
+        long capacityBefore = directPool.getTotalCapacity();
+        for (long entry = 0; entry < numPages * ENTRIES_PER_PAGE; entry++) {
+            pageMgr.putEntryOffset(1, entry, entry + 1);
+        }
+        long allocated = directPool.getTotalCapacity() - capacityBefore;
+
+        // A single block of the size of the page limit, instead of a full slab
+        Assert.assertEquals(numPages, numPages());
+        Assert.assertTrue("Allocated " + allocated, allocated >= numPages * PAGE_SIZE);
+        Assert.assertTrue("Allocated " + allocated, allocated < 4 * 1024 * 1024);
+
+        // The pages sliced from the same block do not overlap
+        for (long entry = 0; entry < numPages * ENTRIES_PER_PAGE; entry++) {
+            Assert.assertEquals(entry + 1, pageMgr.getEntryOffset(1, entry));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FILE_INFO_CACHE_HITS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FILE_INFO_CACHE_MISSES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.LEDGER_CACHE_NUM_EVICTED_LEDGERS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.PENDING_GET_FILE_INFO;
+
+import java.io.File;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.util.SnapshotMap;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.utils.TestStatsProvider;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the hit and miss counters of the file info caches of {@link IndexPersistenceMgr}.
+ */
+public class IndexPersistenceMgrStatsTest {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final byte[] MASTER_KEY = "master-key".getBytes();
+
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private File ledgerDir;
+    private IndexPersistenceMgr persistenceMgr;
+
+    @Before
+    public void setUp() throws Exception {
+        ledgerDir = IOUtils.createTempDir("index-persistence-mgr", "ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (persistenceMgr != null) {
+            persistenceMgr.close();
+        }
+        FileUtils.deleteDirectory(ledgerDir);
+    }
+
+    private void newPersistenceMgr() throws Exception {
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        persistenceMgr = new IndexPersistenceMgr(PAGE_SIZE, PAGE_SIZE / LedgerEntryPage.getIndexEntrySize(), conf,
+                new SnapshotMap<>(), ledgerDirsManager, statsProvider.getStatsLogger(""));
+    }
+
+    private long counter(String name) {
+        return statsProvider.getCounter(name).get();
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        newPersistenceMgr();
+        persistenceMgr.setMasterKey(1, MASTER_KEY);
+        Assert.assertEquals(0, counter(FILE_INFO_CACHE_HITS));
+        Assert.assertEquals(1, counter(FILE_INFO_CACHE_MISSES));
+
+        persistenceMgr.setMasterKey(1, MASTER_KEY);
+        Assert.assertEquals(1, counter(FILE_INFO_CACHE_HITS));
+        Assert.assertEquals(1, counter(FILE_INFO_CACHE_MISSES));
+
+        // The reads go through their own cache, the first one loads the file info again from the backing cache
+        Assert.assertArrayEquals(MASTER_KEY, persistenceMgr.readMasterKey(1));
+        Assert.assertEquals(1, counter(FILE_INFO_CACHE_HITS));
+        Assert.assertEquals(2, counter(FILE_INFO_CACHE_MISSES));
+
+        Assert.assertFalse(persistenceMgr.isFenced(1));
+        Assert.assertTrue(persistenceMgr.setFenced(1));
+        Assert.assertEquals(3, counter(FILE_INFO_CACHE_HITS));
+        Assert.assertEquals(2, counter(FILE_INFO_CACHE_MISSES));
+        Assert.assertEquals(0, counter(PENDING_GET_FILE_INFO));
+    }
+
+    @Test
+    public void testMissAfterEviction() throws Exception {
+        conf.setOpenFileLimit(1);
+        newPersistenceMgr();
+        persistenceMgr.setMasterKey(1, MASTER_KEY);
+        persistenceMgr.setMasterKey(2, MASTER_KEY);
+        Assert.assertEquals(1, counter(LEDGER_CACHE_NUM_EVICTED_LEDGERS));
+
+        // The evicted ledger is loaded again
+        persistenceMgr.setMasterKey(1, MASTER_KEY);
+        Assert.assertEquals(0, counter(FILE_INFO_CACHE_HITS));
+        Assert.assertEquals(3, counter(FILE_INFO_CACHE_MISSES));
+        Assert.assertEquals(2, counter(LEDGER_CACHE_NUM_EVICTED_LEDGERS));
+
+        persistenceMgr.setMasterKey(1, MASTER_KEY);
+        Assert.assertEquals(1, counter(FILE_INFO_CACHE_HITS));
+        Assert.assertEquals(3, counter(FILE_INFO_CACHE_MISSES));
+    }
+
+    @Test
+    public void testMissOfUnknownLedger() throws Exception {
+        newPersistenceMgr();
+        try {
+            persistenceMgr.readMasterKey(5);
+            Assert.fail("The ledger has no index file");
+        } catch (Bookie.NoLedgerException e) {
+            // Expected
+        }
+        // A failed load is a miss, and is not cached
+        try {
+            persistenceMgr.readMasterKey(5);
+            Assert.fail("The ledger has no index file");
+        } catch (Bookie.NoLedgerException e) {
+            // Expected
+        }
+        Assert.assertEquals(0, counter(FILE_INFO_CACHE_HITS));
+        Assert.assertEquals(2, counter(FILE_INFO_CACHE_MISSES));
+        Assert.assertEquals(0, counter(PENDING_GET_FILE_INFO));
+    }
+}
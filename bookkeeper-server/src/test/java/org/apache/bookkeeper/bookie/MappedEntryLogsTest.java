@@ -0,0 +1,169 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.io.File;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedEntryLogsTest {
+
+    private static final int LOG_SIZE = 4096;
+
+    private File dir;
+    private MappedEntryLogs mappedEntryLogs;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = IOUtils.createTempDir("mapped-entry-logs", "test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mappedEntryLogs != null) {
+            mappedEntryLogs.close();
+        }
+        if (dir != null) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private File createLog(long logId) throws Exception {
+        byte[] data = new byte[LOG_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i + logId);
+        }
+        File file = new File(dir, Long.toHexString(logId) + ".log");
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private MappedEntryLogs newMappedEntryLogs(long maxSize, long idleTimeoutMillis) {
+        mappedEntryLogs = new MappedEntryLogs(UnpooledByteBufAllocator.DEFAULT, maxSize, idleTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+        return mappedEntryLogs;
+    }
+
+    @Test
+    public void testReadOnlyMapping() throws Exception {
+        File file = createLog(1);
+        newMappedEntryLogs(10 * LOG_SIZE, TimeUnit.HOURS.toMillis(1));
+
+        ByteBuf mapped = mappedEntryLogs.map(1, file);
+        Assert.assertNotNull(mapped);
+        Assert.assertEquals(LOG_SIZE, mapped.capacity());
+        Assert.assertTrue(mapped.isReadOnly());
+
+        ByteBuf entry = mapped.retainedSlice(100, 50);
+        mapped.release();
+        Assert.assertTrue(entry.isReadOnly());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals((byte) (100 + i + 1), entry.getByte(i));
+        }
+
+        try {
+            entry.setByte(0, 0);
+            Assert.fail("The entries of a mapped log must not be writable");
+        } catch (ReadOnlyBufferException e) {
+            // Expected
+        }
+        entry.release();
+        Assert.assertEquals((byte) 101, Files.readAllBytes(file.toPath())[100]);
+
+        // Already mapped
+        mapped = mappedEntryLogs.acquire(1);
+        Assert.assertNotNull(mapped);
+        Assert.assertTrue(mapped.isReadOnly());
+        mapped.release();
+        Assert.assertEquals(LOG_SIZE, mappedEntryLogs.getMappedSize());
+    }
+
+    @Test
+    public void testUnmapWaitsForTheEntriesToBeReleased() throws Exception {
+        File file = createLog(1);
+        newMappedEntryLogs(10 * LOG_SIZE, TimeUnit.HOURS.toMillis(1));
+
+        ByteBuf mapped = mappedEntryLogs.map(1, file);
+        ByteBuf entry = mapped.retainedSlice(0, 100);
+        mapped.release();
+
+        mappedEntryLogs.unmap(1);
+        Assert.assertNull(mappedEntryLogs.acquire(1));
+        // The entry is still readable
+        Assert.assertEquals(LOG_SIZE, mappedEntryLogs.getMappedSize());
+        Assert.assertEquals((byte) 11, entry.getByte(10));
+
+        entry.release();
+        Assert.assertEquals(0, mappedEntryLogs.getMappedSize());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        File file1 = createLog(1);
+        File file2 = createLog(2);
+        File file3 = createLog(3);
+        newMappedEntryLogs(2 * LOG_SIZE, TimeUnit.HOURS.toMillis(1));
+
+        mappedEntryLogs.map(1, file1).release();
+        Thread.sleep(1);
+        mappedEntryLogs.map(2, file2).release();
+        Thread.sleep(1);
+        // Log 1 becomes the most recently used
+        mappedEntryLogs.acquire(1).release();
+        Thread.sleep(1);
+
+        mappedEntryLogs.map(3, file3).release();
+        Assert.assertEquals(2 * LOG_SIZE, mappedEntryLogs.getMappedSize());
+        Assert.assertNull(mappedEntryLogs.acquire(2));
+        ByteBuf mapped = mappedEntryLogs.acquire(1);
+        Assert.assertNotNull(mapped);
+        mapped.release();
+
+        // Logs bigger than the max size are never mapped
+        mappedEntryLogs.close();
+        newMappedEntryLogs(LOG_SIZE - 1, TimeUnit.HOURS.toMillis(1));
+        Assert.assertNull(mappedEntryLogs.map(1, file1));
+    }
+
+    @Test
+    public void testReleaseIdleMappings() throws Exception {
+        File file = createLog(1);
+        newMappedEntryLogs(10 * LOG_SIZE, 1);
+
+        mappedEntryLogs.map(1, file).release();
+        Thread.sleep(10);
+        mappedEntryLogs.releaseIdleMappings();
+        Assert.assertNull(mappedEntryLogs.acquire(1));
+        Assert.assertEquals(0, mappedEntryLogs.getMappedSize());
+    }
+}
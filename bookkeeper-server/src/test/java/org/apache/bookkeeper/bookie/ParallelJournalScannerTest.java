@@ -0,0 +1,282 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the replay of the journal records on a pool of workers.
+ */
+public class ParallelJournalScannerTest {
+
+    private final List<File> tempDirs = new ArrayList<>();
+    private BookieImpl bookie;
+
+    @After
+    public void tearDown() throws Exception {
+        if (bookie != null) {
+            bookie.shutdown();
+        }
+        for (File dir : tempDirs) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static ByteBuffer record(long ledgerId, long entryId, int size) {
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putLong(ledgerId);
+        record.putLong(entryId);
+        record.position(0);
+        return record;
+    }
+
+    /**
+     * Collects the entry ids of the applied records of each ledger, and the threads applying them.
+     */
+    private static class CollectingScanner implements JournalScanner {
+        final Map<Long, List<Long>> entries = new ConcurrentHashMap<>();
+        final Map<Long, String> threads = new ConcurrentHashMap<>();
+        final AtomicInteger numRecords = new AtomicInteger();
+        volatile boolean failOnThread = false;
+
+        @Override
+        public void process(int journalVersion, long offset, ByteBuffer entry) throws IOException {
+            long ledgerId = entry.getLong();
+            long entryId = entry.getLong();
+            String thread = Thread.currentThread().getName();
+            if (!thread.equals(threads.computeIfAbsent(ledgerId, id -> thread))) {
+                failOnThread = true;
+            }
+            if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                Thread.yield();
+            }
+            entries.computeIfAbsent(ledgerId, id -> Collections.synchronizedList(new ArrayList<>())).add(entryId);
+            numRecords.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testRecordsOfLedgerAppliedInOrder() throws Exception {
+        CollectingScanner scanner = new CollectingScanner();
+        int numLedgers = 20;
+        int numEntries = 200;
+        try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner, 4, 1024)) {
+            long offset = 0;
+            for (long entryId = 0; entryId < numEntries; entryId++) {
+                for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                    parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, offset++,
+                            record(ledgerId, entryId, 64));
+                }
+            }
+            parallelScanner.drain();
+
+            Assert.assertEquals(numLedgers * numEntries, scanner.numRecords.get());
+            Assert.assertFalse("The records of a ledger were applied by several workers", scanner.failOnThread);
+            for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                List<Long> entries = scanner.entries.get(ledgerId);
+                Assert.assertEquals(numEntries, entries.size());
+                for (int i = 0; i < numEntries; i++) {
+                    Assert.assertEquals(i, entries.get(i).longValue());
+                }
+            }
+            // The ledgers are spread over the workers
+            Assert.assertEquals(4, scanner.threads.values().stream().distinct().count());
+        }
+    }
+
+    @Test
+    public void testRecordsCopied() throws Exception {
+        CountDownLatch applying = new CountDownLatch(1);
+        List<Long> entries = Collections.synchronizedList(new ArrayList<>());
+        JournalScanner scanner = (journalVersion, offset, entry) -> {
+            try {
+                applying.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            entry.getLong();
+            entries.add(entry.getLong());
+        };
+
+        try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner, 1, 1024)) {
+            // The journal reuses its buffer for the next record
+            ByteBuffer buffer = record(1L, 1L, 32);
+            parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, buffer);
+            Assert.assertFalse(buffer.hasRemaining());
+            buffer.clear();
+            buffer.putLong(1L).putLong(2L).position(0);
+            parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 32, buffer);
+
+            applying.countDown();
+            parallelScanner.drain();
+            Assert.assertEquals(2, entries.size());
+            Assert.assertEquals(1L, entries.get(0).longValue());
+            Assert.assertEquals(2L, entries.get(1).longValue());
+        }
+    }
+
+    @Test
+    public void testFailurePropagated() throws Exception {
+        IOException failure = new IOException("failed to apply record");
+        AtomicInteger applied = new AtomicInteger();
+        JournalScanner scanner = (journalVersion, offset, entry) -> {
+            if (offset == 10) {
+                throw failure;
+            }
+            applied.incrementAndGet();
+        };
+
+        try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner, 1, 1024)) {
+            for (int offset = 0; offset <= 10; offset++) {
+                parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, offset, record(1L, offset, 16));
+            }
+            try {
+                parallelScanner.drain();
+                Assert.fail("The failure should be reported when draining");
+            } catch (IOException e) {
+                Assert.assertSame(failure, e);
+            }
+            try {
+                parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 11, record(1L, 11, 16));
+                Assert.fail("The failure should be reported on the next record");
+            } catch (IOException e) {
+                Assert.assertSame(failure, e);
+            }
+            Assert.assertEquals(10, applied.get());
+        }
+    }
+
+    @Test
+    public void testUncheckedFailurePropagated() throws Exception {
+        JournalScanner scanner = (journalVersion, offset, entry) -> {
+            throw new IllegalStateException("corrupted record");
+        };
+
+        try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner, 2, 1024)) {
+            parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 5, record(1L, 1L, 16));
+            try {
+                parallelScanner.drain();
+                Assert.fail("The failure should be reported when draining");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    @Test
+    public void testPendingBytesLimit() throws Exception {
+        CountDownLatch applying = new CountDownLatch(1);
+        AtomicInteger applied = new AtomicInteger();
+        JournalScanner scanner = (journalVersion, offset, entry) -> {
+            try {
+                applying.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            applied.incrementAndGet();
+        };
+
+        try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(scanner, 2, 100)) {
+            parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 0, record(1L, 1L, 40));
+            parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 40, record(2L, 1L, 40));
+
+            // Over the limit, the scanning thread waits for the pending records to be applied
+            CountDownLatch processed = new CountDownLatch(2);
+            Thread scanningThread = new Thread(() -> {
+                try {
+                    parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 80, record(1L, 2L, 40));
+                    processed.countDown();
+                    // A record bigger than the limit waits for all the others
+                    parallelScanner.process(JournalChannel.CURRENT_JOURNAL_FORMAT_VERSION, 120, record(2L, 2L, 500));
+                    processed.countDown();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            scanningThread.start();
+            Assert.assertFalse(processed.await(500, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(2, processed.getCount());
+
+            applying.countDown();
+            Assert.assertTrue(processed.await(10, TimeUnit.SECONDS));
+            scanningThread.join();
+            parallelScanner.drain();
+            Assert.assertEquals(4, applied.get());
+        }
+    }
+
+    @Test
+    public void testScanJournal() throws Exception {
+        File journalDir = IOUtils.createTempDir("bookie", "journal");
+        tempDirs.add(journalDir);
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(journalDir));
+        File ledgerDir = IOUtils.createTempDir("bookie", "ledger");
+        tempDirs.add(ledgerDir);
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        JournalUtil.writeV4Journal(BookieImpl.getCurrentDirectory(journalDir), 100, "test".getBytes());
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { ledgerDir.getPath() })
+                .setMetadataServiceUri(null);
+        bookie = new TestBookieImpl(conf);
+        Journal journal = bookie.journals.get(0);
+        long journalId = Journal.listJournalIds(journal.getJournalDirectory(), null).get(0);
+
+        List<Long> sequentialOffsets = new ArrayList<>();
+        long sequentialEnd = journal.scanJournal(journalId, 0,
+                (journalVersion, offset, entry) -> sequentialOffsets.add(offset));
+
+        List<Long> parallelOffsets = Collections.synchronizedList(new ArrayList<>());
+        long parallelEnd;
+        try (ParallelJournalScanner parallelScanner = new ParallelJournalScanner(
+                (journalVersion, offset, entry) -> parallelOffsets.add(offset), 3, 4096)) {
+            parallelEnd = journal.scanJournal(journalId, 0, parallelScanner);
+            parallelScanner.drain();
+        }
+
+        Assert.assertEquals(sequentialEnd, parallelEnd);
+        // All the records are of the same ledger, so they are applied in the journal order
+        Assert.assertFalse(sequentialOffsets.isEmpty());
+        Assert.assertEquals(sequentialOffsets, parallelOffsets);
+    }
+}
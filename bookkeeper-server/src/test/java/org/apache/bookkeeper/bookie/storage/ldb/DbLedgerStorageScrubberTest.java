@@ -0,0 +1,169 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.bookkeeper.bookie.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.utils.TestStatsProvider;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link DbLedgerStorageScrubber}.
+ */
+public class DbLedgerStorageScrubberTest {
+
+    private static final int NUM_LEDGERS = 200;
+    private static final int NUM_ENTRIES = 3;
+
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private final TestStatsProvider statsProvider = new TestStatsProvider();
+    private final Set<Long> scrubbedLedgers = ConcurrentHashMap.newKeySet();
+    private File tmpDir;
+    private LedgerMetadataIndex ledgerIndex;
+    private EntryLocationIndex entryLocationIndex;
+    private EntryLogger entryLogger;
+    private DbLedgerStorageStats stats;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = IOUtils.createTempDir("scrubber", "test");
+        conf.setProperty(DbLedgerStorage.SCRUBBER_VERIFY_DIGESTS, false);
+        conf.setProperty(DbLedgerStorage.SCRUBBER_MAX_RATE_MB, 0);
+        conf.setProperty(DbLedgerStorage.SCRUBBER_MAX_DISK_QUEUE_DEPTH, 0);
+        ledgerIndex = new LedgerMetadataIndex(conf, KeyValueStorageRocksDB.factory, tmpDir.getAbsolutePath(),
+                NullStatsLogger.INSTANCE);
+        entryLocationIndex = new EntryLocationIndex(conf, KeyValueStorageRocksDB.factory, tmpDir.getAbsolutePath(),
+                NullStatsLogger.INSTANCE);
+        stats = new DbLedgerStorageStats(statsProvider.getStatsLogger(""), () -> 0L, () -> 0L);
+
+        entryLogger = mock(EntryLogger.class);
+        when(entryLogger.readEntryForScrub(anyLong(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            scrubbedLedgers.add(invocation.getArgument(0));
+            return Unpooled.wrappedBuffer(new byte[16]);
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        entryLocationIndex.close();
+        ledgerIndex.close();
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private DbLedgerStorageScrubber newScrubber() {
+        return new DbLedgerStorageScrubber(conf, tmpDir.getAbsolutePath(), ledgerIndex, entryLocationIndex,
+                entryLogger, null, ByteBufAllocator.DEFAULT, stats);
+    }
+
+    private long completedPasses() {
+        return statsProvider.getOpStatsLogger("scrubber-pass").getSuccessCount();
+    }
+
+    @Test(timeout = 60000)
+    public void testMultiSlicePassCoversAllLedgers() throws Exception {
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            ledgerIndex.setMasterKey(ledgerId, new byte[] { 1 });
+            for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+                entryLocationIndex.addLocation(ledgerId, entryId, (1L << 32) | (ledgerId * NUM_ENTRIES + entryId + 1));
+            }
+        }
+        // The ledgers are not listed in the order of their ids
+        List<Long> listed = new ArrayList<>();
+        ledgerIndex.getActiveLedgersInRange(0, Long.MAX_VALUE).forEach(listed::add);
+        List<Long> sorted = new ArrayList<>(listed);
+        Collections.sort(sorted);
+        Assert.assertNotEquals(sorted, listed);
+
+        // Slices of a single batch, so that each one checks a single ledger
+        DbLedgerStorageScrubber scrubber = newScrubber();
+        int slices = 0;
+        while (completedPasses() == 0) {
+            scrubber.runSlice(0);
+            slices++;
+            if (slices == NUM_LEDGERS / 2) {
+                // The pass continues from the saved cursor after a restart
+                scrubber = newScrubber();
+            } else if (completedPasses() == 0) {
+                Assert.assertEquals(100.0 * slices / NUM_LEDGERS, scrubber.getCoverage(), 0.001);
+            }
+            Assert.assertTrue("Pass not completed after " + slices + " slices", slices <= NUM_LEDGERS);
+        }
+
+        Assert.assertEquals(NUM_LEDGERS, slices);
+        Assert.assertEquals(NUM_LEDGERS, scrubbedLedgers.size());
+        Assert.assertEquals(NUM_LEDGERS * NUM_ENTRIES, statsProvider.getCounter("scrubber-checked-entries").get()
+                .longValue());
+        Assert.assertEquals(0, statsProvider.getCounter("scrubber-errors").get().longValue());
+        Assert.assertEquals(0, scrubber.getCoverage(), 0.0);
+
+        // The next pass only starts after the pass interval
+        scrubbedLedgers.clear();
+        scrubber.runSlice(0);
+        Assert.assertTrue(scrubbedLedgers.isEmpty());
+    }
+
+    @Test(timeout = 60000)
+    public void testCoverageOfLedgersAddedDuringPass() throws Exception {
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId += 2) {
+            ledgerIndex.setMasterKey(ledgerId, new byte[] { 1 });
+            entryLocationIndex.addLocation(ledgerId, 0, (1L << 32) | (ledgerId + 1));
+        }
+
+        DbLedgerStorageScrubber scrubber = newScrubber();
+        for (int i = 0; i < NUM_LEDGERS / 4; i++) {
+            scrubber.runSlice(0);
+        }
+        // Half of the even ledgers are checked, the cursor is at ledger 100
+        Assert.assertEquals(50.0, scrubber.getCoverage(), 0.001);
+
+        // The odd ledgers created meanwhile are only checked from the cursor on, in this pass
+        for (long ledgerId = 1; ledgerId < NUM_LEDGERS; ledgerId += 2) {
+            ledgerIndex.setMasterKey(ledgerId, new byte[] { 1 });
+            entryLocationIndex.addLocation(ledgerId, 0, (1L << 32) | (ledgerId + 1));
+        }
+        scrubbedLedgers.clear();
+        while (completedPasses() == 0) {
+            scrubber.runSlice(0);
+        }
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            Assert.assertEquals("Ledger " + ledgerId, ledgerId >= NUM_LEDGERS / 2, scrubbedLedgers.contains(ledgerId));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.utils.TestStatsProvider;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EntryLocationIndexTest {
+
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private File tmpDir;
+    private EntryLocationIndex idx;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = IOUtils.createTempDir("entry-location-index", "test");
+        idx = new EntryLocationIndex(conf, KeyValueStorageRocksDB.factory, tmpDir.getAbsolutePath(),
+                NullStatsLogger.INSTANCE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        idx.close();
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Test
+    public void testGetLocations() throws Exception {
+        for (long entryId = 0; entryId < 10; entryId++) {
+            if (entryId != 5) {
+                idx.addLocation(1, entryId, 100 + entryId);
+            }
+        }
+        idx.addLocation(2, 0, 200);
+        idx.addLocation(2, 1, 201);
+
+        long[] locations = idx.getLocations(1, 0, 9);
+        Assert.assertEquals(10, locations.length);
+        for (int i = 0; i < locations.length; i++) {
+            Assert.assertEquals(i == 5 ? 0 : 100 + i, locations[i]);
+            Assert.assertEquals(idx.getLocation(1, i), locations[i]);
+        }
+
+        // The range stops at the end of the ledger and doesn't leak into the next one
+        locations = idx.getLocations(1, 8, 12);
+        Assert.assertArrayEquals(new long[] { 108, 109, 0, 0, 0 }, locations);
+
+        Assert.assertArrayEquals(new long[] { 201 }, idx.getLocations(2, 1, 1));
+        Assert.assertArrayEquals(new long[] { 0, 0 }, idx.getLocations(3, 0, 1));
+    }
+
+    @Test
+    public void testGetLocationsInvalidRange() throws Exception {
+        try {
+            idx.getLocations(1, 5, 4);
+            Assert.fail("Should have failed on a reversed range");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        try {
+            idx.getLocations(1, -1, 4);
+            Assert.fail("Should have failed on a negative entry id");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSealedLedgers() throws Exception {
+        ServerConfiguration sealedConf = TestBKConfiguration.newServerConfiguration();
+        sealedConf.setProperty(DbLedgerStorage.SEALED_LEDGERS_LOCATION_INDEX_MAX_SIZE_MB, 1);
+        TestStatsProvider statsProvider = new TestStatsProvider();
+        File sealedDir = IOUtils.createTempDir("entry-location-index", "sealed");
+        EntryLocationIndex sealedIdx = new EntryLocationIndex(sealedConf, KeyValueStorageRocksDB.factory,
+                sealedDir.getAbsolutePath(), statsProvider.getStatsLogger(""));
+        try {
+            for (long entryId = 0; entryId < 200; entryId++) {
+                sealedIdx.addLocation(1, entryId, 1000 + entryId * 10);
+            }
+            sealedIdx.addLocation(2, 0, 5000);
+
+            // Ledgers looked up in the storage become candidates to be sealed
+            Assert.assertEquals(1010, sealedIdx.getLocation(1, 1));
+            Assert.assertEquals(5000, sealedIdx.getLocation(2, 0));
+            sealedIdx.delete(2);
+            sealedIdx.removeOffsetFromDeletedLedgers();
+
+            sealedIdx.sealLedgers(ConcurrentLongHashSet.newBuilder().build());
+            Assert.assertEquals(1, statsProvider.getOpStatsLogger("seal-ledger").getSuccessCount());
+            // Ledger 2 had no more entries to load
+            Assert.assertEquals(1, statsProvider.getOpStatsLogger("seal-ledger").getFailureCount());
+
+            for (long entryId = 0; entryId < 200; entryId++) {
+                Assert.assertEquals(1000 + entryId * 10, sealedIdx.getLocation(1, entryId));
+            }
+            Assert.assertEquals(200L, statsProvider.getCounter("sealed-ledgers-lookup-hits").get().longValue());
+
+            // A write to a sealed ledger drops its in-memory copy
+            sealedIdx.addLocation(1, 200, 3000);
+            Assert.assertEquals(3000, sealedIdx.getLocation(1, 200));
+            Assert.assertEquals(1000, sealedIdx.getLocation(1, 0));
+            Assert.assertEquals(200L, statsProvider.getCounter("sealed-ledgers-lookup-hits").get().longValue());
+        } finally {
+            sealedIdx.close();
+            FileUtils.deleteDirectory(sealedDir);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.util.MathUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link FlushPacer}.
+ */
+public class FlushPacerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testCreate() {
+        Assert.assertNull(FlushPacer.create(0, TimeUnit.SECONDS.toNanos(10), 50, MB));
+        Assert.assertNull(FlushPacer.create(100 * MB, 0, 50, MB));
+        Assert.assertNull(FlushPacer.create(100 * MB, TimeUnit.SECONDS.toNanos(10), 0, MB));
+
+        // 100 MB filled in 10 s, flushed over half of that time
+        FlushPacer pacer = FlushPacer.create(100 * MB, TimeUnit.SECONDS.toNanos(10), 50, MB);
+        Assert.assertEquals(20.0 * MB, pacer.getRate(), 1.0);
+
+        // Over the whole fill time
+        pacer = FlushPacer.create(100 * MB, TimeUnit.SECONDS.toNanos(10), 100, MB);
+        Assert.assertEquals(10.0 * MB, pacer.getRate(), 1.0);
+
+        // Never slower than the min rate
+        pacer = FlushPacer.create(MB, TimeUnit.SECONDS.toNanos(100), 50, 5 * MB);
+        Assert.assertEquals(5.0 * MB, pacer.getRate(), 1.0);
+    }
+
+    @Test
+    public void testPacedWrites() {
+        FlushPacer pacer = new FlushPacer(2 * MB);
+        long startTime = MathUtils.nowInNano();
+        // 1 MB of 4 KB entries: the first chunk is free, each of the 15 next ones waits 32 ms
+        for (int i = 0; i < 256; i++) {
+            pacer.onEntryWritten(4 * 1024, false);
+        }
+        long elapsedNanos = MathUtils.elapsedNanos(startTime);
+
+        Assert.assertTrue(pacer.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(400));
+        Assert.assertTrue(elapsedNanos >= pacer.getWaitNanos());
+    }
+
+    @Test
+    public void testSmallEntriesPacedByChunks() {
+        FlushPacer pacer = new FlushPacer(1024);
+        // Less than a chunk: the rate limiter is not asked yet, whatever its rate
+        for (int i = 0; i < 100; i++) {
+            pacer.onEntryWritten(100, false);
+        }
+        Assert.assertEquals(0, pacer.getWaitNanos());
+    }
+
+    @Test
+    public void testPaused() {
+        FlushPacer pacer = new FlushPacer(MB);
+        long startTime = MathUtils.nowInNano();
+        // The new write cache filled up, the flush is needed as soon as possible
+        for (int i = 0; i < 1000; i++) {
+            pacer.onEntryWritten(64 * 1024, true);
+        }
+        Assert.assertEquals(0, pacer.getWaitNanos());
+        Assert.assertTrue(MathUtils.elapsedNanos(startTime) < TimeUnit.SECONDS.toNanos(5));
+
+        // Paced again once resumed: the first chunk is free, the next one waits 64 ms
+        pacer.onEntryWritten(64 * 1024, false);
+        pacer.onEntryWritten(64 * 1024, false);
+        Assert.assertTrue(pacer.getWaitNanos() > 0);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testIncrement() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        Assert.assertEquals(0, sketch.frequency(1, 1));
+
+        sketch.increment(1, 1);
+        sketch.increment(1, 1);
+        sketch.increment(1, 1);
+        // A count-min sketch never underestimates
+        Assert.assertTrue(sketch.frequency(1, 1) >= 3);
+        Assert.assertTrue(sketch.frequency(1, 1) <= FrequencySketch.MAX_FREQUENCY);
+    }
+
+    @Test
+    public void testMaxFrequency() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 3 * FrequencySketch.MAX_FREQUENCY; i++) {
+            sketch.increment(2, 7);
+        }
+        Assert.assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(2, 7));
+    }
+
+    @Test
+    public void testDistinctEntries() {
+        FrequencySketch sketch = new FrequencySketch(1 << 16);
+        for (int i = 0; i < 10; i++) {
+            sketch.increment(3, 0);
+        }
+        sketch.increment(3, 1);
+
+        Assert.assertTrue(sketch.frequency(3, 0) >= 10);
+        Assert.assertTrue(sketch.frequency(3, 1) < 10);
+    }
+
+    @Test
+    public void testDecay() {
+        FrequencySketch sketch = new FrequencySketch(1 << 16);
+        for (int i = 0; i < 10; i++) {
+            sketch.increment(4, 0);
+        }
+        Assert.assertTrue(sketch.frequency(4, 0) >= 10);
+
+        // Enough accesses to other entries to halve the counters at least once
+        for (int i = 0; i < 1_000_000; i++) {
+            sketch.increment(5, i);
+        }
+        Assert.assertTrue(sketch.frequency(4, 0) < 10);
+    }
+}
@@ -0,0 +1,370 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link KeyValueStorageLsm}.
+ */
+public class KeyValueStorageLsmTest {
+
+    private static final String SUB_PATH = "index";
+
+    private final List<KeyValueStorage> storages = new ArrayList<>();
+    private File baseDir;
+    private ServerConfiguration conf;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = IOUtils.createTempDir("lsm", "test");
+        conf = new ServerConfiguration();
+        // Smallest memtable, so that the tests flush and merge runs
+        conf.setProperty("dbStorage_lsmMemTableMaxSizeMb", 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (KeyValueStorage storage : storages) {
+            storage.close();
+        }
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    private KeyValueStorage open(File dir) throws IOException {
+        KeyValueStorage storage = new KeyValueStorageLsm(dir.getPath(), SUB_PATH, DbConfigType.Default, conf);
+        storages.add(storage);
+        return storage;
+    }
+
+    private KeyValueStorage open() throws IOException {
+        return open(baseDir);
+    }
+
+    private void close(KeyValueStorage storage) throws IOException {
+        storage.close();
+        storages.remove(storage);
+    }
+
+    private static byte[] key(long ledgerId, long entryId) {
+        return ByteBuffer.allocate(16).putLong(ledgerId).putLong(entryId).array();
+    }
+
+    private static byte[] value(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    private static long toLong(byte[] value) {
+        return ByteBuffer.wrap(value).getLong();
+    }
+
+    private static File[] files(File dir, String suffix) {
+        return new File(dir, SUB_PATH).listFiles((d, name) -> name.endsWith(suffix));
+    }
+
+    @Test
+    public void testPutGetDelete() throws Exception {
+        KeyValueStorage storage = open();
+        Assert.assertNull(storage.get(key(1, 1)));
+        Assert.assertEquals(0, storage.count());
+
+        byte[] key = key(1, 1);
+        byte[] value = value(100);
+        storage.put(key, value);
+        // The storage copies the arrays reused by the callers
+        value[0] = 42;
+        Assert.assertEquals(100, toLong(storage.get(key(1, 1))));
+        byte[] result = new byte[8];
+        Assert.assertEquals(8, storage.get(key(1, 1), result));
+        Assert.assertEquals(100, toLong(result));
+        Assert.assertEquals(1, storage.count());
+
+        storage.put(key(1, 1), value(101));
+        Assert.assertEquals(101, toLong(storage.get(key(1, 1))));
+        Assert.assertEquals(1, storage.count());
+
+        storage.delete(key(1, 1));
+        Assert.assertNull(storage.get(key(1, 1)));
+        Assert.assertEquals(-1, storage.get(key(1, 1), result));
+        Assert.assertEquals(0, storage.count());
+
+        try {
+            storage.put(new byte[8], value(1));
+            Assert.fail("All the keys must have the same length");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        KeyValueStorage storage = open();
+        for (long entryId = 0; entryId < 10; entryId++) {
+            storage.put(key(1, entryId), value(entryId));
+            storage.put(key(2, entryId), value(entryId));
+        }
+        storage.delete(key(1, 5));
+        // Half of the keys are in a run, the others in the memtable
+        storage.compact(null, null);
+        for (long entryId = 0; entryId < 10; entryId += 2) {
+            storage.put(key(1, entryId), value(entryId + 100));
+        }
+        storage.delete(key(1, 9));
+
+        List<Long> values = new ArrayList<>();
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = storage.iterator(key(1, 0), key(2, 0))) {
+            while (iterator.hasNext()) {
+                values.add(toLong(iterator.next().getValue()));
+            }
+        }
+        Assert.assertEquals(Arrays.asList(100L, 1L, 102L, 3L, 104L, 106L, 7L, 108L), values);
+
+        int keys = 0;
+        try (CloseableIterator<byte[]> iterator = storage.keys(key(2, 3), key(2, 7))) {
+            while (iterator.hasNext()) {
+                Assert.assertEquals(3 + keys, ByteBuffer.wrap(iterator.next()).getLong(8));
+                keys++;
+            }
+        }
+        Assert.assertEquals(4, keys);
+
+        // The deleted keys are skipped
+        Entry<byte[], byte[]> floor = storage.getFloor(key(2, 0));
+        Assert.assertArrayEquals(key(1, 8), floor.getKey());
+        Assert.assertEquals(108, toLong(floor.getValue()));
+        Assert.assertArrayEquals(key(1, 6), storage.getFloor(key(1, 7)).getKey());
+        Assert.assertArrayEquals(key(1, 6), storage.getCeil(key(1, 5)).getKey());
+        Assert.assertNull(storage.getFloor(key(1, 0)));
+        Assert.assertNull(storage.getCeil(key(3, 0)));
+
+        try (Batch batch = storage.newBatch()) {
+            batch.deleteRange(key(1, 0), key(2, 0));
+            batch.flush();
+        }
+        Assert.assertNull(storage.get(key(1, 0)));
+        Assert.assertArrayEquals(key(2, 0), storage.getCeil(key(0, 0)).getKey());
+        Assert.assertEquals(10, storage.count());
+    }
+
+    @Test
+    public void testFlushAndMerge() throws Exception {
+        KeyValueStorage storage = open();
+        int numKeys = 50000;
+        // Several memtables, each overwriting or deleting the keys of the previous ones
+        for (int round = 0; round < 4; round++) {
+            for (long i = 0; i < numKeys; i++) {
+                if (round == 3 && i % 10 == 0) {
+                    storage.delete(key(i, 0));
+                } else {
+                    storage.put(key(i, 0), value(i + round));
+                }
+            }
+        }
+        long expectedCount = numKeys - numKeys / 10;
+        // Until the runs are merged, the keys updated in several runs are counted more than once
+        Assert.assertTrue(storage.count() >= expectedCount);
+        Assert.assertTrue(storage.count() <= 4 * numKeys);
+        for (long i = 0; i < numKeys; i += 7) {
+            byte[] value = storage.get(key(i, 0));
+            if (i % 10 == 0) {
+                Assert.assertNull(value);
+            } else {
+                Assert.assertEquals(i + 3, toLong(value));
+            }
+        }
+
+        storage.compact(null, null);
+        Assert.assertEquals(1, files(baseDir, ".run").length);
+        // Exact once all the runs are merged
+        Assert.assertEquals(expectedCount, storage.count());
+        long previous = -1;
+        long iterated = 0;
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = storage.iterator()) {
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                long ledgerId = ByteBuffer.wrap(entry.getKey()).getLong();
+                Assert.assertTrue(ledgerId > previous);
+                Assert.assertNotEquals(0, ledgerId % 10);
+                Assert.assertEquals(ledgerId + 3, toLong(entry.getValue()));
+                previous = ledgerId;
+                iterated++;
+            }
+        }
+        Assert.assertEquals(expectedCount, iterated);
+
+        // The count follows the writes not flushed yet
+        storage.put(key(0, 0), value(0));
+        storage.delete(key(1, 0));
+        storage.put(key(numKeys, 0), value(numKeys));
+        Assert.assertEquals(expectedCount + 1, storage.count());
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        KeyValueStorage storage = open();
+        for (long i = 0; i < 30000; i++) {
+            storage.put(key(i, 0), value(i));
+        }
+        storage.delete(key(5, 0));
+        storage.sync();
+        close(storage);
+
+        storage = open();
+        Assert.assertEquals(29999, storage.count());
+        Assert.assertNull(storage.get(key(5, 0)));
+        Assert.assertEquals(29999, toLong(storage.get(key(29999, 0))));
+        close(storage);
+
+        KeyValueStorage readOnly = new KeyValueStorageLsm(baseDir.getPath(), SUB_PATH, DbConfigType.Default, conf,
+                true);
+        storages.add(readOnly);
+        Assert.assertEquals(29999, readOnly.count());
+        Assert.assertEquals(42, toLong(readOnly.get(key(42, 0))));
+        try {
+            readOnly.put(key(1, 0), value(1));
+            Assert.fail("The storage is read-only");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRecoverFromCrash() throws Exception {
+        KeyValueStorage storage = open();
+        try (Batch batch = storage.newBatch()) {
+            for (long i = 0; i < 1000; i++) {
+                batch.put(key(i, 0), value(i));
+            }
+            batch.remove(key(7, 0));
+            batch.flush();
+        }
+
+        // Copy the files of the storage while it is open, as a crash would leave them
+        File crashDir = IOUtils.createTempDir("lsm", "crash");
+        try {
+            FileUtils.copyDirectory(new File(baseDir, SUB_PATH), new File(crashDir, SUB_PATH));
+            File[] wals = files(crashDir, ".wal");
+            Assert.assertEquals(1, wals.length);
+            // Torn write at the end of the log, and leftover of a flush
+            try (FileOutputStream out = new FileOutputStream(wals[0], true)) {
+                out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3 });
+            }
+            File tmp = new File(new File(crashDir, SUB_PATH), "0000000000000063.run.tmp");
+            Assert.assertTrue(tmp.createNewFile());
+
+            KeyValueStorage recovered = open(crashDir);
+            Assert.assertEquals(999, recovered.count());
+            Assert.assertNull(recovered.get(key(7, 0)));
+            Assert.assertEquals(999, toLong(recovered.get(key(999, 0))));
+            Assert.assertFalse(tmp.exists());
+
+            // The replayed writes are flushed to a run and the storage keeps working
+            recovered.put(key(1000, 0), value(1000));
+            Assert.assertEquals(1000, recovered.count());
+            close(recovered);
+        } finally {
+            FileUtils.deleteDirectory(crashDir);
+        }
+    }
+
+    @Test
+    public void testRecoverUnsyncedWritesFromCrash() throws Exception {
+        KeyValueStorage storage = open();
+        for (long i = 0; i < 100; i++) {
+            storage.put(key(i, 0), value(i));
+        }
+        storage.delete(key(3, 0));
+
+        // The writes without sync are in the write-ahead log file, so they survive a crash of the process
+        File crashDir = IOUtils.createTempDir("lsm", "crash");
+        try {
+            FileUtils.copyDirectory(new File(baseDir, SUB_PATH), new File(crashDir, SUB_PATH));
+            KeyValueStorage recovered = open(crashDir);
+            Assert.assertEquals(99, recovered.count());
+            Assert.assertNull(recovered.get(key(3, 0)));
+            Assert.assertEquals(99, toLong(recovered.get(key(99, 0))));
+            close(recovered);
+        } finally {
+            FileUtils.deleteDirectory(crashDir);
+        }
+    }
+
+    @Test
+    public void testRecoverFromCrashDuringMerge() throws Exception {
+        KeyValueStorage storage = open();
+        for (long i = 0; i < 100; i++) {
+            storage.put(key(i, 0), value(i));
+        }
+        storage.compact(null, null);
+        for (long i = 0; i < 100; i += 2) {
+            storage.delete(key(i, 0));
+        }
+        storage.put(key(1, 0), value(1001));
+        // Flush the deletions to a run without merging them
+        close(storage);
+        storage = open();
+        Assert.assertEquals(2, files(baseDir, ".run").length);
+
+        File inputsDir = IOUtils.createTempDir("lsm", "inputs");
+        try {
+            File[] inputs = files(baseDir, ".run");
+            for (File input : inputs) {
+                FileUtils.copyFileToDirectory(input, inputsDir);
+            }
+            storage.compact(null, null);
+            Assert.assertEquals(1, files(baseDir, ".run").length);
+            close(storage);
+
+            // Crash after the merged run was written, before the inputs were deleted
+            for (File input : inputs) {
+                FileUtils.copyFileToDirectory(new File(inputsDir, input.getName()), new File(baseDir, SUB_PATH));
+            }
+            Assert.assertEquals(3, files(baseDir, ".run").length);
+        } finally {
+            FileUtils.deleteDirectory(inputsDir);
+        }
+
+        storage = open();
+        Assert.assertEquals(1, files(baseDir, ".run").length);
+        Assert.assertEquals(50, storage.count());
+        Assert.assertNull(storage.get(key(0, 0)));
+        Assert.assertEquals(1001, toLong(storage.get(key(1, 0))));
+        Assert.assertEquals(3, toLong(storage.get(key(3, 0))));
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.utils.TestStatsProvider;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the stats of {@link KeyValueStorageRocksDB}.
+ */
+public class KeyValueStorageRocksDBStatsTest {
+
+    private static final int NUM_KEYS = 1000;
+
+    private File tmpDir;
+    private ServerConfiguration conf;
+    private TestStatsProvider statsProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = IOUtils.createTempDir("rocksdb-stats", "test");
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setProperty(KeyValueStorageRocksDB.ROCKSDB_STATISTICS_ENABLED, true);
+        conf.setProperty(KeyValueStorageRocksDB.ROCKSDB_STATS_REFRESH_INTERVAL_SECONDS, 0);
+        statsProvider = new TestStatsProvider();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private static byte[] key(long key) {
+        return ByteBuffer.allocate(8).putLong(key).array();
+    }
+
+    private KeyValueStorage openAndFill() throws Exception {
+        KeyValueStorage storage = new KeyValueStorageRocksDB(tmpDir.getAbsolutePath(), "index", DbConfigType.Default,
+                conf);
+        storage.registerStats(statsProvider.getStatsLogger("index-db"));
+        for (long i = 0; i < NUM_KEYS; i++) {
+            storage.put(key(i), key(i * 2));
+        }
+        // Move the keys to the table files, so that the lookups go through the block cache
+        storage.compact(key(0), key(NUM_KEYS));
+        return storage;
+    }
+
+    private long longGauge(String name) {
+        return statsProvider.getGauge("index-db." + name).getSample().longValue();
+    }
+
+    private double doubleGauge(String name) {
+        return statsProvider.getGauge("index-db." + name).getSample().doubleValue();
+    }
+
+    private static void readAll(KeyValueStorage storage) throws Exception {
+        for (long i = 0; i < NUM_KEYS; i++) {
+            Assert.assertArrayEquals(key(i * 2), storage.get(key(i)));
+        }
+    }
+
+    @Test
+    public void testGaugesRegistered() throws Exception {
+        KeyValueStorage storage = openAndFill();
+        try {
+            for (String name : new String[] { "block-cache-hits", "block-cache-misses", "block-cache-hit-rate",
+                    "stall-micros", "memtable-stalls", "level0-stalls", "pending-compaction-bytes",
+                    "running-compactions", "level0-files", "get-latency-p50", "get-latency-p99",
+                    "get-latency-max" }) {
+                Assert.assertNotNull(name, statsProvider.getGauge("index-db." + name));
+            }
+            for (int level = 0; level < RocksDBStatsCollector.NUM_LEVELS; level++) {
+                Assert.assertNotNull(statsProvider.getGauge("index-db.level-" + level + "-read-latency-p50"));
+                Assert.assertNotNull(statsProvider.getGauge("index-db.level-" + level + "-read-latency-p99"));
+                Assert.assertTrue(doubleGauge("level-" + level + "-read-latency-p99") >= 0);
+            }
+
+            // The full compaction leaves no level 0 file
+            Assert.assertEquals(0, longGauge("level0-files"));
+            Assert.assertEquals(0, longGauge("running-compactions"));
+            Assert.assertTrue(longGauge("pending-compaction-bytes") >= 0);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testBlockCacheAndLatencyStats() throws Exception {
+        KeyValueStorage storage = openAndFill();
+        try {
+            long misses = longGauge("block-cache-misses");
+            long hits = longGauge("block-cache-hits");
+
+            // The first reads load the blocks in the cache, the next ones hit them
+            readAll(storage);
+            Assert.assertTrue(longGauge("block-cache-misses") > misses);
+            hits = longGauge("block-cache-hits");
+            misses = longGauge("block-cache-misses");
+
+            readAll(storage);
+            Assert.assertTrue(longGauge("block-cache-hits") > hits);
+            Assert.assertEquals(misses, longGauge("block-cache-misses"));
+            // Hit rate of the lookups since the previous collection
+            Assert.assertEquals(100.0, doubleGauge("block-cache-hit-rate"), 0.001);
+
+            Assert.assertTrue(doubleGauge("get-latency-max") > 0);
+            Assert.assertTrue(doubleGauge("get-latency-p99") >= doubleGauge("get-latency-p50"));
+            Assert.assertTrue(doubleGauge("get-latency-max") >= doubleGauge("get-latency-p99"));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testRefreshInterval() throws Exception {
+        conf.setProperty(KeyValueStorageRocksDB.ROCKSDB_STATS_REFRESH_INTERVAL_SECONDS, 3600);
+        KeyValueStorage storage = openAndFill();
+        try {
+            long hits = longGauge("block-cache-hits");
+            long misses = longGauge("block-cache-misses");
+            readAll(storage);
+            readAll(storage);
+            // The values are read again from RocksDB only once the interval elapsed
+            Assert.assertEquals(hits, longGauge("block-cache-hits"));
+            Assert.assertEquals(misses, longGauge("block-cache-misses"));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testStatisticsDisabled() throws Exception {
+        conf.setProperty(KeyValueStorageRocksDB.ROCKSDB_STATISTICS_ENABLED, false);
+        KeyValueStorage storage = openAndFill();
+        try {
+            readAll(storage);
+            // Only the values read from the properties of the database are available
+            Assert.assertEquals(0, longGauge("block-cache-misses"));
+            Assert.assertEquals(0, doubleGauge("get-latency-max"), 0.0);
+            Assert.assertEquals(0, longGauge("level0-files"));
+
+            String dump = storage.getStatsDump();
+            Assert.assertTrue(dump.contains("Compaction Stats"));
+            Assert.assertFalse(dump.contains("** Statistics **"));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void testStatsDump() throws Exception {
+        KeyValueStorage storage = openAndFill();
+        readAll(storage);
+        String dump = storage.getStatsDump();
+        Assert.assertTrue(dump.contains("Compaction Stats"));
+        Assert.assertTrue(dump.contains("** Statistics **"));
+        Assert.assertTrue(dump.contains("rocksdb.block.cache.miss"));
+
+        long misses = longGauge("block-cache-misses");
+        storage.close();
+        // The closed database is not read anymore
+        Assert.assertNull(storage.getStatsDump());
+        Assert.assertEquals(misses, longGauge("block-cache-misses"));
+    }
+
+    @Test
+    public void testIndexStats() throws Exception {
+        EntryLocationIndex idx = new EntryLocationIndex(conf, KeyValueStorageRocksDB.factory,
+                tmpDir.getAbsolutePath(), statsProvider.getStatsLogger(""));
+        try {
+            idx.addLocation(1, 0, 100);
+            Assert.assertEquals(100, idx.getLocation(1, 0));
+            Assert.assertNotNull(statsProvider.getGauge("locations-db.block-cache-hits"));
+            Assert.assertTrue(idx.getStatsDump().contains("Compaction Stats"));
+        } finally {
+            idx.close();
+        }
+
+        LedgerMetadataIndex ledgers = new LedgerMetadataIndex(conf, KeyValueStorageRocksDB.factory,
+                tmpDir.getAbsolutePath(), statsProvider.getStatsLogger(""));
+        try {
+            Assert.assertNotNull(statsProvider.getGauge("ledgers-db.level0-files"));
+            Assert.assertTrue(ledgers.getStatsDump().contains("Compaction Stats"));
+        } finally {
+            ledgers.close();
+        }
+    }
+}
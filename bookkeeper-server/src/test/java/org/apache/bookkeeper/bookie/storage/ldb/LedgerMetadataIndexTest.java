@@ -0,0 +1,253 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import com.google.protobuf.ByteString;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorageDataFormats.LedgerData;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LedgerMetadataIndex}.
+ */
+public class LedgerMetadataIndexTest {
+
+    private static final byte[] MASTER_KEY = "master-key".getBytes();
+
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private File tmpDir;
+    private LedgerMetadataIndex index;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = IOUtils.createTempDir("ledger-metadata-index", "test");
+        index = open();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        if (index != null) {
+            index.close();
+        }
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private LedgerMetadataIndex open() throws Exception {
+        return new LedgerMetadataIndex(conf, KeyValueStorageRocksDB.factory, tmpDir.getAbsolutePath(),
+                NullStatsLogger.INSTANCE);
+    }
+
+    private static LedgerData ledgerData(byte[] masterKey, boolean fenced) {
+        return LedgerData.newBuilder().setExists(true).setFenced(fenced)
+                .setMasterKey(ByteString.copyFrom(masterKey)).build();
+    }
+
+    @Test
+    public void testFlagsAndPersistence() throws Exception {
+        index.setMasterKey(1, MASTER_KEY);
+        Assert.assertTrue(index.exists(1));
+        Assert.assertFalse(index.isFenced(1));
+
+        Assert.assertTrue(index.setFenced(1));
+        Assert.assertFalse(index.setFenced(1));
+        Assert.assertTrue(index.setLimbo(1));
+        Assert.assertFalse(index.setLimbo(1));
+        Assert.assertTrue(index.isLimbo(1));
+        index.setExplicitLac(1, Unpooled.wrappedBuffer(new byte[] { 1, 2 }));
+
+        index.set(2, ledgerData(MASTER_KEY, false));
+        index.setMasterKey(3, MASTER_KEY);
+        index.delete(3);
+        index.flush();
+        index.removeDeletedLedgers();
+
+        index.close();
+        index = open();
+        LedgerData data = index.get(1);
+        Assert.assertTrue(data.getFenced());
+        Assert.assertTrue(data.getLimbo());
+        Assert.assertArrayEquals(MASTER_KEY, index.getMasterKey(1));
+        Assert.assertArrayEquals(new byte[] { 1, 2 }, data.getExplicitLac().toByteArray());
+        Assert.assertFalse(index.get(2).getFenced());
+        Assert.assertFalse(index.exists(3));
+
+        Assert.assertTrue(index.clearLimbo(1));
+        Assert.assertFalse(index.clearLimbo(1));
+        Assert.assertFalse(index.isLimbo(1));
+        try {
+            index.setFenced(3);
+            Assert.fail("The ledger was deleted");
+        } catch (Bookie.NoLedgerException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testFlagsNotLostBySetMasterKey() throws Exception {
+        int numLedgers = 2000;
+        byte[] emptyMasterKey = new byte[MASTER_KEY.length];
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            // Ledgers fenced or put in limbo before their master key is known
+            index.set(ledgerId, ledgerData(emptyMasterKey, false));
+        }
+
+        // Replacing the empty master key must keep the flags set meanwhile
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        Future<?> masterKeys = executor.submit(() -> {
+            barrier.await();
+            for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                index.setMasterKey(ledgerId, MASTER_KEY);
+            }
+            return null;
+        });
+        Future<?> fencing = executor.submit(() -> {
+            barrier.await();
+            for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                index.setFenced(ledgerId);
+            }
+            return null;
+        });
+        Future<?> limbo = executor.submit(() -> {
+            barrier.await();
+            for (long ledgerId = numLedgers - 1; ledgerId >= 0; ledgerId--) {
+                index.setLimbo(ledgerId);
+            }
+            return null;
+        });
+        masterKeys.get();
+        fencing.get();
+        limbo.get();
+
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            Assert.assertTrue("Ledger " + ledgerId, index.isFenced(ledgerId));
+            Assert.assertTrue("Ledger " + ledgerId, index.isLimbo(ledgerId));
+            Assert.assertArrayEquals(MASTER_KEY, index.getMasterKey(ledgerId));
+        }
+    }
+
+    @Test
+    public void testConcurrentUpdatesAndFlush() throws Exception {
+        int numLedgers = 5000;
+        CyclicBarrier barrier = new CyclicBarrier(4);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            final int thread = t;
+            writers.add(executor.submit(() -> {
+                barrier.await();
+                for (long ledgerId = thread; ledgerId < numLedgers; ledgerId += 3) {
+                    index.setMasterKey(ledgerId, MASTER_KEY);
+                    if (ledgerId % 2 == 0) {
+                        index.setFenced(ledgerId);
+                    }
+                    if (ledgerId % 7 == 0) {
+                        index.delete(ledgerId);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        // Flushes while the ledgers are updated
+        barrier.await();
+        while (!writers.stream().allMatch(Future::isDone)) {
+            index.flush();
+            index.removeDeletedLedgers();
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        index.flush();
+        index.removeDeletedLedgers();
+
+        index.close();
+        index = open();
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            if (ledgerId % 7 == 0) {
+                Assert.assertFalse(index.exists(ledgerId));
+            } else {
+                Assert.assertEquals("Ledger " + ledgerId, ledgerId % 2 == 0, index.isFenced(ledgerId));
+                Assert.assertArrayEquals(MASTER_KEY, index.getMasterKey(ledgerId));
+            }
+        }
+    }
+
+    @Test
+    public void testMasterKeyReadWhileLedgersDeleted() throws Exception {
+        int numLedgers = 100;
+        int rounds = 200;
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        // Recreates the ledgers with their own master key, so that a released key id gets reused
+        Future<?> writer = executor.submit(() -> {
+            barrier.await();
+            for (int round = 0; round < rounds; round++) {
+                for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                    index.setMasterKey(ledgerId, ("key-" + ledgerId).getBytes());
+                }
+                for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                    index.delete(ledgerId);
+                }
+            }
+            return null;
+        });
+        Future<?> reader = executor.submit(() -> {
+            barrier.await();
+            while (!writer.isDone()) {
+                for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                    try {
+                        Assert.assertArrayEquals(("key-" + ledgerId).getBytes(), index.getMasterKey(ledgerId));
+                        Assert.assertEquals(ByteString.copyFrom(("key-" + ledgerId).getBytes()),
+                                index.get(ledgerId).getMasterKey());
+                    } catch (Bookie.NoLedgerException e) {
+                        // Deleted
+                    }
+                }
+            }
+            return null;
+        });
+
+        barrier.await();
+        while (!writer.isDone()) {
+            index.flush();
+        }
+        writer.get();
+        reader.get();
+        index.flush();
+    }
+}
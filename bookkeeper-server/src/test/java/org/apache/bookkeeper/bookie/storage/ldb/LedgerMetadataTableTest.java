@@ -0,0 +1,235 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.apache.bookkeeper.bookie.storage.ldb.LedgerMetadataTable.FLAG_EXISTS;
+import static org.apache.bookkeeper.bookie.storage.ldb.LedgerMetadataTable.FLAG_FENCED;
+import static org.apache.bookkeeper.bookie.storage.ldb.LedgerMetadataTable.FLAG_LIMBO;
+import static org.apache.bookkeeper.bookie.storage.ldb.LedgerMetadataTable.NOT_FOUND;
+
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link LedgerMetadataTable}.
+ */
+public class LedgerMetadataTableTest {
+
+    private LedgerMetadataTable table;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        // Smallest table, so that the tests resize the sections
+        table = new LedgerMetadataTable(ByteBufAllocator.DEFAULT, 0);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        table.close();
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        int keyId = table.internMasterKey(new byte[] { 1, 2, 3 });
+        Assert.assertEquals(NOT_FOUND, table.get(1));
+        Assert.assertEquals(NOT_FOUND, table.put(1, FLAG_EXISTS, keyId));
+
+        long state = table.get(1);
+        Assert.assertEquals(FLAG_EXISTS, LedgerMetadataTable.flags(state));
+        Assert.assertEquals(keyId, LedgerMetadataTable.masterKeyId(state));
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, table.getMasterKey(keyId));
+
+        Assert.assertEquals(FLAG_EXISTS, table.updateFlags(1, FLAG_FENCED | FLAG_LIMBO, 0));
+        Assert.assertEquals(FLAG_EXISTS | FLAG_FENCED | FLAG_LIMBO, table.updateFlags(1, 0, FLAG_LIMBO));
+        Assert.assertEquals(FLAG_EXISTS | FLAG_FENCED, LedgerMetadataTable.flags(table.get(1)));
+        Assert.assertEquals(-1, table.updateFlags(2, FLAG_FENCED, 0));
+
+        Assert.assertEquals(state | ((long) FLAG_FENCED << 32), table.remove(1));
+        Assert.assertEquals(NOT_FOUND, table.get(1));
+        Assert.assertEquals(NOT_FOUND, table.remove(1));
+        Assert.assertEquals(0, table.size());
+
+        // Negative ledger ids are never in the table
+        Assert.assertEquals(NOT_FOUND, table.get(-5));
+        Assert.assertEquals(-1, table.updateFlags(-5, FLAG_FENCED, 0));
+    }
+
+    @Test
+    public void testMasterKeysRefCount() {
+        byte[] masterKey = new byte[] { 4, 5, 6 };
+        int id = table.internMasterKey(masterKey);
+        Assert.assertEquals(id, table.internMasterKey(masterKey.clone()));
+        int otherId = table.internMasterKey(new byte[] { 7 });
+        Assert.assertNotEquals(id, otherId);
+
+        table.releaseMasterKey(id);
+        Assert.assertArrayEquals(masterKey, table.getMasterKey(id));
+        table.releaseMasterKey(id);
+        Assert.assertNull(table.getMasterKey(id));
+
+        // The id is reused by the next new key
+        Assert.assertEquals(id, table.internMasterKey(new byte[] { 8 }));
+        Assert.assertArrayEquals(new byte[] { 7 }, table.getMasterKey(otherId));
+    }
+
+    @Test
+    public void testResizeWithDeletes() {
+        int keyId = table.internMasterKey(new byte[] { 1 });
+        int numLedgers = 100000;
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            table.put(ledgerId, FLAG_EXISTS, keyId);
+            if (ledgerId % 3 == 0) {
+                table.remove(ledgerId);
+            }
+        }
+        Assert.assertEquals(numLedgers - (numLedgers + 2) / 3, table.size());
+
+        Set<Long> ledgers = new HashSet<>(table.ledgers());
+        Assert.assertEquals(table.size(), ledgers.size());
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            Assert.assertEquals(ledgerId % 3 != 0, ledgers.contains(ledgerId));
+            Assert.assertEquals(ledgerId % 3 != 0, table.get(ledgerId) != NOT_FOUND);
+        }
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        int numThreads = 8;
+        int ledgersPerThread = 20000;
+        int[] keyIds = new int[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            keyIds[i] = table.internMasterKey(new byte[] { (byte) i });
+        }
+
+        CyclicBarrier barrier = new CyclicBarrier(numThreads + 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<String> readerError = new AtomicReference<>();
+
+        // Reads the ledgers being written and resized: a state is either missing or consistent with its ledger
+        Future<?> reader = executor.submit(() -> {
+            barrier.await();
+            while (writing.get()) {
+                for (long ledgerId = 0; ledgerId < numThreads * ledgersPerThread; ledgerId += 7) {
+                    long state = table.get(ledgerId);
+                    if (state != NOT_FOUND) {
+                        int thread = (int) (ledgerId % numThreads);
+                        int flags = LedgerMetadataTable.flags(state);
+                        if (LedgerMetadataTable.masterKeyId(state) != keyIds[thread]
+                                || (flags & FLAG_EXISTS) == 0 || (flags & ~(FLAG_EXISTS | FLAG_FENCED)) != 0) {
+                            readerError.compareAndSet(null, "Invalid state " + state + " of ledger " + ledgerId);
+                        }
+                    }
+                }
+            }
+            return null;
+        });
+
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            writers.add(executor.submit(() -> {
+                barrier.await();
+                for (long i = 0; i < ledgersPerThread; i++) {
+                    long ledgerId = i * numThreads + thread;
+                    table.put(ledgerId, FLAG_EXISTS, keyIds[thread]);
+                    if (i % 2 == 0) {
+                        table.updateFlags(ledgerId, FLAG_FENCED, 0);
+                    }
+                    if (i % 5 == 0) {
+                        table.remove(ledgerId);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        writing.set(false);
+        reader.get();
+        Assert.assertNull(readerError.get());
+
+        long expectedSize = 0;
+        for (long ledgerId = 0; ledgerId < numThreads * ledgersPerThread; ledgerId++) {
+            long i = ledgerId / numThreads;
+            long state = table.get(ledgerId);
+            if (i % 5 == 0) {
+                Assert.assertEquals(NOT_FOUND, state);
+                continue;
+            }
+            expectedSize++;
+            int expectedFlags = FLAG_EXISTS | (i % 2 == 0 ? FLAG_FENCED : 0);
+            Assert.assertEquals(expectedFlags, LedgerMetadataTable.flags(state));
+            Assert.assertEquals(keyIds[(int) (ledgerId % numThreads)], LedgerMetadataTable.masterKeyId(state));
+        }
+        Assert.assertEquals(expectedSize, table.size());
+        Assert.assertEquals(expectedSize, table.ledgers().size());
+    }
+
+    @Test
+    public void testConcurrentFlagUpdates() throws Exception {
+        int keyId = table.internMasterKey(new byte[] { 1 });
+        int numLedgers = 1000;
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            table.put(ledgerId, FLAG_EXISTS, keyId);
+        }
+
+        // Each thread sets its own flag on all the ledgers, none of the updates must be lost
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        Future<?> fencing = executor.submit(() -> {
+            barrier.await();
+            for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                table.updateFlags(ledgerId, FLAG_FENCED, 0);
+            }
+            return null;
+        });
+        Future<?> limbo = executor.submit(() -> {
+            barrier.await();
+            for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                table.updateFlags(ledgerId, FLAG_LIMBO, 0);
+            }
+            return null;
+        });
+        fencing.get();
+        limbo.get();
+
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            Assert.assertEquals(FLAG_EXISTS | FLAG_FENCED | FLAG_LIMBO, LedgerMetadataTable.flags(table.get(ledgerId)));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReadAheadWindowTest {
+
+    private static final int MIN_SIZE = 4;
+    private static final int MAX_SIZE = 64;
+
+    @Test
+    public void testSequentialStream() {
+        ReadAheadWindow window = new ReadAheadWindow(MIN_SIZE, MAX_SIZE, MIN_SIZE);
+        Assert.assertEquals(4, window.onCacheMiss(0));
+
+        // Trigger in the middle of the entries 1-4 read ahead
+        Assert.assertEquals(-1, window.updateTrigger());
+        Assert.assertEquals(2, window.getTriggerEntryId());
+
+        // The reader hits the trigger: read the next 8 entries asynchronously
+        Assert.assertEquals(5, window.onTriggerHit(2));
+        Assert.assertEquals(8, window.getSize());
+        Assert.assertEquals(-1, window.onTriggerHit(2));
+        window.asyncReadAheadCompleted();
+        Assert.assertEquals(2, window.updateTrigger());
+        Assert.assertEquals(8, window.getTriggerEntryId());
+
+        // A miss right after the entries read ahead continues the stream
+        Assert.assertTrue(window.isContinuedBy(13));
+        Assert.assertEquals(16, window.onCacheMiss(13));
+        Assert.assertEquals(32, window.onCacheMiss(30));
+        Assert.assertEquals(MAX_SIZE, window.onCacheMiss(63));
+        Assert.assertEquals(MAX_SIZE, window.onCacheMiss(128));
+    }
+
+    @Test
+    public void testRandomReads() {
+        ReadAheadWindow window = new ReadAheadWindow(MIN_SIZE, MAX_SIZE, 0);
+        Assert.assertEquals(0, window.onCacheMiss(100));
+        Assert.assertEquals(-1, window.onTriggerHit(100));
+        window.updateTrigger();
+        Assert.assertEquals(-1, window.getTriggerEntryId());
+
+        Assert.assertFalse(window.isContinuedBy(50));
+        Assert.assertEquals(0, window.onCacheMiss(50));
+
+        // Reading sequentially again starts the read-ahead
+        Assert.assertEquals(MIN_SIZE, window.onCacheMiss(51));
+    }
+
+    @Test
+    public void testConcurrentReadersOfTheSameLedger() {
+        TransientLedgerInfo ledgerInfo = new TransientLedgerInfo(1, null);
+        List<Long> evictedTriggers = new ArrayList<>();
+
+        // Two readers catching up on the same ledger from different positions
+        ReadAheadWindow first = ledgerInfo.getReadAheadWindow(0, MIN_SIZE, MAX_SIZE, evictedTriggers::add);
+        Assert.assertEquals(MIN_SIZE, first.onCacheMiss(0));
+        ReadAheadWindow second = ledgerInfo.getReadAheadWindow(1000, MIN_SIZE, MAX_SIZE, evictedTriggers::add);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(0, second.onCacheMiss(1000));
+
+        // Interleaved misses are matched to their own stream and keep growing its window
+        Assert.assertSame(first, ledgerInfo.getReadAheadWindow(5, MIN_SIZE, MAX_SIZE, evictedTriggers::add));
+        Assert.assertEquals(8, first.onCacheMiss(5));
+        Assert.assertSame(second, ledgerInfo.getReadAheadWindow(1001, MIN_SIZE, MAX_SIZE, evictedTriggers::add));
+        Assert.assertEquals(MIN_SIZE, second.onCacheMiss(1001));
+        Assert.assertSame(first, ledgerInfo.getReadAheadWindow(14, MIN_SIZE, MAX_SIZE, evictedTriggers::add));
+        Assert.assertEquals(16, first.onCacheMiss(14));
+        Assert.assertSame(second, ledgerInfo.getReadAheadWindow(1006, MIN_SIZE, MAX_SIZE, evictedTriggers::add));
+        Assert.assertEquals(8, second.onCacheMiss(1006));
+
+        first.updateTrigger();
+        second.updateTrigger();
+        Assert.assertSame(first, ledgerInfo.getReadAheadWindowByTrigger(first.getTriggerEntryId()));
+        Assert.assertSame(second, ledgerInfo.getReadAheadWindowByTrigger(second.getTriggerEntryId()));
+        Assert.assertNull(ledgerInfo.getReadAheadWindowByTrigger(500));
+        Assert.assertTrue(evictedTriggers.isEmpty());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStreamIsReplaced() {
+        TransientLedgerInfo ledgerInfo = new TransientLedgerInfo(1, null);
+        List<Long> evictedTriggers = new ArrayList<>();
+
+        ReadAheadWindow oldest = ledgerInfo.getReadAheadWindow(0, MIN_SIZE, MAX_SIZE, evictedTriggers::add);
+        oldest.onCacheMiss(0);
+        oldest.updateTrigger();
+        long oldestTrigger = oldest.getTriggerEntryId();
+
+        for (int i = 1; i <= TransientLedgerInfo.MAX_READ_AHEAD_STREAMS; i++) {
+            ReadAheadWindow window = ledgerInfo.getReadAheadWindow(i * 1000, MIN_SIZE, MAX_SIZE,
+                    evictedTriggers::add);
+            window.onCacheMiss(i * 1000);
+        }
+
+        Assert.assertEquals(1, evictedTriggers.size());
+        Assert.assertEquals(oldestTrigger, (long) evictedTriggers.get(0));
+        Assert.assertNull(ledgerInfo.getReadAheadWindowByTrigger(oldestTrigger));
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReadCacheTest {
+
+    // 64 bytes entries, 16 per segment of 1 KB
+    private static final int ENTRY_SIZE = 64;
+    private static final int SEGMENT_SIZE = 1024;
+
+    private ReadCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private static DbLedgerStorageStats newStats() {
+        return new DbLedgerStorageStats(NullStatsLogger.INSTANCE, () -> 0L, () -> 0L);
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeZero(ENTRY_SIZE - 16);
+        return entry;
+    }
+
+    private void assertEntry(long ledgerId, long entryId) {
+        ByteBuf entry = cache.get(ledgerId, entryId);
+        Assert.assertNotNull("Entry " + ledgerId + "@" + entryId + " should be cached", entry);
+        try {
+            Assert.assertEquals(ENTRY_SIZE, entry.readableBytes());
+            Assert.assertEquals(ledgerId, entry.getLong(0));
+            Assert.assertEquals(entryId, entry.getLong(8));
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Test
+    public void testSingleRing() {
+        cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 10 * SEGMENT_SIZE, SEGMENT_SIZE);
+        cache.put(1, 0, entry(1, 0));
+        cache.put(1, 1, entry(1, 1));
+
+        Assert.assertEquals(2, cache.count());
+        Assert.assertTrue(cache.hasEntry(1, 0));
+        Assert.assertFalse(cache.hasEntry(1, 2));
+        assertEntry(1, 0);
+        assertEntry(1, 1);
+        Assert.assertNull(cache.get(1, 2));
+        Assert.assertEquals(0, cache.protectedCount());
+    }
+
+    @Test
+    public void testPromotionMovesTheEntry() {
+        cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 10 * SEGMENT_SIZE, SEGMENT_SIZE, 50, newStats());
+        cache.put(1, 0, entry(1, 0));
+        Assert.assertEquals(1, cache.count());
+
+        // First access, only recorded in the sketch
+        assertEntry(1, 0);
+        Assert.assertEquals(0, cache.protectedCount());
+
+        // Second access, promoted to the protected ring and no longer indexed in probation
+        assertEntry(1, 0);
+        Assert.assertEquals(1, cache.protectedCount());
+        Assert.assertEquals(1, cache.count());
+
+        assertEntry(1, 0);
+        Assert.assertEquals(1, cache.count());
+    }
+
+    @Test
+    public void testConcurrentGetsPromoteTheEntryOnce() throws Exception {
+        cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 1000 * SEGMENT_SIZE, SEGMENT_SIZE, 50, newStats());
+        int numEntries = 200;
+        int numThreads = 8;
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            cache.put(3, entryId, entry(3, entryId));
+            // First access, so that all the concurrent gets below cross the promotion threshold
+            assertEntry(3, entryId);
+        }
+
+        CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (long entryId = 0; entryId < numEntries; entryId++) {
+                        barrier.await();
+                        assertEntry(3, entryId);
+                    }
+                } catch (Throwable t) {
+                    synchronized (failures) {
+                        failures.add(t);
+                    }
+                    // Release the other threads
+                    barrier.reset();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(failures.toString(), 0, failures.size());
+        Assert.assertEquals(numEntries, cache.protectedCount());
+        Assert.assertEquals(numEntries, cache.count());
+    }
+
+    @Test
+    public void testEntriesReadOnceAreNotPromoted() {
+        cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 10 * SEGMENT_SIZE, SEGMENT_SIZE, 50, newStats());
+        for (long entryId = 0; entryId < 10; entryId++) {
+            cache.put(2, entryId, entry(2, entryId));
+        }
+        for (long entryId = 0; entryId < 10; entryId++) {
+            assertEntry(2, entryId);
+        }
+        Assert.assertEquals(0, cache.protectedCount());
+        Assert.assertEquals(10, cache.count());
+    }
+
+    @Test
+    public void testDemotionOnProtectedRotation() {
+        // 5 probation and 5 protected segments of 16 entries each
+        cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 10 * SEGMENT_SIZE, SEGMENT_SIZE, 50, newStats());
+        cache.put(1, 0, entry(1, 0));
+        assertEntry(1, 0);
+        assertEntry(1, 0);
+        Assert.assertEquals(1, cache.protectedCount());
+
+        // Promote enough entries to rotate all the protected segments, including the one of 1@0
+        int protectedEntries = 5 * SEGMENT_SIZE / ENTRY_SIZE;
+        for (long entryId = 0; entryId < protectedEntries; entryId++) {
+            cache.put(3, entryId, entry(3, entryId));
+            assertEntry(3, entryId);
+            assertEntry(3, entryId);
+        }
+
+        // 1@0 was demoted to probation rather than dropped
+        Assert.assertTrue(cache.protectedCount() < protectedEntries + 1);
+        Assert.assertTrue(cache.hasEntry(1, 0));
+        assertEntry(1, 0);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link RocksDBSharedCache}.
+ */
+public class RocksDBSharedCacheTest {
+
+    private final ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+    private File tmpDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = IOUtils.createTempDir("rocksdb-shared-cache", "test");
+        conf.setProperty(RocksDBSharedCache.SHARED_CACHE_SIZE_MB, 16);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private static byte[] key(long key) {
+        return ByteBuffer.allocate(8).putLong(key).array();
+    }
+
+    @Test
+    public void testReferenceCounting() {
+        RocksDBSharedCache first = RocksDBSharedCache.acquire(conf);
+        RocksDBSharedCache second = RocksDBSharedCache.acquire(conf);
+        Assert.assertNotNull(first);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(2, RocksDBSharedCache.getRefCount());
+
+        RocksDBSharedCache.release(first);
+        Assert.assertEquals(1, RocksDBSharedCache.getRefCount());
+        Assert.assertSame(first, RocksDBSharedCache.acquire(conf));
+        RocksDBSharedCache.release(first);
+
+        RocksDBSharedCache.release(second);
+        Assert.assertEquals(0, RocksDBSharedCache.getRefCount());
+
+        // Created again once released by all
+        RocksDBSharedCache third = RocksDBSharedCache.acquire(conf);
+        Assert.assertNotSame(first, third);
+        RocksDBSharedCache.release(third);
+        Assert.assertEquals(0, RocksDBSharedCache.getRefCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        conf.setProperty(RocksDBSharedCache.SHARED_CACHE_SIZE_MB, 0);
+        Assert.assertNull(RocksDBSharedCache.acquire(conf));
+        RocksDBSharedCache.release(null);
+        Assert.assertEquals(0, RocksDBSharedCache.getRefCount());
+    }
+
+    @Test
+    public void testSharedByOpenStorages() throws Exception {
+        KeyValueStorage ledgers = new KeyValueStorageRocksDB(tmpDir.getAbsolutePath(), "ledgers",
+                DbConfigType.LedgerMetadata, conf);
+        KeyValueStorage locations = new KeyValueStorageRocksDB(tmpDir.getAbsolutePath(), "locations",
+                DbConfigType.EntryLocation, conf);
+        Assert.assertEquals(2, RocksDBSharedCache.getRefCount());
+
+        for (long i = 0; i < 1000; i++) {
+            ledgers.put(key(i), key(i + 1));
+            locations.put(key(i), key(i + 2));
+        }
+        ledgers.sync();
+        locations.sync();
+        for (long i = 0; i < 1000; i++) {
+            Assert.assertArrayEquals(key(i + 1), ledgers.get(key(i)));
+            Assert.assertArrayEquals(key(i + 2), locations.get(key(i)));
+        }
+
+        ledgers.close();
+        Assert.assertEquals(1, RocksDBSharedCache.getRefCount());
+        Assert.assertArrayEquals(key(2), locations.get(key(0)));
+        locations.close();
+        Assert.assertEquals(0, RocksDBSharedCache.getRefCount());
+    }
+
+    @Test
+    public void testReleasedOnFailedOpen() throws Exception {
+        // A directory holding another kind of database cannot be opened
+        File dir = new File(tmpDir, "locations");
+        Assert.assertTrue(dir.mkdirs());
+        Assert.assertTrue(new File(dir, KeyValueStorageLsm.MARKER_FILE).createNewFile());
+
+        try {
+            new KeyValueStorageRocksDB(tmpDir.getAbsolutePath(), "locations", DbConfigType.EntryLocation, conf);
+            Assert.fail("Should have failed to open the database");
+        } catch (IOException e) {
+            // Expected
+        }
+        Assert.assertEquals(0, RocksDBSharedCache.getRefCount());
+    }
+
+    @Test
+    public void testLoadTableOptions() throws Exception {
+        Map<String, Map<String, String>> tableOptions =
+                RocksDBSharedCache.loadTableOptions(conf.getEntryLocationRocksdbConf());
+        Map<String, String> options = tableOptions.get("default");
+        Assert.assertNotNull(options);
+        Assert.assertEquals("65536", options.get("block_size"));
+        Assert.assertEquals("2", options.get("format_version"));
+        Assert.assertEquals("kxxHash", options.get("checksum"));
+        Assert.assertEquals("rocksdb.BloomFilter:10:false", options.get("filter_policy"));
+        Assert.assertEquals("true", options.get("cache_index_and_filter_blocks"));
+
+        // No block based table options
+        Assert.assertTrue(RocksDBSharedCache.loadTableOptions(conf.getDefaultRocksDBConf()).isEmpty());
+        Assert.assertTrue(RocksDBSharedCache.loadTableOptions(conf.getLedgerMetadataRocksdbConf()).isEmpty());
+    }
+}
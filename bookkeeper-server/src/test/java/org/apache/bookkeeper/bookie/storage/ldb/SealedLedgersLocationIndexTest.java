@@ -0,0 +1,154 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.Random;
+
+import org.apache.bookkeeper.bookie.storage.ldb.SealedLedgersLocationIndex.CompactLocations;
+import org.apache.bookkeeper.bookie.storage.ldb.SealedLedgersLocationIndex.SealedLedger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SealedLedgersLocationIndexTest {
+
+    private static long location(long logId, long offset) {
+        return logId << 32 | offset;
+    }
+
+    @Test
+    public void testVarintRoundTrip() {
+        Random random = new Random(1);
+        long[] locations = new long[1000];
+        for (int i = 0; i < locations.length; i++) {
+            if (i % 17 == 5) {
+                // Missing entry
+                locations[i] = 0;
+            } else if (i % 100 == 0) {
+                // Entries moved to an older or a newer entry log, negative and large deltas
+                locations[i] = location(random.nextInt(1000), random.nextInt(Integer.MAX_VALUE));
+            } else {
+                locations[i] = location(500, 1000 + i * 100L);
+            }
+        }
+        locations[999] = Long.MAX_VALUE;
+
+        CompactLocations.Builder builder = CompactLocations.newBuilder(10);
+        for (long location : locations) {
+            builder.add(location);
+        }
+        CompactLocations compactLocations = builder.build();
+
+        for (int i = 0; i < locations.length; i++) {
+            Assert.assertEquals("entry " + (10 + i), locations[i], compactLocations.get(10 + i));
+        }
+        Assert.assertEquals(0, compactLocations.get(9));
+        Assert.assertEquals(0, compactLocations.get(10 + locations.length));
+    }
+
+    @Test
+    public void testAdjacentEntriesAreCompact() {
+        int count = 1000;
+        CompactLocations.Builder builder = CompactLocations.newBuilder(0);
+        for (int i = 0; i < count; i++) {
+            // Entries of 50 bytes, one after the other in the same entry log
+            builder.add(location(3, 1024 + i * 50L));
+        }
+        CompactLocations compactLocations = builder.build();
+
+        // 1 byte per entry, plus the first entry of the log and the headers of the blocks of 64 entries
+        int blocks = (count + 63) / 64;
+        Assert.assertTrue(compactLocations.sizeInBytes() <= count + 10 + blocks * 12L);
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(location(3, 1024 + i * 50L), compactLocations.get(i));
+        }
+    }
+
+    @Test
+    public void testReserveAndPublish() {
+        SealedLedgersLocationIndex index = new SealedLedgersLocationIndex(1024 * 1024);
+        CompactLocations locations = CompactLocations.newBuilder(0).add(100).add(200).build();
+
+        SealedLedger slot = index.reserve(1);
+        Assert.assertNotNull(slot);
+        Assert.assertNull(index.reserve(1));
+        // A reserved ledger is not looked up until its locations are published
+        Assert.assertEquals(0, index.getLocation(1, 0));
+
+        Assert.assertTrue(index.publish(1, slot, locations));
+        Assert.assertEquals(100, index.getLocation(1, 0));
+        Assert.assertEquals(200, index.getLocation(1, 1));
+        Assert.assertEquals(0, index.getLocation(1, 2));
+        Assert.assertEquals(0, index.getLocation(2, 0));
+        Assert.assertEquals(1, index.count());
+        Assert.assertEquals(locations.sizeInBytes(), index.size());
+
+        index.invalidate(1);
+        Assert.assertEquals(0, index.getLocation(1, 0));
+        Assert.assertEquals(0, index.count());
+        Assert.assertEquals(0, index.size());
+        Assert.assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void testInvalidatedWhileLoading() {
+        SealedLedgersLocationIndex index = new SealedLedgersLocationIndex(1024 * 1024);
+        SealedLedger slot = index.reserve(1);
+
+        // The ledger is written while its locations are being loaded
+        index.invalidate(1);
+        Assert.assertFalse(index.publish(1, slot, CompactLocations.newBuilder(0).add(100).build()));
+        Assert.assertEquals(0, index.getLocation(1, 0));
+        Assert.assertEquals(0, index.size());
+        Assert.assertTrue(index.isEmpty());
+
+        // The ledger can be sealed again
+        Assert.assertNotNull(index.reserve(1));
+    }
+
+    @Test
+    public void testMaxSize() {
+        CompactLocations locations = CompactLocations.newBuilder(0).add(100).add(200).build();
+        SealedLedgersLocationIndex index = new SealedLedgersLocationIndex(locations.sizeInBytes());
+
+        SealedLedger slot = index.reserve(1);
+        Assert.assertTrue(index.publish(1, slot, locations));
+
+        // Full index
+        Assert.assertNull(index.reserve(2));
+        index.invalidate(1);
+
+        slot = index.reserve(2);
+        Assert.assertFalse(index.publish(2, slot, CompactLocations.newBuilder(0).add(100).add(200).add(300).build()));
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testCandidates() {
+        SealedLedgersLocationIndex index = new SealedLedgersLocationIndex(1024 * 1024);
+        index.recordStorageLookup(1);
+        index.recordStorageLookup(2);
+        index.recordStorageLookup(1);
+
+        Assert.assertEquals(2, index.drainCandidates().size());
+        Assert.assertTrue(index.drainCandidates().isEmpty());
+    }
+}
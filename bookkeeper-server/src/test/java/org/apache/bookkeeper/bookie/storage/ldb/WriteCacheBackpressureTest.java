@@ -0,0 +1,126 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link WriteCacheBackpressure}.
+ */
+public class WriteCacheBackpressureTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long CACHE_SIZE = 100 * MB;
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testFlushThroughput() {
+        WriteCacheBackpressure backpressure = new WriteCacheBackpressure(CACHE_SIZE, 50);
+        Assert.assertEquals(0, backpressure.getFlushThroughput());
+
+        backpressure.onFlushCompleted(100 * MB, millis(1000));
+        Assert.assertEquals(100 * MB, backpressure.getFlushThroughput());
+
+        // Weighted average with the previous flushes
+        backpressure.onFlushCompleted(50 * MB, millis(1000));
+        Assert.assertEquals(0.3 * 50 * MB + 0.7 * 100 * MB, backpressure.getFlushThroughput(), 1.0);
+
+        // Too small to be meaningful
+        long throughput = backpressure.getFlushThroughput();
+        backpressure.onFlushCompleted(MB / 2, millis(1));
+        backpressure.onFlushCompleted(100 * MB, 0);
+        Assert.assertEquals(throughput, backpressure.getFlushThroughput());
+    }
+
+    @Test
+    public void testNoRejection() {
+        WriteCacheBackpressure backpressure = new WriteCacheBackpressure(CACHE_SIZE, 50);
+        // No flush throughput known yet
+        Assert.assertEquals(0, backpressure.computeRejectProbability(90 * MB, CACHE_SIZE, true, millis(100)), 0.0);
+
+        backpressure.onFlushCompleted(100 * MB, millis(1000));
+        // Below the start percent
+        Assert.assertEquals(0, backpressure.computeRejectProbability(40 * MB, CACHE_SIZE, true, millis(10)), 0.0);
+        // No flush ongoing, the cache is swapped once full
+        Assert.assertEquals(0, backpressure.computeRejectProbability(90 * MB, CACHE_SIZE, false, millis(100)), 0.0);
+        // 60 MB in 1 s: full in 0.67 s, while the flush of 100 MB at 100 MB/s is already done
+        Assert.assertEquals(0, backpressure.computeRejectProbability(60 * MB, CACHE_SIZE, true, millis(1000)), 0.0);
+        // 60 MB in 0.5 s: full in 0.33 s, while the flush of 20 MB is done
+        Assert.assertEquals(0, backpressure.computeRejectProbability(60 * MB, 20 * MB, true, millis(500)), 0.0);
+    }
+
+    @Test
+    public void testRejectProbability() {
+        WriteCacheBackpressure backpressure = new WriteCacheBackpressure(CACHE_SIZE, 50);
+        backpressure.onFlushCompleted(100 * MB, millis(1000));
+
+        // 60 MB in 0.5 s: full in 0.33 s, while the flush of 100 MB completes in 0.5 s
+        Assert.assertEquals(1 - (40.0 / 120) / 0.5,
+                backpressure.computeRejectProbability(60 * MB, CACHE_SIZE, true, millis(500)), 0.0001);
+        // The faster the cache fills, the more writes are rejected
+        double slow = backpressure.computeRejectProbability(60 * MB, 2 * CACHE_SIZE, true, millis(800));
+        double fast = backpressure.computeRejectProbability(60 * MB, 2 * CACHE_SIZE, true, millis(200));
+        Assert.assertTrue(slow > 0);
+        Assert.assertTrue(fast > slow);
+        Assert.assertTrue(fast < 1);
+        // Full cache while flushing
+        Assert.assertEquals(1, backpressure.computeRejectProbability(CACHE_SIZE, CACHE_SIZE, true, millis(500)),
+                0.0);
+        Assert.assertEquals(2 * CACHE_SIZE, backpressure.getFillRate());
+    }
+
+    @Test
+    public void testShouldReject() {
+        WriteCacheBackpressure backpressure = new WriteCacheBackpressure(CACHE_SIZE, 50);
+        backpressure.onFlushCompleted(10 * MB, millis(1000));
+        backpressure.onWriteCacheSwapped();
+
+        // Full cache while flushing 1 GB at 10 MB/s: every write is rejected
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(backpressure.shouldReject(CACHE_SIZE, 1024 * MB, true));
+        }
+        Assert.assertEquals(100, backpressure.getRejectPercent(), 0.0);
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertFalse(backpressure.shouldReject(CACHE_SIZE, 1024 * MB, false));
+        }
+        Assert.assertEquals(0, backpressure.getRejectPercent(), 0.0);
+    }
+
+    @Test
+    public void testStartPercentBounds() {
+        WriteCacheBackpressure backpressure = new WriteCacheBackpressure(CACHE_SIZE, 150);
+        backpressure.onFlushCompleted(100 * MB, millis(1000));
+        // The start is capped to the size of the cache
+        Assert.assertEquals(0, backpressure.computeRejectProbability(CACHE_SIZE - 1, CACHE_SIZE, true, millis(100)),
+                0.0);
+        Assert.assertEquals(1, backpressure.computeRejectProbability(CACHE_SIZE, CACHE_SIZE, true, millis(100)), 0.0);
+
+        backpressure = new WriteCacheBackpressure(CACHE_SIZE, -10);
+        backpressure.onFlushCompleted(100 * MB, millis(1000));
+        Assert.assertTrue(backpressure.computeRejectProbability(MB, CACHE_SIZE, true, millis(1)) > 0);
+    }
+}
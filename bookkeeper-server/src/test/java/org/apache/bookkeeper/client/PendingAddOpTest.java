@@ -0,0 +1,259 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.client;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.bookkeeper.client.AsyncCallback.AddCallbackWithLatency;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieClient;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.util.MathUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the handling by {@link PendingAddOp} of the adds rejected by a bookie.
+ */
+public class PendingAddOpTest {
+
+    private static final long BACKOFF_MS = 200;
+    private static final int MAX_RETRIES = 1;
+
+    private final List<BookieId> ensemble = Arrays.asList(BookieId.parse("bookie-0:3181"),
+            BookieId.parse("bookie-1:3181"), BookieId.parse("bookie-2:3181"));
+
+    private OrderedExecutor mainWorkerPool;
+    private OrderedScheduler scheduler;
+    private BookieClient bookieClient;
+    private LedgerHandle lh;
+    private ClientContext clientCtx;
+
+    @Before
+    public void setUp() {
+        mainWorkerPool = OrderedExecutor.newBuilder().numThreads(1).name("test-main-worker").build();
+        scheduler = OrderedScheduler.newSchedulerBuilder().numThreads(1).name("test-scheduler").build();
+        bookieClient = mock(BookieClient.class);
+        lh = mock(LedgerHandle.class);
+        when(lh.getDistributionSchedule()).thenReturn(new RoundRobinDistributionSchedule(3, 2, 3));
+
+        ClientConfiguration conf = new ClientConfiguration().setTooManyRequestsBackoffMillis(BACKOFF_MS)
+                .setTooManyRequestsMaxRetries(MAX_RETRIES);
+        clientCtx = mock(ClientContext.class);
+        when(clientCtx.getConf()).thenReturn(ClientInternalConf.fromConfigAndFeatureProvider(conf,
+                SettableFeatureProvider.DISABLE_ALL));
+        when(clientCtx.getBookieClient()).thenReturn(bookieClient);
+        when(clientCtx.getMainWorkerPool()).thenReturn(mainWorkerPool);
+        when(clientCtx.getScheduler()).thenReturn(scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        mainWorkerPool.shutdownNow();
+    }
+
+    /**
+     * Create an add op whose write requests were sent to the 3 bookies of the ensemble.
+     */
+    private PendingAddOp sentAddOp() {
+        PendingAddOp op = PendingAddOp.create(lh, clientCtx, ensemble, Unpooled.wrappedBuffer(new byte[16]),
+                EnumSet.noneOf(WriteFlag.class), mock(AddCallbackWithLatency.class), null);
+        op.setEntryId(0);
+        op.toSend = ByteBufList.get(Unpooled.wrappedBuffer(new byte[64]));
+        op.hasRun = true;
+        op.pendingWriteRequests = 3;
+        return op;
+    }
+
+    private void writeComplete(PendingAddOp op, int rc, int bookieIndex) throws Exception {
+        mainWorkerPool.submitOrdered(0L, () -> {
+            op.writeComplete(rc, 0L, 0L, ensemble.get(bookieIndex), bookieIndex);
+            return null;
+        }).get();
+    }
+
+    @Test
+    public void testRejectedAddRetriedOnSameBookie() throws Exception {
+        PendingAddOp op = sentAddOp();
+        CountDownLatch retried = new CountDownLatch(1);
+        AtomicLong retryTime = new AtomicLong();
+        doAnswer(invocation -> {
+            retryTime.set(MathUtils.nowInNano());
+            retried.countDown();
+            return null;
+        }).when(bookieClient).addEntry(eq(ensemble.get(1)), anyLong(), any(), eq(0L), any(), same(op), eq(1),
+                anyInt(), eq(false), any());
+
+        long startTime = MathUtils.nowInNano();
+        writeComplete(op, BKException.Code.TooManyRequestsException, 1);
+
+        Assert.assertTrue(retried.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(retryTime.get() - startTime >= TimeUnit.MILLISECONDS.toNanos(BACKOFF_MS));
+        // The bookie is kept in the ensemble
+        verify(lh, never()).handleBookieFailure(any());
+        verify(lh, never()).notifyWriteFailed(anyInt(), any());
+        Assert.assertEquals(3, mainWorkerPool.submitOrdered(0L, () -> op.pendingWriteRequests).get().intValue());
+    }
+
+    @Test
+    public void testRejectedAddRetriesCapped() throws Exception {
+        PendingAddOp op = sentAddOp();
+        CountDownLatch retried = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            retried.countDown();
+            return null;
+        }).when(bookieClient).addEntry(any(), anyLong(), any(), anyLong(), any(), any(), any(), anyInt(),
+                anyBoolean(), any());
+
+        writeComplete(op, BKException.Code.TooManyRequestsException, 1);
+        Assert.assertTrue(retried.await(10, TimeUnit.SECONDS));
+        verify(lh, never()).handleBookieFailure(any());
+
+        // Rejected again once the retries are exhausted, the bookie is replaced
+        writeComplete(op, BKException.Code.TooManyRequestsException, 1);
+        verify(lh).handleBookieFailure(ImmutableMap.of(1, ensemble.get(1)));
+        verify(bookieClient, after(4 * BACKOFF_MS).times(1)).addEntry(any(), anyLong(), any(), anyLong(), any(),
+                any(), any(), anyInt(), anyBoolean(), any());
+    }
+
+    @Test
+    public void testMinBackoff() throws Exception {
+        when(clientCtx.getConf()).thenReturn(ClientInternalConf.fromConfigAndFeatureProvider(
+                new ClientConfiguration().setTooManyRequestsBackoffMillis(0), SettableFeatureProvider.DISABLE_ALL));
+        PendingAddOp op = sentAddOp();
+        CountDownLatch retried = new CountDownLatch(1);
+        AtomicLong retryTime = new AtomicLong();
+        doAnswer(invocation -> {
+            retryTime.set(MathUtils.nowInNano());
+            retried.countDown();
+            return null;
+        }).when(bookieClient).addEntry(any(), anyLong(), any(), anyLong(), any(), any(), any(), anyInt(),
+                anyBoolean(), any());
+
+        long startTime = MathUtils.nowInNano();
+        writeComplete(op, BKException.Code.TooManyRequestsException, 1);
+
+        Assert.assertTrue(retried.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(retryTime.get() - startTime
+                >= TimeUnit.MILLISECONDS.toNanos(PendingAddOp.MIN_TOO_MANY_REQUESTS_BACKOFF_MS));
+    }
+
+    @Test
+    public void testFailedFastAddWrittenToAnotherBookie() throws Exception {
+        PendingAddOp op = sentAddOp().allowFailFastOnUnwritableChannel();
+        // The adds to a channel that is not writable fail fast as when the bookie is not available
+        writeComplete(op, BKException.Code.BookieHandleNotAvailableException, 1);
+
+        verify(lh).handleBookieFailure(ImmutableMap.of(1, ensemble.get(1)));
+        verify(bookieClient, after(2 * BACKOFF_MS).never()).addEntry(any(), anyLong(), any(), anyLong(), any(),
+                any(), any(), anyInt(), anyBoolean(), any());
+    }
+
+    @Test
+    public void testRejectedFailFastAddRetriedOnSameBookie() throws Exception {
+        PendingAddOp op = sentAddOp().allowFailFastOnUnwritableChannel();
+        CountDownLatch retried = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            retried.countDown();
+            return null;
+        }).when(bookieClient).addEntry(eq(ensemble.get(1)), anyLong(), any(), eq(0L), any(), same(op), eq(1),
+                anyInt(), eq(true), any());
+
+        // Rejected by the bookie itself, the add is only delayed
+        writeComplete(op, BKException.Code.TooManyRequestsException, 1);
+
+        Assert.assertTrue(retried.await(10, TimeUnit.SECONDS));
+        verify(lh, never()).handleBookieFailure(any());
+    }
+
+    @Test
+    public void testOtherFailuresChangeTheEnsemble() throws Exception {
+        PendingAddOp op = sentAddOp();
+        writeComplete(op, BKException.Code.WriteException, 2);
+
+        verify(lh).handleBookieFailure(ImmutableMap.of(2, ensemble.get(2)));
+        verify(bookieClient, after(2 * BACKOFF_MS).never()).addEntry(any(), anyLong(), any(), anyLong(), any(),
+                any(), any(), anyInt(), anyBoolean(), any());
+    }
+
+    @Test
+    public void testNoRetryOnceCallbackTriggered() throws Exception {
+        PendingAddOp op = sentAddOp();
+        writeComplete(op, BKException.Code.TooManyRequestsException, 1);
+        // Failed by another bookie before the end of the backoff
+        mainWorkerPool.submitOrdered(0L, () -> {
+            op.callbackTriggered = true;
+            return null;
+        }).get();
+
+        verify(bookieClient, after(2 * BACKOFF_MS).never()).addEntry(any(), anyLong(), any(), anyLong(), any(),
+                any(), any(), anyInt(), anyBoolean(), any());
+        verify(lh, never()).handleBookieFailure(any());
+        Assert.assertEquals(2, mainWorkerPool.submitOrdered(0L, () -> op.pendingWriteRequests).get().intValue());
+    }
+
+    @Test
+    public void testNoRetryOnceBookieReplaced() throws Exception {
+        PendingAddOp op = sentAddOp();
+        writeComplete(op, BKException.Code.TooManyRequestsException, 1);
+        // Ensemble changed before the end of the backoff, the entry is sent to the new bookie by the ensemble change
+        List<BookieId> newEnsemble = Arrays.asList(ensemble.get(0), BookieId.parse("bookie-3:3181"),
+                ensemble.get(2));
+        mainWorkerPool.submitOrdered(0L, () -> {
+            op.ensemble = newEnsemble;
+            return null;
+        }).get();
+
+        verify(bookieClient, after(2 * BACKOFF_MS).never()).addEntry(any(), anyLong(), any(), anyLong(), any(),
+                any(), any(), anyInt(), anyBoolean(), any());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.proto;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadEntryProcessorTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final long ENTRY_ID = 2;
+
+    private OrderedExecutor readThreadPool;
+    private Bookie bookie;
+    private BookieRequestProcessor requestProcessor;
+    private Channel channel;
+    // Name of the thread that wrote each response
+    private final LinkedBlockingQueue<String> writingThreads = new LinkedBlockingQueue<>();
+    private final CountDownLatch writeCompleted = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        readThreadPool = OrderedExecutor.newBuilder().numThreads(1).name("test-read").build();
+        bookie = mock(Bookie.class);
+        requestProcessor = mock(BookieRequestProcessor.class);
+        when(requestProcessor.getBookie()).thenReturn(bookie);
+        when(requestProcessor.getRequestStats()).thenReturn(new RequestStats(NullStatsLogger.INSTANCE));
+
+        // A slow client: the writes waited for complete only when the test allows it
+        ChannelFuture writeFuture = mock(ChannelFuture.class);
+        when(writeFuture.await()).thenAnswer(invocation -> {
+            writeCompleted.await();
+            return writeFuture;
+        });
+        channel = mock(Channel.class);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.voidPromise()).thenReturn(mock(ChannelPromise.class));
+        when(channel.writeAndFlush(any())).thenAnswer(invocation -> {
+            writingThreads.add(Thread.currentThread().getName());
+            return writeFuture;
+        });
+        when(channel.writeAndFlush(any(), any())).thenAnswer(invocation -> {
+            writingThreads.add(Thread.currentThread().getName());
+            return null;
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writeCompleted.countDown();
+        readThreadPool.shutdown();
+        readThreadPool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void processRead(boolean throttleReadResponses) {
+        BookieProtocol.ReadRequest request = new BookieProtocol.ReadRequest(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                LEDGER_ID, ENTRY_ID, BookieProtocol.FLAG_NONE, null);
+        ReadEntryProcessor read = ReadEntryProcessor.create(request, channel, requestProcessor, null,
+                readThreadPool, throttleReadResponses);
+        readThreadPool.executeOrdered(LEDGER_ID, read);
+    }
+
+    @Test
+    public void testStorageThreadIsNotBlockedByThrottledResponse() throws Exception {
+        CompletableFuture<ByteBuf> entryFuture = new CompletableFuture<>();
+        when(bookie.readEntryAsync(LEDGER_ID, ENTRY_ID)).thenReturn(entryFuture);
+        processRead(true);
+
+        // The read completes on a storage read thread, while the client is not reading the responses
+        Thread storageThread = new Thread(() -> entryFuture.complete(Unpooled.wrappedBuffer(new byte[10])),
+                "test-storage-read");
+        storageThread.start();
+        storageThread.join(TimeUnit.SECONDS.toMillis(10));
+        Assert.assertFalse(storageThread.isAlive());
+
+        String writingThread = writingThreads.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(writingThread);
+        Assert.assertTrue(writingThread, writingThread.startsWith("test-read"));
+    }
+
+    @Test
+    public void testFailedReadIsSentFromReadThread() throws Exception {
+        CompletableFuture<ByteBuf> entryFuture = new CompletableFuture<>();
+        when(bookie.readEntryAsync(LEDGER_ID, ENTRY_ID)).thenReturn(entryFuture);
+        processRead(false);
+
+        Thread storageThread = new Thread(() -> entryFuture.completeExceptionally(
+                new Bookie.NoEntryException(LEDGER_ID, ENTRY_ID)), "test-storage-read");
+        storageThread.start();
+        storageThread.join(TimeUnit.SECONDS.toMillis(10));
+
+        String writingThread = writingThreads.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(writingThread);
+        Assert.assertTrue(writingThread, writingThread.startsWith("test-read"));
+    }
+
+    @Test
+    public void testCachedReadIsSentInline() throws Exception {
+        when(bookie.readEntryAsync(LEDGER_ID, ENTRY_ID))
+                .thenReturn(CompletableFuture.completedFuture(Unpooled.wrappedBuffer(new byte[10])));
+        writeCompleted.countDown();
+        processRead(true);
+
+        String writingThread = writingThreads.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(writingThread);
+        Assert.assertTrue(writingThread, writingThread.startsWith("test-read"));
+    }
+}
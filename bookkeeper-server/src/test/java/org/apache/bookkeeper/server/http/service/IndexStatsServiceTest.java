@@ -0,0 +1,84 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.server.http.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.LedgerStorage;
+import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.common.util.JsonUtil;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.http.HttpServer;
+import org.apache.bookkeeper.http.service.HttpServiceRequest;
+import org.apache.bookkeeper.http.service.HttpServiceResponse;
+import org.apache.bookkeeper.proto.BookieServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link IndexStatsService}.
+ */
+public class IndexStatsServiceTest {
+
+    private static IndexStatsService newService(LedgerStorage ledgerStorage) {
+        Bookie bookie = mock(Bookie.class);
+        when(bookie.getLedgerStorage()).thenReturn(ledgerStorage);
+        BookieServer bookieServer = mock(BookieServer.class);
+        when(bookieServer.getBookie()).thenReturn(bookie);
+        return new IndexStatsService(new ServerConfiguration(), bookieServer);
+    }
+
+    @Test
+    public void testGetIndexStats() throws Exception {
+        Map<String, String> dump = new TreeMap<>();
+        dump.put("/data/ledgers/current/ledgers", "** Compaction Stats [default] **\nledgers");
+        dump.put("/data/ledgers/current/locations", "** Compaction Stats [default] **\nlocations");
+        DbLedgerStorage ledgerStorage = mock(DbLedgerStorage.class);
+        when(ledgerStorage.getIndexStatsDump()).thenReturn(dump);
+
+        HttpServiceResponse response = newService(ledgerStorage)
+                .handle(new HttpServiceRequest(null, HttpServer.Method.GET, null));
+        Assert.assertEquals(HttpServer.StatusCode.OK.getValue(), response.getStatusCode());
+        @SuppressWarnings("unchecked")
+        Map<String, String> body = JsonUtil.fromJson(response.getBody(), Map.class);
+        Assert.assertEquals(dump, body);
+    }
+
+    @Test
+    public void testOtherLedgerStorage() throws Exception {
+        HttpServiceResponse response = newService(mock(LedgerStorage.class))
+                .handle(new HttpServiceRequest(null, HttpServer.Method.GET, null));
+        Assert.assertEquals(HttpServer.StatusCode.OK.getValue(), response.getStatusCode());
+        Assert.assertTrue(JsonUtil.fromJson(response.getBody(), Map.class).isEmpty());
+    }
+
+    @Test
+    public void testOnlyGet() throws Exception {
+        HttpServiceResponse response = newService(mock(DbLedgerStorage.class))
+                .handle(new HttpServiceRequest(null, HttpServer.Method.POST, null));
+        Assert.assertEquals(HttpServer.StatusCode.NOT_FOUND.getValue(), response.getStatusCode());
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Microbenchmarks of the RocksDB and Lsm key-value storages, on the (ledgerId, entryId) -&gt; location records of
+ * the entry location index.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class KeyValueStorageBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final int RANGE_SIZE = 100;
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+        @Param({"RocksDB", "Lsm"})
+        private String storageType;
+
+        @Param({"1000"})
+        private int numLedgers;
+
+        @Param({"1000"})
+        private int entriesPerLedger;
+
+        // Relative to the microbenchmarks directory
+        @Param({"../conf/entry_location_rocksdb.conf"})
+        private String rocksDbConf;
+
+        private File dir;
+        private KeyValueStorage storage;
+
+        // Ledgers written by the batch write benchmark, after the preloaded ones
+        private long nextWrittenLedgerId;
+
+        // Next ledger deleted by the delete range benchmark, and first one deleted in the current iteration
+        private long nextDeletedLedgerId;
+        private long firstDeletedLedgerId;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("kv-storage-benchmark").toFile();
+            ServerConfiguration conf = new ServerConfiguration();
+            conf.setEntryLocationRocksdbConf(rocksDbConf);
+            if (DbLedgerStorage.KEY_VALUE_STORAGE_LSM.equals(storageType)) {
+                storage = new KeyValueStorageLsm(dir.getPath(), "locations", DbConfigType.EntryLocation, conf);
+            } else {
+                storage = new KeyValueStorageRocksDB(dir.getPath(), "locations", DbConfigType.EntryLocation, conf);
+            }
+
+            for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                writeLedger(ledgerId);
+            }
+            storage.sync();
+            nextWrittenLedgerId = numLedgers;
+        }
+
+        /**
+         * Write back the ledgers deleted during the previous iteration.
+         */
+        @Setup(Level.Iteration)
+        public void restoreDeletedLedgers() throws IOException {
+            for (long i = firstDeletedLedgerId; i < nextDeletedLedgerId; i++) {
+                writeLedger(i % numLedgers);
+            }
+            firstDeletedLedgerId = nextDeletedLedgerId;
+        }
+
+        private void writeLedger(long ledgerId) throws IOException {
+            try (Batch batch = storage.newBatch()) {
+                LongPairWrapper key = LongPairWrapper.get(ledgerId, 0);
+                LongWrapper value = LongWrapper.get(0);
+                for (long entryId = 0; entryId < entriesPerLedger; entryId++) {
+                    key.set(ledgerId, entryId);
+                    value.set(location(ledgerId, entryId));
+                    batch.put(key.array, value.array);
+                }
+                batch.flush();
+                key.recycle();
+                value.recycle();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws IOException {
+            storage.close();
+            try (Stream<Path> files = Files.walk(dir.toPath())) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static long location(long ledgerId, long entryId) {
+        return (ledgerId << 32) + entryId * 128;
+    }
+
+    @Benchmark
+    public long pointGet(TestState s) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LongPairWrapper key = LongPairWrapper.get(random.nextInt(s.numLedgers), random.nextInt(s.entriesPerLedger));
+        LongWrapper value = LongWrapper.get();
+        try {
+            s.storage.get(key.array, value.array);
+            return value.getValue();
+        } finally {
+            key.recycle();
+            value.recycle();
+        }
+    }
+
+    @Benchmark
+    public void rangeIteration(TestState s, Blackhole bh) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long ledgerId = random.nextInt(s.numLedgers);
+        long firstEntryId = random.nextInt(Math.max(1, s.entriesPerLedger - RANGE_SIZE));
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, firstEntryId);
+        LongPairWrapper lastKey = LongPairWrapper.get(ledgerId, firstEntryId + RANGE_SIZE);
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = s.storage.iterator(firstKey.array,
+                lastKey.array)) {
+            while (iterator.hasNext()) {
+                bh.consume(iterator.next().getValue());
+            }
+        } finally {
+            firstKey.recycle();
+            lastKey.recycle();
+        }
+    }
+
+    @Benchmark
+    public void batchWrite(TestState s) throws IOException {
+        long ledgerId = s.nextWrittenLedgerId++;
+        LongPairWrapper key = LongPairWrapper.get(ledgerId, 0);
+        LongWrapper value = LongWrapper.get(0);
+        try (Batch batch = s.storage.newBatch()) {
+            for (long entryId = 0; entryId < BATCH_SIZE; entryId++) {
+                key.set(ledgerId, entryId);
+                value.set(location(ledgerId, entryId));
+                batch.put(key.array, value.array);
+            }
+            batch.flush();
+        } finally {
+            key.recycle();
+            value.recycle();
+        }
+    }
+
+    /**
+     * Delete the entries of a preloaded ledger. Each invocation deletes the next ledger, and the deleted ledgers
+     * are written back between the iterations.
+     */
+    @Benchmark
+    public void deleteRange(TestState s) throws IOException {
+        long ledgerId = s.nextDeletedLedgerId++ % s.numLedgers;
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, 0);
+        LongPairWrapper lastKey = LongPairWrapper.get(ledgerId, Long.MAX_VALUE);
+        try (Batch batch = s.storage.newBatch()) {
+            batch.deleteRange(firstKey.array, lastKey.array);
+            batch.flush();
+        } finally {
+            firstKey.recycle();
+            lastKey.recycle();
+        }
+    }
+}